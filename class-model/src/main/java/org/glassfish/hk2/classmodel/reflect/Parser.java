@@ -40,6 +40,9 @@
 
 package org.glassfish.hk2.classmodel.reflect;
 
+import org.glassfish.hk2.classmodel.reflect.impl.ArchiveScanCache;
+import org.glassfish.hk2.classmodel.reflect.impl.ConstantPoolFilter;
+import org.glassfish.hk2.classmodel.reflect.impl.ModelRecorder;
 import org.glassfish.hk2.classmodel.reflect.impl.TypeProxy;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesCtr;
 import org.glassfish.hk2.classmodel.reflect.util.DirectoryArchive;
@@ -49,6 +52,7 @@ import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -57,6 +61,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,6 +74,13 @@ import java.util.logging.Logger;
 public class Parser implements Closeable {
 
     public static final String DEFAULT_WAIT_SYSPROP = "hk2.parser.timeout";
+
+    /**
+     * Number of class entries of one archive handed to a parsing thread at a time.
+     * Archives with fewer entries are parsed by a single thread, zero or less
+     * turns off parallel parsing inside an archive
+     */
+    public static final String BATCH_SIZE_SYSPROP = "hk2.parser.batchSize";
       
     private final ParsingContext context;
     private final Map<String, Types> processedURI = Collections.synchronizedMap(new HashMap<String, Types>());
@@ -75,17 +88,24 @@ public class Parser implements Closeable {
     private final Stack<Future<Result>> futures = new Stack<Future<Result>>();
     private final ExecutorService executorService;
     private final boolean ownES;
+    private final ArchiveScanCache scanCache;
+    private final ConstantPoolFilter prefilter;
 
     // used to safeguard between await and parse
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final int DEFAULT_TIMEOUT = Integer.getInteger(DEFAULT_WAIT_SYSPROP, 100);
+    private final int batchSize = Integer.getInteger(BATCH_SIZE_SYSPROP, 256);
     
     
     public Parser(ParsingContext context) {
         this.context = context;
         executorService = (context.executorService==null?createExecutorService():context.executorService);
         ownES = context.executorService==null;
+        scanCache = (context.cacheDirectory==null?null:new ArchiveScanCache(context.cacheDirectory));
+        Set<String> annotations = context.config.getAnnotationsOfInterest();
+        prefilter = (!context.annotationPrefilter || annotations.isEmpty() ? null :
+                new ConstantPoolFilter(annotations, context.config.getTypesOfInterest()));
     }
     
     public Exception[] awaitTermination() throws InterruptedException {
@@ -290,6 +310,7 @@ public class Parser implements Closeable {
                 logger.log(Level.FINE, "at " + System.currentTimeMillis() + "in " + this + " submitting file " + source.getURI().getPath());
                 logger.log(Level.FINE, "submitting file " + source.getURI().getPath());
             }
+            final ExecutorService batchService = es;
             Future<Result> future = es.submit(new Callable<Result>() {
                 @Override
                 public Result call() throws Exception {
@@ -301,7 +322,7 @@ public class Parser implements Closeable {
                             context.logger.log(Level.FINE, "started working at " + System.currentTimeMillis() + "in "
                                     + this + " on " + source.getURI().getPath());
                         }
-                        doJob(source, doneHook);
+                        doJob(source, doneHook, batchService);
 
                         return new Result(source.getURI().getPath(), null);
                     } catch (Exception e) {
@@ -330,7 +351,7 @@ public class Parser implements Closeable {
         this.processedURI.put(uri.getPath(), types);
     }
 
-    private void doJob(final ArchiveAdapter adapter, final Runnable doneHook) throws Exception {
+    private void doJob(final ArchiveAdapter adapter, final Runnable doneHook, ExecutorService es) throws Exception {
         final Logger logger = context.logger;
         long startTime = System.currentTimeMillis();
         if (logger.isLoggable(Level.FINE)) {
@@ -342,44 +363,408 @@ public class Parser implements Closeable {
                 logger.log(Level.FINE, "Parsing file {0}", uri.getPath());
             }
 
+            String digest = getDigest(uri);
+            List<ArchiveScanCache.CachedClass> cached = (digest==null?null:scanCache.load(digest));
+            if (cached!=null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Using the cached scan of {0}", uri.getPath());
+                }
+                for (ArchiveScanCache.CachedClass cachedClass : cached) {
+                    replay(uri, cachedClass);
+                }
+            } else {
+                ScanRecording recording = (digest==null?null:new ScanRecording());
+                parseEntries(adapter, es, recording);
+                if (recording!=null && recording.complete) {
+                    try {
+                        scanCache.store(digest, recording.classes);
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Could not cache the scan of " + uri.getPath(), e);
+                    }
+                }
+            }
+            saveResult(uri, context.getTypes());
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE,"Finished parsing " + adapter.getURI().getPath() + " at " + System.currentTimeMillis() + " in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "before running doneHook" + adapter.getURI().getPath());
+        }
+        if (doneHook != null) {
+            doneHook.run();
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "after running doneHook " + adapter.getURI().getPath());
+        }
+    }
+
+    private void parseEntries(ArchiveAdapter adapter, ExecutorService es, final ScanRecording recording) throws Exception {
+        final Logger logger = context.logger;
+        final URI uri = adapter.getURI();
+        final Prefiltering prefiltering = (prefilter==null?null:new Prefiltering(uri));
+
+        ArchiveAdapter.Selector classSelector = new ArchiveAdapter.Selector() {
+            @Override
+            public boolean isSelected(ArchiveAdapter.Entry entry) {
+                if (recording!=null && entry.name.endsWith(".jar")) {
+                    // embedded jars are parsed as archives of their own, which a cache hit would not do
+                    recording.complete = false;
+                }
+                return entry.name.endsWith(".class");
+            }
+        };
+
+        if (batchSize > 0) {
+            EntryBatcher batcher = new EntryBatcher(uri, es, recording, prefiltering);
+            try {
+                adapter.onSelectedEntries(classSelector, batcher, logger);
+            } finally {
+                batcher.finish();
+            }
+        } else {
             adapter.onSelectedEntries(
-                    new ArchiveAdapter.Selector() {
-                        @Override
-                        public boolean isSelected(ArchiveAdapter.Entry entry) {
-                            return entry.name.endsWith(".class");
-                        }
-                    },
+                    classSelector,
                     new ArchiveAdapter.EntryTask() {
                         @Override
                         public void on(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
                             if (logger.isLoggable(Level.FINER)) {
                                 logger.log(Level.FINER, "Parsing class " + entry.name);
                             }
-                            try {
-                                ClassReader cr = new ClassReader(is);
-                                cr.accept(context.getClassVisitor(uri, entry.name, true), ClassReader.SKIP_DEBUG);
-                            } catch (Throwable e) {
-                                logger.log(Level.SEVERE, "Exception while visiting " + entry.name
-                                        + " of size " + entry.size, e);
-                            }
+                            visit(uri, entry, readFully(is, entry.size), recording, prefiltering);
                         }
                     },
                     logger
             );
-            saveResult(uri, context.getTypes());
         }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE,"Finished parsing " + adapter.getURI().getPath() + " at " + System.currentTimeMillis() + " in "
-                + (System.currentTimeMillis() - startTime) + " ms");
+
+        if (prefiltering!=null) {
+            prefiltering.visitSuperTypes();
         }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, "before running doneHook" + adapter.getURI().getPath());
+    }
+
+    private void visit(URI uri, ArchiveAdapter.Entry entry, byte[] bytes, ScanRecording recording,
+                       Prefiltering prefiltering) {
+        if (prefiltering!=null && !prefiltering.accept(entry, bytes)) {
+            return;
         }
-        if (doneHook != null) {
-            doneHook.run();
+
+        try {
+            ClassReader cr = new ClassReader(bytes);
+            if (recording==null) {
+                cr.accept(context.getClassVisitor(uri, entry.name, true), ClassReader.SKIP_DEBUG);
+            } else {
+                // the model is built from the recording, so that a later cache hit builds the very same model
+                ModelRecorder recorder = new ModelRecorder();
+                cr.accept(recorder, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                byte[] recorded = recorder.toByteArray();
+
+                ModelRecorder.replay(recorded, context.getClassVisitor(uri, entry.name, true));
+                recording.classes.add(new ArchiveScanCache.CachedClass(entry.name, recorded));
+            }
+        } catch (Throwable e) {
+            if (recording!=null) {
+                recording.complete = false;
+            }
+            context.logger.log(Level.SEVERE, "Exception while visiting " + entry.name
+                    + " of size " + entry.size, e);
         }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, "after running doneHook " + adapter.getURI().getPath());
+    }
+
+    private void replay(URI uri, ArchiveScanCache.CachedClass cachedClass) {
+        try {
+            ModelRecorder.replay(cachedClass.recording, context.getClassVisitor(uri, cachedClass.entryName, true));
+        } catch (Throwable e) {
+            context.logger.log(Level.SEVERE, "Exception while visiting cached " + cachedClass.entryName, e);
+        }
+    }
+
+    /**
+     * Returns the digest of the archive when its scan can be cached, only jar
+     * files are cached since directories are usually what is being worked on
+     */
+    private String getDigest(URI uri) {
+        if (scanCache==null || prefilter!=null || !"file".equals(uri.getScheme())) return null;
+
+        File archive = new File(uri);
+        if (!archive.isFile()) return null;
+
+        try {
+            return scanCache.digest(archive);
+        } catch (IOException e) {
+            context.logger.log(Level.FINE, "Cannot compute the digest of " + archive, e);
+            return null;
+        }
+    }
+
+    private static byte[] readFully(InputStream is, long sizeHint) throws IOException {
+        byte[] buffer = new byte[sizeHint > 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : 8192];
+        int length = 0;
+        int read;
+        while ((read = is.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                int next = is.read();
+                if (next == -1) break;
+
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length++] = (byte) next;
+            }
+        }
+        return (length == buffer.length) ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Reads the class entries of one archive on the archive thread and hands
+     * them out in batches to the parsing threads.  The archive thread parses
+     * batches itself when nobody else picks them up, so a busy or single
+     * threaded executor service cannot stall the parsing of an archive, and
+     * also when too many batches are waiting so the archive is never held
+     * in memory as a whole
+     */
+    private class EntryBatcher implements ArchiveAdapter.EntryTask, Runnable {
+        private final URI uri;
+        private final ExecutorService es;
+        private final ScanRecording recording;
+        private final Prefiltering prefiltering;
+        private final int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        private final LinkedList<List<ReadEntry>> pending = new LinkedList<List<ReadEntry>>();
+        private List<ReadEntry> current = new ArrayList<ReadEntry>(batchSize);
+        private int active;
+
+        private EntryBatcher(URI uri, ExecutorService es, ScanRecording recording, Prefiltering prefiltering) {
+            this.uri = uri;
+            this.es = es;
+            this.recording = recording;
+            this.prefiltering = prefiltering;
+        }
+
+        @Override
+        public void on(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
+            current.add(new ReadEntry(entry, readFully(is, entry.size)));
+            if (current.size() < batchSize) return;
+
+            List<ReadEntry> batch = current;
+            current = new ArrayList<ReadEntry>(batchSize);
+
+            boolean tooMany;
+            synchronized (this) {
+                pending.add(batch);
+                tooMany = pending.size() > maxPending;
+            }
+
+            if (tooMany) {
+                parseNextBatch();
+            }
+            else {
+                try {
+                    es.submit(this);
+                }
+                catch (RejectedExecutionException ree) {
+                    // the archive thread will get to it in finish
+                }
+            }
+        }
+
+        /**
+         * Run by the parsing threads, takes batches until there are none left
+         */
+        @Override
+        public void run() {
+            while (parseNextBatch()) {
+                // keep going
+            }
+        }
+
+        private boolean parseNextBatch() {
+            List<ReadEntry> batch;
+            synchronized (this) {
+                batch = pending.poll();
+                if (batch == null) return false;
+                active++;
+            }
+
+            try {
+                for (ReadEntry readEntry : batch) {
+                    if (context.logger.isLoggable(Level.FINER)) {
+                        context.logger.log(Level.FINER, "Parsing class " + readEntry.entry.name);
+                    }
+                    visit(uri, readEntry.entry, readEntry.bytes, recording, prefiltering);
+                }
+            }
+            finally {
+                synchronized (this) {
+                    active--;
+                    if (active == 0) notifyAll();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses whatever is left on the archive thread and waits for the
+         * batches other threads are still parsing
+         */
+        private void finish() throws InterruptedException {
+            if (!current.isEmpty()) {
+                synchronized (this) {
+                    pending.add(current);
+                }
+                current = new ArrayList<ReadEntry>(0);
+            }
+
+            run();
+
+            synchronized (this) {
+                while (active > 0) {
+                    wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the classes of an archive the prefilter let through and
+     * of those it left out, so that the super types of the former can be
+     * visited once the whole archive has been seen.  Left out classes are
+     * read again from jar files and directories, their bytes are only kept
+     * for archives that cannot be read twice
+     */
+    private class Prefiltering {
+        private final URI uri;
+        private final boolean keepBytes;
+        private final Set<String> visited = new HashSet<String>();
+        private final Map<String, SkippedClass> skipped = new HashMap<String, SkippedClass>();
+        private final LinkedList<String> superTypes = new LinkedList<String>();
+        private JarFile jar;
+
+        private Prefiltering(URI uri) {
+            this.uri = uri;
+            this.keepBytes = !"file".equals(uri.getScheme());
+        }
+
+        /**
+         * Returns true if the class has to be visited
+         */
+        private boolean accept(ArchiveAdapter.Entry entry, byte[] bytes) {
+            ConstantPoolFilter.Summary summary = prefilter.scan(bytes);
+            if (summary==null) {
+                // not something the filter understands, let ASM have a look
+                return true;
+            }
+
+            synchronized (this) {
+                if (summary.matches) {
+                    visited.add(summary.name);
+                    addSuperTypes(summary);
+                }
+                else {
+                    skipped.put(summary.name, new SkippedClass(entry, summary, keepBytes ? bytes : null));
+                }
+            }
+            return summary.matches;
+        }
+
+        private void addSuperTypes(ConstantPoolFilter.Summary summary) {
+            if (summary.superName!=null) {
+                superTypes.add(summary.superName);
+            }
+            superTypes.addAll(Arrays.asList(summary.interfaces));
+        }
+
+        private synchronized SkippedClass nextSuperType() {
+            String name;
+            while ((name = superTypes.poll())!=null) {
+                SkippedClass skippedClass = skipped.remove(name);
+                if (skippedClass!=null && visited.add(name)) {
+                    addSuperTypes(skippedClass.summary);
+                    return skippedClass;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Visits the classes of this archive the visited classes extend or
+         * implement, super types from other archives stay unvisited references
+         */
+        private void visitSuperTypes() throws IOException {
+            try {
+                SkippedClass skippedClass;
+                while ((skippedClass = nextSuperType())!=null) {
+                    byte[] bytes = skippedClass.bytes;
+                    if (bytes==null) {
+                        bytes = read(skippedClass.entry.name);
+                    }
+                    if (bytes!=null) {
+                        visit(uri, skippedClass.entry, bytes, null, null);
+                    }
+                }
+            } finally {
+                if (jar!=null) {
+                    jar.close();
+                }
+            }
+        }
+
+        private byte[] read(String entryName) throws IOException {
+            File archive = new File(uri);
+            InputStream is;
+            long size;
+            if (archive.isDirectory()) {
+                File file = new File(archive, entryName);
+                if (!file.isFile()) return null;
+
+                is = new FileInputStream(file);
+                size = file.length();
+            } else {
+                if (jar==null) {
+                    jar = new JarFile(archive);
+                }
+                JarEntry jarEntry = jar.getJarEntry(entryName);
+                if (jarEntry==null) return null;
+
+                is = jar.getInputStream(jarEntry);
+                size = jarEntry.getSize();
+            }
+
+            try {
+                return readFully(is, size);
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    private static class SkippedClass {
+        private final ArchiveAdapter.Entry entry;
+        private final ConstantPoolFilter.Summary summary;
+        private final byte[] bytes;
+
+        private SkippedClass(ArchiveAdapter.Entry entry, ConstantPoolFilter.Summary summary, byte[] bytes) {
+            this.entry = entry;
+            this.summary = summary;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The recordings of the classes of an archive that is going to be cached
+     */
+    private static class ScanRecording {
+        private final List<ArchiveScanCache.CachedClass> classes =
+                Collections.synchronizedList(new ArrayList<ArchiveScanCache.CachedClass>());
+        private volatile boolean complete = true;
+    }
+
+    private static class ReadEntry {
+        private final ArchiveAdapter.Entry entry;
+        private final byte[] bytes;
+
+        private ReadEntry(ArchiveAdapter.Entry entry, byte[] bytes) {
+            this.entry = entry;
+            this.bytes = bytes;
         }
     }
 
@@ -395,11 +780,10 @@ public class Parser implements Closeable {
     }
 
     private ExecutorService createExecutorService() {
-        // TODO: may have to dumb this down since there appears to be issues in ZipFile processing when there is contention on the same file or directory
-        // FIXME: anything other than 1 is not stable since the class-model framework is not thread safe (visitors are shared)
-//        Runtime runtime = Runtime.getRuntime();
-//        int nbOfProcessors = runtime.availableProcessors();
-        int nbOfProcessors = 1;
+        // Each archive is still read by a single thread, the other threads parse
+        // the class entries it hands out and work on other archives
+        Runtime runtime = Runtime.getRuntime();
+        int nbOfProcessors = runtime.availableProcessors();
         
         return Executors.newFixedThreadPool(nbOfProcessors, new ThreadFactory() {
             @Override
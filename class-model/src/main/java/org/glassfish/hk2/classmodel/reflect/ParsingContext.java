@@ -49,6 +49,7 @@ import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
 import org.glassfish.hk2.classmodel.reflect.util.ResourceLocator;
 import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -73,6 +74,8 @@ public class ParsingContext {
         ArchiveSelector archiveSelector=null;
         ParsingConfig config=null;
         ResourceLocator locator=null;
+        File cacheDirectory=null;
+        boolean annotationPrefilter=false;
 
         /**
          * Returns the configured or default logger for the class-model library.
@@ -154,6 +157,37 @@ public class ParsingContext {
             return this;
         }
 
+        /**
+         * Sets the directory used to cache the parsing results of jar files
+         * between runs. A jar whose content did not change since it was cached
+         * is not read again, its types are added to the model from the cache.
+         * By default nothing is cached.
+         *
+         * @param directory the cache directory, created if needed
+         * @return itself
+         */
+        public Builder cacheDirectory(File directory) {
+            this.cacheDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Turns on the annotation prefilter. Classes are then only visited
+         * when their constant pool mentions one of the annotations (or types)
+         * of interest of the {@link ParsingConfig}, together with the super
+         * classes and interfaces of those classes found in the same archive.
+         * All other classes are left out of the model. The prefilter has no
+         * effect when there are no annotations of interest, and archives are
+         * not cached while it is on.
+         *
+         * @param prefilter true to only visit the classes of interest
+         * @return itself
+         */
+        public Builder annotationPrefilter(boolean prefilter) {
+            this.annotationPrefilter = prefilter;
+            return this;
+        }
+
         /**
          * Build the final ParsingContext with the provided configuration.
          *
@@ -172,6 +206,8 @@ public class ParsingContext {
     final Logger logger;
     final ParsingConfig config;
     final ResourceLocator locator;
+    final File cacheDirectory;
+    final boolean annotationPrefilter;
 
     private ParsingContext(Builder builder) {
 //        Runtime runtime = Runtime.getRuntime();
@@ -179,6 +215,8 @@ public class ParsingContext {
         this.archiveSelector = builder.archiveSelector;
         this.logger = builder.logger;
         this.locator = builder.locator;
+        this.cacheDirectory = builder.cacheDirectory;
+        this.annotationPrefilter = builder.annotationPrefilter;
         this.config = builder.config!=null?builder.config:new ParsingConfig() {
             final Set<String> emptyList = Collections.emptySet();
             @Override
@@ -0,0 +1,228 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An on-disk cache of the {@link ModelRecorder recordings} of the classes
+ * of archives, so that an archive that was parsed before does not have
+ * its classes read again.  Archives are identified by a digest of their
+ * content, so a copy of an unchanged library at another place or with
+ * another time stamp, as happens on a redeployment, is found as well.
+ * <p>
+ * Each archive is kept in its own file named after its digest:
+ * <pre>
+ * int magic, int version, int count
+ * count times: int nameLength, UTF-8 entry name, int length, recording
+ * </pre>
+ * A file that cannot be read is treated as a miss
+ *
+ * @author jwells
+ */
+public class ArchiveScanCache {
+    private static final int MAGIC = 0x484B3243; // HK2C
+    private static final int VERSION = 1;
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final String SUFFIX = ".scan";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String UTF8 = "UTF-8";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+
+    /**
+     * A cache kept in the given directory
+     *
+     * @param directory The directory to keep the cache files in.  It is
+     * created when the first archive is stored
+     */
+    public ArchiveScanCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Computes the digest identifying the content of an archive
+     *
+     * @param archive The archive file
+     * @return The digest of the archive as a hex string
+     * @throws IOException if the archive could not be read
+     */
+    public String digest(File archive) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        InputStream is = new FileInputStream(archive);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        byte[] digest = md.digest();
+        char[] retVal = new char[2 * digest.length];
+        for (int lcv = 0; lcv < digest.length; lcv++) {
+            retVal[2 * lcv] = HEX[(digest[lcv] >> 4) & 0xF];
+            retVal[2 * lcv + 1] = HEX[digest[lcv] & 0xF];
+        }
+        return new String(retVal);
+    }
+
+    /**
+     * Gets the recordings of the classes of an archive
+     *
+     * @param digest The digest of the archive from {@link #digest(File)}
+     * @return The recordings of all the classes of the archive, or null
+     * if this archive is not in the cache
+     */
+    public List<CachedClass> load(String digest) {
+        File file = getFile(digest);
+        if (!file.isFile()) return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    // some other file or an older format
+                    return null;
+                }
+
+                int count = in.readInt();
+                List<CachedClass> retVal = new ArrayList<CachedClass>(count);
+                for (int lcv = 0; lcv < count; lcv++) {
+                    byte[] name = new byte[in.readInt()];
+                    in.readFully(name);
+
+                    byte[] recording = new byte[in.readInt()];
+                    in.readFully(recording);
+
+                    retVal.add(new CachedClass(new String(name, UTF8), recording));
+                }
+                return retVal;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a truncated or otherwise unusable file, parse the archive again
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the recordings of the classes of an archive
+     *
+     * @param digest The digest of the archive from {@link #digest(File)}
+     * @param classes The recordings of all the classes of the archive
+     * @throws IOException if the cache file could not be written
+     */
+    public void store(String digest, Collection<CachedClass> classes) throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        File file = getFile(digest);
+        File temp = new File(directory, digest + TEMP_SUFFIX + Thread.currentThread().getId());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(classes.size());
+            for (CachedClass cachedClass : classes) {
+                byte[] name = cachedClass.entryName.getBytes(UTF8);
+
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(cachedClass.recording.length);
+                out.write(cachedClass.recording);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not write archive scan cache " + file);
+            }
+        }
+    }
+
+    private File getFile(String digest) {
+        return new File(directory, digest + SUFFIX);
+    }
+
+    /**
+     * The recording of one class of an archive
+     */
+    public static class CachedClass {
+        public final String entryName;
+        public final byte[] recording;
+
+        public CachedClass(String entryName, byte[] recording) {
+            this.entryName = entryName;
+            this.recording = recording;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides whether a class is worth visiting by looking through the constant
+ * pool of its class file for the names of the annotations (or types) of
+ * interest, without building any visitor.  Any use of an annotation on the
+ * class or its members puts its descriptor into the constant pool, so a
+ * class without any of them in there cannot carry any of them.
+ * <p>
+ * The scan also picks up the names of the super class and interfaces of the
+ * class, which lets the parser find the super types of the classes it does
+ * visit.  Instances are immutable and can be shared between threads
+ *
+ * @author jwells
+ */
+public class ConstantPoolFilter {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /** The targets in UTF-8, indexed by their length */
+    private final byte[][][] targetsByLength;
+
+    /**
+     * Creates a filter for the given annotations and types
+     *
+     * @param annotations The class names of the annotations of interest
+     * @param types The class names of other types a class should mention
+     * to be of interest, may be empty
+     */
+    public ConstantPoolFilter(Collection<String> annotations, Collection<String> types) {
+        List<String> targets = new ArrayList<String>();
+        for (String annotation : annotations) {
+            String internalName = annotation.replace('.', '/');
+
+            // the descriptor is what annotations use, the name itself is in the annotation's own class file
+            targets.add("L" + internalName + ";");
+            targets.add(internalName);
+        }
+        for (String type : types) {
+            targets.add(type.replace('.', '/'));
+        }
+
+        int maxLength = 0;
+        List<byte[]> encoded = new ArrayList<byte[]>(targets.size());
+        for (String target : targets) {
+            byte[] utf8 = toUTF8(target);
+            encoded.add(utf8);
+            maxLength = Math.max(maxLength, utf8.length);
+        }
+
+        int[] counts = new int[maxLength + 1];
+        for (byte[] utf8 : encoded) {
+            counts[utf8.length]++;
+        }
+
+        targetsByLength = new byte[maxLength + 1][][];
+        for (byte[] utf8 : encoded) {
+            byte[][] sameLength = targetsByLength[utf8.length];
+            if (sameLength == null) {
+                sameLength = new byte[counts[utf8.length]][];
+                targetsByLength[utf8.length] = sameLength;
+                counts[utf8.length] = 0;
+            }
+            sameLength[counts[utf8.length]++] = utf8;
+        }
+    }
+
+    private static byte[] toUTF8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Scans a class file
+     *
+     * @param classFile The bytes of the class file
+     * @return What was found in the class file, or null if these bytes
+     * are not a class file this filter understands
+     */
+    public Summary scan(byte[] classFile) {
+        try {
+            return doScan(classFile);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // truncated
+            return null;
+        }
+    }
+
+    private Summary doScan(byte[] b) {
+        if (readInt(b, 0) != MAGIC) return null;
+
+        int count = readUnsignedShort(b, 8);
+        int[] utf8Offsets = new int[count];
+        int[] classNameIndexes = new int[count];
+        boolean matches = false;
+
+        int offset = 10;
+        for (int index = 1; index < count; index++) {
+            int tag = b[offset];
+            switch (tag) {
+            case CONSTANT_UTF8:
+                int length = readUnsignedShort(b, offset + 1);
+                utf8Offsets[index] = offset;
+                if (!matches && isTarget(b, offset + 3, length)) {
+                    matches = true;
+                }
+                offset += 3 + length;
+                break;
+            case CONSTANT_CLASS:
+                classNameIndexes[index] = readUnsignedShort(b, offset + 1);
+                offset += 3;
+                break;
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                offset += 3;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                offset += 4;
+                break;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                offset += 5;
+                break;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                offset += 9;
+                index++;
+                break;
+            default:
+                // a constant this filter does not know, leave it to ASM
+                return null;
+            }
+        }
+
+        // access flags, then this class, super class and the interfaces
+        String name = getClassName(b, utf8Offsets, classNameIndexes, readUnsignedShort(b, offset + 2));
+        String superName = getClassName(b, utf8Offsets, classNameIndexes, readUnsignedShort(b, offset + 4));
+        int numInterfaces = readUnsignedShort(b, offset + 6);
+        String[] interfaces = new String[numInterfaces];
+        for (int lcv = 0; lcv < numInterfaces; lcv++) {
+            interfaces[lcv] = getClassName(b, utf8Offsets, classNameIndexes, readUnsignedShort(b, offset + 8 + 2 * lcv));
+        }
+
+        return new Summary(matches, name, superName, interfaces);
+    }
+
+    private boolean isTarget(byte[] b, int start, int length) {
+        if (length >= targetsByLength.length) return false;
+
+        byte[][] candidates = targetsByLength[length];
+        if (candidates == null) return false;
+
+        for (byte[] candidate : candidates) {
+            boolean same = true;
+            for (int lcv = length - 1; lcv >= 0; lcv--) {
+                // compared from the end, where names usually differ
+                if (candidate[lcv] != b[start + lcv]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) return true;
+        }
+        return false;
+    }
+
+    private static String getClassName(byte[] b, int[] utf8Offsets, int[] classNameIndexes, int classIndex) {
+        if (classIndex == 0) return null;
+
+        int utf8Offset = utf8Offsets[classNameIndexes[classIndex]];
+        int length = readUnsignedShort(b, utf8Offset + 1);
+        try {
+            // class names never use the encodings where modified UTF-8 differs
+            return new String(b, utf8Offset + 3, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int readUnsignedShort(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) |
+                ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    /**
+     * What a scan found out about a class
+     */
+    public static class Summary {
+        /** True if the class mentions one of the annotations or types of interest */
+        public final boolean matches;
+        /** The internal name of the class */
+        public final String name;
+        /** The internal name of the super class, null for java.lang.Object */
+        public final String superName;
+        /** The internal names of the interfaces */
+        public final String[] interfaces;
+
+        private Summary(boolean matches, String name, String superName, String[] interfaces) {
+            this.matches = matches;
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.glassfish.hk2.external.org.objectweb.asm.Type;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the parts of a class file the model is built from (the class
+ * header, annotations, fields and methods, but no code) in a compact
+ * binary form, and replays such a recording into any class visitor as
+ * if the class file itself was read.  The recording does not depend on
+ * the parsing configuration, which is only applied when it is replayed
+ *
+ * @author jwells
+ */
+public class ModelRecorder extends ClassVisitor {
+    private static final int END = 0;
+    private static final int ANNOTATION = 1;
+    private static final int FIELD = 2;
+    private static final int METHOD = 3;
+    private static final int ANNOTATION_DEFAULT = 4;
+    private static final int PARAMETER_ANNOTATION = 5;
+    private static final int VALUE = 6;
+    private static final int ENUM = 7;
+    private static final int ARRAY = 8;
+
+    private static final int NULL_LENGTH = -1;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final AnnotationRecorder annotationRecorder = new AnnotationRecorder();
+    private final FieldRecorder fieldRecorder = new FieldRecorder();
+    private final MethodRecorder methodRecorder = new MethodRecorder();
+
+    public ModelRecorder() {
+        super(Opcodes.ASM6);
+    }
+
+    /**
+     * Returns what was recorded so far, a complete recording once
+     * the class has been visited to its end
+     *
+     * @return the recording
+     */
+    public byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        writeInt(version);
+        writeInt(access);
+        writeString(name);
+        writeString(signature);
+        writeString(superName);
+        writeStrings(interfaces);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        writeByte(ANNOTATION);
+        writeString(desc);
+        writeBoolean(visible);
+        return annotationRecorder;
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        writeByte(FIELD);
+        writeInt(access);
+        writeString(name);
+        writeString(desc);
+        writeString(signature);
+        return fieldRecorder;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        writeByte(METHOD);
+        writeInt(access);
+        writeString(name);
+        writeString(desc);
+        writeString(signature);
+        writeStrings(exceptions);
+        return methodRecorder;
+    }
+
+    @Override
+    public void visitEnd() {
+        writeByte(END);
+    }
+
+    private class AnnotationRecorder extends AnnotationVisitor {
+        private AnnotationRecorder() {
+            super(Opcodes.ASM6);
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            writeByte(VALUE);
+            writeString(name);
+            writeValue(value);
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value) {
+            writeByte(ENUM);
+            writeString(name);
+            writeString(desc);
+            writeString(value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            writeByte(ANNOTATION);
+            writeString(name);
+            writeString(desc);
+            return this;
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            writeByte(ARRAY);
+            writeString(name);
+            return this;
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(END);
+        }
+    }
+
+    private class FieldRecorder extends FieldVisitor {
+        private FieldRecorder() {
+            super(Opcodes.ASM6);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            writeByte(ANNOTATION);
+            writeString(desc);
+            writeBoolean(visible);
+            return annotationRecorder;
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(END);
+        }
+    }
+
+    private class MethodRecorder extends MethodVisitor {
+        private MethodRecorder() {
+            super(Opcodes.ASM6);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            writeByte(ANNOTATION_DEFAULT);
+            return annotationRecorder;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            writeByte(ANNOTATION);
+            writeString(desc);
+            writeBoolean(visible);
+            return annotationRecorder;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+            writeByte(PARAMETER_ANNOTATION);
+            writeInt(parameter);
+            writeString(desc);
+            writeBoolean(visible);
+            return annotationRecorder;
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(END);
+        }
+    }
+
+    /**
+     * Replays a recording into the given visitor
+     *
+     * @param recording a recording made by a {@link ModelRecorder}
+     * @param cv the visitor to replay the recorded class into
+     * @throws IOException if the recording is not complete
+     */
+    public static void replay(byte[] recording, ClassVisitor cv) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(recording));
+
+        int version = in.readInt();
+        int access = in.readInt();
+        String name = readString(in);
+        String signature = readString(in);
+        String superName = readString(in);
+        String[] interfaces = readStrings(in);
+        cv.visit(version, access, name, signature, superName, interfaces);
+
+        int tag;
+        while ((tag = in.readByte()) != END) {
+            switch (tag) {
+            case ANNOTATION:
+                String desc = readString(in);
+                replayAnnotation(in, cv.visitAnnotation(desc, in.readBoolean()));
+                break;
+            case FIELD:
+                replayField(in, cv.visitField(in.readInt(), readString(in), readString(in), readString(in), null));
+                break;
+            case METHOD:
+                replayMethod(in, cv.visitMethod(in.readInt(), readString(in), readString(in), readString(in), readStrings(in)));
+                break;
+            default:
+                throw new IOException("Unknown class recording tag " + tag);
+            }
+        }
+
+        cv.visitEnd();
+    }
+
+    private static void replayField(DataInputStream in, FieldVisitor fv) throws IOException {
+        int tag;
+        while ((tag = in.readByte()) != END) {
+            if (tag != ANNOTATION) throw new IOException("Unknown field recording tag " + tag);
+
+            String desc = readString(in);
+            boolean visible = in.readBoolean();
+            replayAnnotation(in, (fv == null) ? null : fv.visitAnnotation(desc, visible));
+        }
+
+        if (fv != null) fv.visitEnd();
+    }
+
+    private static void replayMethod(DataInputStream in, MethodVisitor mv) throws IOException {
+        int tag;
+        while ((tag = in.readByte()) != END) {
+            switch (tag) {
+            case ANNOTATION_DEFAULT:
+                replayAnnotation(in, (mv == null) ? null : mv.visitAnnotationDefault());
+                break;
+            case ANNOTATION:
+                String desc = readString(in);
+                boolean visible = in.readBoolean();
+                replayAnnotation(in, (mv == null) ? null : mv.visitAnnotation(desc, visible));
+                break;
+            case PARAMETER_ANNOTATION:
+                int parameter = in.readInt();
+                String parameterDesc = readString(in);
+                boolean parameterVisible = in.readBoolean();
+                replayAnnotation(in, (mv == null) ? null : mv.visitParameterAnnotation(parameter, parameterDesc, parameterVisible));
+                break;
+            default:
+                throw new IOException("Unknown method recording tag " + tag);
+            }
+        }
+
+        if (mv != null) mv.visitEnd();
+    }
+
+    /**
+     * Reads one annotation (or array) up to its end, the events are dropped
+     * when the visitor is null just like ASM does
+     */
+    private static void replayAnnotation(DataInputStream in, AnnotationVisitor av) throws IOException {
+        int tag;
+        while ((tag = in.readByte()) != END) {
+            String name = readString(in);
+            switch (tag) {
+            case VALUE:
+                Object value = readValue(in);
+                if (av != null) av.visit(name, value);
+                break;
+            case ENUM:
+                String desc = readString(in);
+                String value2 = readString(in);
+                if (av != null) av.visitEnum(name, desc, value2);
+                break;
+            case ANNOTATION:
+                String nestedDesc = readString(in);
+                replayAnnotation(in, (av == null) ? null : av.visitAnnotation(name, nestedDesc));
+                break;
+            case ARRAY:
+                replayAnnotation(in, (av == null) ? null : av.visitArray(name));
+                break;
+            default:
+                throw new IOException("Unknown annotation recording tag " + tag);
+            }
+        }
+
+        if (av != null) av.visitEnd();
+    }
+
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            // cannot happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    private void writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeString(String value) {
+        try {
+            writeString(out, value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeStrings(String[] values) {
+        if (values == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+
+        writeInt(values.length);
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Strings are written as an int length and UTF-8 bytes since, unlike
+     * {@link DataOutputStream#writeUTF(String)}, that has no size limit
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+
+        byte[] utf8 = value.getBytes("UTF-8");
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) return null;
+
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, "UTF-8");
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) return null;
+
+        String[] retVal = new String[length];
+        for (int lcv = 0; lcv < length; lcv++) {
+            retVal[lcv] = readString(in);
+        }
+        return retVal;
+    }
+
+    /**
+     * The values are those ASM hands to {@link AnnotationVisitor#visit(String, Object)}:
+     * boxed primitives, strings, types and arrays of primitives
+     */
+    private void writeValue(Object value) {
+        try {
+            if (value instanceof String) {
+                out.writeByte('s');
+                writeString(out, (String) value);
+            } else if (value instanceof Type) {
+                out.writeByte('T');
+                writeString(out, ((Type) value).getDescriptor());
+            } else if (value instanceof Integer) {
+                out.writeByte('I');
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte('J');
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte('Z');
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Byte) {
+                out.writeByte('B');
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte('C');
+                out.writeChar((Character) value);
+            } else if (value instanceof Short) {
+                out.writeByte('S');
+                out.writeShort((Short) value);
+            } else if (value instanceof Float) {
+                out.writeByte('F');
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte('D');
+                out.writeDouble((Double) value);
+            } else if (value instanceof byte[]) {
+                byte[] array = (byte[]) value;
+                out.writeByte('b');
+                out.writeInt(array.length);
+                out.write(array);
+            } else if (value instanceof boolean[]) {
+                boolean[] array = (boolean[]) value;
+                out.writeByte('z');
+                out.writeInt(array.length);
+                for (boolean element : array) out.writeBoolean(element);
+            } else if (value instanceof char[]) {
+                char[] array = (char[]) value;
+                out.writeByte('c');
+                out.writeInt(array.length);
+                for (char element : array) out.writeChar(element);
+            } else if (value instanceof short[]) {
+                short[] array = (short[]) value;
+                out.writeByte('h');
+                out.writeInt(array.length);
+                for (short element : array) out.writeShort(element);
+            } else if (value instanceof int[]) {
+                int[] array = (int[]) value;
+                out.writeByte('i');
+                out.writeInt(array.length);
+                for (int element : array) out.writeInt(element);
+            } else if (value instanceof long[]) {
+                long[] array = (long[]) value;
+                out.writeByte('j');
+                out.writeInt(array.length);
+                for (long element : array) out.writeLong(element);
+            } else if (value instanceof float[]) {
+                float[] array = (float[]) value;
+                out.writeByte('f');
+                out.writeInt(array.length);
+                for (float element : array) out.writeFloat(element);
+            } else if (value instanceof double[]) {
+                double[] array = (double[]) value;
+                out.writeByte('d');
+                out.writeInt(array.length);
+                for (double element : array) out.writeDouble(element);
+            } else {
+                throw new IllegalArgumentException("Unexpected annotation value " + value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int kind = in.readByte();
+        switch (kind) {
+        case 's': return readString(in);
+        case 'T': return Type.getType(readString(in));
+        case 'I': return in.readInt();
+        case 'J': return in.readLong();
+        case 'Z': return in.readBoolean();
+        case 'B': return in.readByte();
+        case 'C': return in.readChar();
+        case 'S': return in.readShort();
+        case 'F': return in.readFloat();
+        case 'D': return in.readDouble();
+        default:
+            break;
+        }
+
+        int length = in.readInt();
+        switch (kind) {
+        case 'b': {
+            byte[] array = new byte[length];
+            in.readFully(array);
+            return array;
+        }
+        case 'z': {
+            boolean[] array = new boolean[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readBoolean();
+            return array;
+        }
+        case 'c': {
+            char[] array = new char[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readChar();
+            return array;
+        }
+        case 'h': {
+            short[] array = new short[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readShort();
+            return array;
+        }
+        case 'i': {
+            int[] array = new int[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readInt();
+            return array;
+        }
+        case 'j': {
+            long[] array = new long[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readLong();
+            return array;
+        }
+        case 'f': {
+            float[] array = new float[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readFloat();
+            return array;
+        }
+        case 'd': {
+            double[] array = new double[length];
+            for (int lcv = 0; lcv < length; lcv++) array[lcv] = in.readDouble();
+            return array;
+        }
+        default:
+            throw new IOException("Unknown annotation value kind " + kind);
+        }
+    }
+}
@@ -77,25 +77,30 @@ public class TypesCtr implements Types {
     public TypeProxy<Type> getHolder(String name) {
         if (name.equals("java.lang.Object")) return null;
         // we look first in our storage pools.
-        for (Map<String, TypeProxy<Type>> map : storage.values()) {
-            TypeProxy<Type> proxy = map.get(name);
-            if (proxy!=null) {
-                return proxy;
-            }
+        TypeProxy<Type> proxy = getStoredHolder(name);
+        if (proxy!=null) {
+            return proxy;
         }
         // ok let's look in our unknown storage pool.
-        if (unknownTypesStorage.containsKey(name)) {
-            return unknownTypesStorage.get(name);
+        proxy = unknownTypesStorage.get(name);
+        if (proxy!=null) {
+            return proxy;
         }
-        // ok we don't have and since we don't know its type
-        // let's put it in the unknown storage pool.
-        TypeProxy<Type> typeProxy = new TypeProxy<Type>(null, name);
-        TypeProxy<Type> old = unknownTypesStorage.putIfAbsent(name, typeProxy);
-        if (old==null) {
-            nonVisited.push(typeProxy);
-            return typeProxy;
+        synchronized(unknownTypesStorage) {
+            // another parsing thread may have stored it while we were looking
+            proxy = getStoredHolder(name);
+            if (proxy==null) {
+                proxy = unknownTypesStorage.get(name);
+            }
+            if (proxy==null) {
+                // ok we don't have and since we don't know its type
+                // let's put it in the unknown storage pool.
+                proxy = new TypeProxy<Type>(null, name);
+                unknownTypesStorage.put(name, proxy);
+                nonVisited.push(proxy);
+            }
+            return proxy;
         }
-        return old;
     }
 
     public <T extends Type> TypeProxy<Type> getHolder(String name, Class<T> type) {
@@ -110,34 +115,34 @@ public class TypesCtr implements Types {
             }
         }
         TypeProxy<Type> typeProxy = typeStorage.get(name);
-        if (typeProxy ==null) {
-            // in our unknown type pool ? 
-            TypeProxy<Type> tmp = unknownTypesStorage.get(name);
-            // in our unknown type pool ?
-            if (tmp!=null) {
-                synchronized (unknownTypesStorage) {
-                    typeProxy = unknownTypesStorage.remove(name);
-                    if (typeProxy == null) { 
-                        typeProxy = tmp; 
-                     }
-                }
-                if (typeProxy!=null) {
-                    TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                    if (old!=null) {
-                        typeProxy = old;
-                    }
-                }
-            } else {
-                typeProxy = new TypeProxy<Type>(null, name);
-                TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                if (old==null) {
+        if (typeProxy!=null) {
+            return typeProxy;
+        }
+        // moving a proxy out of the unknown pool must be atomic, otherwise two
+        // parsing threads can each end up with their own proxy for the same type
+        synchronized(unknownTypesStorage) {
+            typeProxy = typeStorage.get(name);
+            if (typeProxy==null) {
+                // in our unknown type pool ?
+                typeProxy = unknownTypesStorage.remove(name);
+                if (typeProxy==null) {
+                    typeProxy = new TypeProxy<Type>(null, name);
                     nonVisited.push(typeProxy);
-                } else {
-                    typeProxy=old;
                 }
+                typeStorage.put(name, typeProxy);
             }
+            return typeProxy;
         }
-        return typeProxy;
+    }
+
+    private TypeProxy<Type> getStoredHolder(String name) {
+        for (Map<String, TypeProxy<Type>> map : storage.values()) {
+            TypeProxy<Type> proxy = map.get(name);
+            if (proxy!=null) {
+                return proxy;
+            }
+        }
+        return null;
     }
 
     public interface ProxyTask {
@@ -0,0 +1,389 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.test.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotatedElement;
+import org.glassfish.hk2.classmodel.reflect.AnnotationModel;
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.ExtensibleType;
+import org.glassfish.hk2.classmodel.reflect.FieldModel;
+import org.glassfish.hk2.classmodel.reflect.InterfaceModel;
+import org.glassfish.hk2.classmodel.reflect.MethodModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Type;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.classmodel.reflect.test.method.SimpleAnnotatedMethod;
+import org.glassfish.hk2.classmodel.reflect.test.method.SomeAnnotation;
+import org.glassfish.hk2.classmodel.reflect.test.model.AsynchronousPaymentProcessor;
+import org.glassfish.hk2.classmodel.reflect.test.model.Payment;
+import org.glassfish.hk2.classmodel.reflect.test.model.PaymentHandler;
+import org.glassfish.hk2.classmodel.reflect.test.model.PaymentProcessor;
+import org.glassfish.hk2.classmodel.reflect.test.model.SecurePaymentProcessor;
+import org.glassfish.hk2.classmodel.reflect.test.model.SynchronousPaymentProcessor;
+import org.glassfish.hk2.classmodel.reflect.test.model.qualifier.Asynchronous;
+import org.glassfish.hk2.classmodel.reflect.test.model.qualifier.Synchronous;
+import org.glassfish.hk2.classmodel.reflect.test.parameterized.GenericRouteBuilder;
+import org.glassfish.hk2.classmodel.reflect.test.parameterized.PathPattern;
+import org.glassfish.hk2.classmodel.reflect.test.parameterized.PathRouteBuilder;
+import org.glassfish.hk2.classmodel.reflect.test.parameterized.Pattern;
+import org.glassfish.hk2.classmodel.reflect.test.parameterized.RouteBuilder;
+import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the scan cache enabled with
+ * {@link ParsingContext.Builder#cacheDirectory(File)}
+ *
+ * @author jwells
+ */
+public class ScanCacheTest {
+    private static final String CACHED_MESSAGE = "Using the cached scan of {0}";
+
+    private static final Class<?>[] CLASSES = {
+        SimpleAnnotatedMethod.class,
+        SomeAnnotation.class,
+        AsynchronousPaymentProcessor.class,
+        Payment.class,
+        PaymentHandler.class,
+        PaymentProcessor.class,
+        SecurePaymentProcessor.class,
+        SynchronousPaymentProcessor.class,
+        Asynchronous.class,
+        Synchronous.class,
+        GenericRouteBuilder.class,
+        PathPattern.class,
+        PathRouteBuilder.class,
+        Pattern.class,
+        RouteBuilder.class
+    };
+
+    private File directory;
+    private File cacheDirectory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("scan", "cache");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+
+        cacheDirectory = new File(directory, "cache");
+    }
+
+    @After
+    public void after() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void createJar(File jar, int numClasses) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (int lcv = 0; lcv < numClasses; lcv++) {
+                Class<?> clazz = CLASSES[lcv];
+                String entryName = clazz.getName().replace('.', '/') + ".class";
+
+                jos.putNextEntry(new JarEntry(entryName));
+                InputStream is = clazz.getClassLoader().getResourceAsStream(entryName);
+                try {
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        jos.write(buffer, 0, read);
+                    }
+                } finally {
+                    is.close();
+                }
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    /**
+     * Records the log messages that mention an archive coming from the cache
+     */
+    private static class CacheHits extends Handler {
+        private final List<String> hits = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void publish(LogRecord record) {
+            if (CACHED_MESSAGE.equals(record.getMessage())) {
+                hits.add(String.valueOf(record.getParameters()[0]));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Types parse(File jar, File cache, CacheHits hits, int batchSize) throws Exception {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setLevel(Level.FINE);
+        logger.addHandler(hits);
+
+        System.setProperty(Parser.BATCH_SIZE_SYSPROP, Integer.toString(batchSize));
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            ParsingContext.Builder builder = new ParsingContext.Builder().logger(logger).executorService(es).config(new ParsingConfig() {
+                @Override
+                public Set<String> getAnnotationsOfInterest() {
+                    return Collections.emptySet();
+                }
+
+                @Override
+                public Set<String> getTypesOfInterest() {
+                    return Collections.emptySet();
+                }
+
+                @Override
+                public boolean modelUnAnnotatedMembers() {
+                    return true;
+                }
+            });
+            if (cache != null) {
+                builder.cacheDirectory(cache);
+            }
+
+            ParsingContext pc = builder.build();
+            Parser parser = new Parser(pc);
+            parser.parse(jar, null);
+            Assert.assertEquals(0, parser.awaitTermination(100, TimeUnit.SECONDS).length);
+
+            return pc.getTypes();
+        } finally {
+            es.shutdown();
+            System.clearProperty(Parser.BATCH_SIZE_SYSPROP);
+        }
+    }
+
+    private static String describe(Object value) {
+        if (value == null || !value.getClass().isArray()) {
+            return String.valueOf(value);
+        }
+
+        List<String> elements = new ArrayList<String>();
+        for (int lcv = 0; lcv < Array.getLength(value); lcv++) {
+            elements.add(describe(Array.get(value, lcv)));
+        }
+        return elements.toString();
+    }
+
+    private static String describeAnnotations(AnnotatedElement element) {
+        Map<String, String> retVal = new TreeMap<String, String>();
+        for (AnnotationModel annotation : element.getAnnotations()) {
+            Map<String, String> values = new TreeMap<String, String>();
+            for (Map.Entry<String, Object> value : annotation.getValues().entrySet()) {
+                values.put(value.getKey(), describe(value.getValue()));
+            }
+            retVal.put(annotation.getType().getName(), values.toString());
+        }
+        return retVal.toString();
+    }
+
+    private static String describe(Type type) {
+        StringBuilder sb = new StringBuilder(type.getClass().getSimpleName() + " " + type.getName());
+        sb.append(" annotations=").append(describeAnnotations(type));
+
+        Map<String, String> methods = new TreeMap<String, String>();
+        for (MethodModel method : type.getMethods()) {
+            methods.put(method.getSignature(), describeAnnotations(method));
+        }
+        sb.append(" methods=").append(methods);
+
+        if (type instanceof ExtensibleType) {
+            ExtensibleType<?> extensible = (ExtensibleType<?>) type;
+            Type parent = extensible.getParent();
+            sb.append(" parent=").append(parent == null ? null : parent.getName());
+
+            List<String> interfaces = new ArrayList<String>();
+            for (InterfaceModel intf : extensible.getInterfaces()) {
+                interfaces.add(intf.getName());
+            }
+            Collections.sort(interfaces);
+            sb.append(" interfaces=").append(interfaces);
+            sb.append(" parameterized=").append(extensible.getParameterizedInterfaces().size());
+        }
+
+        if (type instanceof ClassModel) {
+            Map<String, String> fields = new TreeMap<String, String>();
+            for (FieldModel field : ((ClassModel) type).getFields()) {
+                fields.put(field.getName(), describeAnnotations(field));
+            }
+            sb.append(" fields=").append(fields);
+        }
+
+        if (type instanceof AnnotationType) {
+            Map<String, String> defaults = new TreeMap<String, String>();
+            for (Map.Entry<String, Object> value : ((AnnotationType) type).getDefaultValues().entrySet()) {
+                defaults.put(value.getKey(), describe(value.getValue()));
+            }
+            sb.append(" defaults=").append(defaults);
+        }
+
+        return sb.toString();
+    }
+
+    private static Map<String, String> describe(Types types) {
+        Map<String, String> retVal = new TreeMap<String, String>();
+        for (Type type : types.getAllTypes()) {
+            retVal.put(type.getName(), describe(type));
+        }
+        return retVal;
+    }
+
+    /**
+     * The first parse fills the cache, a copy of the same jar somewhere else
+     * then comes from the cache and gives the same model
+     */
+    @Test
+    public void testUnchangedJarComesFromCache() throws Exception {
+        File jar = new File(directory, "library.jar");
+        createJar(jar, CLASSES.length);
+
+        Map<String, String> expected = describe(parse(jar, null, new CacheHits(), 0));
+        Assert.assertTrue(expected.containsKey(SimpleAnnotatedMethod.class.getName()));
+
+        CacheHits hits = new CacheHits();
+        Assert.assertEquals(expected, describe(parse(jar, cacheDirectory, hits, 0)));
+        Assert.assertTrue(hits.hits.isEmpty());
+        Assert.assertEquals(1, cacheDirectory.list().length);
+
+        // redeploying copies the library, so only the content identifies it
+        File copy = new File(directory, "copy.jar");
+        createJar(copy, CLASSES.length);
+        Assert.assertTrue(copy.setLastModified(jar.lastModified() + 10000));
+
+        hits = new CacheHits();
+        Assert.assertEquals(expected, describe(parse(copy, cacheDirectory, hits, 0)));
+        Assert.assertEquals(1, hits.hits.size());
+        Assert.assertTrue(hits.hits.get(0).endsWith("copy.jar"));
+    }
+
+    /**
+     * Recordings made while parsing in parallel give the same model
+     */
+    @Test
+    public void testParallelParsingFillsCache() throws Exception {
+        File jar = new File(directory, "library.jar");
+        createJar(jar, CLASSES.length);
+
+        Map<String, String> expected = describe(parse(jar, null, new CacheHits(), 0));
+
+        Assert.assertEquals(expected, describe(parse(jar, cacheDirectory, new CacheHits(), 2)));
+
+        CacheHits hits = new CacheHits();
+        Assert.assertEquals(expected, describe(parse(jar, cacheDirectory, hits, 2)));
+        Assert.assertEquals(1, hits.hits.size());
+    }
+
+    /**
+     * A changed jar is parsed again and cached next to the old one, a cache
+     * file that cannot be read is ignored
+     */
+    @Test
+    public void testChangedOrCorruptCacheIsParsedAgain() throws Exception {
+        File jar = new File(directory, "library.jar");
+        createJar(jar, CLASSES.length);
+        parse(jar, cacheDirectory, new CacheHits(), 0);
+
+        File[] cached = cacheDirectory.listFiles();
+        Assert.assertEquals(1, cached.length);
+
+        FileOutputStream fos = new FileOutputStream(cached[0]);
+        fos.write(new byte[] { 0, 1, 2 });
+        fos.close();
+
+        CacheHits hits = new CacheHits();
+        Types types = parse(jar, cacheDirectory, hits, 0);
+        Assert.assertTrue(hits.hits.isEmpty());
+        Assert.assertNotNull(types.getBy(SimpleAnnotatedMethod.class.getName()));
+        Assert.assertTrue(cached[0].length() > 3);
+
+        // a different jar is a different cache entry
+        createJar(jar, CLASSES.length - 1);
+
+        hits = new CacheHits();
+        parse(jar, cacheDirectory, hits, 0);
+        Assert.assertTrue(hits.hits.isEmpty());
+        Assert.assertEquals(2, cacheDirectory.list().length);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.test.parallel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.InterfaceModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that a large archive parsed by several threads gives the same
+ * model as parsing it with one.  Run as a program it is also a benchmark
+ * of the two on a large synthetic jar
+ *
+ * @author jwells
+ */
+public class ParallelParsingTest {
+    private static final String PACKAGE = "synthetic/";
+    private static final String MARKER = PACKAGE + "Marker";
+    private static final String INTERFACE = PACKAGE + "Contract";
+    private static final String CLASS = PACKAGE + "Service";
+    private static final int NUM_INTERFACES = 10;
+    private static final int NUM_CLASSES = 2000;
+    private static final int CHAIN_LENGTH = 50;
+
+    private static File jar;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        jar = createJar(NUM_CLASSES);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (jar != null) jar.delete();
+    }
+
+    private static String dotted(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private static byte[] createMarker() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION,
+                MARKER, null, "java/lang/Object", new String[] { "java/lang/annotation/Annotation" });
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] createInterface(int lcv) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE,
+                INTERFACE + lcv, null, "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Classes come in chains, every class extends the one before it in its chain
+     * and every class implements one of the interfaces
+     */
+    private static String getSuperName(int lcv) {
+        return (lcv % CHAIN_LENGTH == 0) ? "java/lang/Object" : CLASS + (lcv - 1);
+    }
+
+    private static byte[] createClass(int lcv, int numClasses) {
+        String superName = getSuperName(lcv);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, CLASS + lcv, null, superName,
+                new String[] { INTERFACE + (lcv % NUM_INTERFACES) });
+        cw.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "next", "L" + CLASS + ((lcv + 1) % numClasses) + ";", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+
+    private static File createJar(int numClasses) throws IOException {
+        File retVal = File.createTempFile("synthetic", ".jar");
+
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(retVal));
+        try {
+            // sub classes first, so their parents are mostly referenced before being visited
+            for (int lcv = numClasses - 1; lcv >= 0; lcv--) {
+                addEntry(jos, CLASS + lcv, createClass(lcv, numClasses));
+            }
+            for (int lcv = 0; lcv < NUM_INTERFACES; lcv++) {
+                addEntry(jos, INTERFACE + lcv, createInterface(lcv));
+            }
+            addEntry(jos, MARKER, createMarker());
+        } finally {
+            jos.close();
+        }
+
+        return retVal;
+    }
+
+    private static Types parse(File archive, int batchSize, ExecutorService es) throws Exception {
+        System.setProperty(Parser.BATCH_SIZE_SYSPROP, Integer.toString(batchSize));
+        try {
+            ParsingContext pc = new ParsingContext.Builder().executorService(es).build();
+            Parser parser = new Parser(pc);
+
+            parser.parse(archive, null);
+            Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+            Assert.assertEquals(0, exceptions.length);
+
+            return pc.getTypes();
+        } finally {
+            System.clearProperty(Parser.BATCH_SIZE_SYSPROP);
+        }
+    }
+
+    private static void checkTypes(Types types) {
+        Assert.assertEquals(NUM_CLASSES + NUM_INTERFACES + 1, types.getAllTypes().size());
+
+        for (int lcv = 0; lcv < NUM_CLASSES; lcv++) {
+            ClassModel cm = types.getBy(ClassModel.class, dotted(CLASS + lcv));
+            Assert.assertNotNull(cm);
+
+            ClassModel parent = cm.getParent();
+            if (lcv % CHAIN_LENGTH == 0) {
+                Assert.assertNull(parent);
+            } else {
+                // there must be exactly one model per type, whichever thread created it
+                Assert.assertSame(types.getBy(dotted(getSuperName(lcv))), parent);
+            }
+
+            if ((lcv + 1) % CHAIN_LENGTH != 0) {
+                Assert.assertEquals(1, cm.subTypes().size());
+            }
+
+            Assert.assertEquals(1, cm.getInterfaces().size());
+            Assert.assertSame(types.getBy(dotted(INTERFACE + (lcv % NUM_INTERFACES))),
+                    cm.getInterfaces().iterator().next());
+            Assert.assertEquals(1, cm.getAnnotations().size());
+        }
+
+        for (int lcv = 0; lcv < NUM_INTERFACES; lcv++) {
+            InterfaceModel im = types.getBy(InterfaceModel.class, dotted(INTERFACE + lcv));
+            Assert.assertNotNull(im);
+            Assert.assertEquals(NUM_CLASSES / NUM_INTERFACES, im.implementations().size());
+        }
+
+        AnnotationType marker = types.getBy(AnnotationType.class, dotted(MARKER));
+        Assert.assertNotNull(marker);
+        Assert.assertEquals(NUM_CLASSES, marker.allAnnotatedTypes().size());
+    }
+
+    /**
+     * Parses the archive on one thread
+     */
+    @Test
+    public void testSequentialParsing() throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            checkTypes(parse(jar, 0, es));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * Parses the archive in small batches on several threads
+     */
+    @Test
+    public void testParallelParsing() throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            for (int lcv = 0; lcv < 5; lcv++) {
+                checkTypes(parse(jar, 16, es));
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * With only one thread the archive thread has to parse all the batches
+     * itself, this must not hang
+     */
+    @Test
+    public void testParallelParsingOnOneThread() throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            checkTypes(parse(jar, 16, es));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    private static long time(File archive, int batchSize, ExecutorService es) throws Exception {
+        long start = System.currentTimeMillis();
+        Types types = parse(archive, batchSize, es);
+        long elapsed = System.currentTimeMillis() - start;
+
+        System.out.println("  " + types.getAllTypes().size() + " types with batch size " + batchSize +
+                " in " + elapsed + "ms");
+        return elapsed;
+    }
+
+    /**
+     * Benchmark, compares parsing a large synthetic jar on one thread
+     * with parsing it on all the processors
+     *
+     * @param args optionally the number of classes in the jar
+     */
+    public static void main(String[] args) throws Exception {
+        int numClasses = (args.length > 0) ? Integer.parseInt(args[0]) : 40000;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        File archive = createJar(numClasses);
+        ExecutorService es = Executors.newFixedThreadPool(processors);
+        try {
+            System.out.println("Parsing " + numClasses + " classes with " + processors + " threads");
+            for (int lcv = 0; lcv < 5; lcv++) {
+                long sequential = time(archive, 0, es);
+                long parallel = time(archive, 256, es);
+                System.out.println("Iteration " + lcv + " speedup " + ((double) sequential / Math.max(1L, parallel)));
+            }
+        } finally {
+            es.shutdown();
+            archive.delete();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.classmodel.reflect.test.prefilter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Type;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParsingContext.Builder#annotationPrefilter(boolean)}
+ *
+ * @author jwells
+ */
+public class PrefilterTest {
+    private static final String MARKER = "prefilter/Marker";
+    private static final String SUPER_CONTRACT = "prefilter/SuperContract";
+    private static final String CONTRACT = "prefilter/Contract";
+    private static final String BASE = "prefilter/Base";
+    private static final String MIDDLE = "prefilter/Middle";
+    private static final String ANNOTATED = "prefilter/Annotated";
+    private static final String FIELD_ANNOTATED = "prefilter/FieldAnnotated";
+    private static final String PLAIN = "prefilter/Plain";
+    private static final String PLAIN_CHILD = "prefilter/PlainChild";
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("prefilter", "dir");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void after() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] createClass(int access, String name, String superName, String[] interfaces,
+            boolean annotated, boolean annotatedField) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, access, name, null, superName, interfaces);
+        if (annotated) {
+            cw.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+        }
+        if (annotatedField) {
+            cw.visitField(Opcodes.ACC_PRIVATE, "field", "Ljava/lang/String;", null, null)
+                    .visitAnnotation("L" + MARKER + ";", true).visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static final int INTERFACE = Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE;
+
+    /**
+     * Sub classes come first in the jar, so their super types are
+     * left out by the prefilter before it knows they are needed
+     */
+    private File createJar() throws IOException {
+        File jar = new File(directory, "prefilter.jar");
+
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addEntry(jos, PLAIN_CHILD, createClass(Opcodes.ACC_PUBLIC, PLAIN_CHILD, PLAIN, null, false, false));
+            addEntry(jos, ANNOTATED, createClass(Opcodes.ACC_PUBLIC, ANNOTATED, MIDDLE, null, true, false));
+            addEntry(jos, MIDDLE, createClass(Opcodes.ACC_PUBLIC, MIDDLE, BASE, new String[] { CONTRACT }, false, false));
+            addEntry(jos, BASE, createClass(Opcodes.ACC_PUBLIC, BASE, OBJECT, null, false, false));
+            addEntry(jos, CONTRACT, createClass(INTERFACE, CONTRACT, OBJECT, new String[] { SUPER_CONTRACT }, false, false));
+            addEntry(jos, SUPER_CONTRACT, createClass(INTERFACE, SUPER_CONTRACT, OBJECT, null, false, false));
+            addEntry(jos, FIELD_ANNOTATED, createClass(Opcodes.ACC_PUBLIC, FIELD_ANNOTATED, OBJECT, null, false, true));
+            addEntry(jos, PLAIN, createClass(Opcodes.ACC_PUBLIC, PLAIN, OBJECT, null, false, false));
+            addEntry(jos, MARKER, createClass(INTERFACE | Opcodes.ACC_ANNOTATION, MARKER, OBJECT,
+                    new String[] { "java/lang/annotation/Annotation" }, false, false));
+        } finally {
+            jos.close();
+        }
+
+        return jar;
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+
+    private static Types parse(File archive, boolean prefilter, int batchSize) throws Exception {
+        System.setProperty(Parser.BATCH_SIZE_SYSPROP, Integer.toString(batchSize));
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            ParsingContext pc = new ParsingContext.Builder().executorService(es).annotationPrefilter(prefilter).config(new ParsingConfig() {
+                @Override
+                public Set<String> getAnnotationsOfInterest() {
+                    return Collections.singleton(MARKER.replace('/', '.'));
+                }
+
+                @Override
+                public Set<String> getTypesOfInterest() {
+                    return Collections.emptySet();
+                }
+
+                @Override
+                public boolean modelUnAnnotatedMembers() {
+                    return false;
+                }
+            }).build();
+
+            Parser parser = new Parser(pc);
+            parser.parse(archive, null);
+            Assert.assertEquals(0, parser.awaitTermination(100, TimeUnit.SECONDS).length);
+
+            return pc.getTypes();
+        } finally {
+            es.shutdown();
+            System.clearProperty(Parser.BATCH_SIZE_SYSPROP);
+        }
+    }
+
+    private static boolean isVisited(Types types, String name) {
+        Type type = types.getBy(name.replace('/', '.'));
+        return type != null && !type.getDefiningURIs().isEmpty();
+    }
+
+    private static void checkPrefiltered(Types types) {
+        Assert.assertTrue(isVisited(types, ANNOTATED));
+        Assert.assertTrue(isVisited(types, FIELD_ANNOTATED));
+        Assert.assertTrue(isVisited(types, MARKER));
+
+        // the super types of visited classes are visited as well
+        Assert.assertTrue(isVisited(types, MIDDLE));
+        Assert.assertTrue(isVisited(types, BASE));
+        Assert.assertTrue(isVisited(types, CONTRACT));
+        Assert.assertTrue(isVisited(types, SUPER_CONTRACT));
+
+        Assert.assertFalse(isVisited(types, PLAIN));
+        Assert.assertFalse(isVisited(types, PLAIN_CHILD));
+
+        ClassModel annotated = types.getBy(ClassModel.class, ANNOTATED.replace('/', '.'));
+        Assert.assertEquals(MIDDLE.replace('/', '.'), annotated.getParent().getName());
+        Assert.assertEquals(BASE.replace('/', '.'), annotated.getParent().getParent().getName());
+        Assert.assertEquals(1, annotated.getAnnotations().size());
+
+        // members are only modeled for annotated classes, so the field does not count
+        AnnotationType marker = types.getBy(AnnotationType.class, MARKER.replace('/', '.'));
+        Assert.assertEquals(1, marker.allAnnotatedTypes().size());
+    }
+
+    /**
+     * Without the prefilter every class is visited
+     */
+    @Test
+    public void testWithoutPrefilter() throws Exception {
+        Types types = parse(createJar(), false, 0);
+
+        Assert.assertTrue(isVisited(types, PLAIN));
+        Assert.assertTrue(isVisited(types, PLAIN_CHILD));
+        Assert.assertTrue(isVisited(types, ANNOTATED));
+    }
+
+    /**
+     * Only annotated classes and their super types are visited
+     */
+    @Test
+    public void testPrefilteredJar() throws Exception {
+        checkPrefiltered(parse(createJar(), true, 0));
+    }
+
+    /**
+     * Same when the jar is parsed in batches on several threads
+     */
+    @Test
+    public void testPrefilteredJarInBatches() throws Exception {
+        checkPrefiltered(parse(createJar(), true, 1));
+    }
+
+    /**
+     * Super types are read again from a directory as well
+     */
+    @Test
+    public void testPrefilteredDirectory() throws Exception {
+        File classes = new File(directory, "classes");
+        Assert.assertTrue(new File(classes, "prefilter").mkdirs());
+
+        String[] names = { MARKER, SUPER_CONTRACT, CONTRACT, BASE, MIDDLE, ANNOTATED, FIELD_ANNOTATED, PLAIN, PLAIN_CHILD };
+        Types all = parse(createJar(), false, 0);
+        for (String name : names) {
+            Assert.assertTrue(name, isVisited(all, name));
+        }
+
+        // a copy of the jar exploded into the directory
+        JarFile jar = new JarFile(new File(directory, "prefilter.jar"));
+        try {
+            for (String name : names) {
+                JarEntry entry = jar.getJarEntry(name + ".class");
+                InputStream is = jar.getInputStream(entry);
+                FileOutputStream fos = new FileOutputStream(new File(classes, name + ".class"));
+                try {
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        fos.write(buffer, 0, read);
+                    }
+                } finally {
+                    fos.close();
+                    is.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+
+        checkPrefiltered(parse(classes, true, 0));
+    }
+}
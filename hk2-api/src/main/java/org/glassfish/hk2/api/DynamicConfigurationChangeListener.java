@@ -0,0 +1,79 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.api;
+
+import java.util.List;
+
+/**
+ * A {@link DynamicConfigurationListener} that is also told which descriptors
+ * were added to and removed from the service locator by the commit.  Implementations
+ * are found as {@link DynamicConfigurationListener} services, and hence
+ * must advertise that contract (for example by also listing
+ * {@link DynamicConfigurationListener} as an implemented interface) and must
+ * be in the Singleton scope.  When a listener implements this interface the
+ * service locator will call
+ * {@link #configurationChanged(List, List)} rather than
+ * {@link DynamicConfigurationListener#configurationChanged()}
+ * 
+ * @author jwells
+ *
+ */
+public interface DynamicConfigurationChangeListener extends DynamicConfigurationListener {
+    /**
+     * This method is called when the set of descriptors
+     * in this service locator has been changed.  Changes to
+     * parent service locators descriptors will not be reported.
+     * These services are called back on the thread doing the
+     * {@link DynamicConfiguration#commit()} so care should be taken
+     * to do any work quickly.  Any exception thrown from this method
+     * will be ignored.  A commit that failed will not be reported to
+     * this method
+     * 
+     * @param added The descriptors that were added to this service
+     * locator by the commit.  Will not be null but may be empty.  This
+     * list may not be modified
+     * @param removed The descriptors that were removed from this service
+     * locator by the commit.  Will not be null but may be empty.  This
+     * list may not be modified
+     */
+    public void configurationChanged(List<ActiveDescriptor<?>> added, List<ActiveDescriptor<?>> removed);
+
+}
@@ -147,6 +147,74 @@ public abstract class ServiceLocatorFactory {
           ServiceLocatorGenerator generator,
           CreatePolicy policy);
   
+  /**
+   * Freezes the services of the given ServiceLocator into a template from
+   * which new ServiceLocators with the same services can be forked much
+   * more cheaply than they can be created and populated
+   * <p>
+   * The services of the given locator are reified as part of freezing it.
+   * The given locator is not modified and can continue to be used
+   * 
+   * @param locator The non-null ServiceLocator to freeze.  It must
+   * have been created by the default generator
+   * @return A template that can be given to the fork methods of this factory
+   * @throws IllegalStateException if the default generator does not
+   * support templates
+   * @throws UnsupportedOperationException if this factory does not
+   * support templates
+   */
+  public ServiceLocatorTemplate freeze(ServiceLocator locator) {
+      throw new UnsupportedOperationException("freeze is not supported by " + getClass().getName());
+  }
+  
+  /**
+   * Creates or finds a ServiceLocator forked from the given template.
+   * <p>
+   * If there is already a ServiceLocator with the given
+   * name then this method will return that ServiceLocator.  The
+   * template argument will be ignored in that case
+   * 
+   * @param name The name of this service locator.  Passing a null
+   * name will result in a newly created service locator with a
+   * generated name and that will not be tracked by the system
+   * @param template The non-null template returned from
+   * {@link #freeze(ServiceLocator)}.  The parent of the returned
+   * ServiceLocator will be the parent of the frozen ServiceLocator
+   * @return The created or found named ServiceLocator
+   * @throws UnsupportedOperationException if this factory does not
+   * support templates
+   */
+  public ServiceLocator fork(String name,
+          ServiceLocatorTemplate template) {
+      throw new UnsupportedOperationException("fork is not supported by " + getClass().getName());
+  }
+  
+  /**
+   * Creates a ServiceLocator forked from the given template.
+   * <p>
+   * If there is already a ServiceLocator with the given
+   * name then this method will honor the given CreatePolicy
+   * in the same way as {@link #create(String, ServiceLocator, ServiceLocatorGenerator, CreatePolicy)}
+   * 
+   * @param name The name of this service locator.  Passing a null
+   * name will result in a newly created service locator with a
+   * generated name and that will not be tracked by the system
+   * @param template The non-null template returned from
+   * {@link #freeze(ServiceLocator)}.  The parent of the returned
+   * ServiceLocator will be the parent of the frozen ServiceLocator
+   * @param policy The policy that should be used if there is an
+   * existing locator with the non-null name.  If null the policy
+   * of RETURN will be used
+   * @return The created or found named ServiceLocator
+   * @throws UnsupportedOperationException if this factory does not
+   * support templates
+   */
+  public ServiceLocator fork(String name,
+          ServiceLocatorTemplate template,
+          CreatePolicy policy) {
+      throw new UnsupportedOperationException("fork is not supported by " + getClass().getName());
+  }
+  
   /**
    * Finds the ServiceLocator with this name
    * 
@@ -0,0 +1,74 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.extension;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
+
+/**
+ * A {@link ServiceLocatorGenerator} that also implements this interface
+ * can freeze the ServiceLocators it creates into templates and then fork
+ * new ServiceLocators from those templates
+ * 
+ * @author jwells
+ *
+ */
+public interface ServiceLocatorTemplateGenerator extends ServiceLocatorGenerator {
+    /**
+     * Freezes the current set of services of the given locator into a template.
+     * Services of the locator are reified as part of freezing it
+     * 
+     * @param locator A ServiceLocator created by this generator
+     * @return A template that can be given to {@link #fork(String, ServiceLocatorTemplate)}
+     */
+    public ServiceLocatorTemplate freeze(ServiceLocator locator);
+    
+    /**
+     * Creates a new ServiceLocator that contains the services of the given template
+     * 
+     * @param name The name of the ServiceLocator to create
+     * @param template A template returned from {@link #freeze(ServiceLocator)}
+     * of this generator
+     * @return The created ServiceLocator
+     */
+    public ServiceLocator fork(String name, ServiceLocatorTemplate template);
+
+}
@@ -50,7 +50,9 @@ import java.util.ServiceConfigurationError;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.ServiceLocatorFactory;
 import org.glassfish.hk2.api.ServiceLocatorListener;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
 import org.glassfish.hk2.extension.ServiceLocatorGenerator;
+import org.glassfish.hk2.extension.ServiceLocatorTemplateGenerator;
 import org.glassfish.hk2.osgiresourcelocator.ServiceLoader;
 import org.glassfish.hk2.utilities.reflection.Logger;
 
@@ -260,12 +262,60 @@ public class ServiceLocatorFactoryImpl extends ServiceLocatorFactory {
             Logger.getLogger().debug("ServiceFactoryImpl given create of " + name + " with parent " + parent +
                     " with generator " + generator + " and policy " + policy, new Throwable());
         }
+        
+        return create(name, parent, generator, null, policy);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ServiceLocatorFactory#freeze(org.glassfish.hk2.api.ServiceLocator)
+     */
+    @Override
+    public ServiceLocatorTemplate freeze(ServiceLocator locator) {
+        if (locator == null) throw new IllegalArgumentException();
+        
+        return getTemplateGenerator().freeze(locator);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ServiceLocatorFactory#fork(java.lang.String, org.glassfish.hk2.api.ServiceLocatorTemplate)
+     */
+    @Override
+    public ServiceLocator fork(String name, ServiceLocatorTemplate template) {
+        return fork(name, template, CreatePolicy.RETURN);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ServiceLocatorFactory#fork(java.lang.String, org.glassfish.hk2.api.ServiceLocatorTemplate, org.glassfish.hk2.api.ServiceLocatorFactory.CreatePolicy)
+     */
+    @Override
+    public ServiceLocator fork(String name, ServiceLocatorTemplate template, CreatePolicy policy) {
+        if (template == null) throw new IllegalArgumentException();
+        
+        if (DEBUG_SERVICE_LOCATOR_LIFECYCLE) {
+            Logger.getLogger().debug("ServiceFactoryImpl given fork of " + name + " from template " + template +
+                    " and policy " + policy, new Throwable());
+        }
+        
+        return create(name, template.getParent(), null, template, policy);
+    }
+    
+    private static ServiceLocatorTemplateGenerator getTemplateGenerator() {
+        ServiceLocatorGenerator generator = DefaultGeneratorInitializer.defaultGenerator;
+        if (!(generator instanceof ServiceLocatorTemplateGenerator)) {
+            throw new IllegalStateException("The default generator " + generator + " does not support locator templates");
+        }
+        
+        return (ServiceLocatorTemplateGenerator) generator;
+    }
+    
+    private ServiceLocator create(String name, ServiceLocator parent,
+            ServiceLocatorGenerator generator, ServiceLocatorTemplate template, CreatePolicy policy) {
         synchronized (lock) {
             ServiceLocator retVal;
 
             if (name == null) {
                 name = getGeneratedName();
-                ServiceLocator added = internalCreate(name, parent, generator);
+                ServiceLocator added = internalCreate(name, parent, generator, template);
                 callListenerAdded(added);
                 if (DEBUG_SERVICE_LOCATOR_LIFECYCLE) {
                     Logger.getLogger().debug("ServiceFactoryImpl added untracked listener " + added);
@@ -290,7 +340,7 @@ public class ServiceLocatorFactoryImpl extends ServiceLocatorFactory {
                             "A ServiceLocator named " + name + " already exists");
                 }
             }
-            retVal = internalCreate(name, parent, generator);
+            retVal = internalCreate(name, parent, generator, template);
             serviceLocators.put(name, retVal);
             
             callListenerAdded(retVal);
@@ -302,7 +352,12 @@ public class ServiceLocatorFactoryImpl extends ServiceLocatorFactory {
         }
     }
 
-    private ServiceLocator internalCreate(String name, ServiceLocator parent, ServiceLocatorGenerator generator) {
+    private ServiceLocator internalCreate(String name, ServiceLocator parent, ServiceLocatorGenerator generator,
+            ServiceLocatorTemplate template) {
+        if (template != null) {
+            return getTemplateGenerator().fork(name, template);
+        }
+        
         if (generator == null) {
             if (DefaultGeneratorInitializer.defaultGenerator == null) {
                 throw new IllegalStateException("No generator was provided and there is no default generator registered");
@@ -65,6 +65,7 @@ import java.lang.annotation.Annotation;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -293,17 +294,179 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
 
 
 
+    /**
+     * Immutable view of the child elements of a {@link Dom} together with
+     * the indices used to look them up by element name and by key.
+     *
+     * <p>
+     * The list and its indices are built together and published as a unit,
+     * so a reader that fixes one snapshot always sees consistent data.
+     */
+    private static final class ChildrenSnapshot {
+        private final static ChildrenSnapshot EMPTY = new ChildrenSnapshot(Collections.<Child>emptyList(), null);
+
+        /**
+         * All child elements, both leaves and nodes, in document order
+         */
+        private final List<Child> children;
+
+        /**
+         * Element name to the children with that name, in document order
+         */
+        private final Map<String, List<Child>> byName;
+
+        /**
+         * Node children whose element name is not known to the model,
+         * used to implement {@code FromElement("*")}
+         */
+        private final List<NodeChild> unnamedNodes;
+
+        /**
+         * Lazily computed since keys are only needed by keyed lookups.
+         * Rebuilt when the key generation of the owning Dom has moved on
+         */
+        private volatile KeyIndex keyIndex;
+
+        private ChildrenSnapshot(List<Child> children, ConfigModel model) {
+            this.children = Collections.unmodifiableList(children);
+
+            if (children.isEmpty()) {
+                byName = Collections.emptyMap();
+                unnamedNodes = Collections.emptyList();
+                return;
+            }
+
+            Map<String, List<Child>> names = new HashMap<String, List<Child>>();
+            List<NodeChild> unnamed = null;
+            for (Child child : children) {
+                List<Child> named = names.get(child.name);
+                if (named == null) {
+                    named = new ArrayList<Child>(1);
+                    names.put(child.name, named);
+                }
+                named.add(child);
+
+                if (child instanceof NodeChild && (model == null || !model.elements.containsKey(child.name))) {
+                    if (unnamed == null) unnamed = new ArrayList<NodeChild>();
+                    unnamed.add((NodeChild) child);
+                }
+            }
+
+            byName = names;
+            unnamedNodes = (unnamed == null) ? Collections.<NodeChild>emptyList() : unnamed;
+        }
+
+        private List<Child> named(String name) {
+            List<Child> retVal = byName.get(name);
+            if (retVal == null) return Collections.emptyList();
+            return retVal;
+        }
+
+        private Child first(String name) {
+            List<Child> named = byName.get(name);
+            if (named == null) return null;
+            return named.get(0);
+        }
+
+        /**
+         * Returns the key index of these children as of the given
+         * key generation.  The generation must be read before the keys
+         * of the children are, so that an index built while a key is
+         * changing is stamped with the older generation and is rebuilt
+         * by the next lookup
+         *
+         * @param generation The current key generation of the owning Dom
+         * @return The key index of these children
+         */
+        private KeyIndex getKeyIndex(int generation) {
+            KeyIndex retVal = keyIndex;
+            if (retVal == null || retVal.generation != generation) {
+                retVal = new KeyIndex(children, generation);
+                keyIndex = retVal;
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * Key based indices over the node children of one {@link ChildrenSnapshot}.
+     * When two children have the same key the first one in document order
+     * wins, matching the result of a linear scan
+     */
+    private static final class KeyIndex {
+        /**
+         * The key generation of the owning Dom when this index was built
+         */
+        private final int generation;
+
+        /**
+         * Element name to child key to child
+         */
+        private final Map<String, Map<String, Dom>> byElement = new HashMap<String, Map<String, Dom>>();
+
+        /**
+         * Type name (as in {@link ConfigModel#keyedAs}) to child key to the
+         * position of the child in the children of the snapshot
+         */
+        private final Map<String, Map<String, Integer>> byKeyedAs = new HashMap<String, Map<String, Integer>>();
+
+        private KeyIndex(List<Child> children, int generation) {
+            this.generation = generation;
+
+            for (int lcv = 0; lcv < children.size(); lcv++) {
+                Child child = children.get(lcv);
+                if (!(child instanceof NodeChild)) continue;
+
+                Dom dom = ((NodeChild) child).dom;
+                if (dom.model.key == null) continue;
+
+                String key = dom.getKey();
+                if (key == null) continue;
+
+                index(byElement, child.name, key, dom);
+                if (dom.model.keyedAs != null) {
+                    index(byKeyedAs, dom.model.keyedAs, key, lcv);
+                }
+            }
+        }
+
+        private static <V> void index(Map<String, Map<String, V>> index, String group, String key, V value) {
+            Map<String, V> keys = index.get(group);
+            if (keys == null) {
+                keys = new HashMap<String, V>();
+                index.put(group, keys);
+            }
+            if (!keys.containsKey(key)) {
+                keys.put(key, value);
+            }
+        }
+
+        private static <V> V find(Map<String, Map<String, V>> index, String group, String key) {
+            Map<String, V> keys = index.get(group);
+            if (keys == null) return null;
+            return keys.get(key);
+        }
+    }
+
     /**
      * All attributes and their raw values before {@link Translator} processing.
      */
     private Map<String,String> attributes = new HashMap<String, String>();
     /**
-     * List of all child elements, both leaves and nodes.
+     * All child elements, both leaves and nodes, and their lookup indices.
      *
      * <p>
-     * The list is read-only and copy-on-write to support concurrent access.
+     * The snapshot is read-only and copy-on-write to support concurrent access.
+     * Writers must hold the lock on this object and publish a fresh snapshot
+     * through {@link #publishChildren(List)}.
+     */
+    private volatile ChildrenSnapshot snapshot = ChildrenSnapshot.EMPTY;
+
+    /**
+     * Bumped whenever the key of one of the children may have changed,
+     * invalidating the key index of the current snapshot
      */
-    private volatile List<Child> children = Collections.emptyList();
+    private final AtomicInteger keyGeneration = new AtomicInteger();
     private final Location location;
 
     /**
@@ -352,7 +515,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     public Dom(Dom source, Dom parent) {
         this(source.getHabitat(), source.document, parent, source.model);
         List<Child> newChildren = new ArrayList<Child>();
-        for (Child child : source.children) {
+        for (Child child : source.snapshot.children) {
             newChildren.add(child.deepCopy(this));
         }
         setChildren(newChildren);
@@ -450,12 +613,8 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @Return list of elements names associated with this config instance
      */
     public Set<String> getElementNames() {
-        Set<String> names = new HashSet<String>();
-        for (Child child : children) {
-            names.add(child.name);
-        }
-        return names;
-    }    
+        return new HashSet<String>(snapshot.byName.keySet());
+    }
 
     /**
      * Performs translation with null pass-through.
@@ -523,6 +682,33 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             // since we can't enumerate all scope instances.)
             getInjector().injectAttribute(this,name,get());
         }
+
+        if (("@" + name).equals(model.key)) {
+            keyChanged();
+        }
+    }
+
+    /**
+     * Called when the key of this node may have changed, so that the
+     * key index of the parent no longer reflects it
+     */
+    private void keyChanged() {
+        if (parent != null) {
+            parent.childKeyChanged();
+        }
+    }
+
+    private void childKeyChanged() {
+        keyGeneration.incrementAndGet();
+    }
+
+    /**
+     * Publishes a new list of children.  The caller must hold the
+     * lock on this object (or be the parser, which owns the Dom
+     * exclusively) and must not modify the list afterwards
+     */
+    private void publishChildren(List<Child> newChildren) {
+        snapshot = newChildren.isEmpty() ? ChildrenSnapshot.EMPTY : new ChildrenSnapshot(newChildren, model);
     }
 
     /**
@@ -531,15 +717,24 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @return child element
      */
     public Dom element(String name) {
-        
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child child = snapshot.first(name);
+        if (child == null) return null;
 
-        for (Child child : children) {
-            if (child.name.equals(name)) {
-                return ((NodeChild) child).dom;
-            }
-        }
-        return null;
+        return ((NodeChild) child).dom;
+    }
+
+    /**
+     * Returns the child node with the given element name whose
+     * {@link #getKey() key} is the given key
+     *
+     * @param name The element name of the child
+     * @param key The key of the child
+     * @return The matching child, or null if there is none
+     */
+    public Dom nodeElementByKey(String name, String key) {
+        if (key == null) return null;
+
+        return KeyIndex.find(snapshot.getKeyIndex(keyGeneration.get()).byElement, name, key);
     }
 
     /**
@@ -583,16 +778,15 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
         if(name.equals("*"))    name=newNode.model.tagName;
         NodeChild newChild = new NodeChild(name, newNode);
 
-        if (children.size()==0) {
-            children = new ArrayList<Child>();
-        }
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
         if(reference==null) {
-            children.add(0, newChild);
+            newChildren.add(0, newChild);
             newNode.domDescriptor = addWithAlias(getHabitat(), newNode, newNode.getProxyType(), newNode.getKey());
+            publishChildren(newChildren);
             return;
         }
 
-        ListIterator<Child> itr = children.listIterator();
+        ListIterator<Child> itr = newChildren.listIterator();
         while(itr.hasNext()) {
             Child child = itr.next();
             if (child instanceof NodeChild) {
@@ -600,12 +794,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
                 if(nc.dom==reference) {
                     itr.add(newChild);
                     newNode.domDescriptor = addWithAlias(getHabitat(), newNode, newNode.getProxyType(), newNode.getKey());
+                    publishChildren(newChildren);
                     
                     return;
                 }
             }
         }
-        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
+        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+snapshot.children);
     }
 
     /**
@@ -614,7 +809,8 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @see #insertAfter(Dom, String, Dom)
      */
     public synchronized void replaceChild(Dom reference, String name, Dom newNode) {
-        ListIterator<Child> itr = children.listIterator();
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
+        ListIterator<Child> itr = newChildren.listIterator();
         while(itr.hasNext()) {
             Child child = itr.next();   
             if (child instanceof NodeChild) {
@@ -624,11 +820,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
                     newNode.domDescriptor = addWithAlias(getHabitat(), newNode,newNode.getProxyType(), newNode.getKey());
                     
                     itr.set(new NodeChild(name,newNode));
+                    publishChildren(newChildren);
                     return;
                 }
             }
         }
-        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
+        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+snapshot.children);
     }
 
     /**
@@ -636,36 +833,51 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *
      */
     public synchronized void removeChild(final Dom reference) {
-        ListIterator<Child> itr = children.listIterator();
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
+        ListIterator<Child> itr = newChildren.listIterator();
         while(itr.hasNext()) {
             Child child = itr.next();
             if (child instanceof NodeChild) {
                 NodeChild nc = (NodeChild) child;
                 if(nc.dom==reference) {
                     itr.remove();
+                    publishChildren(newChildren);
                     reference.release();
                     return;
                 }
             }
         }
-        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
+        throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+snapshot.children);
 
     }
 
     public synchronized boolean addLeafElement(String xmlName, String value) {
-        if (children.size()==0) {
-            children = new ArrayList<Child>();
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
+        newChildren.add(new LeafChild(xmlName, value));
+        publishChildren(newChildren);
+
+        if (("<" + xmlName + ">").equals(model.key)) {
+            keyChanged();
         }
-        return children.add(new LeafChild(xmlName, value));
+        return true;
         
     }
 
     public synchronized boolean removeLeafElement(String xmlName, String element) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        List<Child> children = snapshot.children; // fix the snapshot that we'll work with
 
-        for (Child child : children) {
+        int len = children.size();
+        for( int i=0; i<len; i++ ) {
+            Child child = children.get(i);
             if(child.name.equals(xmlName) && ((LeafChild) child).value.equals(element)) {
-                return children.remove(child);
+                List<Child> newChildren = new ArrayList<Child>(children);
+                newChildren.remove(i);
+                publishChildren(newChildren);
+
+                if (("<" + xmlName + ">").equals(model.key)) {
+                    keyChanged();
+                }
+                return true;
             }
         }
         return false;
@@ -673,13 +885,20 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     }
 
     public synchronized boolean changeLeafElement(String xmlName, String oldValue, String newValue) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        List<Child> children = snapshot.children; // fix the snapshot that we'll work with
 
         int len = children.size();
         for( int i=0; i<len; i++ ) {
             Child child = children.get(i);
             if(child.name.equals(xmlName) && ((LeafChild) child).value.equals(oldValue)) {
-                return (children.set(i, new LeafChild(xmlName, newValue))!=null);
+                List<Child> newChildren = new ArrayList<Child>(children);
+                newChildren.set(i, new LeafChild(xmlName, newValue));
+                publishChildren(newChildren);
+
+                if (("<" + xmlName + ">").equals(model.key)) {
+                    keyChanged();
+                }
+                return true;
             }
         }
         return false;
@@ -689,17 +908,11 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up one leaf-element value without variable expansion.
      */
     public String rawLeafElement(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child child = snapshot.first(name);
+        if (child == null) return null;
 
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(name)) {
-                // error check on model guarantees that this works.
-                return ((LeafChild)child).value;
-            }
-        }
-        return null;
+        // error check on model guarantees that this works.
+        return ((LeafChild)child).value;
     }
 
     /**
@@ -759,14 +972,18 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Synchronized so that concurrenct modifications will work correctly.
      */
     public synchronized void setLeafElements(final String name, String... values) {
-        List<Child> newChildren = new ArrayList<Child>(children);
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
 
         LeafChild[] leaves = new LeafChild[values.length];
         for (int i = 0; i < values.length; i++)
             leaves[i] = new LeafChild(name,values[i]);
 
         stitchList(newChildren,name,Arrays.asList(leaves));
-        children = newChildren;
+        publishChildren(newChildren);
+
+        if (("<" + name + ">").equals(model.key)) {
+            keyChanged();
+        }
 
         // see attribute(String,String) for the issue with this
         getInjector().injectElement(this,name,get());
@@ -778,14 +995,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *      Can be empty but never null.
      */
     public List<String> leafElements(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        List<Child> children = snapshot.named(name); // fix the snapshot that we'll work with
 
-        final List<String> r = new ArrayList<String>();
+        final List<String> r = new ArrayList<String>(children.size());
         for (Child child : children) {
-            if (child.name.equals(name)) {
-                // error check on model guarantees that this cast works.
-                r.add(t(((LeafChild) child).value));
-            }
+            // error check on model guarantees that this cast works.
+            r.add(t(((LeafChild) child).value));
         }
         return r;
     }
@@ -798,14 +1013,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *      can be empty, but never null (even if such element name is not defined in the model.)
      */
     public List<String> rawLeafElements(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        List<Child> children = snapshot.named(name); // fix the snapshot that we'll work with
 
-        final List<String> r = new ArrayList<String>();
+        final List<String> r = new ArrayList<String>(children.size());
         for (Child child : children) {
-            if (child.name.equals(name)) {
-                // error check on model guarantees that this cast works.
-                r.add(((LeafChild) child).value);
-            }
+            // error check on model guarantees that this cast works.
+            r.add(((LeafChild) child).value);
         }
         return r;
     }
@@ -814,17 +1027,11 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up one node-element value.
      */
     public Dom nodeElement(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child child = snapshot.first(name);
+        if (child == null) return null;
 
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(name)) {
-                // error check on model guarantees that this works.
-                return ((NodeChild)child).dom;
-            }
-        }
-        return null;
+        // error check on model guarantees that this works.
+        return ((NodeChild)child).dom;
     }
 
     /**
@@ -833,14 +1040,14 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Synchronized so that concurrenct modifications will work correctly.
      */
     public synchronized void setNodeElements(final String name, Dom... values) {
-        List<Child> newChildren = new ArrayList<Child>(children);
+        List<Child> newChildren = new ArrayList<Child>(snapshot.children);
 
         NodeChild[] leaves = new NodeChild[values.length];
         for (int i = 0; i < values.length; i++)
             leaves[i] = new NodeChild(name,values[i]);
 
         List<Child> removed = stitchList(newChildren,name,Arrays.asList(leaves));
-        children = newChildren;
+        publishChildren(newChildren);
 
         for (Child c : removed) {
             ((NodeChild) c).dom.release();
@@ -854,16 +1061,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up all node-elements that have the given element name.
      */
     public List<Dom> nodeElements(String elementName) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        List<Child> children = snapshot.named(elementName); // fix the snapshot that we'll work with
 
-        final List<Dom> r = new ArrayList<Dom>();
         int len = children.size();
+        final List<Dom> r = new ArrayList<Dom>(len);
         for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(elementName)) {
-                // error check on model guarantees that this works.
-                r.add(((NodeChild)child).dom);
-            }
+            // error check on model guarantees that this works.
+            r.add(((NodeChild)children.get(i)).dom);
         }
         return r;
     }
@@ -875,18 +1079,14 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Used to implement {@code FromElement("*")}.
      */
     public  List<Dom> domNodeByTypeElements(Class baseType) {
+        List<NodeChild> unnamed = snapshot.unnamedNodes; // named matches are already excluded
         List<Dom> r = new ArrayList<Dom>();
 
-        int len = children.size();
+        int len = unnamed.size();
         for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if (child instanceof NodeChild) {
-                NodeChild nc = (NodeChild) child;
-                if(model.elements.containsKey(nc.name))
-                    continue;   // match with named
-                if(baseType.isAssignableFrom(nc.dom.getImplementationClass()))
-                    r.add(nc.dom);
-            }
+            NodeChild nc = unnamed.get(i);
+            if(baseType.isAssignableFrom(nc.dom.getImplementationClass()))
+                r.add(nc.dom);
         }
         return r;
     }
@@ -904,16 +1104,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     }
 
     public <T> T nodeByTypeElement(Class<T> baseType) {
-        int len = children.size();
+        List<NodeChild> unnamed = snapshot.unnamedNodes; // named matches are already excluded
+
+        int len = unnamed.size();
         for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if (child instanceof NodeChild) {
-                NodeChild nc = (NodeChild) child;
-                if(model.elements.containsKey(nc.name))
-                    continue;   // match with named
-                if(baseType.isAssignableFrom(nc.dom.getImplementationClass()))
-                    return baseType.cast(nc.dom.get());
-            }
+            NodeChild nc = unnamed.get(i);
+            if(baseType.isAssignableFrom(nc.dom.getImplementationClass()))
+                return baseType.cast(nc.dom.get());
         }
         return null;
     }
@@ -953,7 +1150,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * and the type name.
      *
      * <p>
-     * TODO: the current algorithm does a full tree scan. Expand the model
+     * The first match in document order is returned.  The key index of this
+     * node finds the first direct child with the key, so only the subtrees of
+     * the children before it still have to be searched.
+     *
+     * <p>
+     * TODO: a miss at this level still does a full tree scan. Expand the model
      * so that we can detect deadends that are statically known not to contain
      * the kind we are looking for, and use that to cut the search space.
      */
@@ -962,7 +1164,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
         if(keyedAs!=null && keyedAs.equals(typeName) && getKey().equals(key))
             return this; // found it
 
-        for (Child child : children) {
+        ChildrenSnapshot snapshot = this.snapshot; // fix the snapshot that we'll work with
+        Integer direct = KeyIndex.find(snapshot.getKeyIndex(keyGeneration.get()).byKeyedAs, typeName, key);
+
+        // A descendant of an earlier child comes before the direct child
+        int end = (direct == null) ? snapshot.children.size() : direct.intValue();
+        for (int lcv = 0; lcv < end; lcv++) {
+            Child child = snapshot.children.get(lcv);
             if (child instanceof NodeChild) {
                 NodeChild n = (NodeChild) child;
                 Dom found = n.dom.resolveReference(key,typeName);
@@ -970,7 +1178,8 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             }
         }
 
-        return null;
+        if (direct == null) return null;
+        return ((NodeChild) snapshot.children.get(direct.intValue())).dom;
     }
     
     private final WeakCARCache<Class<?>, ConfigBeanProxy> proxyCache =
@@ -1242,7 +1451,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Used by the parser to set a list of children.
      */
     /*package*/ void setChildren(List<Child> children) {
-       this.children = children;
+       publishChildren(new ArrayList<Child>(children));
     }
 
     /**
@@ -1281,7 +1490,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
         }
 
         // if we have children, we are not empty.
-        return children.isEmpty();
+        return snapshot.children.isEmpty();
 
 
     }
@@ -1314,7 +1523,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             w.writeAttribute(attributeToWrite.getKey(), attributeToWrite.getValue());
         }
 
-        List<Child> localChildren = new ArrayList<Child>(children);
+        List<Child> localChildren = snapshot.children;
         for (Child c : localChildren)
             c.writeTo(w);
 
@@ -37,10 +37,11 @@
  * only if the new code is made subject to such option by the copyright
  * holder.
  */
-
 package org.jvnet.hk2.config;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -52,7 +53,6 @@ import org.jvnet.hk2.annotations.Optional;
 import org.jvnet.hk2.annotations.Service;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 
 import org.glassfish.hk2.api.PostConstruct;
 import org.glassfish.hk2.api.PreDestroy;
@@ -61,345 +61,565 @@ import org.glassfish.hk2.api.PreDestroy;
  * Transactions is a singleton service that receives transaction notifications and dispatch these
  * notifications asynchronously to listeners.
  *
+ * <p>
+ * Every listener owns a bounded mailbox of pending notifications.  A mailbox is drained by at most
+ * one worker at a time, so each listener sees notifications in commit order, while different
+ * listeners are notified in parallel by a bounded pool of workers.  When a mailbox is full the
+ * committing thread waits for room, notification threads themselves never wait.
+ *
+ * <p>
+ * The pipeline can be tuned with the following system properties:
+ * <ul>
+ * <li>{@value #WORKERS_PROPERTY}: the number of notification workers (defaults to the number of processors)</li>
+ * <li>{@value #QUEUE_CAPACITY_PROPERTY}: the number of pending notifications per listener (defaults to 50)</li>
+ * <li>{@value #SCHEDULE_CAPACITY_PROPERTY}: the number of listeners that may wait for a free notification
+ * worker (defaults to 256).  When that many are waiting, a committer notifies the listener itself</li>
+ * <li>{@value #COALESCE_PROPERTY}: if true, attribute changes of the same bean pending for one listener
+ * are merged into a single event carrying the first old value and the last new value (defaults to false)</li>
+ * </ul>
+ *
  * @author Jerome Dochez
  */
 
 @Service
 public final class Transactions implements PostConstruct, PreDestroy {
+    /** System property holding the number of notification workers */
+    public final static String WORKERS_PROPERTY = "org.jvnet.hk2.config.transactions.workers";
+    /** System property holding the number of pending notifications per listener */
+    public final static String QUEUE_CAPACITY_PROPERTY = "org.jvnet.hk2.config.transactions.queueCapacity";
+    /** System property holding the number of listeners that may wait for a notification worker */
+    public final static String SCHEDULE_CAPACITY_PROPERTY = "org.jvnet.hk2.config.transactions.scheduleCapacity";
+    /** System property enabling coalescing of attribute changes */
+    public final static String COALESCE_PROPERTY = "org.jvnet.hk2.config.transactions.coalesce";
+
+    private final static int DEFAULT_QUEUE_CAPACITY = 50;
+    private final static int DEFAULT_SCHEDULE_CAPACITY = 256;
+
+    /**
+     * Number of notifications a worker delivers to one listener before giving
+     * the thread back to the pool
+     */
+    private final static int DELIVERY_BATCH = 16;
+
+    /**
+     * Set while the current thread is delivering notifications.  Such a thread
+     * must never wait on a mailbox, since the mailbox may be its own
+     */
+    private final static ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
 
-    // each transaction listener has a notification pump.
-    private final List<Provider<ListenerNotifier<TransactionListener, ?, Void>>> listeners =
-            new ArrayList<Provider<ListenerNotifier<TransactionListener, ?, Void>>>();
+    private final List<TransactionListener> listeners = new CopyOnWriteArrayList<TransactionListener>();
 
     private final Map<Class, Set<ConfigListener>> typeListeners = new HashMap<Class, Set<ConfigListener>>();
 
+    /**
+     * Keyed by listener identity, listeners that are equal must still be notified
+     * separately.  Protected by its own lock
+     */
+    private final Map<Object, Mailbox> mailboxes = new IdentityHashMap<Object, Mailbox>();
+
     @Inject @Named("transactions-executor") @Optional
     private ExecutorService executor;
 
-    // all configuration listeners are notified though one notifier.
-    private final Provider<ConfigListenerNotifier> configListenerNotifier = new Provider<ConfigListenerNotifier>() {
-
-            private final ConfigListenerNotifier configListenerNotifier = new ConfigListenerNotifier();
-            private final CountDownLatch initialized = new CountDownLatch(1);
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean coalesce;
+    private volatile boolean stopped;
 
-            public ConfigListenerNotifier get() {
-                synchronized(initialized) {
-                    if (initialized.getCount()>0) {
-                        configListenerNotifier.start();
-                        initialized.countDown();
-                    }
-
-                return configListenerNotifier;
-            }
-        }
-    };
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong totalQueueWait = new AtomicLong();
+    private final AtomicLong maxQueueWait = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
 
     public void postConstruct() {
+        queueCapacity = Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY));
+        coalesce = Boolean.getBoolean(COALESCE_PROPERTY);
+
         if (executor==null) {
-            executor = Executors.newCachedThreadPool();
+            int workers = Math.max(1, Integer.getInteger(WORKERS_PROPERTY,
+                    Runtime.getRuntime().availableProcessors()));
+            int scheduleCapacity = Math.max(1, Integer.getInteger(SCHEDULE_CAPACITY_PROPERTY,
+                    DEFAULT_SCHEDULE_CAPACITY));
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(scheduleCapacity), new NotifierThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
         }
     }
 
     public void preDestroy() {
-       for (Provider<ListenerNotifier<TransactionListener,  ?, Void>> listener : listeners) {
-           listener.get().stop();
-       }
-       configListenerNotifier.get().stop();
-       executor.shutdown();
+        stopped = true;
+        executor.shutdown();
     }
 
     /**
-     * Abstract notification pump, it adds jobs to the queue and process them in the order
-     * jobs were added.
-     *
-     * Jobs are just a wrapper for events of type <U> and a notification mechanism for
-     * completion notification
-     *
-     * @param <T> type of listener interface
-     * @param <U> type of events the listener methods are expecting
-     * @param <V> return type of the listener interface methods.
+     * Creates the daemon threads of the default notification pool
      */
-    private abstract class Notifier<T, U, V> {
-        
-        private final BlockingQueue<FutureTask> pendingJobs = new ArrayBlockingQueue<FutureTask>(50);
-        private CountDownLatch latch = new CountDownLatch(1);
+    private static class NotifierThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "hk2-config-transactions-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The pending notifications of a single listener.  At most one worker drains a
+     * mailbox at any time, which is what guarantees ordered delivery per listener.
+     * A mailbox removes itself from {@link Transactions#mailboxes} once drained and
+     * is recreated on the next notification.
+     */
+    private final class Mailbox implements Runnable {
+        private final Object listener;
+        private final LinkedList<Delivery> queue = new LinkedList<Delivery>();
+        private boolean scheduled;
+        private boolean retired;
+
+        private Mailbox(Object listener) {
+            this.listener = listener;
+        }
 
         /**
-         * Creates the task that will notify the listeners of a particular job.
-         * @param job contains the specifics of the notification like the events that need to be notified.
-         * @return a task that can be run and return an optional value.
+         * Queues a delivery, waiting for room if the caller is a committer and
+         * the mailbox is full
+         *
+         * @return false if this mailbox is retired and a new one must be used
          */
-        protected abstract FutureTask<V> prepare(final Job<T, U, V> job);
+        private boolean offer(Delivery delivery) {
+            synchronized (this) {
+                if (DELIVERING.get() == null && !retired && queue.size() >= queueCapacity) {
+                    throttled.incrementAndGet();
+                    while (!retired && queue.size() >= queueCapacity) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+                if (retired) return false;
+
+                Delivery last = queue.peekLast();
+                if (coalesce && last != null && last.absorb(delivery)) {
+                    coalesced.incrementAndGet();
+                }
+                else {
+                    queue.add(delivery);
+                    pending.incrementAndGet();
+                }
+
+                if (scheduled) return true;
+                scheduled = true;
+            }
+
+            schedule();
+            return true;
+        }
 
         /**
-         * Adds a job to the notification pump. This job will be processed as soon as all other pending
-         * jobs have completed.
-         *
-         * @param job new notification job.
-         * @return a future on the return value.
+         * Hands this mailbox to a notification worker.  If every worker is
+         * busy and the executor queue is full the calling committer drains
+         * this mailbox itself, which slows committers down to the pace of
+         * the listeners
          */
-        public Future<V> add(final Job<T, U, V> job) {
-                
-            // NOTE that this is put() which blocks, *not* add() which will not block and will
-            // throw an IllegalStateException if the queue is full.
-            if (latch.getCount()==0) {
-                throw new RuntimeException("TransactionListener is inactive, yet jobs are published to it");
+        private void schedule() {
+            if (trySchedule()) return;
+
+            if (!executor.isShutdown()) {
+                run();
+                return;
+            }
+
+            abandonAll();
+        }
+
+        private void abandonAll() {
+            List<Delivery> abandoned;
+            synchronized (this) {
+                abandoned = retire();
             }
+            for (Delivery delivery : abandoned) {
+                delivery.abandon();
+            }
+        }
+
+        /**
+         * @return false if the executor did not accept this mailbox
+         */
+        private boolean trySchedule() {
             try {
-                pendingJobs.put(prepare(job));
-            } catch (InterruptedException e ) {
-                throw new RuntimeException(e);
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
             }
-            return null;
         }
-        
-        protected void start() {
 
-            executor.submit(new Runnable() {
+        /**
+         * Must be called with the lock of this mailbox held
+         */
+        private List<Delivery> retire() {
+            retired = true;
+            scheduled = false;
+            synchronized (mailboxes) {
+                if (mailboxes.get(listener) == this) {
+                    mailboxes.remove(listener);
+                }
+            }
+            notifyAll();
 
-                public void run() {
-                    while (latch.getCount()>0) {
-                        try {
-                            final FutureTask job = pendingJobs.take();
-                            // when listeners start a transaction themselves, several jobs try to get published
-                            // simultaneously so we cannot block the pump while delivering the messages. 
-                            executor.submit(new Runnable() {
-                                public void run() {
-                                    job.run();
-                                }
-                            });
+            List<Delivery> retVal = new ArrayList<Delivery>(queue);
+            pending.addAndGet(-queue.size());
+            queue.clear();
+            return retVal;
+        }
+
+        public void run() {
+            Boolean outer = DELIVERING.get();
+            DELIVERING.set(Boolean.TRUE);
+            try {
+                while (true) {
+                    for (int lcv = 0; lcv < DELIVERY_BATCH; lcv++) {
+                        Delivery next;
+                        synchronized (this) {
+                            next = queue.poll();
+                            if (next == null) {
+                                retire();
+                                return;
+                            }
+                            pending.decrementAndGet();
+                            notifyAll();
                         }
 
-                        catch (InterruptedException e) {
-                            // do anything here?
+                        long waited = System.nanoTime() - next.queuedAt;
+                        deliveries.incrementAndGet();
+                        totalQueueWait.addAndGet(waited);
+                        long max;
+                        while (waited > (max = maxQueueWait.get()) && !maxQueueWait.compareAndSet(max, waited)) {
+                            // retry
                         }
+
+                        next.deliver(listener);
                     }
-                }
-                
-            });
-        }
 
-        void stop() {
-            latch.countDown();
-            // last event to force the close
-            pendingJobs.add(prepare(new Job<T, U, V>(null, null) {
-                public V process(T target) {
-                    return null;
+                    // let other listeners have the thread, then carry on.  If the
+                    // executor cannot take this mailbox back keep going on this thread
+                    if (trySchedule()) return;
+
+                    if (executor.isShutdown()) {
+                        abandonAll();
+                        return;
+                    }
                 }
-            }));
+            } finally {
+                if (outer == null) DELIVERING.remove();
+            }
         }
     }
 
     /**
-     * Default listener notification pump. One thread per listener, jobs processed in
-     * the order it was received.
-     *
-     * @param <T> type of listener interface
-     * @param <U> type of events the listener methods are expecting
-     * @param <V> return type of the listener interface methods.
+     * Queues a delivery on the mailbox of the given listener
      */
-    private class ListenerNotifier<T,U,V> extends Notifier<T,U,V> {
-        
-        final T listener;
+    private void offer(Object listener, Delivery delivery) {
+        while (true) {
+            Mailbox mailbox;
+            synchronized (mailboxes) {
+                mailbox = mailboxes.get(listener);
+                if (mailbox == null) {
+                    mailbox = new Mailbox(listener);
+                    mailboxes.put(listener, mailbox);
+                }
+            }
 
-        public ListenerNotifier(T listener) {
-            this.listener = listener;
+            if (mailbox.offer(delivery)) return;
         }
-
-        protected FutureTask<V> prepare(final Job<T, U, V> job) {
-            return new FutureTask<V>(new Callable<V>() {
-                    public V call() throws Exception {
-                        try {
-                            if ( job.mEvents.size() != 0 ) {
-                                return job.process(listener);
-                           }
-                        } finally {
-                            job.releaseLatch();
-                        }
-                        return null;
-                    }
-                });
-        }   
-        
     }
 
     /**
-     * Configuration listener notification pump. All Listeners are notified within their own thread, only on thread
-     * takes care of the job pump.
-     * 
+     * A notification pending for one listener.
      */
-    private class ConfigListenerNotifier extends Notifier<ConfigListener,PropertyChangeEvent,UnprocessedChangeEvents> {
+    private abstract static class Delivery {
+        private final long queuedAt = System.nanoTime();
 
-        protected FutureTask<UnprocessedChangeEvents>
-            prepare(final Job<ConfigListener, PropertyChangeEvent, UnprocessedChangeEvents> job) {
+        /**
+         * Notifies the given listener, must not throw
+         */
+        protected abstract void deliver(Object listener);
 
-        // first, calculate the recipients.
-        final Set<ConfigListener> configListeners = new HashSet<ConfigListener>();
-            if (job.mEvents != null) {
-                for (PropertyChangeEvent event : job.mEvents) {
-                    final Dom dom = (Dom) ((ConfigView) Proxy.getInvocationHandler(event.getSource())).getMasterView();
-                    configListeners.addAll(dom.getListeners());
-
-                    // we also notify the parent.
-                    if (dom.parent()!=null) {
-                        configListeners.addAll(dom.parent().getListeners());
-                    }
+        /**
+         * Merges the given delivery, queued right after this one, into this one
+         *
+         * @return true if next was merged and need not be queued
+         */
+        protected boolean absorb(Delivery next) {
+            return false;
+        }
 
-                    // and now, notify all listeners for the changed types.
-                    Set<ConfigListener> listeners = typeListeners.get(dom.getProxyType());
-                    if (listeners!=null) {
-                        configListeners.addAll(listeners);
-                    }
+        /**
+         * Called instead of {@link #deliver(Object)} when the delivery can never happen
+         */
+        protected void abandon() {
+        }
+    }
 
-                    // we need to check if elements are removed to ensure
-                    // the typed listeners are notified.
-                    if (event.getNewValue()==null) {
-                        Object oldValue = event.getOldValue();
-                        if (oldValue instanceof ConfigBeanProxy) {
-                            Dom domOldValue = Dom.unwrap((ConfigBeanProxy) oldValue);
-                            Set<ConfigListener> typedListeners = typeListeners.get(domOldValue.<ConfigBeanProxy>getProxyType());
-                            if (typedListeners!=null) {
-                                configListeners.addAll(typedListeners);
-                            }
-                        }
-                    }
+    private static class TransactionDelivery extends Delivery {
+        private List<PropertyChangeEvent> events;
+        private final List<CountDownLatch> latches = new ArrayList<CountDownLatch>(1);
+
+        private TransactionDelivery(List<PropertyChangeEvent> events, CountDownLatch latch) {
+            this.events = events;
+            if (latch != null) latches.add(latch);
+        }
+
+        @Override
+        protected void deliver(Object listener) {
+            try {
+                if (!events.isEmpty()) {
+                    ((TransactionListener) listener).transactionCommited(events);
                 }
+            } catch(Exception e) {
+                Logger.getAnonymousLogger().log(Level.SEVERE, "Transaction Listener " + listener.getClass() + " notification failed", e);
+            } finally {
+                abandon();
             }
+        }
 
-            return new FutureTask<UnprocessedChangeEvents>(new Callable<UnprocessedChangeEvents>() {
-            public UnprocessedChangeEvents call() throws Exception {
+        @Override
+        protected boolean absorb(Delivery next) {
+            if (!(next instanceof TransactionDelivery)) return false;
+            TransactionDelivery other = (TransactionDelivery) next;
 
-                try {
-                    // temporary structure to store our future notifications with pointer to the
-                    // originator config listener
-                    Map<Future<UnprocessedChangeEvents>, ConfigListener> futures = new HashMap<Future<UnprocessedChangeEvents>, ConfigListener>();
+            events = coalesce(events, other.events);
+            latches.addAll(other.latches);
+            return true;
+        }
 
-                    for (final ConfigListener listener : configListeners) {
-                        // each listener is notified in it's own thread.
-                        futures.put(executor.submit(new Callable<UnprocessedChangeEvents>() {
-                            public UnprocessedChangeEvents call() throws Exception {
-                                UnprocessedChangeEvents e = job.process(listener);
-                                return e;
+        @Override
+        protected void abandon() {
+            for (CountDownLatch latch : latches) {
+                latch.countDown();
+            }
+        }
+    }
 
-                            }
-                        }), listener);
-                    }
-                    List<UnprocessedChangeEvents> unprocessed = new ArrayList<UnprocessedChangeEvents>(futures.size());
-                    for (Future<UnprocessedChangeEvents> future : futures.keySet()) {
-                        try {
-                            UnprocessedChangeEvents result = future.get(200, TimeUnit.SECONDS);
-                            if (result!=null && result.getUnprocessed()!=null && result.getUnprocessed().size()>0) {
-                                for (UnprocessedChangeEvent event : result.getUnprocessed()) {
-                                    Logger.getAnonymousLogger().log(Level.WARNING, "Unprocessed event : " + event);
-                                }
-                                unprocessed.add(result);
-                            }
-                        } catch (InterruptedException e) {
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
-                        } catch (ExecutionException e) {
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
-                        } catch (TimeoutException e) {
-                            ConfigListener cl = futures.get(future);
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener " + cl.getClass() + " notification took too long", e);
-                        }
-                    }
+    private static class UnprocessedDelivery extends Delivery {
+        private final List<UnprocessedChangeEvents> events;
 
-                    // all notification have been successful, I just need to notify the unprocessed events.
-                    // note these events are always synchronous so far.
-                    if (!unprocessed.isEmpty()) {
-                        Job unprocessedJob = new UnprocessedEventsJob(unprocessed, null);
-                        for (Provider<ListenerNotifier<TransactionListener, ?, Void>> listener : Transactions.this.listeners) {
-                            listener.get().add(unprocessedJob);
-                        }
-                    }
-                } finally {
-                    job.releaseLatch();
-                }
+        private UnprocessedDelivery(List<UnprocessedChangeEvents> events) {
+            this.events = events;
+        }
 
-                // in theory I should aggregate my unprocessed events but nobody cares.
-                return null;
+        @Override
+        protected void deliver(Object listener) {
+            try {
+                ((TransactionListener) listener).unprocessedTransactedEvents(events);
+            } catch(Exception e) {
+                Logger.getAnonymousLogger().log(Level.SEVERE, "Transaction Listener " + listener.getClass() + " notification failed", e);
             }
-        });
-    }
-
+        }
     }
 
+    private static class ConfigDelivery extends Delivery {
+        private List<PropertyChangeEvent> events;
+        private final List<ConfigDispatch> dispatches = new ArrayList<ConfigDispatch>(1);
 
-    /**
-        A job contains an optional CountdownLatch so that a caller can learn when the
-        transaction has "cleared" by blocking until that time.
-     */
-    private abstract static class Job<T,U,V> {
-
-        private final CountDownLatch mLatch;
-        protected final List<U> mEvents;
-        
-        public Job(List<U> events, final CountDownLatch latch ) {
-            mLatch  = latch;
-            mEvents = events;
+        private ConfigDelivery(List<PropertyChangeEvent> events, ConfigDispatch dispatch) {
+            this.events = events;
+            dispatches.add(dispatch);
         }
-        
-        public void waitForLatch() throws InterruptedException {
-            if ( mLatch != null ) {
-                mLatch.await();
+
+        @Override
+        protected void deliver(Object listener) {
+            UnprocessedChangeEvents result = null;
+            try {
+                result = ((ConfigListener) listener).changed(events.toArray(new PropertyChangeEvent[events.size()]));
+            } catch (Exception e) {
+                Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener " + listener.getClass() + " notification failed", e);
+            } finally {
+                // unprocessed events are reported once, against the oldest transaction
+                for (int lcv = 0; lcv < dispatches.size(); lcv++) {
+                    dispatches.get(lcv).completed((lcv == 0) ? result : null);
+                }
             }
         }
-        
-        public void releaseLatch() {
-            if ( mLatch != null ) {
-                mLatch.countDown();
+
+        @Override
+        protected boolean absorb(Delivery next) {
+            if (!(next instanceof ConfigDelivery)) return false;
+            ConfigDelivery other = (ConfigDelivery) next;
+
+            events = coalesce(events, other.events);
+            dispatches.addAll(other.dispatches);
+            return true;
+        }
+
+        @Override
+        protected void abandon() {
+            for (ConfigDispatch dispatch : dispatches) {
+                dispatch.completed(null);
             }
         }
-        
-        public abstract V process(T target);
     }
-    
-    private static class TransactionListenerJob extends Job<TransactionListener, PropertyChangeEvent, Void> {
 
-        public TransactionListenerJob(List<PropertyChangeEvent> events, CountDownLatch latch) {
-            super(events,  latch);
+    /**
+     * Marker used by {@link Transactions#waitForDrain()}
+     */
+    private static class DrainDelivery extends Delivery {
+        private final CountDownLatch latch;
+
+        private DrainDelivery(CountDownLatch latch) {
+            this.latch = latch;
         }
-        
+
         @Override
-        public Void process(TransactionListener listener) {
-            try {
-                listener.transactionCommited(mEvents);
-            } catch(Exception e) {
-                e.printStackTrace();
-            }
-            return null;
+        protected void deliver(Object listener) {
+            latch.countDown();
+        }
+
+        @Override
+        protected void abandon() {
+            latch.countDown();
         }
     }
 
-    private static class UnprocessedEventsJob extends Job<TransactionListener, UnprocessedChangeEvents, Void> {
+    /**
+     * Tracks the delivery of one transaction to all of its config listeners, the
+     * last listener to complete forwards the unprocessed events to the transaction
+     * listeners and releases the committer
+     */
+    private final class ConfigDispatch {
+        private final AtomicInteger remaining;
+        private final CountDownLatch latch;
+        private final Queue<UnprocessedChangeEvents> unprocessed = new ConcurrentLinkedQueue<UnprocessedChangeEvents>();
+
+        private ConfigDispatch(int recipients, CountDownLatch latch) {
+            this.remaining = new AtomicInteger(recipients);
+            this.latch = latch;
+        }
+
+        private void completed(UnprocessedChangeEvents result) {
+            if (result!=null && result.getUnprocessed()!=null && result.getUnprocessed().size()>0) {
+                for (UnprocessedChangeEvent event : result.getUnprocessed()) {
+                    Logger.getAnonymousLogger().log(Level.WARNING, "Unprocessed event : " + event);
+                }
+                unprocessed.add(result);
+            }
 
-        public UnprocessedEventsJob(List<UnprocessedChangeEvents> events, CountDownLatch latch) {
-            super(events, latch);
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
         }
 
-        @Override
-        public Void process(TransactionListener listener) {
+        private void finish() {
             try {
-                listener.unprocessedTransactedEvents(mEvents);
-            } catch(Exception e) {
-                e.printStackTrace();
+                // all notification have been successful, I just need to notify the unprocessed events.
+                if (!unprocessed.isEmpty() && !stopped) {
+                    List<UnprocessedChangeEvents> all = new ArrayList<UnprocessedChangeEvents>(unprocessed);
+                    for (TransactionListener listener : listeners) {
+                        offer(listener, new UnprocessedDelivery(all));
+                    }
+                }
+            } finally {
+                if (latch != null) latch.countDown();
             }
-            return null;
         }
     }
 
-    private class ConfigListenerJob extends Job<ConfigListener, PropertyChangeEvent, UnprocessedChangeEvents> {
+    /**
+     * Computes the config listeners interested in the given events
+     */
+    private Set<ConfigListener> configRecipients(List<PropertyChangeEvent> events) {
+        final Set<ConfigListener> configListeners = new HashSet<ConfigListener>();
+        synchronized (this) {
+            for (PropertyChangeEvent event : events) {
+                final Dom dom = (Dom) ((ConfigView) Proxy.getInvocationHandler(event.getSource())).getMasterView();
+                configListeners.addAll(dom.getListeners());
+
+                // we also notify the parent.
+                if (dom.parent()!=null) {
+                    configListeners.addAll(dom.parent().getListeners());
+                }
 
-        final PropertyChangeEvent[] eventsArray;
+                // and now, notify all listeners for the changed types.
+                Set<ConfigListener> listeners = typeListeners.get(dom.getProxyType());
+                if (listeners!=null) {
+                    configListeners.addAll(listeners);
+                }
 
-        public ConfigListenerJob(List<PropertyChangeEvent> events, CountDownLatch latch) {
-            super(events, latch);
-            eventsArray = mEvents.toArray(new PropertyChangeEvent[mEvents.size()]);            
+                // we need to check if elements are removed to ensure
+                // the typed listeners are notified.
+                if (event.getNewValue()==null) {
+                    Object oldValue = event.getOldValue();
+                    if (oldValue instanceof ConfigBeanProxy) {
+                        Dom domOldValue = Dom.unwrap((ConfigBeanProxy) oldValue);
+                        Set<ConfigListener> typedListeners = typeListeners.get(domOldValue.<ConfigBeanProxy>getProxyType());
+                        if (typedListeners!=null) {
+                            configListeners.addAll(typedListeners);
+                        }
+                    }
+                }
+            }
         }
+        return configListeners;
+    }
+
+    /**
+     * Appends the second list of events to the first one, merging changes of the same
+     * attribute of the same bean into one event.  Element changes are never merged
+     * since each of them adds or removes a distinct child
+     */
+    private static List<PropertyChangeEvent> coalesce(List<PropertyChangeEvent> first, List<PropertyChangeEvent> second) {
+        List<PropertyChangeEvent> retVal = new ArrayList<PropertyChangeEvent>(first.size() + second.size());
+        Map<Dom, Map<String, Integer>> positions = new HashMap<Dom, Map<String, Integer>>();
+
+        for (List<PropertyChangeEvent> events : Arrays.asList(first, second)) {
+            for (PropertyChangeEvent event : events) {
+                Dom dom = attributeOwner(event);
+                if (dom == null) {
+                    retVal.add(event);
+                    continue;
+                }
+
+                Map<String, Integer> attributes = positions.get(dom);
+                if (attributes == null) {
+                    attributes = new HashMap<String, Integer>();
+                    positions.put(dom, attributes);
+                }
 
-        public UnprocessedChangeEvents process(ConfigListener target) {
-            return target.changed(eventsArray);
+                Integer position = attributes.get(event.getPropertyName());
+                if (position == null) {
+                    attributes.put(event.getPropertyName(), retVal.size());
+                    retVal.add(event);
+                    continue;
+                }
+
+                PropertyChangeEvent earlier = retVal.get(position);
+                retVal.set(position, new PropertyChangeEvent(event.getSource(), event.getPropertyName(),
+                        earlier.getOldValue(), event.getNewValue()));
+            }
         }
+
+        return retVal;
+    }
+
+    /**
+     * Returns the bean changed by the given event if the event is an attribute change,
+     * or null otherwise
+     */
+    private static Dom attributeOwner(PropertyChangeEvent event) {
+        if (event.getPropertyName() == null || !(event.getSource() instanceof ConfigBeanProxy)) return null;
+
+        Object handler = Proxy.getInvocationHandler(event.getSource());
+        if (!(handler instanceof ConfigView)) return null;
+
+        Dom dom = (Dom) ((ConfigView) handler).getMasterView();
+        if (!dom.model.attributes.containsKey(event.getPropertyName())) return null;
+
+        return dom;
     }
 
     /**
@@ -438,23 +658,7 @@ public final class Transactions implements PostConstruct, PreDestroy {
      * @param listener to be added.
      */
     public void addTransactionsListener(final TransactionListener listener) {
-        synchronized(listeners) {
-            listeners.add(new Provider<ListenerNotifier<TransactionListener, ?, Void>>() {
-
-                final ListenerNotifier<TransactionListener, PropertyChangeEvent, Void> tsListener = new ListenerNotifier<TransactionListener, PropertyChangeEvent, Void>(listener);
-                final CountDownLatch initialized = new CountDownLatch(1);
-
-                public ListenerNotifier<TransactionListener, PropertyChangeEvent, Void> get() {
-                    synchronized(initialized) {
-                        if (initialized.getCount()>0) {
-                            tsListener.start();
-                            initialized.countDown();
-                        }
-                    }
-                    return tsListener;
-                }
-            });
-        }
+        listeners.add(listener);
     }
 
     /**
@@ -463,27 +667,16 @@ public final class Transactions implements PostConstruct, PreDestroy {
      * @return true if the listener unregistration was successful
      */
     public boolean removeTransactionsListener(TransactionListener listener) {
-        synchronized(listeners) {
-            for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-                ListenerNotifier info = holder.get();
-                if (info.listener==listener) {
-                    info.stop();
-                    return listeners.remove(holder);
-                }
+        for (TransactionListener candidate : listeners) {
+            if (candidate==listener) {
+                return listeners.remove(candidate);
             }
         }
         return false;
     }
     
     public List<TransactionListener> currentListeners() {
-        synchronized(listeners) {            
-            List<TransactionListener> l = new ArrayList<TransactionListener>();
-            for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-                ListenerNotifier<TransactionListener, ?, Void> info = holder.get();
-                l.add(info.listener);
-            }
-            return l;
-        }
+        return new ArrayList<TransactionListener>(listeners);
     }
 
 
@@ -499,53 +692,162 @@ public final class Transactions implements PostConstruct, PreDestroy {
     /**
      * Notification of a new transaction completion
      *
+     * <p>
+     * A transaction committed from within a listener notification is never
+     * waited for, since it cannot be delivered to the notifying listener before
+     * the current notification returns.
+     *
      * @param events accumulated list of changes
      * @param waitTillCleared  synchronous semantics; wait until all change events are sent
      */
-    @SuppressWarnings("cast")
     void addTransaction(
         final List<PropertyChangeEvent> events,
         final boolean waitTillCleared ) {
-        
-        final List<ListenerNotifier<TransactionListener, ?, Void>> listInfos = new ArrayList<ListenerNotifier<TransactionListener, ?, Void>>();
-        for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-            ListenerNotifier<TransactionListener, ?, Void> info = holder.get();
-            listInfos.add(info);
+        if (stopped) {
+            throw new IllegalStateException("Transactions service is inactive, yet transactions are published to it");
         }
-        
+
+        boolean wait = waitTillCleared && DELIVERING.get() == null;
+
+        final List<TransactionListener> listInfos = new ArrayList<TransactionListener>(listeners);
+        final Set<ConfigListener> configListeners = configRecipients(events);
+
         // create a CountDownLatch to implement waiting for events to actually be sent
-        final Job<TransactionListener, ?, Void> job = new TransactionListenerJob( events,
-                                waitTillCleared ? new CountDownLatch(listInfos.size()) : null);
-        
-        final ConfigListenerJob configJob = new ConfigListenerJob(events,
-                waitTillCleared? new CountDownLatch(1):null);
-        
-        // NOTE that this is put() which blocks, *not* add() which will not block and will
-        // throw an IllegalStateException if the queue is full.
-        try {
-            for (ListenerNotifier listener : listInfos) {
-                listener.add(job);
-            }
+        final CountDownLatch latch = wait ? new CountDownLatch(listInfos.size() + 1) : null;
+
+        for (TransactionListener listener : listInfos) {
+            offer(listener, new TransactionDelivery(events, latch));
+        }
 
-            configListenerNotifier.get().add(configJob);
+        ConfigDispatch dispatch = new ConfigDispatch(configListeners.size(), latch);
+        if (configListeners.isEmpty()) {
+            dispatch.finish();
+        }
+        for (ConfigListener listener : configListeners) {
+            offer(listener, new ConfigDelivery(events, dispatch));
+        }
 
-            job.waitForLatch();
-            configJob.waitForLatch();
+        if (latch == null) return;
+        try {
+            latch.await();
         } catch (InterruptedException e ) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
     }
 
     public void waitForDrain() {
-        // insert a dummy Job and block until is has been processed.  This guarantees
-        // that all prior jobs have finished
-        addTransaction( new ArrayList<PropertyChangeEvent>(), true );
+        // insert a marker in every mailbox and block until they have been processed.  This
+        // guarantees that all prior notifications have finished
+        if (DELIVERING.get() != null) return;
+
+        List<Mailbox> current;
+        synchronized (mailboxes) {
+            current = new ArrayList<Mailbox>(mailboxes.values());
+        }
+        CountDownLatch latch = new CountDownLatch(current.size());
+        for (Mailbox mailbox : current) {
+            if (!mailbox.offer(new DrainDelivery(latch))) {
+                // already drained
+                latch.countDown();
+            }
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
         // at this point all prior transactions are guaranteed to have cleared
-    }    
-}
+    }
 
+    /**
+     * Returns a snapshot of the notification pipeline statistics
+     *
+     * @return The statistics gathered since this service was created
+     */
+    public NotificationStatistics getStatistics() {
+        return new NotificationStatistics(deliveries.get(), coalesced.get(), throttled.get(),
+                pending.get(), totalQueueWait.get(), maxQueueWait.get());
+    }
 
+    /**
+     * Statistics of the listener notification pipeline.  All times are in nanoseconds
+     */
+    public final static class NotificationStatistics {
+        private final long deliveries;
+        private final long coalesced;
+        private final long throttled;
+        private final int pending;
+        private final long totalQueueWait;
+        private final long maxQueueWait;
+
+        private NotificationStatistics(long deliveries, long coalesced, long throttled, int pending,
+                long totalQueueWait, long maxQueueWait) {
+            this.deliveries = deliveries;
+            this.coalesced = coalesced;
+            this.throttled = throttled;
+            this.pending = pending;
+            this.totalQueueWait = totalQueueWait;
+            this.maxQueueWait = maxQueueWait;
+        }
 
+        /**
+         * @return The number of notifications delivered to listeners
+         */
+        public long getDeliveries() {
+            return deliveries;
+        }
 
+        /**
+         * @return The number of notifications merged into an already pending one
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * @return The number of times a committer had to wait for room in a full mailbox
+         */
+        public long getThrottled() {
+            return throttled;
+        }
 
+        /**
+         * @return The number of notifications currently waiting to be delivered
+         */
+        public int getPending() {
+            return pending;
+        }
 
+        /**
+         * @return The total time notifications spent waiting in mailboxes
+         */
+        public long getTotalQueueWait() {
+            return totalQueueWait;
+        }
+
+        /**
+         * @return The longest time a notification spent waiting in a mailbox
+         */
+        public long getMaxQueueWait() {
+            return maxQueueWait;
+        }
+
+        /**
+         * @return The average time a notification spent waiting in a mailbox
+         */
+        public long getAverageQueueWait() {
+            if (deliveries == 0) return 0;
+            return totalQueueWait / deliveries;
+        }
+
+        @Override
+        public String toString() {
+            return "NotificationStatistics(deliveries=" + deliveries + ",coalesced=" + coalesced +
+                    ",throttled=" + throttled + ",pending=" + pending +
+                    ",averageQueueWait=" + getAverageQueueWait() + ",maxQueueWait=" + maxQueueWait + ")";
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.beans.PropertyChangeEvent;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.test.ConfigModule;
+import org.jvnet.hk2.config.test.GenericConfig;
+import org.jvnet.hk2.config.test.SimpleDocument;
+
+/**
+ * Tests for the listener notification pipeline of {@link Transactions}
+ */
+public class TransactionsTest {
+    private final static String TEST_NAME = "TransactionsTest";
+    private final static Random RANDOM = new Random();
+    private final static String NAME = "name";
+    private final static int NUM_TRANSACTIONS = 200;
+
+    private ServiceLocator habitat;
+    private GenericConfig source;
+    private Transactions transactions;
+
+    @Before
+    public void before() throws Exception {
+        String testName = TEST_NAME + RANDOM.nextInt();
+
+        habitat = ServiceLocatorFactory.getInstance().create(testName);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+
+        config.commit();
+
+        ConfigParser parser = new ConfigParser(habitat);
+        URL url = TransactionsTest.class.getResource("/domain.xml");
+        assertNotNull(parser.parse(url, new SimpleDocument(habitat)));
+
+        source = habitat.getService(GenericConfig.class, "test2");
+        assertNotNull(source);
+    }
+
+    @After
+    public void after() {
+        if (transactions != null) {
+            transactions.preDestroy();
+            transactions = null;
+        }
+
+        System.clearProperty(Transactions.QUEUE_CAPACITY_PROPERTY);
+        System.clearProperty(Transactions.COALESCE_PROPERTY);
+
+        ServiceLocatorFactory.getInstance().destroy(habitat);
+        habitat = null;
+    }
+
+    private Transactions createTransactions() {
+        transactions = new Transactions();
+        transactions.postConstruct();
+        return transactions;
+    }
+
+    private List<PropertyChangeEvent> nameChange(int from, int to) {
+        return Collections.singletonList(new PropertyChangeEvent(source, NAME, "value" + from, "value" + to));
+    }
+
+    /**
+     * Tests that every listener sees the transactions in commit order, even
+     * listeners that are equal to each other
+     */
+    @Test
+    public void testDeliveryIsOrderedPerListener() {
+        Transactions transactions = createTransactions();
+
+        RecordingListener listener1 = new RecordingListener(null, null);
+        RecordingListener listener2 = new RecordingListener(null, null);
+        transactions.addTransactionsListener(listener1);
+        transactions.addTransactionsListener(listener2);
+
+        for (int lcv = 0; lcv < NUM_TRANSACTIONS; lcv++) {
+            transactions.addTransaction(nameChange(lcv, lcv + 1), false);
+        }
+
+        transactions.waitForDrain();
+
+        for (RecordingListener listener : new RecordingListener[] { listener1, listener2 }) {
+            List<List<PropertyChangeEvent>> received = listener.getReceived();
+            assertEquals(NUM_TRANSACTIONS, received.size());
+
+            for (int lcv = 0; lcv < NUM_TRANSACTIONS; lcv++) {
+                assertEquals("value" + (lcv + 1), received.get(lcv).get(0).getNewValue());
+            }
+        }
+    }
+
+    /**
+     * Tests that changes of the same attribute pending for a listener
+     * are merged when coalescing is on
+     */
+    @Test
+    public void testPendingAttributeChangesAreCoalesced() throws InterruptedException {
+        System.setProperty(Transactions.COALESCE_PROPERTY, "true");
+        Transactions transactions = createTransactions();
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(entered, release);
+        transactions.addTransactionsListener(listener);
+
+        transactions.addTransaction(nameChange(0, 1), false);
+        assertTrue(entered.await(20, TimeUnit.SECONDS));
+
+        // These all wait behind the first delivery
+        for (int lcv = 1; lcv < 10; lcv++) {
+            transactions.addTransaction(nameChange(lcv, lcv + 1), false);
+        }
+
+        release.countDown();
+        transactions.waitForDrain();
+
+        List<List<PropertyChangeEvent>> received = listener.getReceived();
+        assertEquals(2, received.size());
+
+        List<PropertyChangeEvent> merged = received.get(1);
+        assertEquals(1, merged.size());
+        assertEquals("value1", merged.get(0).getOldValue());
+        assertEquals("value10", merged.get(0).getNewValue());
+
+        assertEquals(8, transactions.getStatistics().getCoalesced());
+    }
+
+    /**
+     * Tests that a committer waits while the mailbox of a listener is full,
+     * and that an interrupted committer keeps its interrupt status
+     */
+    @Test
+    public void testCommitterBlocksWhenMailboxIsFull() throws Throwable {
+        System.setProperty(Transactions.QUEUE_CAPACITY_PROPERTY, "2");
+        final Transactions transactions = createTransactions();
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(entered, release);
+        transactions.addTransactionsListener(listener);
+
+        transactions.addTransaction(nameChange(0, 1), false);
+        assertTrue(entered.await(20, TimeUnit.SECONDS));
+
+        // Fills the mailbox
+        transactions.addTransaction(nameChange(1, 2), false);
+        transactions.addTransaction(nameChange(2, 3), false);
+
+        Committer blocked = new Committer(transactions, nameChange(3, 4));
+        blocked.start();
+
+        blocked.join(500);
+        assertTrue(blocked.isAlive());
+        assertEquals(1, transactions.getStatistics().getThrottled());
+
+        Committer interrupted = new Committer(transactions, nameChange(3, 4));
+        interrupted.start();
+
+        while (transactions.getStatistics().getThrottled() < 2) {
+            Thread.sleep(10);
+        }
+        interrupted.interrupt();
+        interrupted.join(20 * 1000);
+
+        assertTrue(interrupted.error instanceof RuntimeException);
+        assertTrue(interrupted.interruptedAfter);
+
+        release.countDown();
+        blocked.join(20 * 1000);
+        if (blocked.error != null) throw blocked.error;
+
+        transactions.waitForDrain();
+
+        List<List<PropertyChangeEvent>> received = listener.getReceived();
+        assertEquals(4, received.size());
+        for (int lcv = 0; lcv < 4; lcv++) {
+            assertEquals("value" + (lcv + 1), received.get(lcv).get(0).getNewValue());
+        }
+    }
+
+    private static class Committer extends Thread {
+        private final Transactions transactions;
+        private final List<PropertyChangeEvent> events;
+        private volatile Throwable error;
+        private volatile boolean interruptedAfter;
+
+        private Committer(Transactions transactions, List<PropertyChangeEvent> events) {
+            this.transactions = transactions;
+            this.events = events;
+        }
+
+        @Override
+        public void run() {
+            try {
+                transactions.addTransaction(events, false);
+            }
+            catch (Throwable th) {
+                error = th;
+                interruptedAfter = Thread.currentThread().isInterrupted();
+            }
+        }
+    }
+
+    /**
+     * Records what it receives.  All instances are equal to each other, so
+     * that listeners must be told apart by identity
+     */
+    private static class RecordingListener implements TransactionListener {
+        private final CountDownLatch entered;
+        private final CountDownLatch release;
+        private final List<List<PropertyChangeEvent>> received = new ArrayList<List<PropertyChangeEvent>>();
+
+        private RecordingListener(CountDownLatch entered, CountDownLatch release) {
+            this.entered = entered;
+            this.release = release;
+        }
+
+        @Override
+        public void transactionCommited(List<PropertyChangeEvent> changes) {
+            synchronized (this) {
+                received.add(changes);
+            }
+
+            if (entered == null || entered.getCount() == 0) return;
+
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void unprocessedTransactedEvents(List<UnprocessedChangeEvents> changes) {
+        }
+
+        private synchronized List<List<PropertyChangeEvent>> getReceived() {
+            return new ArrayList<List<PropertyChangeEvent>>(received);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof RecordingListener);
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+}
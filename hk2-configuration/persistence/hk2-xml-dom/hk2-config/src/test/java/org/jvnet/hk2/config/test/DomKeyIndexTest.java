@@ -0,0 +1,261 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.beans.PropertyVetoException;
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigParser;
+import org.jvnet.hk2.config.ConfigSupport;
+import org.jvnet.hk2.config.Dom;
+import org.jvnet.hk2.config.DomDocument;
+import org.jvnet.hk2.config.SingleConfigCode;
+import org.jvnet.hk2.config.TransactionFailure;
+
+/**
+ * Tests for the keyed lookups of {@link Dom} children
+ */
+public class DomKeyIndexTest {
+    private final static String TEST_NAME = "DomKeyIndex";
+    private final static Random RANDOM = new Random();
+    private final static String GENERIC_CONFIG = "generic-config";
+    private final static int RACE_ITERATIONS = 2000;
+
+    private ServiceLocator habitat;
+
+    @Before
+    public void before() throws Exception {
+        String testName = TEST_NAME + RANDOM.nextInt();
+
+        habitat = ServiceLocatorFactory.getInstance().create(testName);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+
+        config.commit();
+
+        ConfigParser parser = new ConfigParser(habitat);
+        URL url = DomKeyIndexTest.class.getResource("/domain.xml");
+        DomDocument doc = parser.parse(url, new SimpleDocument(habitat));
+        assertNotNull(doc);
+    }
+
+    @After
+    public void after() {
+        ServiceLocatorFactory.getInstance().destroy(habitat);
+        habitat = null;
+    }
+
+    private GenericContainer getContainer() {
+        return habitat.getService(SimpleConnector.class).getExtensions().get(0);
+    }
+
+    @Test
+    public void testLookupAfterAdd() throws TransactionFailure {
+        GenericContainer container = getContainer();
+        Dom containerDom = Dom.unwrap(container);
+
+        // Builds the key index of the current children
+        assertNotNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test1"));
+        assertNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test3"));
+
+        ConfigSupport.apply(new SingleConfigCode<GenericContainer>() {
+            @Override
+            public Object run(GenericContainer container)
+                    throws PropertyVetoException, TransactionFailure {
+                GenericConfig newChild = container.createChild(GenericConfig.class);
+                newChild.setName("test3");
+                container.getExtensions().add(newChild);
+                return newChild;
+            }
+        }, container);
+
+        Dom added = containerDom.nodeElementByKey(GENERIC_CONFIG, "test3");
+        assertNotNull(added);
+        assertEquals("test3", added.getKey());
+        assertSame(added, containerDom.resolveReference("test3", added.model.keyedAs));
+        assertNotNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test1"));
+    }
+
+    @Test
+    public void testLookupAfterRemove() throws TransactionFailure {
+        GenericContainer container = getContainer();
+        Dom containerDom = Dom.unwrap(container);
+
+        Dom test2 = containerDom.nodeElementByKey(GENERIC_CONFIG, "test2");
+        assertNotNull(test2);
+        String keyedAs = test2.model.keyedAs;
+
+        ConfigSupport.apply(new SingleConfigCode<GenericContainer>() {
+            @Override
+            public Object run(GenericContainer container)
+                    throws PropertyVetoException, TransactionFailure {
+                List<GenericConfig> extensions = container.getExtensions();
+                GenericConfig removeMe = extensions.get(extensions.size() - 1);
+                extensions.remove(removeMe);
+                return removeMe;
+            }
+        }, container);
+
+        assertNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test2"));
+        assertNull(containerDom.resolveReference("test2", keyedAs));
+        assertNotNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test1"));
+    }
+
+    @Test
+    public void testLookupAfterRename() throws TransactionFailure {
+        GenericContainer container = getContainer();
+        Dom containerDom = Dom.unwrap(container);
+
+        Dom test2 = containerDom.nodeElementByKey(GENERIC_CONFIG, "test2");
+        assertNotNull(test2);
+        String keyedAs = test2.model.keyedAs;
+
+        ConfigSupport.apply(new SingleConfigCode<GenericConfig>() {
+            @Override
+            public Object run(GenericConfig config)
+                    throws PropertyVetoException, TransactionFailure {
+                config.setName("renamed");
+                return config;
+            }
+        }, container.getExtensions().get(1));
+
+        assertNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "test2"));
+        assertNull(containerDom.resolveReference("test2", keyedAs));
+        assertSame(test2, containerDom.nodeElementByKey(GENERIC_CONFIG, "renamed"));
+        assertSame(test2, containerDom.resolveReference("renamed", keyedAs));
+    }
+
+    /**
+     * A descendant of an earlier child with the key is found before a
+     * later direct child with the same key, as in document order
+     */
+    @Test
+    public void testResolveReferenceKeepsDocumentOrder() throws TransactionFailure {
+        GenericContainer container = getContainer();
+        Dom containerDom = Dom.unwrap(container);
+
+        Dom nested = Dom.unwrap(container.getExtensions().get(0).getGenericConfig());
+        assertEquals("test", nested.getKey());
+        String keyedAs = nested.model.keyedAs;
+
+        ConfigSupport.apply(new SingleConfigCode<GenericConfig>() {
+            @Override
+            public Object run(GenericConfig config)
+                    throws PropertyVetoException, TransactionFailure {
+                config.setName("test");
+                return config;
+            }
+        }, container.getExtensions().get(1));
+
+        Dom test2 = containerDom.nodeElementByKey(GENERIC_CONFIG, "test");
+        assertNotNull(test2);
+        assertSame(Dom.unwrap(container.getExtensions().get(1)), test2);
+
+        assertSame(nested, containerDom.resolveReference("test", keyedAs));
+        assertSame(test2, test2.resolveReference("test", keyedAs));
+    }
+
+    /**
+     * Races the building of the key index against a change of the key of
+     * a child, and checks that a lookup done after both is never stale
+     */
+    @Test
+    public void testIndexBuildRacingKeyChange() throws Throwable {
+        final Dom containerDom = Dom.unwrap(getContainer());
+        final Dom test2 = containerDom.nodeElementByKey(GENERIC_CONFIG, "test2");
+        assertNotNull(test2);
+
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Throwable errors[] = new Throwable[1];
+
+        Thread renamer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int lcv = 0; lcv < RACE_ITERATIONS; lcv++) {
+                        barrier.await();
+                        test2.attribute("name", "key" + lcv);
+                        barrier.await();
+                    }
+                }
+                catch (Throwable th) {
+                    errors[0] = th;
+                }
+            }
+        };
+        renamer.start();
+
+        try {
+            for (int lcv = 0; lcv < RACE_ITERATIONS; lcv++) {
+                barrier.await();
+                // Races with the rename, may or may not see the new key
+                containerDom.nodeElementByKey(GENERIC_CONFIG, "key" + lcv);
+                barrier.await();
+
+                assertSame(test2, containerDom.nodeElementByKey(GENERIC_CONFIG, "key" + lcv));
+                if (lcv > 0) {
+                    assertNull(containerDom.nodeElementByKey(GENERIC_CONFIG, "key" + (lcv - 1)));
+                }
+            }
+        }
+        finally {
+            barrier.reset();
+            renamer.join();
+        }
+
+        if (errors[0] != null) throw errors[0];
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.json.internal;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+import org.glassfish.hk2.xml.internal.ChildDataModel;
+import org.glassfish.hk2.xml.internal.ChildDescriptor;
+import org.glassfish.hk2.xml.internal.ChildType;
+import org.glassfish.hk2.xml.internal.ModelImpl;
+import org.glassfish.hk2.xml.internal.ParentedModel;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+/**
+ * The properties of one model, computed once so that reading and
+ * writing a bean does not need to go back to the model for every
+ * property of every bean
+ * 
+ * @author jwells
+ *
+ */
+public class JsonModelTable {
+    /* package */ final static int STRING = 0;
+    /* package */ final static int INT = 1;
+    /* package */ final static int LONG = 2;
+    /* package */ final static int SHORT = 3;
+    /* package */ final static int BYTE = 4;
+    /* package */ final static int DOUBLE = 5;
+    /* package */ final static int FLOAT = 6;
+    /* package */ final static int OTHER = 7;
+    
+    private final ModelImpl model;
+    private final Constructor<?> proxyConstructor;
+    private final Property[] properties;
+    private final Map<String, Property> byName;
+    
+    /* package */ JsonModelTable(ModelImpl model) {
+        this.model = model;
+        
+        try {
+            proxyConstructor = model.getProxyAsClass().getConstructor();
+        }
+        catch (NoSuchMethodException nsme) {
+            throw new IllegalStateException("The proxy of " + model + " has no public no-argument constructor", nsme);
+        }
+        
+        Map<QName, ChildDescriptor> allChildren = model.getAllChildrenDescriptors();
+        
+        properties = new Property[allChildren.size()];
+        byName = new HashMap<String, Property>();
+        
+        int slot = 0;
+        for (Map.Entry<QName, ChildDescriptor> entry : allChildren.entrySet()) {
+            QName qname = entry.getKey();
+            ChildDescriptor descriptor = entry.getValue();
+            
+            Property property = new Property(qname.getLocalPart(), slot, descriptor);
+            properties[slot] = property;
+            
+            // Json keys have no namespace
+            if (XMLConstants.NULL_NS_URI.equals(qname.getNamespaceURI())) {
+                byName.put(property.name, property);
+            }
+            
+            slot++;
+        }
+    }
+    
+    /**
+     * Creates a new bean of this model
+     * 
+     * @return A new bean with nothing set
+     */
+    /* package */ BaseHK2JAXBBean createBean() {
+        try {
+            return (BaseHK2JAXBBean) ReflectionHelper.makeMe(proxyConstructor, new Object[0], false);
+        }
+        catch (RuntimeException re) {
+            throw re;
+        }
+        catch (Throwable th) {
+            throw new RuntimeException(th);
+        }
+    }
+    
+    /* package */ ModelImpl getModel() {
+        return model;
+    }
+    
+    /**
+     * All the properties of this model, in slot order
+     * 
+     * @return The properties of this model, which must not be modified
+     */
+    /* package */ Property[] getProperties() {
+        return properties;
+    }
+    
+    /**
+     * Gets the property with the given json key
+     * 
+     * @param name The key of the property
+     * @return The property, or null if this model has no such property
+     */
+    /* package */ Property getProperty(String name) {
+        return byName.get(name);
+    }
+    
+    private static int computeKind(Class<?> dataType) {
+        if (dataType == null) return OTHER;
+        if (String.class.equals(dataType)) return STRING;
+        if (int.class.equals(dataType) || Integer.class.equals(dataType)) return INT;
+        if (long.class.equals(dataType) || Long.class.equals(dataType)) return LONG;
+        if (short.class.equals(dataType) || Short.class.equals(dataType)) return SHORT;
+        if (byte.class.equals(dataType) || Byte.class.equals(dataType)) return BYTE;
+        if (double.class.equals(dataType) || Double.class.equals(dataType)) return DOUBLE;
+        if (float.class.equals(dataType) || Float.class.equals(dataType)) return FLOAT;
+        
+        return OTHER;
+    }
+    
+    @Override
+    public String toString() {
+        return "JsonModelTable(" + model + "," + System.identityHashCode(this) + ")";
+    }
+    
+    /**
+     * One property of a model
+     * 
+     * @author jwells
+     *
+     */
+    /* package */ static class Property {
+        private final String name;
+        private final int slot;
+        private final ChildType childType;
+        private final ModelImpl childModel;
+        private final int kind;
+        
+        private Property(String name, int slot, ChildDescriptor descriptor) {
+            this.name = name;
+            this.slot = slot;
+            
+            ParentedModel parented = descriptor.getParentedModel();
+            if (parented != null) {
+                childType = parented.getChildType();
+                childModel = parented.getChildModel();
+                kind = OTHER;
+            }
+            else {
+                ChildDataModel childDataModel = descriptor.getChildDataModel();
+                
+                childType = null;
+                childModel = null;
+                kind = computeKind(childDataModel.getChildTypeAsClass());
+            }
+        }
+        
+        /* package */ String getName() {
+            return name;
+        }
+        
+        /* package */ int getSlot() {
+            return slot;
+        }
+        
+        /**
+         * The type of the children of this property
+         * 
+         * @return The child type, or null if this property does not hold children
+         */
+        /* package */ ChildType getChildType() {
+            return childType;
+        }
+        
+        /* package */ ModelImpl getChildModel() {
+            return childModel;
+        }
+        
+        /**
+         * The type of the value of this property
+         * 
+         * @return One of the kinds of {@link JsonModelTable}
+         */
+        /* package */ int getKind() {
+            return kind;
+        }
+        
+        @Override
+        public String toString() {
+            return "Property(" + name + "," + slot + "," + childType + "," + kind + ")";
+        }
+    }
+}
@@ -44,34 +44,28 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonWriter;
-import javax.json.JsonWriterFactory;
+import javax.json.JsonException;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 import javax.xml.bind.Unmarshaller.Listener;
-import javax.xml.namespace.QName;
 
 import org.glassfish.hk2.api.Rank;
 import org.glassfish.hk2.json.api.JsonUtilities;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlService;
-import org.glassfish.hk2.xml.internal.ChildDataModel;
-import org.glassfish.hk2.xml.internal.ChildDescriptor;
 import org.glassfish.hk2.xml.internal.ChildType;
 import org.glassfish.hk2.xml.internal.ModelImpl;
-import org.glassfish.hk2.xml.internal.ParentedModel;
 import org.glassfish.hk2.xml.internal.Utilities;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 import org.glassfish.hk2.xml.spi.Model;
@@ -86,35 +80,50 @@ import org.glassfish.hk2.xml.spi.XmlServiceParser;
 @Named(JsonUtilities.JSON_SERVICE_NAME)
 @Rank(-1)
 public class JsonParser implements XmlServiceParser {
-    private void skipper(javax.json.stream.JsonParser parser) {
-        if (!parser.hasNext()) return;
+    private final ConcurrentHashMap<Class<?>, JsonModelTable> tables = new ConcurrentHashMap<Class<?>, JsonModelTable>();
+    
+    /**
+     * Skips the value whose key has just been read, including
+     * all of its children if it is an object or an array
+     */
+    private static void skipValue(javax.json.stream.JsonParser parser) {
+        int depth = 0;
         
-        for(;;) {
+        do {
             javax.json.stream.JsonParser.Event event = parser.next();
             switch (event) {
-            case KEY_NAME:
-            case VALUE_FALSE:
-            case VALUE_TRUE:
-            case VALUE_NULL:
-            case VALUE_STRING:
-            case VALUE_NUMBER:
-                // Skipping done
-                break;
             case START_OBJECT:
             case START_ARRAY:
-                skipper(parser);
+                depth++;
                 break;
             case END_OBJECT:
             case END_ARRAY:
-                return;
+                depth--;
+                break;
+            default:
+                // Skipping done
+                break;
             }
         }
+        while (depth > 0);
     }
     
     @Inject @Named(JsonUtilities.JSON_SERVICE_NAME)
     private Provider<XmlService> xmlService;
     
-    private void parseObject(ModelImpl currentModel, BaseHK2JAXBBean target, BaseHK2JAXBBean parent, Listener listener,
+    private JsonModelTable getTable(ModelImpl model) {
+        Class<?> key = model.getOriginalInterfaceAsClass();
+        
+        JsonModelTable retVal = tables.get(key);
+        if (retVal != null) return retVal;
+        
+        retVal = new JsonModelTable(model);
+        
+        JsonModelTable existing = tables.putIfAbsent(key, retVal);
+        return (existing == null) ? retVal : existing;
+    }
+    
+    private void parseObject(JsonModelTable table, BaseHK2JAXBBean target, BaseHK2JAXBBean parent, Listener listener,
             javax.json.stream.JsonParser parser) {
         try {
             listener.beforeUnmarshal(target, parent);
@@ -151,103 +160,16 @@ public class JsonParser implements XmlServiceParser {
                 break;
             case KEY_NAME:
                 String keyName = parser.getString();
-                QName qKeyName = new QName(keyName);
                 
-                ChildDescriptor descriptor = currentModel.getChildDescriptor(qKeyName);
-                if (descriptor == null) {
-                    skipper(parser);
+                JsonModelTable.Property property = table.getProperty(keyName);
+                if (property == null) {
+                    skipValue(parser);
+                }
+                else if (property.getChildType() == null) {
+                    parseValue(table, property, target, parser);
                 }
                 else {
-                    ParentedModel parentedModel = descriptor.getParentedModel();
-                    if (parentedModel == null) {
-                        ChildDataModel childDataModel = descriptor.getChildDataModel();
-                    
-                        javax.json.stream.JsonParser.Event attributeEvent = parser.next();
-                        switch (attributeEvent) {
-                        case VALUE_STRING:
-                            target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, parser.getString());
-                            break;
-                        case VALUE_NUMBER:
-                            if (parser.isIntegralNumber()) {
-                                target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, new Integer(parser.getInt()));
-                            }
-                            else {
-                                target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, new Long(parser.getLong()));
-                            }
-                            break;
-                        case VALUE_NULL:
-                            target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, null);
-                            break;
-                        case VALUE_TRUE:
-                            target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, Boolean.TRUE);
-                            break;
-                        case VALUE_FALSE:
-                            target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, Boolean.FALSE);
-                            break;
-                        default:
-                            throw new IllegalStateException("Uknown value type: " + attributeEvent + " for " + childDataModel + " for " + currentModel);
-                        }
-                    }
-                    else {
-                        ModelImpl childModel = parentedModel.getChildModel();
-                    
-                        javax.json.stream.JsonParser.Event childTypeEvent = parser.next();
-                    
-                        if (javax.json.stream.JsonParser.Event.START_ARRAY.equals(childTypeEvent)) {
-                            List<BaseHK2JAXBBean> myList = new LinkedList<BaseHK2JAXBBean>();
-                        
-                            for (;;) {
-                                javax.json.stream.JsonParser.Event arrayEvent = parser.next();
-                                if (javax.json.stream.JsonParser.Event.END_ARRAY.equals(arrayEvent)) {
-                                    // Finished loop!
-                                    break;
-                                }
-                            
-                                if (!javax.json.stream.JsonParser.Event.START_OBJECT.equals(arrayEvent)) {
-                                    throw new AssertionError("Do not know how to handle this case inside an array expecting an object" + arrayEvent);
-                                }
-                            
-                                BaseHK2JAXBBean oneChild = Utilities.createBean(childModel.getProxyAsClass());
-                            
-                                parseObject(childModel, oneChild, target, listener, parser);
-                            
-                                myList.add(oneChild);
-                            }
-                        
-                            if (ChildType.LIST.equals(parentedModel.getChildType())) {
-                                target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, myList);
-                            }
-                            else if (ChildType.ARRAY.equals(parentedModel.getChildType())) {
-                                Object array = Array.newInstance(childModel.getOriginalInterfaceAsClass(), myList.size());
-                            
-                                int lcv = 0;
-                                for (BaseHK2JAXBBean bean : myList) {
-                                    Array.set(array, lcv, bean);
-                                    lcv++;
-                                }
-                            
-                                target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, array);
-                            }
-                            else {
-                                throw new AssertionError("The model says DIRECT but I got an ARRAY start so bombing quite badly");
-                            }
-                        
-                        }
-                        else if (javax.json.stream.JsonParser.Event.START_OBJECT.equals(childTypeEvent)) {
-                            if (!ChildType.DIRECT.equals(parentedModel.getChildType())) {
-                                throw new AssertionError("The model says " + parentedModel.getChildType() + " but I got an START_OBJECT start so bombing quite badly");
-                            }
-                        
-                            BaseHK2JAXBBean oneChild = Utilities.createBean(childModel.getProxyAsClass());
-                        
-                            parseObject(childModel, oneChild, target, listener, parser);
-                        
-                            target._setProperty(XmlService.DEFAULT_NAMESPACE, keyName, oneChild);
-                        }
-                        else {
-                            throw new IllegalStateException("Unknown start of child event: " + event);
-                        }
-                    }
+                    parseChildren(property, target, listener, parser);
                 }
                 break;
             default:
@@ -255,8 +177,120 @@ public class JsonParser implements XmlServiceParser {
             }
         }
         while (getNextEvent);
-         
+    }
+    
+    private static void parseValue(JsonModelTable table, JsonModelTable.Property property, BaseHK2JAXBBean target,
+            javax.json.stream.JsonParser parser) {
+        int slot = property.getSlot();
         
+        javax.json.stream.JsonParser.Event attributeEvent = parser.next();
+        switch (attributeEvent) {
+        case VALUE_STRING:
+            target._setProperty(slot, parser.getString());
+            break;
+        case VALUE_NUMBER:
+            target._setProperty(slot, getNumber(property, parser));
+            break;
+        case VALUE_NULL:
+            target._setProperty(slot, null);
+            break;
+        case VALUE_TRUE:
+            target._setProperty(slot, Boolean.TRUE);
+            break;
+        case VALUE_FALSE:
+            target._setProperty(slot, Boolean.FALSE);
+            break;
+        default:
+            throw new IllegalStateException("Uknown value type: " + attributeEvent + " for " + property + " for " + table.getModel());
+        }
+    }
+    
+    private static Object getNumber(JsonModelTable.Property property, javax.json.stream.JsonParser parser) {
+        switch (property.getKind()) {
+        case JsonModelTable.STRING:
+            return parser.getString();
+        case JsonModelTable.INT:
+            return new Integer(parser.getInt());
+        case JsonModelTable.LONG:
+            return new Long(parser.getLong());
+        case JsonModelTable.SHORT:
+            return new Short((short) parser.getInt());
+        case JsonModelTable.BYTE:
+            return new Byte((byte) parser.getInt());
+        case JsonModelTable.DOUBLE:
+            return new Double(parser.getBigDecimal().doubleValue());
+        case JsonModelTable.FLOAT:
+            return new Float(parser.getBigDecimal().floatValue());
+        default:
+            if (parser.isIntegralNumber()) {
+                return new Integer(parser.getInt());
+            }
+            
+            return new Long(parser.getLong());
+        }
+    }
+    
+    private void parseChildren(JsonModelTable.Property property, BaseHK2JAXBBean target, Listener listener,
+            javax.json.stream.JsonParser parser) {
+        ChildType childType = property.getChildType();
+        ModelImpl childModel = property.getChildModel();
+        JsonModelTable childTable = getTable(childModel);
+        
+        javax.json.stream.JsonParser.Event childTypeEvent = parser.next();
+        
+        if (javax.json.stream.JsonParser.Event.START_ARRAY.equals(childTypeEvent)) {
+            List<BaseHK2JAXBBean> myList = new ArrayList<BaseHK2JAXBBean>();
+            
+            for (;;) {
+                javax.json.stream.JsonParser.Event arrayEvent = parser.next();
+                if (javax.json.stream.JsonParser.Event.END_ARRAY.equals(arrayEvent)) {
+                    // Finished loop!
+                    break;
+                }
+                
+                if (!javax.json.stream.JsonParser.Event.START_OBJECT.equals(arrayEvent)) {
+                    throw new AssertionError("Do not know how to handle this case inside an array expecting an object" + arrayEvent);
+                }
+                
+                BaseHK2JAXBBean oneChild = childTable.createBean();
+                
+                parseObject(childTable, oneChild, target, listener, parser);
+                
+                myList.add(oneChild);
+            }
+            
+            if (ChildType.LIST.equals(childType)) {
+                target._setProperty(property.getSlot(), myList);
+            }
+            else if (ChildType.ARRAY.equals(childType)) {
+                Object array = Array.newInstance(childModel.getOriginalInterfaceAsClass(), myList.size());
+                
+                int lcv = 0;
+                for (BaseHK2JAXBBean bean : myList) {
+                    Array.set(array, lcv, bean);
+                    lcv++;
+                }
+                
+                target._setProperty(property.getSlot(), array);
+            }
+            else {
+                throw new AssertionError("The model says DIRECT but I got an ARRAY start so bombing quite badly");
+            }
+        }
+        else if (javax.json.stream.JsonParser.Event.START_OBJECT.equals(childTypeEvent)) {
+            if (!ChildType.DIRECT.equals(childType)) {
+                throw new AssertionError("The model says " + childType + " but I got an START_OBJECT start so bombing quite badly");
+            }
+            
+            BaseHK2JAXBBean oneChild = childTable.createBean();
+            
+            parseObject(childTable, oneChild, target, listener, parser);
+            
+            target._setProperty(property.getSlot(), oneChild);
+        }
+        else {
+            throw new IllegalStateException("Unknown start of child event: " + childTypeEvent);
+        }
     }
 
     /* (non-Javadoc)
@@ -298,9 +332,10 @@ public class JsonParser implements XmlServiceParser {
                 throw new AssertionError("Unknown start of JSON object: " + event);
             }
             
-            BaseHK2JAXBBean root = Utilities.createBean(rootModel.getProxyAsClass());
+            JsonModelTable rootTable = getTable((ModelImpl) rootModel);
+            BaseHK2JAXBBean root = rootTable.createBean();
             
-            parseObject((ModelImpl) rootModel, root, null, listener, parser);
+            parseObject(rootTable, root, null, listener, parser);
             
             return (T) root;
         }
@@ -323,104 +358,98 @@ public class JsonParser implements XmlServiceParser {
     @Override
     public <T> void marshal(OutputStream outputStream, XmlRootHandle<T> rootHandle)
             throws IOException {
-        JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
-        
         T root = rootHandle.getRoot();
         
-        JsonObject rootObject = createJsonObject((BaseHK2JAXBBean) root, objectBuilder);
-        
         Map<String, Object> config = new HashMap<String, Object>();
         config.put(JsonGenerator.PRETTY_PRINTING, Boolean.TRUE);
         
-        JsonWriterFactory writerFactory = Json.createWriterFactory(config);
-        JsonWriter writer = writerFactory.createWriter(outputStream);
+        JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(config);
+        JsonGenerator generator = generatorFactory.createGenerator(outputStream);
         try {
-            writer.writeObject(rootObject);
+            generator.writeStartObject();
+            
+            if (root != null) {
+                writeProperties((BaseHK2JAXBBean) root, generator);
+            }
+            
+            generator.writeEnd();
+        }
+        catch (JsonException je) {
+            throw new IOException(je);
         }
         finally {
-            writer.close();
+            generator.close();
         }
     }
     
-    @SuppressWarnings("unchecked")
-    private JsonObject createJsonObject(BaseHK2JAXBBean bean, JsonObjectBuilder builder) {
-        if (bean == null) {
-            return builder.build();
-        }
+    private void writeProperties(BaseHK2JAXBBean bean, JsonGenerator generator) {
+        JsonModelTable table = getTable(bean._getModel());
         
-        ModelImpl model = bean._getModel();
-        Map<QName, ChildDescriptor> allChildren = model.getAllChildrenDescriptors();
-        for (Map.Entry<QName, ChildDescriptor> entry : allChildren.entrySet()) {
-            QName keyNameQName = entry.getKey();
-            String keyName = keyNameQName.getLocalPart();
+        for (JsonModelTable.Property property : table.getProperties()) {
+            String keyName = property.getName();
             
             if (!bean._isSet(keyName)) continue;
-            Object value = bean._getProperty(XmlService.DEFAULT_NAMESPACE, keyName);
+            Object value = bean._getProperty(property.getSlot());
             
-            ParentedModel parented = entry.getValue().getParentedModel();
-            if (parented != null) {
-                if (ChildType.DIRECT.equals(parented.getChildType())) {
+            ChildType childType = property.getChildType();
+            if (childType != null) {
+                if (ChildType.DIRECT.equals(childType)) {
                     if (value != null) {
-                        builder = builder.add(keyName, createJsonObject((BaseHK2JAXBBean) value, Json.createObjectBuilder()));
+                        generator.writeStartObject(keyName);
+                        writeProperties((BaseHK2JAXBBean) value, generator);
+                        generator.writeEnd();
                     }
                 }
-                else if (ChildType.LIST.equals(parented.getChildType())) {
-                    List<BaseHK2JAXBBean> list = (List<BaseHK2JAXBBean>) value;
+                else if (ChildType.LIST.equals(childType)) {
+                    List<?> list = (List<?>) value;
                     if (list != null && !list.isEmpty()) {
-                        JsonArrayBuilder jsonArray = Json.createArrayBuilder();
+                        generator.writeStartArray(keyName);
                         
-                        for (BaseHK2JAXBBean item : list) {
-                            JsonObjectBuilder childBuilder = Json.createObjectBuilder();
-                            
-                            JsonObject obj = createJsonObject(item, childBuilder);
-                            jsonArray.add(obj);
+                        for (Object item : list) {
+                            generator.writeStartObject();
+                            writeProperties((BaseHK2JAXBBean) item, generator);
+                            generator.writeEnd();
                         }
                         
-                        builder.add(keyName, jsonArray);
+                        generator.writeEnd();
                     }
                 }
-                else if (ChildType.ARRAY.equals(parented.getChildType())) {
-                    int length = Array.getLength(value);
+                else if (ChildType.ARRAY.equals(childType)) {
+                    int length = (value == null) ? 0 : Array.getLength(value);
                     if (length > 0) {
-                        JsonArrayBuilder jsonArray = Json.createArrayBuilder();
+                        generator.writeStartArray(keyName);
                         
                         for (int lcv = 0; lcv < length; lcv++) {
-                            BaseHK2JAXBBean item = (BaseHK2JAXBBean) Array.get(value, lcv);
-                            
-                            JsonObjectBuilder childBuilder = Json.createObjectBuilder();
-                            
-                            JsonObject obj = createJsonObject(item, childBuilder);
-                            jsonArray.add(obj);
+                            generator.writeStartObject();
+                            writeProperties((BaseHK2JAXBBean) Array.get(value, lcv), generator);
+                            generator.writeEnd();
                         }
                         
-                        builder.add(keyName, jsonArray);
+                        generator.writeEnd();
                     }
                 }
                 else {
-                    throw new AssertionError("Unknown childType " + parented.getChildType());
+                    throw new AssertionError("Unknown childType " + childType);
                 }
             }
             else {
                 if (value == null) {
-                    builder.addNull(keyName);
+                    generator.writeNull(keyName);
                 }
                 else if (value instanceof Integer) {
-                    builder.add(keyName, ((Integer) value).intValue());
+                    generator.write(keyName, ((Integer) value).intValue());
                 }
                 else if (value instanceof Long) {
-                    builder.add(keyName, ((Long) value).longValue());
+                    generator.write(keyName, ((Long) value).longValue());
                 }
                 else if (value instanceof Boolean) {
-                    builder.add(keyName, ((Boolean) value).booleanValue());
+                    generator.write(keyName, ((Boolean) value).booleanValue());
                 }
                 else {
-                    builder.add(keyName, value.toString());
+                    generator.write(keyName, value.toString());
                 }
             }
-            
         }
-        
-        return builder.build();
     }
 
 }
@@ -0,0 +1,197 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.json.test.basic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.json.api.JsonUtilities;
+import org.glassfish.hk2.json.test.skillzbeans.JsonRootBean;
+import org.glassfish.hk2.json.test.skillzbeans.SkillBean;
+import org.glassfish.hk2.json.test.skillzbeans.SpecificSkillBean;
+import org.glassfish.hk2.json.test.utilities.Utilities;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the streaming parser and generator
+ * 
+ * @author jwells
+ *
+ */
+public class JsonStreamingTest {
+    private final static String UNKNOWN_KEYS_DOCUMENT =
+            "{\"unknown\": 1," +
+            " \"skillz\": {" +
+            "  \"other\": {\"a\": [1, {\"b\": 2}], \"c\": null}," +
+            "  \"web\": [{\"name\": \"html\", \"extra\": \"x\", \"years\": 5}]," +
+            "  \"database\": [{\"nested\": [[], {}], \"name\": \"sql\", \"years\": 7}]" +
+            " }," +
+            " \"trailing\": [1, 2]" +
+            "}";
+    
+    private final static String SKILL_PREFIX = "skill-";
+    private final static int BENCHMARK_SKILLS = 4000000;
+    
+    /**
+     * Keys the model does not know about are skipped with all
+     * of their children, and do not swallow the keys after them
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testUnknownKeysAreSkipped() throws Exception {
+        ServiceLocator locator = Utilities.enableLocator();
+        XmlService jsonService = locator.getService(XmlService.class, JsonUtilities.JSON_SERVICE_NAME);
+        
+        InputStream is = new ByteArrayInputStream(UNKNOWN_KEYS_DOCUMENT.getBytes("UTF-8"));
+        XmlRootHandle<JsonRootBean> handle;
+        try {
+            handle = jsonService.unmarshal(is, JsonRootBean.class, false, false);
+        }
+        finally {
+            is.close();
+        }
+        
+        SkillBean skillz = handle.getRoot().getSkillz();
+        Assert.assertNotNull(skillz);
+        
+        List<SpecificSkillBean> web = skillz.getWebBean();
+        Assert.assertEquals(1, web.size());
+        Assert.assertEquals("html", web.get(0).getName());
+        Assert.assertEquals(5, web.get(0).getYears());
+        
+        SpecificSkillBean database[] = skillz.getDatabaseBean();
+        Assert.assertEquals(1, database.length);
+        Assert.assertEquals("sql", database[0].getName());
+        Assert.assertEquals(7, database[0].getYears());
+    }
+    
+    /**
+     * Writes a very large document directly with a generator and
+     * then times reading it and writing it back out.  Takes a long
+     * time and a large heap so it is only run by hand
+     * 
+     * @throws Exception
+     */
+    @Test
+    @org.junit.Ignore
+    public void benchmarkLargeDocument() throws Exception {
+        File file = File.createTempFile("JsonStreamingTest", ".json");
+        file.deleteOnExit();
+        
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        JsonGenerator generator = Json.createGenerator(os);
+        try {
+            generator.writeStartObject();
+            generator.writeStartObject(JsonParserTest.SKILLZ);
+            generator.writeStartArray(JsonParserTest.WEB);
+            
+            for (int lcv = 0; lcv < BENCHMARK_SKILLS; lcv++) {
+                generator.writeStartObject();
+                generator.write("name", SKILL_PREFIX + lcv);
+                generator.write("years", lcv % 50);
+                generator.writeEnd();
+            }
+            
+            generator.writeEnd();
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+        finally {
+            generator.close();
+        }
+        
+        ServiceLocator locator = Utilities.enableLocator();
+        XmlService jsonService = locator.getService(XmlService.class, JsonUtilities.JSON_SERVICE_NAME);
+        
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        
+        long parseTime = System.currentTimeMillis();
+        XmlRootHandle<JsonRootBean> handle;
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            handle = jsonService.unmarshal(is, JsonRootBean.class, false, false);
+        }
+        finally {
+            is.close();
+        }
+        parseTime = System.currentTimeMillis() - parseTime;
+        
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        
+        Assert.assertEquals(BENCHMARK_SKILLS, handle.getRoot().getSkillz().getWebBean().size());
+        
+        File outFile = File.createTempFile("JsonStreamingTest", ".json");
+        outFile.deleteOnExit();
+        
+        long marshalTime = System.currentTimeMillis();
+        os = new BufferedOutputStream(new FileOutputStream(outFile));
+        try {
+            handle.marshal(os);
+        }
+        finally {
+            os.close();
+        }
+        marshalTime = System.currentTimeMillis() - marshalTime;
+        
+        System.out.println(BENCHMARK_SKILLS + " skills (" + file.length() + " bytes)" +
+                " parse=" + parseTime + "ms marshal=" + marshalTime + "ms" +
+                " tree heap=" + ((heapAfter - heapBefore) / (1024 * 1024)) + "MB");
+    }
+}
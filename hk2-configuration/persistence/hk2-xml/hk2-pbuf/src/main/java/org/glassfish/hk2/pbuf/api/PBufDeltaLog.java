@@ -0,0 +1,86 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.pbuf.api;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An append-only log of the changes made to one {@link org.glassfish.hk2.xml.api.XmlRootHandle}.
+ * Every commit of the tree appends the added, removed and modified
+ * beans to the file, so the cost of writing is proportional to
+ * the size of the change rather than the size of the tree.  The log is
+ * rewritten as a single snapshot in the background once enough has been
+ * appended.  The file can be read with any XmlService that uses the PBuf
+ * parser, which replays the changes onto the snapshot
+ * 
+ * @author jwells
+ *
+ */
+public interface PBufDeltaLog {
+    /**
+     * The file this log is written to
+     * 
+     * @return The file of this log
+     */
+    public File getFile();
+    
+    /**
+     * Rewrites the log as a single snapshot of the current tree.  This
+     * is done automatically in the background, but may be called to
+     * compact the log immediately
+     * 
+     * @throws IOException if the snapshot could not be written
+     */
+    public void compact() throws IOException;
+    
+    /**
+     * Stops recording changes to the tree.  The file is left as it
+     * is and can still be read
+     */
+    public void close();
+    
+    /**
+     * Tells whether or not this log has been closed
+     * 
+     * @return true if this log is no longer recording changes
+     */
+    public boolean isClosed();
+}
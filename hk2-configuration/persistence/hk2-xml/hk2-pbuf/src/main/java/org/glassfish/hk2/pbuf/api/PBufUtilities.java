@@ -39,17 +39,26 @@
  */
 package org.glassfish.hk2.pbuf.api;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.glassfish.hk2.api.DuplicateServiceException;
 import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.pbuf.internal.PBufDeltaLogImpl;
 import org.glassfish.hk2.pbuf.internal.PBufParser;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlServiceUtilities;
+import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 public class PBufUtilities {
     /** The name of the XmlService that uses PBuf as its encoding/decoding format */
     public final static String PBUF_SERVICE_NAME = "PBufXmlParser";
     
+    /** The number of commits after which a delta log is compacted by default */
+    public final static int DEFAULT_COMPACT_AFTER = 1000;
+    
     private static boolean isDup(MultiException me) {
         if (me == null) return false;
         
@@ -77,4 +86,52 @@ public class PBufUtilities {
         
         XmlServiceUtilities.enableXmlService(locator);
     }
+    
+    /**
+     * Starts a delta log of the given handle, compacting after
+     * {@link #DEFAULT_COMPACT_AFTER} commits
+     * 
+     * @param locator The locator in which the PBuf service has been enabled
+     * @param handle The handle to log, which must be advertised in the Hub
+     * @param file The file to write the log to, which is replaced
+     * @return The started log
+     * @throws IOException if the initial snapshot could not be written
+     * @throws IllegalStateException if the handle is not advertised in the Hub
+     */
+    public static PBufDeltaLog startDeltaLog(ServiceLocator locator, XmlRootHandle<?> handle, File file) throws IOException {
+        return startDeltaLog(locator, handle, file, DEFAULT_COMPACT_AFTER);
+    }
+    
+    /**
+     * Starts a delta log of the given handle.  A snapshot of the tree
+     * is written to the file and every later commit of the tree appends
+     * its changes to it.  The file is read with {@link org.glassfish.hk2.xml.api.XmlService#unmarshal(java.net.URI, Class)}
+     * of the PBuf XmlService
+     * 
+     * @param locator The locator in which the PBuf service has been enabled
+     * @param handle The handle to log, which must be advertised in the Hub
+     * @param file The file to write the log to, which is replaced
+     * @param compactAfter The number of commits after which the log is
+     * compacted into a snapshot in the background
+     * @return The started log
+     * @throws IOException if the initial snapshot could not be written
+     * @throws IllegalStateException if the handle is not advertised in the Hub
+     */
+    public static PBufDeltaLog startDeltaLog(ServiceLocator locator, XmlRootHandle<?> handle, File file, int compactAfter) throws IOException {
+        if (!handle.isAdvertisedInHub()) {
+            throw new IllegalStateException("The handle " + handle + " must be advertised in the Hub to be logged");
+        }
+        if (compactAfter < 1) {
+            throw new IllegalArgumentException("compactAfter must be positive: " + compactAfter);
+        }
+        
+        enablePBufService(locator);
+        
+        PBufParser parser = (PBufParser) locator.getService(XmlServiceParser.class, PBUF_SERVICE_NAME);
+        
+        PBufDeltaLogImpl retVal = new PBufDeltaLogImpl(parser, handle, file, compactAfter);
+        retVal.start(locator);
+        
+        return retVal;
+    }
 }
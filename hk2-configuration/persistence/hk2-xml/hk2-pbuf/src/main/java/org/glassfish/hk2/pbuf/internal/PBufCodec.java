@@ -0,0 +1,776 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.pbuf.internal;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.Unmarshaller.Listener;
+import javax.xml.namespace.QName;
+
+import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.internal.ChildDataModel;
+import org.glassfish.hk2.xml.internal.ChildDescriptor;
+import org.glassfish.hk2.xml.internal.ChildType;
+import org.glassfish.hk2.xml.internal.ModelImpl;
+import org.glassfish.hk2.xml.internal.ParentedModel;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Reads and writes the beans of one model directly from and to the
+ * protocol buffer wire format.  A codec is compiled once per model
+ * and walks the beans by slot, so no DynamicMessage is built.  The
+ * field number of a property is its slot plus one, which is the
+ * numbering used when the descriptor is built from the model, so the
+ * bytes are the same as those written by a DynamicMessage
+ * 
+ * @author jwells
+ *
+ */
+public class PBufCodec {
+    private final static int STRING = 0;
+    private final static int CHAR = 1;
+    private final static int INT = 2;
+    private final static int SHORT = 3;
+    private final static int LONG = 4;
+    private final static int BOOLEAN = 5;
+    private final static int DOUBLE = 6;
+    private final static int FLOAT = 7;
+    private final static int BYTE = 8;
+    private final static int DIRECT = 9;
+    private final static int LIST = 10;
+    private final static int ARRAY = 11;
+    
+    private final static byte[] NO_BYTES = new byte[0];
+    
+    private final ModelImpl model;
+    private final Class<?> beanInterface;
+    private final QName[] names;
+    private final int[] kinds;
+    private final int[] wireTypes;
+    private final boolean[] primitives;
+    private final Object[] defaults;
+    private final PBufCodec[] children;
+    private final int keySlot;
+    
+    /* package */ PBufCodec(ModelImpl model, Descriptors.Descriptor descriptor) throws IOException {
+        this.model = model;
+        this.beanInterface = model.getOriginalInterfaceAsClass();
+        
+        Map<QName, ChildDescriptor> allChildren = model.getAllChildrenDescriptors();
+        int size = allChildren.size();
+        
+        names = new QName[size];
+        kinds = new int[size];
+        wireTypes = new int[size];
+        primitives = new boolean[size];
+        defaults = new Object[size];
+        children = new PBufCodec[size];
+        
+        QName keyProperty = model.getKeyProperty();
+        int key = -1;
+        
+        int slot = 0;
+        for (Map.Entry<QName, ChildDescriptor> entry : allChildren.entrySet()) {
+            QName qname = entry.getKey();
+            ChildDescriptor childDescriptor = entry.getValue();
+            
+            Descriptors.FieldDescriptor fieldDescriptor = descriptor.findFieldByNumber(slot + 1);
+            if (fieldDescriptor == null || !fieldDescriptor.getName().equals(qname.getLocalPart())) {
+                throw new IOException("The descriptor " + descriptor.getFullName() + " does not match the model " + model +
+                        " at field " + qname);
+            }
+            
+            names[slot] = qname;
+            if (qname.equals(keyProperty)) key = slot;
+            
+            ChildDataModel childDataModel = childDescriptor.getChildDataModel();
+            if (childDataModel != null) {
+                Class<?> childClass = childDataModel.getChildTypeAsClass();
+                
+                kinds[slot] = getKind(childClass);
+                primitives[slot] = childClass.isPrimitive();
+                defaults[slot] = convertDefault(fieldDescriptor.getDefaultValue(), childDataModel);
+            }
+            else {
+                ChildType childType = childDescriptor.getParentedModel().getChildType();
+                
+                if (ChildType.LIST.equals(childType)) {
+                    kinds[slot] = LIST;
+                }
+                else if (ChildType.ARRAY.equals(childType)) {
+                    kinds[slot] = ARRAY;
+                }
+                else {
+                    kinds[slot] = DIRECT;
+                }
+            }
+            
+            wireTypes[slot] = getWireType(kinds[slot]);
+            
+            slot++;
+        }
+        
+        keySlot = key;
+    }
+    
+    /**
+     * Called after all codecs of the tree have been created, since
+     * models may refer to each other
+     * 
+     * @param allCodecs The codecs for every model of the tree, by original interface
+     */
+    /* package */ void link(Map<Class<?>, PBufCodec> allCodecs) {
+        int slot = 0;
+        for (ChildDescriptor childDescriptor : model.getAllChildrenDescriptors().values()) {
+            ParentedModel parentedModel = childDescriptor.getParentedModel();
+            if (parentedModel != null) {
+                children[slot] = allCodecs.get(parentedModel.getChildModel().getOriginalInterfaceAsClass());
+                if (children[slot] == null) {
+                    throw new AssertionError("No codec compiled for " + parentedModel.getChildModel() + " in " + model);
+                }
+            }
+            
+            slot++;
+        }
+    }
+    
+    /* package */ Class<?> getBeanInterface() {
+        return beanInterface;
+    }
+    
+    /* package */ int getSlotCount() {
+        return kinds.length;
+    }
+    
+    /**
+     * Returns the codec of the children in the given slot
+     * 
+     * @param slot The slot of the property
+     * @return The codec of the children in the slot, or null if the slot
+     * does not hold children
+     */
+    /* package */ PBufCodec getChild(int slot) {
+        if (slot < 0 || slot >= children.length) return null;
+        return children[slot];
+    }
+    
+    /* package */ boolean isDirect(int slot) {
+        return kinds[slot] == DIRECT;
+    }
+    
+    /* package */ boolean isArray(int slot) {
+        return kinds[slot] == ARRAY;
+    }
+    
+    /* package */ boolean isKeyed() {
+        return keySlot >= 0;
+    }
+    
+    /**
+     * Gets the key of a bean of this model
+     * 
+     * @param bean The bean of this model
+     * @return The key of the bean, or null if this model has no key
+     */
+    /* package */ String getKey(BaseHK2JAXBBean bean) {
+        if (keySlot < 0) return null;
+        return (String) bean._getProperty(keySlot);
+    }
+    
+    /**
+     * Finds the slot of the given bean of this model that holds the given child.
+     * If only one slot can hold children of that type it is returned even if
+     * the child is no longer in it, which is the case for a removed child
+     * 
+     * @param bean The parent bean of this model
+     * @param child The child to find
+     * @return The slot of the child, or -1 if it cannot be determined
+     */
+    /* package */ int findChildSlot(BaseHK2JAXBBean bean, BaseHK2JAXBBean child) {
+        Class<?> childInterface = child._getModel().getOriginalInterfaceAsClass();
+        
+        int retVal = -1;
+        int candidates = 0;
+        for (int slot = 0; slot < children.length; slot++) {
+            if (children[slot] == null || !children[slot].beanInterface.equals(childInterface)) continue;
+            
+            retVal = slot;
+            candidates++;
+        }
+        
+        if (candidates <= 1) return retVal;
+        
+        for (int slot = 0; slot < children.length; slot++) {
+            if (children[slot] == null || !children[slot].beanInterface.equals(childInterface)) continue;
+            
+            if (kinds[slot] == DIRECT) {
+                if (bean._getProperty(slot) == child) return slot;
+            }
+            else if (indexOf(bean, slot, child) >= 0) {
+                return slot;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Finds the position of a child in a list or array slot.  The
+     * search starts at the end since new children are usually added
+     * there
+     * 
+     * @param bean The parent bean of this model
+     * @param slot The list or array slot
+     * @param child The child to find
+     * @return The index of the child, or -1 if it is not in the slot
+     */
+    /* package */ static int indexOf(BaseHK2JAXBBean bean, int slot, BaseHK2JAXBBean child) {
+        Object value = bean._getProperty(slot);
+        
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            for (int lcv = list.size() - 1; lcv >= 0; lcv--) {
+                if (list.get(lcv) == child) return lcv;
+            }
+        }
+        else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            for (int lcv = array.length - 1; lcv >= 0; lcv--) {
+                if (array[lcv] == child) return lcv;
+            }
+        }
+        
+        return -1;
+    }
+    
+    private static int getKind(Class<?> childClass) {
+        if (childClass.equals(String.class)) return STRING;
+        if (childClass.equals(int.class) || childClass.equals(Integer.class)) return INT;
+        if (childClass.equals(long.class) || childClass.equals(Long.class)) return LONG;
+        if (childClass.equals(boolean.class) || childClass.equals(Boolean.class)) return BOOLEAN;
+        if (childClass.equals(double.class) || childClass.equals(Double.class)) return DOUBLE;
+        if (childClass.equals(float.class) || childClass.equals(Float.class)) return FLOAT;
+        if (childClass.equals(byte.class) || childClass.equals(Byte.class)) return BYTE;
+        if (childClass.equals(char.class) || childClass.equals(Character.class)) return CHAR;
+        if (childClass.equals(short.class) || childClass.equals(Short.class)) return SHORT;
+        
+        throw new AssertionError("Unknown type to convert " + childClass.getName());
+    }
+    
+    private static int getWireType(int kind) {
+        switch (kind) {
+        case INT:
+        case SHORT:
+        case LONG:
+        case BOOLEAN:
+            return WireFormat.WIRETYPE_VARINT;
+        case DOUBLE:
+            return WireFormat.WIRETYPE_FIXED64;
+        case FLOAT:
+            return WireFormat.WIRETYPE_FIXED32;
+        default:
+            return WireFormat.WIRETYPE_LENGTH_DELIMITED;
+        }
+    }
+    
+    private static Object convertDefault(Object pbufDefault, ChildDataModel childDataModel) {
+        if (pbufDefault instanceof ByteString && ((ByteString) pbufDefault).isEmpty()) {
+            // There is no byte to give
+            return null;
+        }
+        if (pbufDefault instanceof String && ((String) pbufDefault).isEmpty() &&
+                !String.class.equals(childDataModel.getChildTypeAsClass())) {
+            // An empty char
+            return null;
+        }
+        
+        return PBufParser.convertFieldForUnmarshal(pbufDefault, childDataModel);
+    }
+    
+    /**
+     * Computes the serialized size of the given bean and all of its
+     * children, recording the values and sizes in the plan so that
+     * {@link #write(CodedOutputStream, MarshalPlan)} writes exactly
+     * what was measured
+     * 
+     * @param bean The bean to measure
+     * @param plan The plan in which to record the bean
+     * @return The size of the fields of the bean, not including any tag or length
+     */
+    /* package */ int computeSize(BaseHK2JAXBBean bean, MarshalPlan plan) throws IOException {
+        return computeSize(bean, plan, false);
+    }
+    
+    /**
+     * Computes the serialized size of the given bean, and of all of its
+     * children unless shallow is true
+     * 
+     * @param bean The bean to measure
+     * @param plan The plan in which to record the bean
+     * @param shallow If true only the non-child properties of the bean are recorded
+     * @return The size of the fields of the bean, not including any tag or length
+     */
+    /* package */ int computeSize(BaseHK2JAXBBean bean, MarshalPlan plan, boolean shallow) throws IOException {
+        Object[] values = bean._getSlotValues();
+        if (shallow) {
+            for (int slot = 0; slot < children.length; slot++) {
+                if (children[slot] != null) values[slot] = null;
+            }
+        }
+        
+        int index = plan.add(values);
+        
+        int size = 0;
+        for (int slot = 0; slot < kinds.length; slot++) {
+            Object value = values[slot];
+            if (value == null) {
+                if (slot == keySlot) {
+                    throw new IOException("The required key " + names[slot] + " is not set in " + bean);
+                }
+                
+                continue;
+            }
+            
+            int fieldNumber = slot + 1;
+            
+            switch (kinds[slot]) {
+            case STRING:
+                size += CodedOutputStream.computeStringSize(fieldNumber, (String) value);
+                break;
+            case CHAR:
+                size += CodedOutputStream.computeStringSize(fieldNumber, value.toString());
+                break;
+            case INT:
+            case SHORT:
+                size += CodedOutputStream.computeInt32Size(fieldNumber, ((Number) value).intValue());
+                break;
+            case LONG:
+                size += CodedOutputStream.computeInt64Size(fieldNumber, ((Number) value).longValue());
+                break;
+            case BOOLEAN:
+                size += CodedOutputStream.computeBoolSize(fieldNumber, ((Boolean) value).booleanValue());
+                break;
+            case DOUBLE:
+                size += CodedOutputStream.computeDoubleSize(fieldNumber, ((Number) value).doubleValue());
+                break;
+            case FLOAT:
+                size += CodedOutputStream.computeFloatSize(fieldNumber, ((Number) value).floatValue());
+                break;
+            case BYTE:
+                size += CodedOutputStream.computeByteArraySize(fieldNumber, new byte[] { ((Byte) value).byteValue() });
+                break;
+            case DIRECT:
+                size += computeMessageSize(fieldNumber, children[slot].computeSize((BaseHK2JAXBBean) value, plan));
+                break;
+            case LIST:
+            case ARRAY:
+                // Freeze the children so the write pass sees the same ones
+                Object[] asArray = (value instanceof List) ? ((List<?>) value).toArray() : (Object[]) value;
+                values[slot] = asArray;
+                
+                for (Object child : asArray) {
+                    size += computeMessageSize(fieldNumber, children[slot].computeSize((BaseHK2JAXBBean) child, plan));
+                }
+                break;
+            default:
+                throw new AssertionError("Unknown kind " + kinds[slot]);
+            }
+        }
+        
+        plan.setSize(index, size);
+        
+        return size;
+    }
+    
+    private static int computeMessageSize(int fieldNumber, int messageSize) {
+        return CodedOutputStream.computeTagSize(fieldNumber) +
+                CodedOutputStream.computeUInt32SizeNoTag(messageSize) +
+                messageSize;
+    }
+    
+    /**
+     * Writes the fields of the next bean in the plan, which must have
+     * been measured by this codec
+     * 
+     * @param cos The stream to write to
+     * @param plan The plan filled in by {@link #computeSize(BaseHK2JAXBBean, MarshalPlan)}
+     */
+    /* package */ void write(CodedOutputStream cos, MarshalPlan plan) throws IOException {
+        Object[] values = plan.next();
+        
+        for (int slot = 0; slot < kinds.length; slot++) {
+            Object value = values[slot];
+            if (value == null) continue;
+            
+            int fieldNumber = slot + 1;
+            
+            switch (kinds[slot]) {
+            case STRING:
+                cos.writeString(fieldNumber, (String) value);
+                break;
+            case CHAR:
+                cos.writeString(fieldNumber, value.toString());
+                break;
+            case INT:
+            case SHORT:
+                cos.writeInt32(fieldNumber, ((Number) value).intValue());
+                break;
+            case LONG:
+                cos.writeInt64(fieldNumber, ((Number) value).longValue());
+                break;
+            case BOOLEAN:
+                cos.writeBool(fieldNumber, ((Boolean) value).booleanValue());
+                break;
+            case DOUBLE:
+                cos.writeDouble(fieldNumber, ((Number) value).doubleValue());
+                break;
+            case FLOAT:
+                cos.writeFloat(fieldNumber, ((Number) value).floatValue());
+                break;
+            case BYTE:
+                cos.writeByteArray(fieldNumber, new byte[] { ((Byte) value).byteValue() });
+                break;
+            case DIRECT:
+                writeMessage(cos, fieldNumber, children[slot], plan);
+                break;
+            case LIST:
+            case ARRAY:
+                Object[] asArray = (Object[]) value;
+                for (int lcv = 0; lcv < asArray.length; lcv++) {
+                    writeMessage(cos, fieldNumber, children[slot], plan);
+                }
+                break;
+            default:
+                throw new AssertionError("Unknown kind " + kinds[slot]);
+            }
+        }
+    }
+    
+    private static void writeMessage(CodedOutputStream cos, int fieldNumber, PBufCodec codec, MarshalPlan plan) throws IOException {
+        cos.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        cos.writeUInt32NoTag(plan.peekSize());
+        
+        codec.write(cos, plan);
+    }
+    
+    /**
+     * Reads one bean of this model from the stream, which must be
+     * limited to the bytes of the message.  Absent children are read
+     * as DynamicMessage reads them
+     * 
+     * @param cis The stream to read from
+     * @param parent The parent of the bean being read, or null for the root
+     * @param listener The unmarshal listener to notify
+     * @param xmlService The service used to create the bean
+     * @return The bean read from the stream
+     */
+    /* package */ BaseHK2JAXBBean read(CodedInputStream cis,
+            XmlHk2ConfigurationBean parent,
+            Listener listener,
+            XmlService xmlService) throws IOException {
+        return read(cis, parent, listener, xmlService, true, false);
+    }
+    
+    /**
+     * Reads one bean of this model from the stream, which must be
+     * limited to the bytes of the message
+     * 
+     * @param cis The stream to read from
+     * @param parent The parent of the bean being read, or null for the root
+     * @param listener The unmarshal listener to notify
+     * @param xmlService The service used to create the bean
+     * @param absentAsNull true if absent direct children should be left null,
+     * which reproduces exactly the tree that was written
+     * @return The bean read from the stream
+     */
+    /* package */ BaseHK2JAXBBean read(CodedInputStream cis,
+            XmlHk2ConfigurationBean parent,
+            Listener listener,
+            XmlService xmlService,
+            boolean absentAsNull) throws IOException {
+        return read(cis, parent, listener, xmlService, true, absentAsNull);
+    }
+    
+    private BaseHK2JAXBBean read(CodedInputStream cis,
+            XmlHk2ConfigurationBean parent,
+            Listener listener,
+            XmlService xmlService,
+            boolean requireKey,
+            boolean absentAsNull) throws IOException {
+        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) xmlService.createBean(beanInterface);
+        
+        listener.beforeUnmarshal(bean, parent);
+        
+        readFields(cis, bean, listener, xmlService, false, requireKey, absentAsNull);
+        
+        listener.afterUnmarshal(bean, parent);
+        
+        return bean;
+    }
+    
+    /**
+     * Reads the fields of one message of this model into an existing bean.
+     * Fields not in the message are set to their defaults, which for an absent
+     * direct child is a child read from an empty message, and for absent
+     * list and array children is an empty list or array.  This is what
+     * DynamicMessage returns for absent fields.  When shallow is
+     * true any children in the message are skipped and the children of the
+     * bean are left alone
+     * 
+     * @param cis The stream to read from, limited to the bytes of the message
+     * @param bean The bean to read into
+     * @param listener The unmarshal listener to notify of new children
+     * @param xmlService The service used to create children
+     * @param shallow true if only the non-child properties should be read
+     */
+    /* package */ void readFields(CodedInputStream cis,
+            BaseHK2JAXBBean bean,
+            Listener listener,
+            XmlService xmlService,
+            boolean shallow) throws IOException {
+        readFields(cis, bean, listener, xmlService, shallow, true, false);
+    }
+    
+    private void readFields(CodedInputStream cis,
+            BaseHK2JAXBBean bean,
+            Listener listener,
+            XmlService xmlService,
+            boolean shallow,
+            boolean requireKey,
+            boolean absentAsNull) throws IOException {
+        boolean[] seen = new boolean[kinds.length];
+        List<?>[] repeated = new List<?>[kinds.length];
+        
+        int tag;
+        while ((tag = cis.readTag()) != 0) {
+            int slot = WireFormat.getTagFieldNumber(tag) - 1;
+            if (slot < 0 || slot >= kinds.length || WireFormat.getTagWireType(tag) != wireTypes[slot] ||
+                    (shallow && children[slot] != null)) {
+                if (!cis.skipField(tag)) break;
+                continue;
+            }
+            
+            seen[slot] = true;
+            
+            Object value;
+            switch (kinds[slot]) {
+            case STRING:
+                String asString = cis.readString();
+                
+                // PBuf has no way to tell the difference between null and empty
+                value = asString.isEmpty() ? null : asString;
+                break;
+            case CHAR:
+                String asChar = cis.readString();
+                value = asChar.isEmpty() ? null : asChar.charAt(0);
+                break;
+            case INT:
+                value = cis.readInt32();
+                break;
+            case SHORT:
+                value = (short) cis.readInt32();
+                break;
+            case LONG:
+                value = cis.readInt64();
+                break;
+            case BOOLEAN:
+                value = cis.readBool();
+                break;
+            case DOUBLE:
+                value = cis.readDouble();
+                break;
+            case FLOAT:
+                value = cis.readFloat();
+                break;
+            case BYTE:
+                ByteString asBytes = cis.readBytes();
+                value = asBytes.isEmpty() ? null : asBytes.byteAt(0);
+                break;
+            case DIRECT:
+                value = readMessage(cis, children[slot], bean, listener, xmlService, absentAsNull);
+                break;
+            case LIST:
+            case ARRAY:
+                @SuppressWarnings("unchecked")
+                List<Object> list = (List<Object>) repeated[slot];
+                if (list == null) {
+                    list = new ArrayList<Object>();
+                    repeated[slot] = list;
+                }
+                
+                list.add(readMessage(cis, children[slot], bean, listener, xmlService, absentAsNull));
+                continue;
+            default:
+                throw new AssertionError("Unknown kind " + kinds[slot]);
+            }
+            
+            setValue(bean, slot, value);
+        }
+        
+        for (int slot = 0; slot < kinds.length; slot++) {
+            int kind = kinds[slot];
+            
+            if (shallow && children[slot] != null) continue;
+            
+            if (kind == LIST) {
+                List<?> list = repeated[slot];
+                bean._setProperty(slot, (list == null) ? new ArrayList<Object>(0) : list);
+            }
+            else if (kind == ARRAY) {
+                List<?> list = repeated[slot];
+                int length = (list == null) ? 0 : list.size();
+                
+                Object array = Array.newInstance(children[slot].beanInterface, length);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    Array.set(array, lcv, list.get(lcv));
+                }
+                
+                bean._setProperty(slot, array);
+            }
+            else if (seen[slot]) {
+                continue;
+            }
+            else if (kind == DIRECT) {
+                if (absentAsNull) continue;
+                
+                // The default of a message field is the default instance, which
+                // is not checked for required fields
+                bean._setProperty(slot, children[slot].read(CodedInputStream.newInstance(NO_BYTES),
+                        bean, listener, xmlService, false, false));
+            }
+            else {
+                if (requireKey && slot == keySlot) {
+                    throw new IOException("The required key " + names[slot] + " was not found for " + model);
+                }
+                
+                setValue(bean, slot, defaults[slot]);
+            }
+        }
+    }
+    
+    private void setValue(BaseHK2JAXBBean bean, int slot, Object value) {
+        if (value == null && primitives[slot]) return;
+        
+        bean._setProperty(slot, value);
+    }
+    
+    /* package */ static BaseHK2JAXBBean readMessage(CodedInputStream cis,
+            PBufCodec codec,
+            XmlHk2ConfigurationBean parent,
+            Listener listener,
+            XmlService xmlService,
+            boolean absentAsNull) throws IOException {
+        int length = cis.readRawVarint32();
+        int oldLimit = cis.pushLimit(length);
+        
+        BaseHK2JAXBBean retVal = codec.read(cis, parent, listener, xmlService, absentAsNull);
+        
+        cis.checkLastTagWas(0);
+        cis.popLimit(oldLimit);
+        
+        return retVal;
+    }
+    
+    /**
+     * The values and sizes of every bean in a tree being written, in
+     * the order in which they are measured and written
+     * 
+     * @author jwells
+     *
+     */
+    /* package */ static class MarshalPlan {
+        private final ArrayList<Object[]> snapshots = new ArrayList<Object[]>();
+        private int[] sizes = new int[16];
+        private int cursor = 0;
+        
+        private int add(Object[] values) {
+            int retVal = snapshots.size();
+            snapshots.add(values);
+            
+            if (retVal >= sizes.length) {
+                int[] newSizes = new int[sizes.length * 2];
+                System.arraycopy(sizes, 0, newSizes, 0, sizes.length);
+                sizes = newSizes;
+            }
+            
+            return retVal;
+        }
+        
+        private void setSize(int index, int size) {
+            sizes[index] = size;
+        }
+        
+        private int peekSize() {
+            return sizes[cursor];
+        }
+        
+        private Object[] next() {
+            Object[] retVal = snapshots.get(cursor);
+            
+            // Allows the values to be collected as they are written
+            snapshots.set(cursor, null);
+            cursor++;
+            
+            return retVal;
+        }
+        
+        @Override
+        public String toString() {
+            return "MarshalPlan(" + snapshots.size() + "," + cursor + "," + System.identityHashCode(this) + ")";
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "PBufCodec(" + model + "," + System.identityHashCode(this) + ")";
+    }
+}
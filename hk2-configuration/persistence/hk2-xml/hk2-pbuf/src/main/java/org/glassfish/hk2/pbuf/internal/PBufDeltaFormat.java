@@ -0,0 +1,660 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.pbuf.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.Unmarshaller.Listener;
+
+import org.glassfish.hk2.utilities.reflection.Logger;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * The delta log format.  A delta log starts with {@link #MAGIC}, which
+ * can never start a protocol buffer message, followed by a length delimited
+ * snapshot of the whole tree and then any number of length delimited
+ * frames.  Each frame holds the records of one commit, so a frame that
+ * was only partly written is dropped as a whole
+ * <p>
+ * A record is one of {@link #REMOVE}, {@link #ADD} or {@link #MODIFY}
+ * and is applied to the bean found by following a path of steps from
+ * the root.  Each step is the slot of a child in its parent, plus the key of
+ * the child if it is in a keyed list or array, or its index if it is in an
+ * unkeyed list or array
+ * 
+ * @author jwells
+ *
+ */
+public class PBufDeltaFormat {
+    /** The first bytes of a delta log */
+    /* package */ final static byte[] MAGIC = { 0, 'H', 'K', '2', 'D', 1 };
+    
+    /** Removes the bean at the end of the path */
+    /* package */ final static int REMOVE = 1;
+    /** Adds a child with all of its children to the bean at the end of the path */
+    /* package */ final static int ADD = 2;
+    /** Replaces the non-child properties of the bean at the end of the path */
+    /* package */ final static int MODIFY = 3;
+    
+    /* package */ final static int STEP_DIRECT = 0;
+    /* package */ final static int STEP_KEYED = 1;
+    /* package */ final static int STEP_INDEXED = 2;
+    
+    private final static Listener NO_LISTENER = new Listener() {};
+    
+    /**
+     * Reads the magic bytes of a delta log from the stream.  If the
+     * stream is not a delta log the bytes read are pushed back
+     * 
+     * @param input The stream to check, which must be able to push back
+     * at least {@link #MAGIC} bytes
+     * @return true if the stream is a delta log
+     */
+    /* package */ static boolean readMagic(PushbackInputStream input) throws IOException {
+        byte[] buffer = new byte[MAGIC.length];
+        
+        int read = 0;
+        while (read < buffer.length) {
+            int result = input.read(buffer, read, buffer.length - read);
+            if (result < 0) break;
+            
+            read += result;
+        }
+        
+        boolean matches = (read == MAGIC.length);
+        for (int lcv = 0; matches && lcv < MAGIC.length; lcv++) {
+            if (buffer[lcv] != MAGIC[lcv]) matches = false;
+        }
+        
+        if (!matches && read > 0) {
+            input.unread(buffer, 0, read);
+        }
+        
+        return matches;
+    }
+    
+    /**
+     * Writes the magic bytes and a snapshot of the given tree
+     * 
+     * @param os The stream to write to
+     * @param codec The codec of the root
+     * @param root The root of the tree, which may be null
+     * @return The number of bytes written
+     */
+    /* package */ static long writeSnapshot(OutputStream os, PBufCodec codec, BaseHK2JAXBBean root) throws IOException {
+        os.write(MAGIC);
+        
+        PBufCodec.MarshalPlan plan = new PBufCodec.MarshalPlan();
+        int size = (root == null) ? 0 : codec.computeSize(root, plan);
+        
+        CodedOutputStream cos = CodedOutputStream.newInstance(os);
+        cos.writeUInt32NoTag(size);
+        if (root != null) {
+            codec.write(cos, plan);
+        }
+        cos.flush();
+        
+        return MAGIC.length + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+    
+    /**
+     * Writes one step of a path
+     */
+    /* package */ static void writeStep(CodedOutputStream cos, Step step) throws IOException {
+        cos.writeUInt32NoTag(step.slot);
+        cos.writeUInt32NoTag(step.type);
+        
+        if (step.type == STEP_KEYED) {
+            cos.writeStringNoTag(step.key);
+        }
+        else if (step.type == STEP_INDEXED) {
+            cos.writeUInt32NoTag(step.index);
+        }
+    }
+    
+    private static Step readStep(CodedInputStream cis) throws IOException {
+        int slot = cis.readUInt32();
+        int type = cis.readUInt32();
+        
+        switch (type) {
+        case STEP_DIRECT:
+            return new Step(slot, type, null, -1, null);
+        case STEP_KEYED:
+            return new Step(slot, type, cis.readString(), -1, null);
+        case STEP_INDEXED:
+            return new Step(slot, type, null, cis.readUInt32(), null);
+        default:
+            throw new IOException("Unknown step type " + type + " in delta log");
+        }
+    }
+    
+    private static Step[] readPath(CodedInputStream cis) throws IOException {
+        int length = cis.readUInt32();
+        
+        Step[] retVal = new Step[length];
+        for (int lcv = 0; lcv < length; lcv++) {
+            retVal[lcv] = readStep(cis);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Reads a delta log whose magic bytes have already been read.  The snapshot
+     * is read and every complete frame is applied to it before the listener
+     * is told about any bean, so the listener sees exactly the beans of the
+     * resulting tree in the order they would have been read from a snapshot
+     * 
+     * @param input The stream positioned after the magic bytes
+     * @param rootCodec The codec of the root
+     * @param listener The unmarshal listener
+     * @param xmlService The service used to create beans
+     * @return The root of the resulting tree
+     */
+    /* package */ static BaseHK2JAXBBean replay(InputStream input,
+            PBufCodec rootCodec,
+            Listener listener,
+            XmlService xmlService) throws IOException {
+        CodedInputStream cis = CodedInputStream.newInstance(input);
+        cis.setSizeLimit(Integer.MAX_VALUE);
+        
+        BaseHK2JAXBBean root = PBufCodec.readMessage(cis, rootCodec, null, NO_LISTENER, xmlService, true);
+        
+        Replayer replayer = new Replayer(root, rootCodec, xmlService);
+        
+        int frames = 0;
+        while (!cis.isAtEnd()) {
+            cis.resetSizeCounter();
+            
+            List<Record> records;
+            try {
+                int length = cis.readRawVarint32();
+                int oldLimit = cis.pushLimit(length);
+                
+                int numRecords = cis.readUInt32();
+                records = new ArrayList<Record>(numRecords);
+                for (int lcv = 0; lcv < numRecords; lcv++) {
+                    records.add(readRecord(cis, xmlService));
+                }
+                
+                if (!cis.isAtEnd()) {
+                    throw new IOException("Frame " + frames + " of the delta log has extra bytes");
+                }
+                cis.popLimit(oldLimit);
+            }
+            catch (IOException ioe) {
+                // The last commit was only partly written, it never happened
+                Logger.getLogger().debug("Dropping incomplete frame " + frames + " of delta log", ioe);
+                break;
+            }
+            
+            for (Record record : records) {
+                replayer.apply(record);
+            }
+            
+            frames++;
+        }
+        
+        replayer.finish();
+        
+        notifyListener(rootCodec, root, null, listener);
+        
+        return root;
+    }
+    
+    private static Record readRecord(CodedInputStream cis, XmlService xmlService) throws IOException {
+        int kind = cis.readUInt32();
+        Step[] path = readPath(cis);
+        
+        switch (kind) {
+        case REMOVE:
+            return new Record(kind, path, -1, -1, null, null);
+        case ADD:
+            int slot = cis.readUInt32();
+            int index = cis.readInt32();
+            
+            // The codec of the child is not known until the path is followed
+            return new Record(kind, path, slot, index, cis.readBytes().toByteArray(), null);
+        case MODIFY:
+            return new Record(kind, path, -1, -1, cis.readBytes().toByteArray(), null);
+        default:
+            throw new IOException("Unknown record kind " + kind + " in delta log");
+        }
+    }
+    
+    /**
+     * Tells the listener about every bean of the tree in the order in which
+     * {@link PBufCodec#read(CodedInputStream, org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean, Listener, XmlService)}
+     * would have
+     */
+    private static void notifyListener(PBufCodec codec, BaseHK2JAXBBean bean, BaseHK2JAXBBean parent, Listener listener) {
+        listener.beforeUnmarshal(bean, parent);
+        
+        for (int slot = 0; slot < codec.getSlotCount(); slot++) {
+            PBufCodec childCodec = codec.getChild(slot);
+            if (childCodec == null) continue;
+            
+            Object value = bean._getProperty(slot);
+            if (value == null) continue;
+            
+            if (value instanceof List) {
+                for (Object child : (List<?>) value) {
+                    notifyListener(childCodec, (BaseHK2JAXBBean) child, bean, listener);
+                }
+            }
+            else if (value instanceof Object[]) {
+                for (Object child : (Object[]) value) {
+                    notifyListener(childCodec, (BaseHK2JAXBBean) child, bean, listener);
+                }
+            }
+            else {
+                notifyListener(childCodec, (BaseHK2JAXBBean) value, bean, listener);
+            }
+        }
+        
+        listener.afterUnmarshal(bean, parent);
+    }
+    
+    /**
+     * One step of a path from the root to a bean
+     * 
+     * @author jwells
+     *
+     */
+    /* package */ static class Step {
+        private final int slot;
+        private final int type;
+        private final String key;
+        private final int index;
+        
+        /** The parent in which this step was taken, only known when writing */
+        private final BaseHK2JAXBBean parent;
+        
+        /* package */ Step(int slot, int type, String key, int index, BaseHK2JAXBBean parent) {
+            this.slot = slot;
+            this.type = type;
+            this.key = key;
+            this.index = index;
+            this.parent = parent;
+        }
+        
+        /* package */ int getSlot() {
+            return slot;
+        }
+        
+        /* package */ int getType() {
+            return type;
+        }
+        
+        /* package */ BaseHK2JAXBBean getParent() {
+            return parent;
+        }
+        
+        @Override
+        public String toString() {
+            return "Step(" + slot + "," + type + "," + key + "," + index + ")";
+        }
+    }
+    
+    /**
+     * One change in a frame.  When writing the bean is the one
+     * that was added or modified, when reading the body holds
+     * the encoded child or properties
+     * 
+     * @author jwells
+     *
+     */
+    /* package */ static class Record {
+        private final int kind;
+        private final Step[] path;
+        private final int slot;
+        private final int index;
+        private final byte[] body;
+        private final BaseHK2JAXBBean bean;
+        
+        /* package */ Record(int kind, Step[] path, int slot, int index, byte[] body, BaseHK2JAXBBean bean) {
+            this.kind = kind;
+            this.path = path;
+            this.slot = slot;
+            this.index = index;
+            this.body = body;
+            this.bean = bean;
+        }
+        
+        /* package */ int getKind() {
+            return kind;
+        }
+        
+        /* package */ Step[] getPath() {
+            return path;
+        }
+        
+        /* package */ int getIndex() {
+            return index;
+        }
+        
+        /* package */ BaseHK2JAXBBean getBean() {
+            return bean;
+        }
+        
+        /**
+         * Writes this record, encoding the added or modified bean with the given codec
+         * 
+         * @param cos The stream to write to
+         * @param codec The codec of the added or modified bean, or null for a remove
+         */
+        /* package */ void write(CodedOutputStream cos, PBufCodec codec) throws IOException {
+            cos.writeUInt32NoTag(kind);
+            
+            cos.writeUInt32NoTag(path.length);
+            for (Step step : path) {
+                writeStep(cos, step);
+            }
+            
+            if (kind == REMOVE) return;
+            
+            if (kind == ADD) {
+                cos.writeUInt32NoTag(slot);
+                cos.writeInt32NoTag(index);
+            }
+            
+            PBufCodec.MarshalPlan plan = new PBufCodec.MarshalPlan();
+            int size = codec.computeSize(bean, plan, (kind == MODIFY));
+            
+            cos.writeUInt32NoTag(size);
+            codec.write(cos, plan);
+        }
+        
+        @Override
+        public String toString() {
+            return "Record(" + kind + "," + path.length + "," + slot + "," + index + ")";
+        }
+    }
+    
+    /**
+     * Applies records to a tree that has not yet been given to
+     * the listener.  Lists and arrays that are changed are kept
+     * as modifiable lists, and keyed children are found with an index,
+     * so many records against one large list are cheap.  Arrays are set
+     * back into their beans by {@link #finish()}
+     * 
+     * @author jwells
+     *
+     */
+    private static class Replayer {
+        private final BaseHK2JAXBBean root;
+        private final PBufCodec rootCodec;
+        private final XmlService xmlService;
+        private final IdentityHashMap<BaseHK2JAXBBean, WorkingList[]> workingLists =
+                new IdentityHashMap<BaseHK2JAXBBean, WorkingList[]>();
+        
+        private Replayer(BaseHK2JAXBBean root, PBufCodec rootCodec, XmlService xmlService) {
+            this.root = root;
+            this.rootCodec = rootCodec;
+            this.xmlService = xmlService;
+        }
+        
+        private void apply(Record record) throws IOException {
+            Step[] path = record.path;
+            int parentLength = (record.kind == ADD) ? path.length : path.length - 1;
+            
+            if (parentLength < 0) {
+                if (record.kind == MODIFY) {
+                    readShallow(rootCodec, root, record.body);
+                    return;
+                }
+                
+                throw new IOException("The root cannot be removed by a delta log record");
+            }
+            
+            BaseHK2JAXBBean parent = root;
+            PBufCodec parentCodec = rootCodec;
+            for (int lcv = 0; lcv < parentLength; lcv++) {
+                Step step = path[lcv];
+                
+                BaseHK2JAXBBean child = getChild(parent, parentCodec, step);
+                if (child == null) {
+                    throw new IOException("Could not follow " + step + " from " + parent + " in record " + record);
+                }
+                
+                parentCodec = parentCodec.getChild(step.slot);
+                parent = child;
+            }
+            
+            switch (record.kind) {
+            case ADD:
+                add(parent, parentCodec, record);
+                break;
+            case REMOVE:
+                remove(parent, parentCodec, path[parentLength], record);
+                break;
+            case MODIFY:
+                Step last = path[parentLength];
+                BaseHK2JAXBBean target = getChild(parent, parentCodec, last);
+                if (target == null) {
+                    throw new IOException("Could not follow " + last + " from " + parent + " in record " + record);
+                }
+                
+                PBufCodec targetCodec = parentCodec.getChild(last.slot);
+                String oldKey = targetCodec.getKey(target);
+                
+                readShallow(targetCodec, target, record.body);
+                
+                if (last.type == STEP_KEYED) {
+                    String newKey = targetCodec.getKey(target);
+                    if (newKey == null || !newKey.equals(oldKey)) {
+                        WorkingList workingList = getWorkingList(parent, parentCodec, last.slot);
+                        workingList.keys = null;
+                    }
+                }
+                break;
+            default:
+                throw new AssertionError("Unknown record kind " + record.kind);
+            }
+        }
+        
+        private void readShallow(PBufCodec codec, BaseHK2JAXBBean bean, byte[] body) throws IOException {
+            CodedInputStream cis = CodedInputStream.newInstance(body);
+            
+            codec.readFields(cis, bean, NO_LISTENER, xmlService, true);
+        }
+        
+        private void add(BaseHK2JAXBBean parent, PBufCodec parentCodec, Record record) throws IOException {
+            PBufCodec childCodec = parentCodec.getChild(record.slot);
+            if (childCodec == null) {
+                throw new IOException("Slot " + record.slot + " of " + parent + " does not hold children in record " + record);
+            }
+            
+            CodedInputStream cis = CodedInputStream.newInstance(record.body);
+            cis.setSizeLimit(Integer.MAX_VALUE);
+            
+            BaseHK2JAXBBean child = childCodec.read(cis, parent, NO_LISTENER, xmlService, true);
+            
+            if (parentCodec.isDirect(record.slot)) {
+                parent._setProperty(record.slot, child);
+                return;
+            }
+            
+            WorkingList workingList = getWorkingList(parent, parentCodec, record.slot);
+            if (record.index < 0 || record.index > workingList.list.size()) {
+                throw new IOException("Index " + record.index + " is out of range for " + workingList.list.size() +
+                        " children of " + parent + " in record " + record);
+            }
+            
+            workingList.list.add(record.index, child);
+            if (workingList.keys != null) {
+                workingList.keys.put(childCodec.getKey(child), child);
+            }
+        }
+        
+        private void remove(BaseHK2JAXBBean parent, PBufCodec parentCodec, Step last, Record record) throws IOException {
+            if (last.type == STEP_DIRECT) {
+                parent._setProperty(last.slot, null);
+                return;
+            }
+            
+            BaseHK2JAXBBean child = getChild(parent, parentCodec, last);
+            if (child == null) {
+                throw new IOException("Could not follow " + last + " from " + parent + " in record " + record);
+            }
+            
+            WorkingList workingList = getWorkingList(parent, parentCodec, last.slot);
+            for (int lcv = workingList.list.size() - 1; lcv >= 0; lcv--) {
+                if (workingList.list.get(lcv) == child) {
+                    workingList.list.remove(lcv);
+                    break;
+                }
+            }
+            
+            if (workingList.keys != null && last.type == STEP_KEYED) {
+                workingList.keys.remove(last.key);
+            }
+        }
+        
+        private BaseHK2JAXBBean getChild(BaseHK2JAXBBean parent, PBufCodec parentCodec, Step step) throws IOException {
+            PBufCodec childCodec = parentCodec.getChild(step.slot);
+            if (childCodec == null) {
+                throw new IOException("Slot " + step.slot + " of " + parent + " does not hold children");
+            }
+            
+            switch (step.type) {
+            case STEP_DIRECT:
+                return (BaseHK2JAXBBean) parent._getProperty(step.slot);
+            case STEP_KEYED:
+                WorkingList keyedList = getWorkingList(parent, parentCodec, step.slot);
+                if (keyedList.keys == null) {
+                    keyedList.keys = new HashMap<String, BaseHK2JAXBBean>();
+                    for (Object child : keyedList.list) {
+                        BaseHK2JAXBBean childBean = (BaseHK2JAXBBean) child;
+                        
+                        keyedList.keys.put(childCodec.getKey(childBean), childBean);
+                    }
+                }
+                
+                return keyedList.keys.get(step.key);
+            case STEP_INDEXED:
+                WorkingList indexedList = getWorkingList(parent, parentCodec, step.slot);
+                if (step.index >= indexedList.list.size()) return null;
+                
+                return (BaseHK2JAXBBean) indexedList.list.get(step.index);
+            default:
+                throw new AssertionError("Unknown step type " + step.type);
+            }
+        }
+        
+        private WorkingList getWorkingList(BaseHK2JAXBBean parent, PBufCodec parentCodec, int slot) {
+            WorkingList[] lists = workingLists.get(parent);
+            if (lists == null) {
+                lists = new WorkingList[parentCodec.getSlotCount()];
+                workingLists.put(parent, lists);
+            }
+            
+            WorkingList retVal = lists[slot];
+            if (retVal != null) return retVal;
+            
+            ArrayList<Object> list = new ArrayList<Object>();
+            Object current = parent._getProperty(slot);
+            if (current instanceof List) {
+                list.addAll((List<?>) current);
+            }
+            else if (current instanceof Object[]) {
+                for (Object child : (Object[]) current) {
+                    list.add(child);
+                }
+            }
+            
+            boolean isArray = parentCodec.isArray(slot);
+            if (!isArray) {
+                // The bean wraps this list, so later changes to it are seen by the bean
+                parent._setProperty(slot, list);
+            }
+            
+            retVal = new WorkingList(list, isArray ? parentCodec.getChild(slot).getBeanInterface() : null);
+            lists[slot] = retVal;
+            
+            return retVal;
+        }
+        
+        private void finish() {
+            for (Map.Entry<BaseHK2JAXBBean, WorkingList[]> entry : workingLists.entrySet()) {
+                BaseHK2JAXBBean parent = entry.getKey();
+                WorkingList[] lists = entry.getValue();
+                
+                for (int slot = 0; slot < lists.length; slot++) {
+                    WorkingList workingList = lists[slot];
+                    if (workingList == null || workingList.arrayType == null) continue;
+                    
+                    int length = workingList.list.size();
+                    Object array = Array.newInstance(workingList.arrayType, length);
+                    for (int lcv = 0; lcv < length; lcv++) {
+                        Array.set(array, lcv, workingList.list.get(lcv));
+                    }
+                    
+                    parent._setProperty(slot, array);
+                }
+            }
+        }
+    }
+    
+    private static class WorkingList {
+        private final ArrayList<Object> list;
+        private final Class<?> arrayType;
+        private HashMap<String, BaseHK2JAXBBean> keys;
+        
+        private WorkingList(ArrayList<Object> list, Class<?> arrayType) {
+            this.list = list;
+            this.arrayType = arrayType;
+        }
+    }
+}
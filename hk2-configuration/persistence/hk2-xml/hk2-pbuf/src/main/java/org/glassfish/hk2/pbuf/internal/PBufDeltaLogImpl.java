@@ -0,0 +1,575 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.pbuf.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.configuration.hub.api.BeanDatabase;
+import org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener;
+import org.glassfish.hk2.configuration.hub.api.Change;
+import org.glassfish.hk2.configuration.hub.api.Instance;
+import org.glassfish.hk2.pbuf.api.PBufDeltaLog;
+import org.glassfish.hk2.pbuf.internal.PBufDeltaFormat.Record;
+import org.glassfish.hk2.pbuf.internal.PBufDeltaFormat.Step;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.utilities.reflection.Logger;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.internal.DynamicChangeInfo;
+import org.glassfish.hk2.xml.internal.ModelImpl;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Writes the changes of one tree to a delta log.  This listens to the
+ * Hub, whose commits happen while the tree is write locked, so the tree
+ * is in its final state when the records are built.  Compaction takes
+ * the read lock of the tree before the lock of the log, which is the
+ * same order as a commit, so no commit can be appended between the
+ * snapshot and the replacement of the file
+ * 
+ * @author jwells
+ *
+ */
+public class PBufDeltaLogImpl implements PBufDeltaLog, BeanDatabaseUpdateListener {
+    private final static String COMPACT_SUFFIX = ".compact";
+    
+    /** The log is always allowed to grow to this size before being compacted */
+    private final static long MIN_COMPACT_BYTES = 64 * 1024;
+    
+    private final static ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread retVal = new Thread(runnable, "PBufDeltaLogCompactor");
+            retVal.setDaemon(true);
+            
+            return retVal;
+        }
+        
+    });
+    
+    private final PBufParser parser;
+    private final XmlRootHandle<?> handle;
+    private final File file;
+    private final int compactAfter;
+    
+    private final Object lock = new Object();
+    
+    /** All fields below are protected by lock */
+    private ServiceLocator locator;
+    private ActiveDescriptor<?> descriptor;
+    private FileOutputStream appender;
+    private boolean closed;
+    private boolean needsSnapshot = true;
+    private boolean compactionScheduled;
+    private int commitsSinceCompaction;
+    private long snapshotBytes;
+    private long appendedBytes;
+    
+    public PBufDeltaLogImpl(PBufParser parser, XmlRootHandle<?> handle, File file, int compactAfter) {
+        this.parser = parser;
+        this.handle = handle;
+        this.file = file;
+        this.compactAfter = compactAfter;
+    }
+    
+    /**
+     * Starts listening to the Hub and writes the first snapshot.  A commit
+     * between the two is not appended, but is part of the snapshot
+     * 
+     * @param serviceLocator The locator in which to register this listener
+     * @throws IOException if the first snapshot could not be written
+     */
+    public void start(ServiceLocator serviceLocator) throws IOException {
+        ActiveDescriptor<?> added = ServiceLocatorUtilities.addOneConstant(serviceLocator, this, null,
+                BeanDatabaseUpdateListener.class);
+        
+        synchronized (lock) {
+            locator = serviceLocator;
+            descriptor = added;
+        }
+        
+        try {
+            compact();
+        }
+        catch (IOException ioe) {
+            close();
+            
+            throw ioe;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufDeltaLog#getFile()
+     */
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufDeltaLog#compact()
+     */
+    @Override
+    public void compact() throws IOException {
+        for (;;) {
+            BaseHK2JAXBBean root = (BaseHK2JAXBBean) handle.getRoot();
+            DynamicChangeInfo<?> changeControl = (root == null) ? null : root._getChangeControl();
+            Lock readLock = (changeControl == null) ? null : changeControl.getReadLock();
+            
+            if (readLock != null) readLock.lock();
+            try {
+                if (handle.getRoot() != root) {
+                    // The root was replaced before it could be locked
+                    continue;
+                }
+                
+                synchronized (lock) {
+                    if (closed) return;
+                    
+                    compactLocked();
+                    return;
+                }
+            }
+            finally {
+                if (readLock != null) readLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Must hold lock and the tree must not be changing
+     */
+    private void compactLocked() throws IOException {
+        BaseHK2JAXBBean root = (BaseHK2JAXBBean) handle.getRoot();
+        PBufCodec codec = (root == null) ? null : parser.getCodec(root._getModel());
+        
+        File compacted = new File(file.getParentFile(), file.getName() + COMPACT_SUFFIX);
+        
+        long written;
+        FileOutputStream fos = new FileOutputStream(compacted);
+        try {
+            written = PBufDeltaFormat.writeSnapshot(fos, codec, root);
+            
+            fos.getFD().sync();
+        }
+        finally {
+            fos.close();
+        }
+        
+        closeAppender();
+        needsSnapshot = true;
+        
+        if (!compacted.renameTo(file)) {
+            // Some platforms will not rename over an existing file
+            if (!file.delete() || !compacted.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + compacted);
+            }
+        }
+        
+        appender = new FileOutputStream(file, true);
+        needsSnapshot = false;
+        commitsSinceCompaction = 0;
+        snapshotBytes = written;
+        appendedBytes = 0;
+    }
+    
+    private void closeAppender() {
+        if (appender == null) return;
+        
+        try {
+            appender.close();
+        }
+        catch (IOException ioe) {
+            Logger.getLogger().debug("Could not close delta log " + file, ioe);
+        }
+        
+        appender = null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufDeltaLog#close()
+     */
+    @Override
+    public void close() {
+        ServiceLocator serviceLocator;
+        ActiveDescriptor<?> added;
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            
+            closeAppender();
+            
+            serviceLocator = locator;
+            added = descriptor;
+            
+            locator = null;
+            descriptor = null;
+        }
+        
+        if (added != null) {
+            ServiceLocatorUtilities.removeOneDescriptor(serviceLocator, added);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufDeltaLog#isClosed()
+     */
+    @Override
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#prepareDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void prepareDatabaseChange(BeanDatabase currentDatabase,
+            BeanDatabase proposedDatabase, Object commitMessage,
+            List<Change> changes) {
+        // Nothing is written until the commit succeeds
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#commitDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void commitDatabaseChange(BeanDatabase oldDatabase,
+            BeanDatabase currentDatabase, Object commitMessage,
+            List<Change> changes) {
+        List<Record> records;
+        try {
+            records = getRecords(changes);
+        }
+        catch (IOException ioe) {
+            Logger.getLogger().debug("Could not compute the delta of " + handle + ", writing a snapshot", ioe);
+            records = null;
+        }
+        
+        if (records != null && records.isEmpty()) return;
+        
+        boolean scheduleCompaction = false;
+        synchronized (lock) {
+            if (closed || locator == null) return;
+            
+            try {
+                if (records == null || needsSnapshot) {
+                    // The tree is write locked by this commit
+                    compactLocked();
+                    return;
+                }
+                
+                append(records);
+                
+                if (!compactionScheduled &&
+                        (commitsSinceCompaction >= compactAfter ||
+                        appendedBytes > Math.max(snapshotBytes, MIN_COMPACT_BYTES))) {
+                    compactionScheduled = true;
+                    scheduleCompaction = true;
+                }
+            }
+            catch (IOException ioe) {
+                // The next commit will try to write a snapshot
+                needsSnapshot = true;
+                
+                Logger.getLogger().warning("Could not write to the delta log " + file, ioe);
+            }
+        }
+        
+        if (scheduleCompaction) {
+            COMPACTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    }
+                    catch (IOException ioe) {
+                        Logger.getLogger().warning("Could not compact the delta log " + file, ioe);
+                    }
+                    finally {
+                        synchronized (lock) {
+                            compactionScheduled = false;
+                        }
+                    }
+                }
+                
+            });
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#rollbackDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void rollbackDatabaseChange(BeanDatabase currentDatabase,
+            BeanDatabase proposedDatabase, Object commitMessage,
+            List<Change> changes) {
+        // Nothing was written in prepare
+    }
+    
+    /**
+     * Must hold lock
+     */
+    private void append(List<Record> records) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream body = CodedOutputStream.newInstance(baos);
+        
+        body.writeUInt32NoTag(records.size());
+        for (Record record : records) {
+            BaseHK2JAXBBean bean = record.getBean();
+            
+            record.write(body, (bean == null) ? null : parser.getCodec(bean._getModel()));
+        }
+        body.flush();
+        
+        byte[] bodyBytes = baos.toByteArray();
+        
+        CodedOutputStream frame = CodedOutputStream.newInstance(appender, 
+                CodedOutputStream.computeUInt32SizeNoTag(bodyBytes.length) + bodyBytes.length);
+        frame.writeUInt32NoTag(bodyBytes.length);
+        frame.writeRawBytes(bodyBytes);
+        frame.flush();
+        
+        commitsSinceCompaction++;
+        appendedBytes += CodedOutputStream.computeUInt32SizeNoTag(bodyBytes.length) + bodyBytes.length;
+    }
+    
+    /**
+     * Turns the changes of one commit into records.  Removes are applied first,
+     * then adds from the shallowest parent down and in the order of their index,
+     * and then modifies, so every path computed against the final tree can be
+     * followed when the records are replayed
+     * 
+     * @param changes The changes of the commit
+     * @return The records for this tree, which may be empty, or null if
+     * a snapshot must be written instead
+     */
+    private List<Record> getRecords(List<Change> changes) throws IOException {
+        Set<BaseHK2JAXBBean> added = Collections.newSetFromMap(new IdentityHashMap<BaseHK2JAXBBean, Boolean>());
+        Set<BaseHK2JAXBBean> removed = Collections.newSetFromMap(new IdentityHashMap<BaseHK2JAXBBean, Boolean>());
+        List<BaseHK2JAXBBean> modified = new LinkedList<BaseHK2JAXBBean>();
+        
+        for (Change change : changes) {
+            Instance instance = change.getInstanceValue();
+            if (instance == null) continue;
+            
+            Object metadata = instance.getMetadata();
+            if (!(metadata instanceof BaseHK2JAXBBean)) continue;
+            
+            BaseHK2JAXBBean bean = (BaseHK2JAXBBean) metadata;
+            if (bean._getRoot() != handle) continue;
+            
+            switch (change.getChangeCategory()) {
+            case ADD_INSTANCE:
+                if (bean._getParent() == null) return null;
+                added.add(bean);
+                break;
+            case REMOVE_INSTANCE:
+                if (bean._getParent() == null) return null;
+                removed.add(bean);
+                break;
+            case MODIFY_INSTANCE:
+                modified.add(bean);
+                break;
+            default:
+                break;
+            }
+        }
+        
+        List<Record> retVal = new ArrayList<Record>();
+        
+        // Unkeyed lists that grew, whose indexes are not yet valid when removes are replayed
+        IdentityHashMap<BaseHK2JAXBBean, Set<Integer>> grown = new IdentityHashMap<BaseHK2JAXBBean, Set<Integer>>();
+        
+        List<Record> adds = new ArrayList<Record>();
+        for (BaseHK2JAXBBean bean : added) {
+            if (hasAncestorIn(bean, added) || hasAncestorIn(bean, removed)) continue;
+            
+            BaseHK2JAXBBean parent = (BaseHK2JAXBBean) bean._getParent();
+            PBufCodec parentCodec = parser.getCodec(parent._getModel());
+            
+            int slot = parentCodec.findChildSlot(parent, bean);
+            if (slot < 0) return null;
+            
+            int index = -1;
+            if (!parentCodec.isDirect(slot)) {
+                index = PBufCodec.indexOf(parent, slot, bean);
+                if (index < 0) return null;
+                
+                if (!parentCodec.getChild(slot).isKeyed()) {
+                    Set<Integer> slots = grown.get(parent);
+                    if (slots == null) {
+                        slots = new HashSet<Integer>();
+                        grown.put(parent, slots);
+                    }
+                    slots.add(slot);
+                }
+            }
+            
+            Step[] path = getPath(parent);
+            if (path == null) return null;
+            
+            adds.add(new Record(PBufDeltaFormat.ADD, path, slot, index, null, bean));
+        }
+        
+        for (BaseHK2JAXBBean bean : removed) {
+            if (hasAncestorIn(bean, removed)) continue;
+            
+            Step[] path = getPath(bean);
+            if (path == null) return null;
+            
+            for (Step step : path) {
+                if (step.getType() != PBufDeltaFormat.STEP_INDEXED) continue;
+                
+                Set<Integer> slots = grown.get(step.getParent());
+                if (slots != null && slots.contains(step.getSlot())) return null;
+            }
+            
+            retVal.add(new Record(PBufDeltaFormat.REMOVE, path, -1, -1, null, null));
+        }
+        
+        Collections.sort(adds, new Comparator<Record>() {
+            @Override
+            public int compare(Record o1, Record o2) {
+                int depth1 = o1.getPath().length;
+                int depth2 = o2.getPath().length;
+                if (depth1 != depth2) return (depth1 < depth2) ? -1 : 1;
+                
+                int index1 = o1.getIndex();
+                int index2 = o2.getIndex();
+                if (index1 == index2) return 0;
+                return (index1 < index2) ? -1 : 1;
+            }
+            
+        });
+        retVal.addAll(adds);
+        
+        for (BaseHK2JAXBBean bean : modified) {
+            if (added.contains(bean) || removed.contains(bean) ||
+                    hasAncestorIn(bean, added) || hasAncestorIn(bean, removed)) continue;
+            
+            Step[] path = getPath(bean);
+            if (path == null) return null;
+            
+            retVal.add(new Record(PBufDeltaFormat.MODIFY, path, -1, -1, null, bean));
+        }
+        
+        return retVal;
+    }
+    
+    private static boolean hasAncestorIn(BaseHK2JAXBBean bean, Set<BaseHK2JAXBBean> beans) {
+        if (beans.isEmpty()) return false;
+        
+        for (Object parent = bean._getParent(); parent != null; parent = ((BaseHK2JAXBBean) parent)._getParent()) {
+            if (beans.contains(parent)) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Gets the path from the root to the given bean, which may have
+     * just been removed from its parent
+     * 
+     * @param bean The bean to find
+     * @return The path to the bean, or null if the bean cannot be
+     * located by a path
+     */
+    private Step[] getPath(BaseHK2JAXBBean bean) throws IOException {
+        LinkedList<Step> retVal = new LinkedList<Step>();
+        
+        BaseHK2JAXBBean child = bean;
+        BaseHK2JAXBBean parent;
+        while ((parent = (BaseHK2JAXBBean) child._getParent()) != null) {
+            ModelImpl parentModel = parent._getModel();
+            PBufCodec parentCodec = parser.getCodec(parentModel);
+            
+            int slot = parentCodec.findChildSlot(parent, child);
+            if (slot < 0) return null;
+            
+            if (parentCodec.isDirect(slot)) {
+                retVal.addFirst(new Step(slot, PBufDeltaFormat.STEP_DIRECT, null, -1, parent));
+            }
+            else if (parentCodec.getChild(slot).isKeyed()) {
+                String key = parentCodec.getChild(slot).getKey(child);
+                if (key == null) return null;
+                
+                retVal.addFirst(new Step(slot, PBufDeltaFormat.STEP_KEYED, key, -1, parent));
+            }
+            else {
+                int index = PBufCodec.indexOf(parent, slot, child);
+                if (index < 0) return null;
+                
+                retVal.addFirst(new Step(slot, PBufDeltaFormat.STEP_INDEXED, null, index, parent));
+            }
+            
+            child = parent;
+        }
+        
+        if (child != handle.getRoot()) return null;
+        
+        return retVal.toArray(new Step[retVal.size()]);
+    }
+    
+    @Override
+    public String toString() {
+        return "PBufDeltaLogImpl(" + file + "," + System.identityHashCode(this) + ")";
+    }
+}
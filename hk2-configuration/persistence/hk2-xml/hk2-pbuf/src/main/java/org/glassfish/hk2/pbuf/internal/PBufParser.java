@@ -42,14 +42,18 @@ package org.glassfish.hk2.pbuf.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.lang.reflect.Array;
 import java.net.URI;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -73,6 +77,7 @@ import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
@@ -81,12 +86,26 @@ import com.google.protobuf.DynamicMessage;
 @Singleton
 @Named(PBufUtilities.PBUF_SERVICE_NAME)
 public class PBufParser implements XmlServiceParser {
+    /**
+     * If this property is true when the parser is created it marshals and unmarshals
+     * through a DynamicMessage of the whole tree rather than the compiled codecs
+     */
+    public final static String DYNAMIC_MESSAGE_PROPERTY = "org.glassfish.hk2.pbuf.dynamicMessage";
+    
     private final HashMap<Class<?>, Descriptors.Descriptor> allProtos = new HashMap<Class<?>, Descriptors.Descriptor>();
+    private final ConcurrentHashMap<Class<?>, PBufCodec> allCodecs = new ConcurrentHashMap<Class<?>, PBufCodec>();
     private final Object marshalLock = new Object();
     private final Object unmarshalLock = new Object();
     
     private final WeakHashMap<OutputStream, CodedOutputStream> cosCache = new WeakHashMap<OutputStream, CodedOutputStream>();
     
+    private final boolean useDynamicMessage = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+        @Override
+        public Boolean run() {
+            return Boolean.getBoolean(DYNAMIC_MESSAGE_PROPERTY);
+        }
+    });
+    
     @Inject @Named(PBufUtilities.PBUF_SERVICE_NAME)
     private IterableProvider<XmlService> xmlService;
 
@@ -112,6 +131,24 @@ public class PBufParser implements XmlServiceParser {
     @Override
     public <T> T parseRoot(Model rootModel, InputStream input,
             Listener listener) throws Exception {
+        PushbackInputStream pushback = new PushbackInputStream(input, PBufDeltaFormat.MAGIC.length);
+        if (PBufDeltaFormat.readMagic(pushback)) {
+            // Delta logs are always read with the codecs
+            PBufCodec codec = getCodec((ModelImpl) rootModel);
+            
+            return (T) PBufDeltaFormat.replay(pushback, codec, listener, xmlService.get());
+        }
+        input = pushback;
+        
+        if (!useDynamicMessage) {
+            PBufCodec codec = getCodec((ModelImpl) rootModel);
+            
+            CodedInputStream cis = CodedInputStream.newInstance(input);
+            cis.setSizeLimit(Integer.MAX_VALUE);
+            
+            return (T) codec.read(cis, null, listener, xmlService.get());
+        }
+        
         try {
             List<Descriptors.FileDescriptor> protoFiles = new LinkedList<Descriptors.FileDescriptor>();
             convertAllModels((ModelImpl) rootModel, protoFiles);
@@ -155,6 +192,23 @@ public class PBufParser implements XmlServiceParser {
         XmlHk2ConfigurationBean rootBean = (XmlHk2ConfigurationBean) rootObject;
         ModelImpl model = rootBean._getModel();
         
+        if (!useDynamicMessage) {
+            PBufCodec codec = getCodec(model);
+            
+            PBufCodec.MarshalPlan plan = new PBufCodec.MarshalPlan();
+            codec.computeSize((BaseHK2JAXBBean) rootBean, plan);
+            
+            CodedOutputStream cos = CodedOutputStream.newInstance(outputStream);
+            try {
+                codec.write(cos, plan);
+            }
+            finally {
+                cos.flush();
+            }
+            
+            return;
+        }
+        
         try {
           List<Descriptors.FileDescriptor> protoFiles = new LinkedList<Descriptors.FileDescriptor>();
           convertAllModels(model, protoFiles);
@@ -414,6 +468,66 @@ public class PBufParser implements XmlServiceParser {
         }
     }
     
+    /**
+     * Gets the codec for the model, compiling it and the codecs
+     * of all its children if this is the first time the model
+     * has been seen
+     * 
+     * @param model The model to get the codec for
+     * @return The codec for the model
+     * @throws IOException if the model could not be compiled
+     */
+    /* package */ PBufCodec getCodec(ModelImpl model) throws IOException {
+        PBufCodec retVal = allCodecs.get(model.getOriginalInterfaceAsClass());
+        if (retVal != null) return retVal;
+        
+        try {
+            synchronized (allProtos) {
+                List<Descriptors.FileDescriptor> protoFiles = new LinkedList<Descriptors.FileDescriptor>();
+                convertAllModels(model, protoFiles);
+                
+                Map<Class<?>, PBufCodec> compiled = new HashMap<Class<?>, PBufCodec>();
+                retVal = compileCodecs(model, compiled);
+                
+                Map<Class<?>, PBufCodec> linkable = new HashMap<Class<?>, PBufCodec>(allCodecs);
+                linkable.putAll(compiled);
+                for (PBufCodec codec : compiled.values()) {
+                    codec.link(linkable);
+                }
+                
+                // Only published once every codec in the tree is linked
+                allCodecs.putAll(compiled);
+            }
+        }
+        catch (IOException ioe) {
+            throw ioe;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+        
+        return retVal;
+    }
+    
+    private PBufCodec compileCodecs(ModelImpl model, Map<Class<?>, PBufCodec> compiled) throws IOException {
+        Class<?> modelClass = model.getOriginalInterfaceAsClass();
+        
+        PBufCodec retVal = allCodecs.get(modelClass);
+        if (retVal != null) return retVal;
+        
+        retVal = compiled.get(modelClass);
+        if (retVal != null) return retVal;
+        
+        retVal = new PBufCodec(model, allProtos.get(modelClass));
+        compiled.put(modelClass, retVal);
+        
+        for (ParentedModel pModel : model.getAllChildren()) {
+            compileCodecs(pModel.getChildModel(), compiled);
+        }
+        
+        return retVal;
+    }
+    
     private static DescriptorProtos.FieldDescriptorProto.Type convertChildDataModelToType(ChildDataModel cdm) {
         Class<?> childClass = cdm.getChildTypeAsClass();
         
@@ -565,7 +679,7 @@ public class PBufParser implements XmlServiceParser {
         return field;
     }
     
-    private static Object convertFieldForUnmarshal(Object field, ChildDataModel expected) {
+    /* package */ static Object convertFieldForUnmarshal(Object field, ChildDataModel expected) {
         if (field == null) return null;
         
         Class<?> expectedType = expected.getChildTypeAsClass();
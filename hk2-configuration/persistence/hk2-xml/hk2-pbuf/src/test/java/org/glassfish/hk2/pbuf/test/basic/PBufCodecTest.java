@@ -0,0 +1,323 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.pbuf.test.basic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.pbuf.api.PBufUtilities;
+import org.glassfish.hk2.pbuf.internal.PBufParser;
+import org.glassfish.hk2.pbuf.test.beans.CustomerBean;
+import org.glassfish.hk2.pbuf.test.beans.FooBean;
+import org.glassfish.hk2.pbuf.test.beans.ServiceRecordBean;
+import org.glassfish.hk2.pbuf.test.beans.ServiceRecordBlockBean;
+import org.glassfish.hk2.pbuf.test.utilities.Utilities;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.spi.XmlServiceParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the compiled codecs with the DynamicMessage parser
+ * 
+ * @author jwells
+ *
+ */
+public class PBufCodecTest {
+    private final static String CUSTOMER_PREFIX = "customer-";
+    private final static String HASH_PREFIX = "hash-";
+    
+    private final static int SMALL_RECORDS = 100;
+    private final static int BENCHMARK_RECORDS = 100000;
+    private final static int BENCHMARK_ITERATIONS = 10;
+    
+    /**
+     * Creates a locator whose pbuf parser does or does not use DynamicMessage
+     */
+    private static XmlService createXmlService(boolean dynamic) {
+        if (dynamic) {
+            System.setProperty(PBufParser.DYNAMIC_MESSAGE_PROPERTY, "true");
+        }
+        try {
+            ServiceLocator locator = Utilities.enableLocator();
+            
+            // Creates the parser while the property is set
+            Assert.assertNotNull(locator.getService(XmlServiceParser.class, PBufUtilities.PBUF_SERVICE_NAME));
+            
+            return locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        }
+        finally {
+            System.clearProperty(PBufParser.DYNAMIC_MESSAGE_PROPERTY);
+        }
+    }
+    
+    private static XmlRootHandle<ServiceRecordBlockBean> createBlock(XmlService xmlService, int numRecords) {
+        XmlRootHandle<ServiceRecordBlockBean> handle = xmlService.createEmptyHandle(ServiceRecordBlockBean.class);
+        handle.addRoot();
+        
+        ServiceRecordBlockBean blockBean = handle.getRoot();
+        
+        for (int lcv = 0; lcv < numRecords; lcv++) {
+            CustomerBean customer = xmlService.createBean(CustomerBean.class);
+            customer.setCustomerName(CUSTOMER_PREFIX + lcv);
+            customer.setCustomerID(lcv);
+            
+            ServiceRecordBean record = xmlService.createBean(ServiceRecordBean.class);
+            record.setServiceRecordID(HASH_PREFIX + lcv);
+            record.setCustomer(customer);
+            
+            blockBean.addServiceRecord(record);
+        }
+        
+        return handle;
+    }
+    
+    private static byte[] marshal(XmlRootHandle<?> handle) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            handle.marshal(baos);
+        }
+        finally {
+            baos.close();
+        }
+        
+        return baos.toByteArray();
+    }
+    
+    private static XmlRootHandle<ServiceRecordBlockBean> unmarshal(XmlService xmlService, byte[] bytes) throws Exception {
+        return unmarshal(xmlService, bytes, ServiceRecordBlockBean.class);
+    }
+    
+    private static <T> XmlRootHandle<T> unmarshal(XmlService xmlService, byte[] bytes, Class<T> rootClass) throws Exception {
+        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+        try {
+            return xmlService.unmarshal(bais, rootClass);
+        }
+        finally {
+            bais.close();
+        }
+    }
+    
+    private static void checkBlock(XmlRootHandle<ServiceRecordBlockBean> handle, int numRecords) {
+        ServiceRecordBlockBean root = handle.getRoot();
+        Assert.assertNotNull(root);
+        Assert.assertNull(root.getNotSet());
+        Assert.assertEquals(0, root.getNotSetInt());
+        
+        List<ServiceRecordBean> records = root.getServiceRecords();
+        Assert.assertEquals(numRecords, records.size());
+        
+        for (int lcv = 0; lcv < numRecords; lcv++) {
+            ServiceRecordBean record = records.get(lcv);
+            Assert.assertEquals(HASH_PREFIX + lcv, record.getServiceRecordID());
+            
+            CustomerBean customer = record.getCustomer();
+            Assert.assertNotNull(customer);
+            Assert.assertEquals(CUSTOMER_PREFIX + lcv, customer.getCustomerName());
+            Assert.assertEquals(lcv, customer.getCustomerID());
+        }
+    }
+    
+    /**
+     * The codecs must write exactly the bytes that DynamicMessage
+     * writes, and each must be able to read what the other wrote
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testCodecMatchesDynamicMessage() throws Exception {
+        XmlService dynamicService = createXmlService(true);
+        XmlService codecService = createXmlService(false);
+        
+        byte[] dynamicBytes = marshal(createBlock(dynamicService, SMALL_RECORDS));
+        byte[] codecBytes = marshal(createBlock(codecService, SMALL_RECORDS));
+        
+        Assert.assertArrayEquals(dynamicBytes, codecBytes);
+        
+        checkBlock(unmarshal(codecService, dynamicBytes), SMALL_RECORDS);
+        checkBlock(unmarshal(dynamicService, codecBytes), SMALL_RECORDS);
+    }
+    
+    /**
+     * An absent direct child is read as a child with all default
+     * values by both the codec and DynamicMessage, since DynamicMessage
+     * returns the default instance for an absent message field
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testAbsentDirectChildMatchesDynamicMessage() throws Exception {
+        XmlService dynamicService = createXmlService(true);
+        XmlService codecService = createXmlService(false);
+        
+        XmlRootHandle<ServiceRecordBlockBean> handle = codecService.createEmptyHandle(ServiceRecordBlockBean.class);
+        handle.addRoot();
+        
+        ServiceRecordBean record = codecService.createBean(ServiceRecordBean.class);
+        record.setServiceRecordID(HASH_PREFIX + 0);
+        handle.getRoot().addServiceRecord(record);
+        
+        byte[] bytes = marshal(handle);
+        
+        for (XmlService xmlService : new XmlService[] { dynamicService, codecService }) {
+            List<ServiceRecordBean> records = unmarshal(xmlService, bytes).getRoot().getServiceRecords();
+            Assert.assertEquals(1, records.size());
+            Assert.assertEquals(HASH_PREFIX + 0, records.get(0).getServiceRecordID());
+            
+            CustomerBean customer = records.get(0).getCustomer();
+            Assert.assertNotNull(customer);
+            Assert.assertNull(customer.getCustomerName());
+            Assert.assertEquals(0L, customer.getCustomerID());
+        }
+    }
+    
+    /**
+     * An absent list child is read as an empty list by both
+     * the codec and DynamicMessage
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testAbsentListChildMatchesDynamicMessage() throws Exception {
+        XmlService dynamicService = createXmlService(true);
+        XmlService codecService = createXmlService(false);
+        
+        byte[] bytes = marshal(createBlock(codecService, 0));
+        
+        for (XmlService xmlService : new XmlService[] { dynamicService, codecService }) {
+            ServiceRecordBlockBean root = unmarshal(xmlService, bytes).getRoot();
+            
+            List<ServiceRecordBean> records = root.getServiceRecords();
+            Assert.assertNotNull(records);
+            Assert.assertTrue(records.isEmpty());
+            
+            Assert.assertNull(root.getNotSet());
+            Assert.assertEquals(0, root.getNotSetInt());
+        }
+    }
+    
+    /**
+     * Absent array and list children are read as an empty array
+     * and an empty list by both the codec and DynamicMessage
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testAbsentArrayChildMatchesDynamicMessage() throws Exception {
+        XmlService dynamicService = createXmlService(true);
+        XmlService codecService = createXmlService(false);
+        
+        XmlRootHandle<FooBean> handle = codecService.createEmptyHandle(FooBean.class);
+        handle.addRoot();
+        
+        byte[] bytes = marshal(handle);
+        
+        for (XmlService xmlService : new XmlService[] { dynamicService, codecService }) {
+            FooBean root = unmarshal(xmlService, bytes, FooBean.class).getRoot();
+            
+            org.glassfish.hk2.pbuf.test.beans2.FooBean[] foo2 = root.getFoo2();
+            Assert.assertNotNull(foo2);
+            Assert.assertEquals(0, foo2.length);
+            
+            List<org.glassfish.hk2.pbuf.test.beans3.FooBean> foo3 = root.getFoo3();
+            Assert.assertNotNull(foo3);
+            Assert.assertTrue(foo3.isEmpty());
+        }
+    }
+    
+    /**
+     * Times marshalling and unmarshalling a large tree with the
+     * DynamicMessage parser and with the compiled codecs.  Takes
+     * a while so it is only run by hand
+     * 
+     * @throws Exception
+     */
+    @Test
+    @org.junit.Ignore
+    public void benchmarkCodecVersusDynamicMessage() throws Exception {
+        XmlService dynamicService = createXmlService(true);
+        XmlService codecService = createXmlService(false);
+        
+        XmlRootHandle<ServiceRecordBlockBean> dynamicHandle = createBlock(dynamicService, BENCHMARK_RECORDS);
+        XmlRootHandle<ServiceRecordBlockBean> codecHandle = createBlock(codecService, BENCHMARK_RECORDS);
+        
+        byte[] bytes = null;
+        
+        // Warm up
+        checkBlock(unmarshal(dynamicService, marshal(dynamicHandle)), BENCHMARK_RECORDS);
+        checkBlock(unmarshal(codecService, marshal(codecHandle)), BENCHMARK_RECORDS);
+        
+        long dynamicMarshal = System.currentTimeMillis();
+        for (int lcv = 0; lcv < BENCHMARK_ITERATIONS; lcv++) {
+            bytes = marshal(dynamicHandle);
+        }
+        dynamicMarshal = System.currentTimeMillis() - dynamicMarshal;
+        
+        long dynamicUnmarshal = System.currentTimeMillis();
+        for (int lcv = 0; lcv < BENCHMARK_ITERATIONS; lcv++) {
+            unmarshal(dynamicService, bytes);
+        }
+        dynamicUnmarshal = System.currentTimeMillis() - dynamicUnmarshal;
+        
+        long codecMarshal = System.currentTimeMillis();
+        for (int lcv = 0; lcv < BENCHMARK_ITERATIONS; lcv++) {
+            bytes = marshal(codecHandle);
+        }
+        codecMarshal = System.currentTimeMillis() - codecMarshal;
+        
+        long codecUnmarshal = System.currentTimeMillis();
+        for (int lcv = 0; lcv < BENCHMARK_ITERATIONS; lcv++) {
+            unmarshal(codecService, bytes);
+        }
+        codecUnmarshal = System.currentTimeMillis() - codecUnmarshal;
+        
+        System.out.println(BENCHMARK_ITERATIONS + " iterations of " + BENCHMARK_RECORDS + " records (" + bytes.length + " bytes)" +
+                " DynamicMessage marshal=" + dynamicMarshal + "ms unmarshal=" + dynamicUnmarshal + "ms," +
+                " codec marshal=" + codecMarshal + "ms unmarshal=" + codecUnmarshal + "ms");
+    }
+}
@@ -43,6 +43,7 @@ package org.glassfish.hk2.xml.internal;
 import java.beans.VetoableChangeListener;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -90,6 +91,14 @@ public class DynamicChangeInfo<T> {
     
     private Validator validator;
     
+    /**
+     * When tracking is on these hold the beans that have been directly
+     * modified and the beans that have had themselves or any descendant
+     * modified.  Both are null when tracking is off
+     */
+    private Set<BaseHK2JAXBBean> modifiedBeans;
+    private Set<BaseHK2JAXBBean> touchedBeans;
+    
     /* package */ DynamicChangeInfo(JAUtilities jaUtilities,
             Hub hub,
             boolean advertiseInHub,
@@ -151,7 +160,8 @@ public class DynamicChangeInfo<T> {
     }
     
     /**
-     * Write lock MUST be held!
+     * Write lock MUST be held!  The participant is the bean being
+     * modified, and is recorded as such if modifications are being tracked
      * 
      * @return
      */
@@ -160,6 +170,7 @@ public class DynamicChangeInfo<T> {
         
         if (participant != null) {
             participants.add(participant);
+            recordModification(participant);
         }
         
         if (dynamicChange != null) return dynamicChange;
@@ -253,6 +264,78 @@ public class DynamicChangeInfo<T> {
         systemChange.commit();
     }
     
+    /**
+     * Records that the given bean has had its properties set or
+     * children added or removed.  Does nothing if modifications are not
+     * being tracked.  Write lock MUST be held!
+     * 
+     * @param participant The bean that was modified
+     */
+    public void recordModification(BaseHK2JAXBBean participant) {
+        if (modifiedBeans == null || participant == null) return;
+        
+        modifiedBeans.add(participant);
+        
+        // Stops as soon as an ancestor that is already marked is found, so the
+        // total cost over the life of the tracker is bounded by the tree size
+        BaseHK2JAXBBean walker = participant;
+        while (walker != null && touchedBeans.add(walker)) {
+            walker = (BaseHK2JAXBBean) walker._getParent();
+        }
+    }
+    
+    /**
+     * Turns on tracking of modified beans.  Any previously tracked
+     * beans are forgotten.  Only used on controllers of copies, where
+     * the set of modified beans is used to limit the work done by merge
+     */
+    /* package */ void startTrackingModifications() {
+        writeTreeLock.lock();
+        try {
+            modifiedBeans = Collections.newSetFromMap(new IdentityHashMap<BaseHK2JAXBBean, Boolean>());
+            touchedBeans = Collections.newSetFromMap(new IdentityHashMap<BaseHK2JAXBBean, Boolean>());
+        }
+        finally {
+            writeTreeLock.unlock();
+        }
+    }
+    
+    /* package */ boolean isTrackingModifications() {
+        return modifiedBeans != null;
+    }
+    
+    /**
+     * Read or write lock must be held
+     * 
+     * @return true if at least one modification has been
+     * recorded since tracking was turned on
+     */
+    /* package */ boolean hasRecordedModifications() {
+        return modifiedBeans != null && !modifiedBeans.isEmpty();
+    }
+    
+    /**
+     * Read or write lock must be held
+     * 
+     * @param bean The bean to check
+     * @return true if this bean itself was modified (properties
+     * set or children added or removed) while tracking was on
+     */
+    /* package */ boolean wasModified(BaseHK2JAXBBean bean) {
+        return modifiedBeans.contains(bean);
+    }
+    
+    /**
+     * Read or write lock must be held
+     * 
+     * @param bean The bean to check
+     * @return true if this bean or any of its descendants was
+     * modified while tracking was on
+     */
+    /* package */ boolean wasTouched(BaseHK2JAXBBean bean) {
+        return touchedBeans.contains(bean);
+    }
+    
     public ServiceLocator getServiceLocator() {
         return locator;
     }
@@ -219,6 +219,7 @@ public class Generator {
         allMethods = Utilities.prioritizeMethods(allMethods, propOrder, xmlNameMap);
         
         Set<String> setters = new LinkedHashSet<String>();
+        Map<QName, Integer> assignedSlots = new LinkedHashMap<QName, Integer>();
         Map<String, MethodInformationI> getters = new LinkedHashMap<String, MethodInformationI>();
         Map<String, GhostXmlElementData> elementsMethods = new LinkedHashMap<String, GhostXmlElementData>();
         for (AltMethod wrapper : allMethods) {
@@ -281,8 +282,10 @@ public class Generator {
                 
                 isReference = mi.isReference();
                 
+                int slot = assignSlot(compiledModel, mi.getRepresentedProperty(), assignedSlots);
+                
                 sb.append(getCompilableClass(mi.getGetterSetterType()) +
-                        " arg0) { super._setProperty(\"" + miRepPropNamespace + "\",\"" + miRepProp + "\", arg0); }");
+                        " arg0) { super._setProperty(" + slot + ", arg0); }");
             }
             else if (MethodType.GETTER.equals(mi.getMethodType())) {
                 getterOrSetter = true;
@@ -322,7 +325,9 @@ public class Generator {
                     cast = "(" + getCompilableClass(mi.getGetterSetterType()) + ") ";
                 }
                 
-                sb.append(") { return " + cast + "super." + superMethodName + "(\"" + miRepPropNamespace + "\",\"" + miRepProp + "\"); }");
+                int slot = assignSlot(compiledModel, mi.getRepresentedProperty(), assignedSlots);
+                
+                sb.append(") { return " + cast + "super." + superMethodName + "(" + slot + "); }");
             }
             else if (MethodType.LOOKUP.equals(mi.getMethodType())) {
                 sb.append("java.lang.String arg0) { return (" + getCompilableClass(originalRetType) +
@@ -693,6 +698,15 @@ public class Generator {
             targetCtClass.addMethod(addMeCtMethod);
         }
         
+        // The accessors were compiled with the slots the properties were about to get, make sure they got them
+        for (Map.Entry<QName, Integer> assigned : assignedSlots.entrySet()) {
+            int actual = findSlot(compiledModel, assigned.getKey());
+            if (actual != assigned.getValue()) {
+                throw new AssertionError("Property " + assigned.getKey() + " of " + convertMe.getName() +
+                        " was compiled with slot " + assigned.getValue() + " but has slot " + actual);
+            }
+        }
+        
         // Now generate the invisible setters for JAXB
         for (Map.Entry<String, MethodInformationI> getterEntry : getters.entrySet()) {
             String getterProperty = getterEntry.getKey();
@@ -707,7 +721,8 @@ public class Generator {
             String setterName = Utilities.convertToSetter(getterName);
             
             StringBuffer sb = new StringBuffer("private void " + setterName + "(");
-            sb.append(getCompilableClass(mi.getGetterSetterType()) + " arg0) { super._setProperty(\"" + miRepPropNamespace + "\",\"" + miRepProp + "\", arg0); }");
+            sb.append(getCompilableClass(mi.getGetterSetterType()) + " arg0) { super._setProperty(" +
+                    asSlotOrName(findSlot(compiledModel, mi.getRepresentedProperty()), miRepPropNamespace, miRepProp) + ", arg0); }");
             
             CtMethod addMeCtMethod = CtNewMethod.make(sb.toString(), targetCtClass);
             targetCtClass.addMethod(addMeCtMethod);
@@ -745,8 +760,10 @@ public class Generator {
                     // Create the setter
                     
                     StringBuffer ghostBufferSetter = new StringBuffer("private void " + ghostMethodName + "(");
+                    int elementSlot = findSlot(compiledModel, QNameUtilities.createQName(elementNamespace, elementName));
+                    
                     ghostBufferSetter.append(getCompilableClass(gxed.getterSetterType) +
-                        " arg0) { super._setProperty(\"" + elementNamespace + "\",\"" + elementName + "\", arg0); }");
+                        " arg0) { super._setProperty(" + asSlotOrName(elementSlot, elementNamespace, elementName) + ", arg0); }");
                     
                     if (DEBUG_METHODS) {
                         Logger.getLogger().debug("Adding ghost XmlElements setter method for " + convertMe.getSimpleName() + " with implementation " + ghostBufferSetter);
@@ -762,8 +779,11 @@ public class Generator {
                 {
                     // Create the getter
                     
+                    int elementSlot = findSlot(compiledModel, QNameUtilities.createQName(elementNamespace, elementName));
+                    
                     StringBuffer ghostBufferGetter = new StringBuffer("private " + getCompilableClass(gxed.getterSetterType) + " " + ghostMethodGetName +
-                        "() { return (" + getCompilableClass(gxed.getterSetterType) + ") super._getProperty(\"" + elementNamespace + "\",\"" + elementName + "\"); }");
+                        "() { return (" + getCompilableClass(gxed.getterSetterType) + ") super._getProperty(" +
+                            asSlotOrName(elementSlot, elementNamespace, elementName) + "); }");
                 
                     CtMethod elementsCtMethodGetter = CtNewMethod.make(ghostBufferGetter.toString(), targetCtClass);
                 
@@ -811,6 +831,45 @@ public class Generator {
         return targetCtClass;
     }
     
+    /**
+     * Returns the slot of the given property in the model, or -1 if the
+     * model does not (yet) have the property.  The slot is the position
+     * of the property in {@link ModelImpl#getAllChildrenDescriptors()}
+     */
+    private static int findSlot(ModelImpl compiledModel, QName property) {
+        QName key = QNameUtilities.createQName(QNameUtilities.getNamespace(property), property.getLocalPart());
+        
+        int lcv = 0;
+        for (QName existing : compiledModel.getAllChildrenDescriptors().keySet()) {
+            if (existing.equals(key)) return lcv;
+            lcv++;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Returns the slot the given getter or setter property will have once
+     * it has been added to the model.  Properties are added to the
+     * model right after their accessor is compiled, so a property not
+     * yet in the model will be the next one appended to it
+     */
+    private static int assignSlot(ModelImpl compiledModel, QName property, Map<QName, Integer> assignedSlots) {
+        int retVal = findSlot(compiledModel, property);
+        if (retVal < 0) {
+            retVal = compiledModel.getAllChildrenDescriptors().size();
+        }
+        
+        assignedSlots.put(property, retVal);
+        return retVal;
+    }
+    
+    private static String asSlotOrName(int slot, String namespace, String name) {
+        if (slot >= 0) return Integer.toString(slot);
+        
+        return "\"" + namespace + "\",\"" + name + "\"";
+    }
+    
     /* package */ static ChildType getChildType(boolean isList, boolean isArray) {
         if (isList) return ChildType.LIST;
         if (isArray) return ChildType.ARRAY;
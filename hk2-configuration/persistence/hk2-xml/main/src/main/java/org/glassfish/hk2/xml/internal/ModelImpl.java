@@ -42,6 +42,7 @@ package org.glassfish.hk2.xml.internal;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -115,6 +116,12 @@ public class ModelImpl implements Model {
     private String valueProperty;
     private ChildDataModel valueData;
     
+    /** Calculated at runtime lazily, every property in slot order */
+    private transient volatile PropertyDispatch[] slots;
+    private transient Map<QName, PropertyDispatch> dispatchTable;
+    private transient Map<String, Map<String, PropertyDispatch>> dispatchByNamespace;
+    private transient PropertyDispatch valueDispatch;
+    
     public ModelImpl() {
     }
     
@@ -285,6 +292,108 @@ public class ModelImpl implements Model {
         }
     }
     
+    private PropertyDispatch[] getSlotsInternal() {
+        PropertyDispatch[] retVal = slots;
+        if (retVal != null) return retVal;
+        
+        synchronized (lock) {
+            if (slots != null) return slots;
+            
+            retVal = new PropertyDispatch[allChildren.size()];
+            Map<QName, PropertyDispatch> table = new HashMap<QName, PropertyDispatch>();
+            Map<String, Map<String, PropertyDispatch>> byNamespace = new HashMap<String, Map<String, PropertyDispatch>>();
+            
+            int slot = 0;
+            for (Map.Entry<QName, ChildDescriptor> entry : allChildren.entrySet()) {
+                PropertyDispatch dispatch = new PropertyDispatch(entry.getKey(), slot, entry.getValue());
+                retVal[slot++] = dispatch;
+                
+                table.put(entry.getKey(), dispatch);
+                
+                Map<String, PropertyDispatch> inNamespace = byNamespace.get(dispatch.getNamespace());
+                if (inNamespace == null) {
+                    inNamespace = new HashMap<String, PropertyDispatch>();
+                    byNamespace.put(dispatch.getNamespace(), inNamespace);
+                }
+                inNamespace.put(dispatch.getLocalPart(), dispatch);
+                
+                if (valueData != null && dispatch.getChildDataModel() == valueData) {
+                    valueDispatch = dispatch;
+                }
+            }
+            
+            dispatchTable = Collections.unmodifiableMap(table);
+            dispatchByNamespace = byNamespace;
+            slots = retVal;
+            
+            return retVal;
+        }
+    }
+    
+    /**
+     * Returns the number of slots of this model, which is the number
+     * of properties (children and non-children) it has
+     * 
+     * @return The number of slots in beans of this model
+     */
+    public int getSlotCount() {
+        return getSlotsInternal().length;
+    }
+    
+    /**
+     * Returns the dispatch information for the property at the given slot.
+     * The slot of a property is its position in {@link #getAllChildrenDescriptors()},
+     * which is the order in which the generated proxy added the properties
+     * to this model, and hence is the same slot the Generator compiled
+     * into the accessors of the proxy
+     * 
+     * @param slot A slot between zero and {@link #getSlotCount()}
+     * @return The dispatch information for that slot
+     */
+    public PropertyDispatch getDispatch(int slot) {
+        return getSlotsInternal()[slot];
+    }
+    
+    /**
+     * Returns the dispatch information for the given property
+     * 
+     * @param propNamespace The namespace of the property, may be null for the default
+     * @param propName The local name of the property
+     * @return The dispatch information, or null if this model has no such property
+     */
+    public PropertyDispatch getDispatch(String propNamespace, String propName) {
+        getSlotsInternal();
+        
+        Map<String, PropertyDispatch> inNamespace = dispatchByNamespace.get(QNameUtilities.fixNamespace(propNamespace));
+        if (inNamespace == null) return null;
+        
+        return inNamespace.get(propName);
+    }
+    
+    /**
+     * Returns the dispatch table of this model, which maps every xml tag
+     * of this bean to its slot and its value converter
+     * 
+     * @return An unmodifiable map from xml tag to dispatch information
+     */
+    public Map<QName, PropertyDispatch> getDispatchTable() {
+        getSlotsInternal();
+        
+        return dispatchTable;
+    }
+    
+    /**
+     * Returns the dispatch information of the property that takes the
+     * text value of this bean (if any)
+     * 
+     * @return The dispatch information of the value property or null
+     */
+    public PropertyDispatch getValueDispatch() {
+        getSlotsInternal();
+        
+        return valueDispatch;
+    }
+    
     public ChildDescriptor getChildDescriptor(QName xmlTag) {
         return allChildren.get(xmlTag);
     }
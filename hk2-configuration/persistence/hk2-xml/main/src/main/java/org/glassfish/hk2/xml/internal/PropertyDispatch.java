@@ -0,0 +1,275 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * One entry in the dispatch table of a {@link ModelImpl}.  It carries
+ * everything the parser and the generated accessors need to know about
+ * a property of a bean (its slot, whether it is a child or a non-child,
+ * and the converter for its value) so that a single lookup is done per
+ * attribute or element
+ * 
+ * @author jwells
+ *
+ */
+public class PropertyDispatch {
+    private final static Map<String, Class<?>> PRIMITIVE_MAP = new HashMap<String, Class<?>>();
+    
+    static {
+        PRIMITIVE_MAP.put("char", char.class);
+        PRIMITIVE_MAP.put("byte", byte.class);
+        PRIMITIVE_MAP.put("short", short.class);
+        PRIMITIVE_MAP.put("int", int.class);
+        PRIMITIVE_MAP.put("float", float.class);
+        PRIMITIVE_MAP.put("long", long.class);
+        PRIMITIVE_MAP.put("double", double.class);
+        PRIMITIVE_MAP.put("boolean", boolean.class);
+    }
+    
+    private final QName xmlTag;
+    private final String namespace;
+    private final String localPart;
+    private final int slot;
+    private final ChildDataModel childData;
+    private final ParentedModel parented;
+    private final Class<?> primitiveType;
+    
+    /**
+     * These need the class of the property, which can only be loaded
+     * once the model has been given its loader, so they are filled in
+     * on first use
+     */
+    private volatile boolean resolved;
+    private boolean isList;
+    private boolean isArray;
+    private Class<?> childType;
+    private Class<?> arrayType;
+    private ValueConverter converter;
+    private boolean cacheDefault;
+    private volatile boolean hasCachedDefault;
+    private Object cachedDefault;
+    
+    PropertyDispatch(QName xmlTag, int slot, ChildDescriptor descriptor) {
+        this.xmlTag = xmlTag;
+        this.namespace = QNameUtilities.getNamespace(xmlTag);
+        this.localPart = xmlTag.getLocalPart();
+        this.slot = slot;
+        this.childData = descriptor.getChildDataModel();
+        this.parented = descriptor.getParentedModel();
+        this.primitiveType = (childData == null) ? null : PRIMITIVE_MAP.get(childData.getChildType());
+    }
+    
+    private void resolve() {
+        if (resolved) return;
+        
+        synchronized (this) {
+            if (resolved) return;
+            
+            if (childData != null) {
+                childType = childData.getChildTypeAsClass();
+                
+                if (!childData.isReference()) {
+                    if (List.class.equals(childType)) {
+                        isList = true;
+                        converter = ValueConverter.getConverter(childData.getChildListTypeAsClass());
+                    }
+                    else if (childType.isArray() && !byte.class.equals(childType.getComponentType())) {
+                        isArray = true;
+                        arrayType = childType.getComponentType();
+                        converter = ValueConverter.getConverter(arrayType);
+                    }
+                    else {
+                        converter = ValueConverter.getConverter(childType);
+                    }
+                }
+                
+                // Defaults that depend on the namespace prefixes or that are mutable are not shared
+                cacheDefault = !QName.class.equals(childType) && !childType.isArray();
+            }
+            
+            resolved = true;
+        }
+    }
+    
+    /**
+     * The xml tag of this property
+     */
+    public QName getXmlTag() {
+        return xmlTag;
+    }
+    
+    /**
+     * The namespace of this property
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+    
+    /**
+     * The local part of the xml tag of this property
+     */
+    public String getLocalPart() {
+        return localPart;
+    }
+    
+    /**
+     * The fixed position of this property in the model,
+     * which is its position in {@link ModelImpl#getAllChildrenDescriptors()}
+     */
+    public int getSlot() {
+        return slot;
+    }
+    
+    /**
+     * Non-null if this is a non-child property
+     */
+    public ChildDataModel getChildDataModel() {
+        return childData;
+    }
+    
+    /**
+     * Non-null if this is a child property
+     */
+    public ParentedModel getParentedModel() {
+        return parented;
+    }
+    
+    /**
+     * If this is a non-child property of a primitive type, that type,
+     * otherwise null
+     */
+    public Class<?> getPrimitiveType() {
+        return primitiveType;
+    }
+    
+    /**
+     * True if this is a non-child property that is read from an attribute
+     */
+    public boolean isAttribute() {
+        return childData != null && Format.ATTRIBUTE.equals(childData.getFormat());
+    }
+    
+    /**
+     * True if this is a non-child property that is read from an element
+     */
+    public boolean isElement() {
+        return childData != null && Format.ELEMENT.equals(childData.getFormat());
+    }
+    
+    /**
+     * True if this is a non-child property that refers to another bean
+     */
+    public boolean isReference() {
+        return childData != null && childData.isReference();
+    }
+    
+    /**
+     * True if this non-child property is a list of values
+     */
+    public boolean isList() {
+        resolve();
+        return isList;
+    }
+    
+    /**
+     * True if this non-child property is an array of values
+     */
+    public boolean isArray() {
+        resolve();
+        return isArray;
+    }
+    
+    /**
+     * The component type if this non-child property is an array of values
+     */
+    public Class<?> getArrayType() {
+        resolve();
+        return arrayType;
+    }
+    
+    /**
+     * The type of this non-child property, or null if this is a child
+     */
+    public Class<?> getChildType() {
+        resolve();
+        return childType;
+    }
+    
+    /**
+     * The converter for the value of this non-child property (or for a single
+     * entry of it if it is a list or array).  Null for children and references
+     */
+    public ValueConverter getConverter() {
+        resolve();
+        return converter;
+    }
+    
+    /**
+     * The value of this non-child property when it has not been set
+     * 
+     * @param namespaceMap The prefix to namespace map of the bean
+     * @return The default value, which may be null
+     */
+    public Object getDefaultValue(Map<String, String> namespaceMap) {
+        resolve();
+        if (hasCachedDefault) return cachedDefault;
+        
+        Object retVal = Utilities.getDefaultValue(childData.getDefaultAsString(), childType, namespaceMap);
+        if (cacheDefault) {
+            synchronized (this) {
+                cachedDefault = retVal;
+                hasCachedDefault = true;
+            }
+        }
+        
+        return retVal;
+    }
+    
+    @Override
+    public String toString() {
+        return "PropertyDispatch(" + xmlTag + "," + slot + "," + childData + "," + parented + "," + System.identityHashCode(this) + ")";
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap;
+
+/**
+ * A {@link NamespaceBeanLikeMap} that keeps the properties of the
+ * model in an array indexed by the slot of the property.  Primitive
+ * properties set through {@link #setPrimitiveBits(int, long)} are kept
+ * only as raw bits so that the generated primitive setters and getters
+ * never box.  Properties that are not
+ * part of the model are kept in a {@link NamespaceBeanLikeMapImpl}.
+ * The bean-like and QName maps are views derived from the slots
+ * 
+ * @author jwells
+ *
+ */
+public class SlotBeanLikeMap implements NamespaceBeanLikeMap, Serializable {
+    private static final long serialVersionUID = -1620893658406532127L;
+    
+    /** Marks a slot that has never been set, as opposed to one set to null */
+    private final static Object UNSET = new Object();
+    /** Marks a slot whose value is kept only as raw bits in the primitives */
+    private final static Object PRIMITIVE = new Object();
+    private final static Object[] NO_VALUES = new Object[0];
+    
+    private transient ModelImpl model;
+    private transient Object[] values = NO_VALUES;
+    private transient long[] primitives;
+    
+    /** Properties not in the model, created lazily */
+    private transient NamespaceBeanLikeMapImpl others;
+    
+    private transient boolean backedUp;
+    private transient Object[] backupValues;
+    private transient long[] backupPrimitives;
+    
+    public SlotBeanLikeMap(ModelImpl model) {
+        attach(model);
+    }
+    
+    /**
+     * Associates this map with its model, moving any values that were
+     * read before the model was known (as in after deserialization) into
+     * their slots
+     * 
+     * @param model The model of the bean this map belongs to, may be null
+     */
+    public void attach(ModelImpl model) {
+        if (model == null || this.model == model) return;
+        this.model = model;
+        
+        int numSlots = model.getSlotCount();
+        values = new Object[numSlots];
+        Arrays.fill(values, UNSET);
+        
+        primitives = null;
+        for (int lcv = 0; lcv < numSlots; lcv++) {
+            if (model.getDispatch(lcv).getPrimitiveType() != null) {
+                primitives = new long[numSlots];
+                break;
+            }
+        }
+        
+        if (others == null) return;
+        
+        NamespaceBeanLikeMapImpl unattached = others;
+        others = null;
+        
+        for (Map.Entry<String, Map<String, Object>> outerEntry : unattached.getNamespaceBeanLikeMap().entrySet()) {
+            for (Map.Entry<String, Object> innerEntry : outerEntry.getValue().entrySet()) {
+                setValue(outerEntry.getKey(), innerEntry.getKey(), innerEntry.getValue());
+            }
+        }
+    }
+    
+    private PropertyDispatch getDispatch(String namespace, String key) {
+        if (model == null) return null;
+        
+        return model.getDispatch(namespace, key);
+    }
+    
+    private NamespaceBeanLikeMapImpl getOthers() {
+        if (others == null) {
+            others = new NamespaceBeanLikeMapImpl();
+        }
+        
+        return others;
+    }
+    
+    /**
+     * Returns the value at the given slot
+     * 
+     * @param slot The slot of the property
+     * @return The value, or null if the value is null or has never been set
+     */
+    public Object getValue(int slot) {
+        Object retVal = values[slot];
+        if (retVal == UNSET) return null;
+        if (retVal == PRIMITIVE) {
+            return fromBits(model.getDispatch(slot).getPrimitiveType(), primitives[slot]);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns true if the value at the given slot has been set,
+     * even if it was set to null
+     * 
+     * @param slot The slot of the property
+     * @return true if the property has been set
+     */
+    public boolean isSet(int slot) {
+        return values[slot] != UNSET;
+    }
+    
+    /**
+     * Sets the value at the given slot
+     * 
+     * @param slot The slot of the property
+     * @param value The value to set, may be null
+     */
+    public void setValue(int slot, Object value) {
+        if (value != null && primitives != null) {
+            Class<?> primitiveType = model.getDispatch(slot).getPrimitiveType();
+            if (primitiveType != null) {
+                primitives[slot] = toBits(primitiveType, value);
+            }
+        }
+        
+        values[slot] = value;
+    }
+    
+    /**
+     * Returns a copy of the values of all slots, with null in
+     * the slots that have never been set
+     * 
+     * @return A new array with one entry per slot
+     */
+    public Object[] copyValues() {
+        Object[] retVal = new Object[values.length];
+        for (int lcv = 0; lcv < retVal.length; lcv++) {
+            retVal[lcv] = getValue(lcv);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Sets a primitive property to the given raw bits without boxing.
+     * The bits must be in the form returned by {@link #toBits(Class, Object)}
+     * 
+     * @param slot The slot of the primitive property
+     * @param bits The raw bits of the value
+     */
+    public void setPrimitiveBits(int slot, long bits) {
+        primitives[slot] = bits;
+        values[slot] = PRIMITIVE;
+    }
+    
+    /**
+     * Returns true if the primitive property at the given slot has
+     * been set to a non-null value, in which case the value can be read
+     * with {@link #getPrimitiveBits(int)}
+     * 
+     * @param slot The slot of the primitive property
+     * @return true if the raw bits of the property are valid
+     */
+    public boolean isPrimitiveSet(int slot) {
+        Object value = values[slot];
+        
+        return (value != UNSET && value != null);
+    }
+    
+    /**
+     * Converts a boxed primitive into the raw bits kept for it
+     * 
+     * @param primitiveType The primitive type of the property
+     * @param value The boxed value, may not be null
+     * @return The raw bits of the value
+     */
+    public static long toBits(Class<?> primitiveType, Object value) {
+        if (boolean.class.equals(primitiveType)) {
+            return ((Boolean) value).booleanValue() ? 1L : 0L;
+        }
+        if (char.class.equals(primitiveType)) {
+            return ((Character) value).charValue();
+        }
+        if (float.class.equals(primitiveType)) {
+            return Float.floatToRawIntBits(((Number) value).floatValue());
+        }
+        if (double.class.equals(primitiveType)) {
+            return Double.doubleToRawLongBits(((Number) value).doubleValue());
+        }
+        
+        return ((Number) value).longValue();
+    }
+    
+    /**
+     * Converts the raw bits kept for a primitive back into its boxed value
+     * 
+     * @param primitiveType The primitive type of the property
+     * @param bits The raw bits of the value
+     * @return The boxed value
+     */
+    public static Object fromBits(Class<?> primitiveType, long bits) {
+        if (boolean.class.equals(primitiveType)) return Boolean.valueOf(bits != 0L);
+        if (char.class.equals(primitiveType)) return Character.valueOf((char) bits);
+        if (byte.class.equals(primitiveType)) return Byte.valueOf((byte) bits);
+        if (short.class.equals(primitiveType)) return Short.valueOf((short) bits);
+        if (int.class.equals(primitiveType)) return Integer.valueOf((int) bits);
+        if (float.class.equals(primitiveType)) return Float.valueOf(Float.intBitsToFloat((int) bits));
+        if (double.class.equals(primitiveType)) return Double.valueOf(Double.longBitsToDouble(bits));
+        
+        return Long.valueOf(bits);
+    }
+    
+    /**
+     * Returns the raw bits of a primitive property.  The
+     * property must be primitive and must have been set to a non-null value
+     * 
+     * @param slot The slot of the primitive property
+     * @return The raw bits of the value
+     */
+    public long getPrimitiveBits(int slot) {
+        return primitives[slot];
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#getValue(java.lang.String, java.lang.String)
+     */
+    @Override
+    public Object getValue(String namespace, String key) {
+        PropertyDispatch dispatch = getDispatch(namespace, key);
+        if (dispatch != null) return getValue(dispatch.getSlot());
+        
+        if (others == null) return null;
+        return others.getValue(namespace, key);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#setValue(java.lang.String, java.lang.String, java.lang.Object)
+     */
+    @Override
+    public void setValue(String namespace, String key, Object value) {
+        PropertyDispatch dispatch = getDispatch(namespace, key);
+        if (dispatch != null) {
+            setValue(dispatch.getSlot(), value);
+            return;
+        }
+        
+        getOthers().setValue(namespace, key, value);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#isSet(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean isSet(String namespace, String key) {
+        PropertyDispatch dispatch = getDispatch(namespace, key);
+        if (dispatch != null) return isSet(dispatch.getSlot());
+        
+        if (others == null) return false;
+        return others.isSet(namespace, key);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#backup()
+     */
+    @Override
+    public void backup() {
+        if (backedUp) return;
+        
+        backupValues = values.clone();
+        backupPrimitives = (primitives == null) ? null : primitives.clone();
+        getOthers().backup();
+        
+        backedUp = true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#restoreBackup(boolean)
+     */
+    @Override
+    public void restoreBackup(boolean drop) {
+        if (!backedUp) return;
+        
+        try {
+            if (!drop) {
+                values = backupValues;
+                primitives = backupPrimitives;
+            }
+            
+            others.restoreBackup(drop);
+        }
+        finally {
+            backedUp = false;
+            backupValues = null;
+            backupPrimitives = null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#getBeanLikeMap(java.util.Map)
+     */
+    @Override
+    public Map<String, Object> getBeanLikeMap(Map<String, String> namespaceToPrefixMap) {
+        LinkedHashMap<String, Object> retVal = new LinkedHashMap<String, Object>();
+        
+        for (int lcv = 0; lcv < values.length; lcv++) {
+            if (values[lcv] == UNSET) continue;
+            Object value = getValue(lcv);
+            
+            PropertyDispatch dispatch = model.getDispatch(lcv);
+            String namespace = dispatch.getNamespace();
+            
+            if (XmlService.DEFAULT_NAMESPACE.equals(namespace)) {
+                retVal.put(dispatch.getLocalPart(), value);
+            }
+            else {
+                String prefix = namespaceToPrefixMap.get(namespace);
+                if (prefix == null) {
+                    // could not find the namespace prefix to use
+                    continue;
+                }
+                
+                retVal.put(prefix + ":" + dispatch.getLocalPart(), value);
+            }
+        }
+        
+        if (others != null) {
+            retVal.putAll(others.getBeanLikeMap(namespaceToPrefixMap));
+        }
+        
+        return retVal;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#getQNameMap()
+     */
+    @Override
+    public Map<QName, Object> getQNameMap() {
+        Map<QName, Object> retVal = new LinkedHashMap<QName, Object>();
+        
+        for (int lcv = 0; lcv < values.length; lcv++) {
+            if (values[lcv] == UNSET) continue;
+            Object value = getValue(lcv);
+            
+            retVal.put(model.getDispatch(lcv).getXmlTag(), value);
+        }
+        
+        if (others != null) {
+            retVal.putAll(others.getQNameMap());
+        }
+        
+        return retVal;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#shallowCopy(org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap, org.glassfish.hk2.xml.internal.ModelImpl, boolean)
+     */
+    @Override
+    public void shallowCopy(NamespaceBeanLikeMap copyFrom, ModelImpl copyModel, boolean copyReferences) {
+        if (!(copyFrom instanceof SlotBeanLikeMap) || ((SlotBeanLikeMap) copyFrom).model != model || model == null) {
+            copyByName(copyFrom.getNamespaceBeanLikeMap(), copyModel, copyReferences);
+            return;
+        }
+        
+        SlotBeanLikeMap source = (SlotBeanLikeMap) copyFrom;
+        for (int lcv = 0; lcv < source.values.length; lcv++) {
+            Object value = source.values[lcv];
+            if (value == UNSET) continue;
+            
+            PropertyDispatch dispatch = model.getDispatch(lcv);
+            if (dispatch.getParentedModel() != null) continue;
+            if (!copyReferences && dispatch.isReference()) continue;
+            
+            if (value == PRIMITIVE) {
+                setPrimitiveBits(lcv, source.primitives[lcv]);
+            }
+            else {
+                setValue(lcv, value);
+            }
+        }
+        
+        if (source.others != null) {
+            copyByName(source.others.getNamespaceBeanLikeMap(), copyModel, copyReferences);
+        }
+    }
+    
+    private void copyByName(Map<String, Map<String, Object>> copyFrom, ModelImpl copyModel, boolean copyReferences) {
+        for (Map.Entry<String, Map<String, Object>> outerEntry : copyFrom.entrySet()) {
+            String copyNamespace = outerEntry.getKey();
+            Map<String, Object> copyBeanLikeMap = outerEntry.getValue();
+            
+            for (Map.Entry<String, Object> entrySet : copyBeanLikeMap.entrySet()) {
+                String xmlTag = entrySet.getKey();
+                
+                QName childQName = QNameUtilities.createQName(copyNamespace, xmlTag);
+                
+                if (copyModel.getKeyedChildren().contains(childQName) || copyModel.getUnKeyedChildren().contains(childQName)) {
+                    continue;
+                }
+                
+                ChildDataModel cdm = copyModel.getNonChildProperties().get(childQName);
+                if (!copyReferences && cdm != null && cdm.isReference()) {
+                    continue;
+                }
+                
+                setValue(copyNamespace, xmlTag, entrySet.getValue());
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.jaxb.internal.NamespaceBeanLikeMap#getNamespaceBeanLikeMap()
+     */
+    @Override
+    public Map<String, Map<String, Object>> getNamespaceBeanLikeMap() {
+        Map<String, Map<String, Object>> retVal = new LinkedHashMap<String, Map<String, Object>>();
+        retVal.put(XmlService.DEFAULT_NAMESPACE, new LinkedHashMap<String, Object>());
+        
+        for (int lcv = 0; lcv < values.length; lcv++) {
+            if (values[lcv] == UNSET) continue;
+            Object value = getValue(lcv);
+            
+            PropertyDispatch dispatch = model.getDispatch(lcv);
+            
+            Map<String, Object> inNamespace = retVal.get(dispatch.getNamespace());
+            if (inNamespace == null) {
+                inNamespace = new LinkedHashMap<String, Object>();
+                retVal.put(dispatch.getNamespace(), inNamespace);
+            }
+            
+            inNamespace.put(dispatch.getLocalPart(), value);
+        }
+        
+        if (others != null) {
+            for (Map.Entry<String, Map<String, Object>> outerEntry : others.getNamespaceBeanLikeMap().entrySet()) {
+                Map<String, Object> inNamespace = retVal.get(outerEntry.getKey());
+                if (inNamespace == null) {
+                    inNamespace = new LinkedHashMap<String, Object>();
+                    retVal.put(outerEntry.getKey(), inNamespace);
+                }
+                
+                inNamespace.putAll(outerEntry.getValue());
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        
+        // The slots only make sense with the model, so write them by name
+        out.writeObject(getNamespaceBeanLikeMap());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        
+        values = NO_VALUES;
+        
+        Map<String, Map<String, Object>> byName = (Map<String, Map<String, Object>>) in.readObject();
+        for (Map.Entry<String, Map<String, Object>> outerEntry : byName.entrySet()) {
+            for (Map.Entry<String, Object> innerEntry : outerEntry.getValue().entrySet()) {
+                getOthers().setValue(outerEntry.getKey(), innerEntry.getKey(), innerEntry.getValue());
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "SlotBeanLikeMap(" + values.length + "," + System.identityHashCode(this) + ")";
+    }
+}
@@ -72,6 +72,19 @@ public class UnkeyedDiff {
         }   
     });
     
+    /**
+     * When the number of pairs that might need to be compared (legacy size times proposed size)
+     * is larger than this the unkeyed lists are instead compared purely by position, which
+     * is linear in the size of the lists but may produce more changes than strictly necessary
+     */
+    private final static String UNKEYED_LINEAR_THRESHOLD_PROPERTY = "org.jvnet.hk2.properties.xml.unkeyed.linearThreshold";
+    private final static long UNKEYED_LINEAR_THRESHOLD = AccessController.doPrivileged(new PrivilegedAction<Long>() {
+        @Override
+        public Long run() {
+            return Long.getLong(UNKEYED_LINEAR_THRESHOLD_PROPERTY, 1000000L);
+        }   
+    });
+    
     private final List<BaseHK2JAXBBean> legacyList;
     private final List<BaseHK2JAXBBean> proposedList;
     private final ParentedModel parentModel;
@@ -132,6 +145,15 @@ public class UnkeyedDiff {
     }
     
     private Differences internalCompute() {
+        long pairs = ((long) legacyList.size()) * ((long) proposedList.size());
+        if (pairs > UNKEYED_LINEAR_THRESHOLD) {
+            if (UNKEYED_DEBUG) {
+                Logger.getLogger().debug("Using linear unkeyed diff since there are " + pairs + " possible pairs in " + parent);
+            }
+            
+            return computeLinear();
+        }
+        
         Differences retVal = new Differences();
         
         boolean needsChangeOfList = false;
@@ -141,37 +163,7 @@ public class UnkeyedDiff {
         // First step, calculate the diagonal
         boolean diagonalChange = !table.calculateDiagonal();
         if (!diagonalChange) {
-            if (legacyList.size() == proposedList.size()) {
-                // Exactly the same lists
-                return retVal;
-            }
-            
-            // We are either adding to the end or removing from the end
-            if (legacyList.size() < proposedList.size()) {
-                // Adds to the end
-                for (int lcv = legacyList.size(); lcv < proposedList.size(); lcv++) {
-                    Difference d = new Difference(parent);
-                    
-                    d.addAdd(parentModel.getChildXmlTag(), new AddData(proposedList.get(lcv), lcv));
-                    
-                    retVal.addDifference(d);
-                }
-                
-                return retVal;
-            }
-            
-            // Removes from the end, proposed.size < legacy.size
-            for (int lcv = proposedList.size(); lcv < legacyList.size(); lcv++) {
-                String xmlTag = parentModel.getChildXmlTag();
-                
-                Difference d = new Difference(parent);
-                
-                d.addRemove(xmlTag, new RemoveData(xmlTag, lcv, legacyList.get(lcv)));
-                
-                retVal.addDifference(d);
-            }
-            
-            return retVal;
+            return addOrRemoveFromEnd(retVal);
         }
         
         initializeSolution();
@@ -321,6 +313,69 @@ public class UnkeyedDiff {
         return retVal;
     }
     
+    /**
+     * Compares the lists purely by position.  The beans at the same index
+     * are diffed against each other and anything past the end of the
+     * shorter list is added or removed.  This never looks at more than
+     * one pair per index so it is linear in the size of the lists
+     * 
+     * @return The positional differences
+     */
+    private Differences computeLinear() {
+        Differences retVal = new Differences();
+        
+        int min = Math.min(legacyList.size(), proposedList.size());
+        for (int lcv = 0; lcv < min; lcv++) {
+            Differences differences = Utilities.getDiff(legacyList.get(lcv), proposedList.get(lcv));
+            
+            retVal.merge(differences);
+        }
+        
+        return addOrRemoveFromEnd(retVal);
+    }
+    
+    /**
+     * Adds the differences for adding to or removing from the end of
+     * the legacy list, assuming everything up to the size of the
+     * shorter list has already been accounted for
+     * 
+     * @param retVal The differences to add to
+     * @return retVal
+     */
+    private Differences addOrRemoveFromEnd(Differences retVal) {
+        if (legacyList.size() == proposedList.size()) {
+            // Exactly the same size
+            return retVal;
+        }
+        
+        // We are either adding to the end or removing from the end
+        if (legacyList.size() < proposedList.size()) {
+            // Adds to the end
+            for (int lcv = legacyList.size(); lcv < proposedList.size(); lcv++) {
+                Difference d = new Difference(parent);
+                
+                d.addAdd(parentModel.getChildXmlTag(), new AddData(proposedList.get(lcv), lcv));
+                
+                retVal.addDifference(d);
+            }
+            
+            return retVal;
+        }
+        
+        // Removes from the end, proposed.size < legacy.size
+        for (int lcv = proposedList.size(); lcv < legacyList.size(); lcv++) {
+            String xmlTag = parentModel.getChildXmlTag();
+            
+            Difference d = new Difference(parent);
+            
+            d.addRemove(xmlTag, new RemoveData(xmlTag, lcv, legacyList.get(lcv)));
+            
+            retVal.addDifference(d);
+        }
+        
+        return retVal;
+    }
+    
     private void initializeSolution() {
         solution = new HashMap<Integer, Differences>();
         usedLegacy = new HashSet<Integer>();
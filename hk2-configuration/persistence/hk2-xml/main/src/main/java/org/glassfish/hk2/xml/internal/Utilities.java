@@ -378,7 +378,7 @@ public class Utilities {
             getArrayDifferences(childNode,
                     currentValue, newArrayWithCopies,
                     differences,
-                    xmlTag, myParent);
+                    xmlTag, myParent, null);
         }
         else if (ChildType.LIST.equals(childNode.getChildType())) {
             List<BaseHK2JAXBBean> newValueAsList = (List<BaseHK2JAXBBean>) newValue;
@@ -404,7 +404,7 @@ public class Utilities {
             getListDifferences(childNode,
                     currentValue, newListWithCopies,
                     differences,
-                    xmlTag, myParent);
+                    xmlTag, myParent, null);
             
         }
         else if (ChildType.DIRECT.equals(childNode.getChildType())) {
@@ -419,7 +419,7 @@ public class Utilities {
                 aBean = createUnrootedBeanTreeCopy(aBean);
             }
             
-            getAllDifferences((BaseHK2JAXBBean) currentValue, aBean, differences);
+            getAllDifferences((BaseHK2JAXBBean) currentValue, aBean, differences, null);
         }
         else {
             throw new AssertionError("Unknown child type: " + childNode.getChildType());
@@ -1430,7 +1430,44 @@ public class Utilities {
         
         Differences retVal = new Differences();
         
-        getAllDifferences(source, other, retVal);
+        getAllDifferences(source, other, retVal, null);
+        
+        return retVal;
+    }
+    
+    /**
+     * Like {@link #getDiff(BaseHK2JAXBBean, BaseHK2JAXBBean)} but only compares
+     * the subtrees of other that the tracker recorded as modified.  Every bean
+     * in other that was not touched is assumed to be identical to the bean in
+     * the same position in source, which is true when other is a copy of source
+     * and source has not been modified since the copy was made.  If the tracker
+     * has recorded nothing the full diff is done, since a modification that was
+     * not recorded must not be lost
+     * <p>
+     * Must have write lock of source held and read lock of the tracker held
+     * 
+     * @param source The bean the copy was made from
+     * @param other The copy, whose modifications are recorded by tracker
+     * @param tracker The change info of the copy, which must be tracking modifications
+     * @return The differences between source and other
+     */
+    public static Differences getDiff(BaseHK2JAXBBean source,
+            BaseHK2JAXBBean other,
+            DynamicChangeInfo<?> tracker) {
+        if (tracker == null || !tracker.hasRecordedModifications()) {
+            return getDiff(source, other);
+        }
+        
+        ModelImpl sourceModel = source._getModel();
+        ModelImpl otherModel = other._getModel();
+        
+        if (!sourceModel.equals(otherModel)) {
+            throw new AssertionError("Can only diff two beans of the same type.  Source is " + sourceModel + " other is " + otherModel);
+        }
+        
+        Differences retVal = new Differences();
+        
+        getAllDifferences(source, other, retVal, tracker);
         
         return retVal;
     }
@@ -1477,7 +1514,17 @@ public class Utilities {
     
     private static void getAllDifferences(BaseHK2JAXBBean source,
             BaseHK2JAXBBean other,
-            Differences differences) {
+            Differences differences,
+            DynamicChangeInfo<?> tracker) {
+        if (tracker != null && !tracker.wasTouched(other)) {
+            // Nothing in this subtree was modified
+            return;
+        }
+        
+        // When only descendants were modified the properties and
+        // the shape of the child lists are known to be the same
+        boolean selfModified = (tracker == null) || tracker.wasModified(other);
+        
         Difference localDifference = new Difference(source);
         
         ModelImpl sourceModel = source._getModel();
@@ -1485,7 +1532,9 @@ public class Utilities {
         Map<QName, Object> sourceMap = source._getQNameMap();
         Map<QName, Object> otherMap = other._getQNameMap();
         
-        Map<QName, ChildDataModel> nonChildProperties = sourceModel.getNonChildProperties();
+        Map<QName, ChildDataModel> nonChildProperties = (selfModified) ?
+                sourceModel.getNonChildProperties() :
+                Collections.<QName, ChildDataModel>emptyMap();
         
         for (Map.Entry<QName, ChildDataModel> nonChildPropertyEntry : nonChildProperties.entrySet()) {
             QName nonChildProperty = nonChildPropertyEntry.getKey();
@@ -1547,7 +1596,7 @@ public class Utilities {
                 else if (sourceValue != null) {
                     QName keyProperty = pModel.getChildModel().getKeyProperty();
                     if (keyProperty == null) {
-                        getAllDifferences((BaseHK2JAXBBean) sourceValue, (BaseHK2JAXBBean) otherValue, differences);
+                        getAllDifferences((BaseHK2JAXBBean) sourceValue, (BaseHK2JAXBBean) otherValue, differences, tracker);
                     }
                     else {
                         String keyPropertyNamespace = QNameUtilities.getNamespace(keyProperty);
@@ -1557,7 +1606,7 @@ public class Utilities {
                         String otherKey = (String) ((BaseHK2JAXBBean) otherValue)._getProperty(keyPropertyNamespace, keyPropertyKey);
                         
                         if (GeneralUtilities.safeEquals(sourceKey, otherKey)) {
-                            getAllDifferences((BaseHK2JAXBBean) sourceValue, (BaseHK2JAXBBean) otherValue, differences);
+                            getAllDifferences((BaseHK2JAXBBean) sourceValue, (BaseHK2JAXBBean) otherValue, differences, tracker);
                         }
                         else {
                             localDifference.addDirectReplace(xmlTagKey, (BaseHK2JAXBBean) otherValue, new RemoveData(xmlTagKey, (BaseHK2JAXBBean) sourceValue));
@@ -1565,17 +1614,20 @@ public class Utilities {
                     }
                 }
             }
+            else if (!selfModified && getTouchedDifferences(pModel, sourceValue, otherValue, differences, tracker)) {
+                // Only the modified children of an unchanged list or array were compared
+            }
             else if (ChildType.LIST.equals(pModel.getChildType())) {
                 getListDifferences(pModel,
                         sourceValue, otherValue,
                         differences,
-                        xmlTagKey, source);
+                        xmlTagKey, source, tracker);
             }
             else if (ChildType.ARRAY.equals(pModel.getChildType())) {
                 getArrayDifferences(pModel,
                         sourceValue, otherValue,
                         differences,
-                        xmlTagKey, source);
+                        xmlTagKey, source, tracker);
             }
         }
         
@@ -1584,11 +1636,63 @@ public class Utilities {
         }
     }
     
+    /**
+     * Compares only the touched children of a list or array whose parent
+     * was not itself modified.  Since no child was added, removed or moved
+     * the children of source and other are paired by position
+     * 
+     * @return true if the differences were computed, false if the
+     * children could not be paired and a full comparison is needed
+     */
+    private static boolean getTouchedDifferences(ParentedModel pModel,
+            Object sourceValue, Object otherValue,
+            Differences differences,
+            DynamicChangeInfo<?> tracker) {
+        ChildType childType = pModel.getChildType();
+        if (sourceValue == null || otherValue == null) {
+            return (sourceValue == null && otherValue == null);
+        }
+        
+        int size = getLOASize(otherValue, childType);
+        if (size != getLOASize(sourceValue, childType)) return false;
+        
+        QName keyProperty = pModel.getChildModel().getKeyProperty();
+        
+        for (int lcv = 0; lcv < size; lcv++) {
+            BaseHK2JAXBBean otherBean = getLOABean(otherValue, childType, lcv);
+            if (!tracker.wasTouched(otherBean)) continue;
+            
+            BaseHK2JAXBBean sourceBean = getLOABean(sourceValue, childType, lcv);
+            
+            if (keyProperty != null && tracker.wasModified(otherBean)) {
+                String keyPropertyNamespace = QNameUtilities.getNamespace(keyProperty);
+                String keyPropertyKey = keyProperty.getLocalPart();
+                
+                Object sourceKey = sourceBean._getProperty(keyPropertyNamespace, keyPropertyKey);
+                Object otherKey = otherBean._getProperty(keyPropertyNamespace, keyPropertyKey);
+                if (!GeneralUtilities.safeEquals(sourceKey, otherKey)) {
+                    // The key itself changed, which must be seen as a remove and an add
+                    return false;
+                }
+            }
+        }
+        
+        for (int lcv = 0; lcv < size; lcv++) {
+            BaseHK2JAXBBean otherBean = getLOABean(otherValue, childType, lcv);
+            if (!tracker.wasTouched(otherBean)) continue;
+            
+            getAllDifferences(getLOABean(sourceValue, childType, lcv), otherBean, differences, tracker);
+        }
+        
+        return true;
+    }
+    
     @SuppressWarnings("unchecked")
     private static void getListDifferences(ParentedModel pModel,
             Object sourceValue, Object otherValue,
             Differences differences,
-            String xmlTag, BaseHK2JAXBBean source) {
+            String xmlTag, BaseHK2JAXBBean source,
+            DynamicChangeInfo<?> tracker) {
         Difference localDifference = new Difference(source);
         
         QName keyProperty = pModel.getChildModel().getKeyProperty();
@@ -1623,7 +1727,7 @@ public class Utilities {
                     }
                     
                     // Need to know sub-differences
-                    getAllDifferences(sourceBean, (BaseHK2JAXBBean) otherBean, differences);
+                    getAllDifferences(sourceBean, (BaseHK2JAXBBean) otherBean, differences, tracker);
                 }
             }
             
@@ -1656,7 +1760,8 @@ public class Utilities {
     private static void getArrayDifferences(ParentedModel pModel,
             Object sourceValue, Object otherValue,
             Differences differences,
-            String xmlTag, BaseHK2JAXBBean source) {
+            String xmlTag, BaseHK2JAXBBean source,
+            DynamicChangeInfo<?> tracker) {
         Difference localDifference = new Difference(source);
 
         QName keyProperty = pModel.getChildModel().getKeyProperty();
@@ -1694,7 +1799,7 @@ public class Utilities {
                     }
                     
                     // Get all changes to sub bean
-                    getAllDifferences(sourceBean, otherBean, differences);
+                    getAllDifferences(sourceBean, otherBean, differences, tracker);
                 }
             }
             
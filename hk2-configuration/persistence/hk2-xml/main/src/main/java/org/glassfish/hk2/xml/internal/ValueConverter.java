@@ -0,0 +1,217 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+
+/**
+ * Converts the textual value of an attribute or element into the
+ * java type of a non-child property.  Converters are resolved once
+ * per property when the dispatch table of a {@link ModelImpl} is
+ * built, so that the streaming parser does not have to walk the
+ * chain of type checks in {@link Utilities#getDefaultValue(String, Class, Map)}
+ * for every value it reads
+ * 
+ * @author jwells
+ *
+ */
+public abstract class ValueConverter {
+    private final static String ENUM_FROM_VALUE_METHOD_NAME = "fromValue";
+    private final static Class<?> ENUM_FROM_VALUE_PARAM_TYPES[] = { String.class };
+    
+    private final static ValueConverter STRING_CONVERTER = new ValueConverter(String.class) {
+        @Override
+        protected Object convertValue(String value, Map<String, String> namespaceMap) {
+            return value;
+        }
+    };
+    
+    /**
+     * The type this converter produces
+     */
+    private final Class<?> expectedClass;
+    
+    private ValueConverter(Class<?> expectedClass) {
+        this.expectedClass = expectedClass;
+    }
+    
+    /**
+     * Converts the given raw value into the expected type.  A null value or the
+     * JAXB default marker produces the same default as {@link Utilities#getDefaultValue(String, Class, Map)}
+     * 
+     * @param value The raw value as read from the document, may be null
+     * @param namespaceMap The prefix to namespace map in effect for the value
+     * @return The converted value
+     */
+    public Object convert(String value, Map<String, String> namespaceMap) {
+        if (value == null || JAUtilities.JAXB_DEFAULT_DEFAULT.equals(value)) {
+            return Utilities.getDefaultValue(value, expectedClass, namespaceMap);
+        }
+        
+        return convertValue(value, namespaceMap);
+    }
+    
+    /**
+     * Returns the type this converter produces
+     * 
+     * @return The type this converter produces
+     */
+    public Class<?> getExpectedClass() {
+        return expectedClass;
+    }
+    
+    /**
+     * Converts a non-null, non-default value
+     */
+    protected abstract Object convertValue(String value, Map<String, String> namespaceMap);
+    
+    /**
+     * Returns a converter for the given type.  Types that have no specialized
+     * converter fall back to {@link Utilities#getDefaultValue(String, Class, Map)}
+     * 
+     * @param expectedClass The type to convert to, may not be null
+     * @return A converter that produces values of the given type
+     */
+    public static ValueConverter getConverter(final Class<?> expectedClass) {
+        if (String.class.equals(expectedClass)) {
+            return STRING_CONVERTER;
+        }
+        if (int.class.equals(expectedClass) || Integer.class.equals(expectedClass)) {
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    return Integer.parseInt(value);
+                }
+            };
+        }
+        if (long.class.equals(expectedClass) || Long.class.equals(expectedClass)) {
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    return Long.parseLong(value);
+                }
+            };
+        }
+        if (boolean.class.equals(expectedClass) || Boolean.class.equals(expectedClass)) {
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    return Boolean.parseBoolean(value);
+                }
+            };
+        }
+        if (double.class.equals(expectedClass) || Double.class.equals(expectedClass)) {
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    return Double.parseDouble(value);
+                }
+            };
+        }
+        if (expectedClass.isEnum()) {
+            final Method fromValue;
+            try {
+                fromValue = expectedClass.getMethod(ENUM_FROM_VALUE_METHOD_NAME, ENUM_FROM_VALUE_PARAM_TYPES);
+            }
+            catch (NoSuchMethodException nsme) {
+                // Let the generic path produce the usual error if this is ever used
+                return new GenericValueConverter(expectedClass);
+            }
+            if (!ReflectionHelper.isStatic(fromValue)) {
+                return new GenericValueConverter(expectedClass);
+            }
+            
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    try {
+                        return ReflectionHelper.invoke(null, fromValue, new Object[] { value }, true);
+                    }
+                    catch (Throwable th) {
+                        throw new AssertionError("An enum with a default must have a fromValue(String) method to return the value for " +
+                            expectedClass.getName() + " and default value " + value, th);
+                    }
+                }
+            };
+        }
+        if (QName.class.equals(expectedClass)) {
+            return new ValueConverter(expectedClass) {
+                @Override
+                protected Object convertValue(String value, Map<String, String> namespaceMap) {
+                    int indexOfColon = value.indexOf(':');
+                    if (indexOfColon < 0) {
+                        return new QName(value);
+                    }
+                    
+                    String prefix = value.substring(0, indexOfColon);
+                    String localPart = value.substring(indexOfColon + 1);
+                    String namespaceURI = namespaceMap.get(prefix);
+                    if (namespaceURI == null) return null;
+                    
+                    return new QName(namespaceURI, localPart, prefix);
+                }
+            };
+        }
+        
+        return new GenericValueConverter(expectedClass);
+    }
+    
+    private static class GenericValueConverter extends ValueConverter {
+        private GenericValueConverter(Class<?> expectedClass) {
+            super(expectedClass);
+        }
+
+        @Override
+        protected Object convertValue(String value, Map<String, String> namespaceMap) {
+            return Utilities.getDefaultValue(value, getExpectedClass(), namespaceMap);
+        }
+        
+    }
+    
+    @Override
+    public String toString() {
+        return "ValueConverter(" + expectedClass.getName() + "," + System.identityHashCode(this) + ")";
+    }
+}
@@ -53,13 +53,15 @@ public class XmlRootCopyImpl<T> implements XmlRootCopy<T> {
     private final XmlRootHandleImpl<T> parent;
     private final long basis;
     private final T copy;
+    private final DynamicChangeInfo<T> copyController;
     
-    /* package */ XmlRootCopyImpl(XmlRootHandleImpl<T> parent, long basis, T copy) {
+    /* package */ XmlRootCopyImpl(XmlRootHandleImpl<T> parent, long basis, T copy, DynamicChangeInfo<T> copyController) {
         if (copy == null) throw new IllegalStateException("Only a non-empty Handle can be copied");
         
         this.parent = parent;
         this.basis = basis;
         this.copy = copy;
+        this.copyController = copyController;
     }
 
     /* (non-Javadoc)
@@ -101,7 +103,20 @@ public class XmlRootCopyImpl<T> implements XmlRootCopy<T> {
             BaseHK2JAXBBean copyBean = (BaseHK2JAXBBean) copy;
             BaseHK2JAXBBean original = (BaseHK2JAXBBean) parent.getRoot();
             
-            Differences differences = Utilities.getDiff(original, copyBean);
+            Differences differences;
+            if (copyController != null && copyController.isTrackingModifications()) {
+                // Only the subtrees of the copy that were modified need to be compared
+                copyController.getReadLock().lock();
+                try {
+                    differences = Utilities.getDiff(original, copyBean, copyController);
+                }
+                finally {
+                    copyController.getReadLock().unlock();
+                }
+            }
+            else {
+                differences = Utilities.getDiff(original, copyBean);
+            }
             
             if (!differences.getDifferences().isEmpty()) {
                 Utilities.applyDiff(differences, parent.getChangeInfo());
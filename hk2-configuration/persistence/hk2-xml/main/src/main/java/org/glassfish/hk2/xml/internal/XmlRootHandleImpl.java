@@ -219,7 +219,7 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
         try {
             BaseHK2JAXBBean bean = (BaseHK2JAXBBean) root;
             if (bean == null) {
-                return new XmlRootCopyImpl<T>(this, changeControl.getChangeNumber(), null);
+                return new XmlRootCopyImpl<T>(this, changeControl.getChangeNumber(), null, null);
             }
         
             BaseHK2JAXBBean copy;
@@ -237,8 +237,11 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
             catch (Throwable th) {
                 throw new RuntimeException(th);
             }
+            
+            // From here on every bean modified in the copy is remembered
+            copyController.startTrackingModifications();
         
-            return new XmlRootCopyImpl<T>(this, changeControl.getChangeNumber(), (T) copy);
+            return new XmlRootCopyImpl<T>(this, changeControl.getChangeNumber(), (T) copy, copyController);
         }
         finally {
             changeControl.getReadLock().unlock();
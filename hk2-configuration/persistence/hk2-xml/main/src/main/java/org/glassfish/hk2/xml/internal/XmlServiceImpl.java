@@ -54,6 +54,7 @@ import java.util.Map;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamReader;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
@@ -76,6 +77,7 @@ import org.glassfish.hk2.xml.api.XmlHubCommitMessage;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlService;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.jaxb.internal.JAXBXmlParser;
 import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
@@ -95,6 +97,24 @@ public class XmlServiceImpl implements XmlService {
             
     });
     
+    /**
+     * When true, documents given as a URI or an InputStream to be read by the
+     * default JAXB parser are instead read in one pass by the streaming parser,
+     * which sets properties using the dispatch tables of the generated models
+     */
+    public final static String STREAMING_UNMARSHAL_PROPERTY = "org.jvnet.hk2.xmlservice.parser.streaming";
+    
+    private final static boolean STREAMING_UNMARSHAL = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+        @Override
+        public Boolean run() {
+            return Boolean.parseBoolean(
+                System.getProperty(STREAMING_UNMARSHAL_PROPERTY, "false"));
+        }
+            
+    });
+    
+    private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    
     @Inject
     private ServiceLocator serviceLocator;
     
@@ -224,6 +244,24 @@ public class XmlServiceImpl implements XmlService {
         }
     }
     
+    private <T> T parseStreaming(ModelImpl model, URI uri, InputStream inputStream,
+            Hk2JAXBUnmarshallerListener listener) throws Exception {
+        InputStream input = (uri != null) ? uri.toURL().openStream() : inputStream ;
+        try {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(input);
+            try {
+                return XmlStreamImpl.parseRoot(this, model, reader, listener);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            // Only close the stream if it was opened here
+            if (uri != null) input.close();
+        }
+    }
+    
     private <T> XmlRootHandle<T> unmarshallClass(URI uri, InputStream inputStream, ModelImpl model,
             XmlServiceParser localParser, XMLStreamReader reader,
             boolean advertise, boolean advertiseInHub) throws Exception {
@@ -242,7 +280,10 @@ public class XmlServiceImpl implements XmlService {
         }
         
         T root;
-        if (localParser != null) {
+        if (localParser != null && STREAMING_UNMARSHAL && (localParser instanceof JAXBXmlParser)) {
+            root = parseStreaming(model, uri, inputStream, listener);
+        }
+        else if (localParser != null) {
             if (uri != null) {
                 root = localParser.parseRoot(model, uri, listener);
             }
@@ -178,8 +178,7 @@ public class XmlStreamImpl {
         Map<QName, ArrayInformation> arrayNonChild = new HashMap<QName, ArrayInformation>();
         
         ModelImpl targetModel = target._getModel();
-        Map<QName, ChildDataModel> nonChildProperties = targetModel.getNonChildProperties();
-        Map<QName, ParentedModel> childProperties = targetModel.getChildrenByName();
+        Map<QName, PropertyDispatch> dispatchTable = targetModel.getDispatchTable();
         Set<String> allWrappers = targetModel.getAllXmlWrappers();
         
         Map<QName, String> xmlAnyAttributeData = new LinkedHashMap<QName, String>();
@@ -195,19 +194,17 @@ public class XmlStreamImpl {
                 Logger.getLogger().debug("XmlServiceDebug handling attribute " + attributeQName + " with value " + attributeValue);
             }
             
-            ChildDataModel childDataModel = nonChildProperties.get(attributeQName);
-            if (childDataModel == null) {
+            PropertyDispatch dispatch = dispatchTable.get(attributeQName);
+            if (dispatch == null || dispatch.getChildDataModel() == null) {
                 xmlAnyAttributeData.put(attributeQName, attributeValue);
                 
                 continue;
             }
-            if (!Format.ATTRIBUTE.equals(childDataModel.getFormat())) continue;
-            
-            Class<?> childType = targetModel.getNonChildType(attributeNamespace, attributeName);
+            if (!dispatch.isAttribute()) continue;
             
-            if (!childDataModel.isReference()) {
-                Object convertedValue = Utilities.getDefaultValue(attributeValue, childType, namespaceMap);
-                target._setProperty(attributeNamespace, attributeName, convertedValue);
+            if (!dispatch.isReference()) {
+                Object convertedValue = dispatch.getConverter().convert(attributeValue, namespaceMap);
+                target._setProperty(dispatch.getSlot(), convertedValue);
             }
             else {
                 if (DEBUG_PARSING) {
@@ -215,20 +212,21 @@ public class XmlStreamImpl {
                 }
                 
                 // Reference
-                ReferenceKey rk = new ReferenceKey(childDataModel.getChildType(), attributeValue);
+                String referenceType = dispatch.getChildDataModel().getChildType();
+                ReferenceKey rk = new ReferenceKey(referenceType, attributeValue);
                 BaseHK2JAXBBean reference = referenceMap.get(rk);
                 if (reference != null) {
-                    target._setProperty(attributeNamespace, attributeName, reference);
+                    target._setProperty(dispatch.getSlot(), reference);
                 }
                 else {
-                    unresolved.add(new UnresolvedReference(childDataModel.getChildType(), attributeValue, attributeNamespace, attributeName, target));
+                    unresolved.add(new UnresolvedReference(referenceType, attributeValue, dispatch.getNamespace(), dispatch.getLocalPart(), target));
                 }
             }
         }
         
-        ChildDataModel childDataModel = nonChildProperties.get(ANY_ATTRIBUTE_QNAME);
-        if (childDataModel != null) {
-            target._setProperty(ANY_ATTRIBUTE_QNAME, xmlAnyAttributeData);
+        PropertyDispatch anyAttributeDispatch = dispatchTable.get(ANY_ATTRIBUTE_QNAME);
+        if (anyAttributeDispatch != null && anyAttributeDispatch.getChildDataModel() != null) {
+            target._setProperty(anyAttributeDispatch.getSlot(), xmlAnyAttributeData);
         }
         
         
@@ -240,10 +238,13 @@ public class XmlStreamImpl {
             
             switch(event) {
             case XMLStreamConstants.START_ELEMENT:
-                Map<String, String> effectiveNamespaceMap = null;
+                Map<String, String> effectiveNamespaceMap = namespaceMap;
                 {
-                    effectiveNamespaceMap = new HashMap<String, String>(namespaceMap);
                     int namespaceCount = reader.getNamespaceCount();
+                    if (namespaceCount > 0) {
+                        // Only elements that declare namespaces need their own copy
+                        effectiveNamespaceMap = new HashMap<String, String>(namespaceMap);
+                    }
                     for (int nLcv = 0; nLcv < namespaceCount; nLcv++) {
                         String namespacePrefix = reader.getNamespacePrefix(nLcv);
                         String namespaceURI = reader.getNamespaceURI(nLcv);
@@ -266,62 +267,53 @@ public class XmlStreamImpl {
                     Logger.getLogger().debug("XmlServiceDebug starting parse of element " + elementTag);
                 }
                 
-                ChildDataModel cdm = nonChildProperties.get(elementTagQName);
-                if (cdm != null && Format.ELEMENT.equals(cdm.getFormat())) {
+                PropertyDispatch elementDispatch = dispatchTable.get(elementTagQName);
+                if (elementDispatch != null && elementDispatch.isElement()) {
                     String elementValue = advanceNonChildElement(reader, elementTag);
                     
-                    Class<?> childType = cdm.getChildTypeAsClass();
-                    
-                    if (!cdm.isReference()) {
-                        if (List.class.equals(childType)) {
-                            Class<?> listType = cdm.getChildListTypeAsClass();
-                            
-                            Object convertedValue = Utilities.getDefaultValue(elementValue, listType, effectiveNamespaceMap);
-                            
+                    if (!elementDispatch.isReference()) {
+                        Object convertedValue = elementDispatch.getConverter().convert(elementValue, effectiveNamespaceMap);
+                        
+                        if (elementDispatch.isList()) {
                             List<Object> listObjects = listNonChild.get(elementTagQName);
                             if (listObjects == null) {
-                                listObjects = new LinkedList<Object>();
+                                listObjects = new ArrayList<Object>();
                                 listNonChild.put(elementTagQName, listObjects);
                             }
                             
                             listObjects.add(convertedValue);
                         }
-                        else if (childType.isArray() && !byte.class.equals(childType.getComponentType())) {
-                            Class<?> aType = childType.getComponentType();
-                            
-                            Object convertedValue = Utilities.getDefaultValue(elementValue, aType, effectiveNamespaceMap);
-                            
+                        else if (elementDispatch.isArray()) {
                             ArrayInformation ai = arrayNonChild.get(elementTagQName);
                             if (ai == null) {
-                                ai = new ArrayInformation(aType);
+                                ai = new ArrayInformation(elementDispatch.getArrayType());
                                 arrayNonChild.put(elementTagQName, ai);
                             }
                             
                             ai.add(convertedValue);
                         }
                         else {
-                            Object convertedValue = Utilities.getDefaultValue(elementValue, childType, effectiveNamespaceMap);
-                        
-                            target._setProperty(elementTagNamespace, elementTag, convertedValue);
+                            target._setProperty(elementDispatch.getSlot(), convertedValue);
                         }
                     }
                     else {
-                        ReferenceKey referenceKey = new ReferenceKey(cdm.getChildType(), elementValue);
+                        String referenceType = elementDispatch.getChildDataModel().getChildType();
+                        ReferenceKey referenceKey = new ReferenceKey(referenceType, elementValue);
                         BaseHK2JAXBBean reference = referenceMap.get(referenceKey);
                         
                         if (reference != null) {
-                            target._setProperty(elementTagNamespace, elementTag, reference);
+                            target._setProperty(elementDispatch.getSlot(), reference);
                         }
                         else {
-                            unresolved.add(new UnresolvedReference(cdm.getChildType(),
-                                    elementValue, elementTagNamespace, elementTag, target));
+                            unresolved.add(new UnresolvedReference(referenceType,
+                                    elementValue, elementDispatch.getNamespace(), elementDispatch.getLocalPart(), target));
                         }
                     }
                     
                     break;
                 }
                 
-                ParentedModel informedChild = childProperties.get(elementTagQName);
+                ParentedModel informedChild = (elementDispatch == null) ? null : elementDispatch.getParentedModel();
                 if (informedChild != null) {
                     ModelImpl grandChild = informedChild.getChildModel();
                     
@@ -351,7 +343,7 @@ public class XmlStreamImpl {
                     }
                     
                     if (informedChild.getChildType().equals(ChildType.DIRECT)) {
-                        target._setProperty(elementTagNamespace, elementTag, realThing);
+                        target._setProperty(elementDispatch.getSlot(), realThing);
                     }
                     else if (informedChild.getChildType().equals(ChildType.LIST)) {
                         List<BaseHK2JAXBBean> cList = listChildren.get(elementTagQName);
@@ -400,18 +392,13 @@ public class XmlStreamImpl {
                 
                 break;
             case XMLStreamConstants.CHARACTERS:
-                ChildDataModel valueModel = targetModel.getValueData();
-                if (valueModel != null) {
+                PropertyDispatch valueDispatch = targetModel.getValueDispatch();
+                if (valueDispatch != null) {
                     String text = reader.getText();
                     
-                    Class<?> childType = valueModel.getChildTypeAsClass();
-                    
-                    String propNamespace = targetModel.getValuePropertyNamespace();
-                    String propName = targetModel.getValueProperty();
-                    
-                    Object convertedValue = Utilities.getDefaultValue(text, childType, namespaceMap);
+                    Object convertedValue = valueDispatch.getConverter().convert(text, namespaceMap);
                     
-                    target._setProperty(propNamespace, propName, convertedValue);
+                    target._setProperty(valueDispatch.getSlot(), convertedValue);
                 }
                 break;
             case XMLStreamConstants.END_ELEMENT:
@@ -425,10 +412,9 @@ public class XmlStreamImpl {
                 
                 for (Map.Entry<QName, List<BaseHK2JAXBBean>> entry : arrayChildren.entrySet()) {
                     QName childTag = entry.getKey();
-                    String childTagNamespace = QNameUtilities.getNamespace(childTag, defaultNamespace);
-                    String childTagKey = childTag.getLocalPart();
                     
-                    ParentedModel pn = targetModel.getChild(childTagNamespace, childTagKey);
+                    PropertyDispatch childDispatch = dispatchTable.get(childTag);
+                    ParentedModel pn = childDispatch.getParentedModel();
                     Class<?> childType = pn.getChildModel().getOriginalInterfaceAsClass();
                     
                     List<BaseHK2JAXBBean> individuals = entry.getValue();
@@ -440,14 +426,14 @@ public class XmlStreamImpl {
                         Array.set(actualArray, index++, individual);
                     }
                     
-                    target._setProperty(childTag, actualArray);
+                    target._setProperty(childDispatch.getSlot(), actualArray);
                 }
                 
                 for (Map.Entry<QName, List<Object>> entry : listNonChild.entrySet()) {
                     QName childTag = entry.getKey();
                     List<Object> value = entry.getValue();
                     
-                    target._setProperty(childTag, value);
+                    target._setProperty(dispatchTable.get(childTag).getSlot(), value);
                 }
                 
                 for (Map.Entry<QName, ArrayInformation> entry : arrayNonChild.entrySet()) {
@@ -461,7 +447,7 @@ public class XmlStreamImpl {
                         Array.set(actualArray, lcv++, value);
                     }
                     
-                    target._setProperty(childTag, actualArray);
+                    target._setProperty(dispatchTable.get(childTag).getSlot(), actualArray);
                 }
                 
                 listener.afterUnmarshal(target, parent);
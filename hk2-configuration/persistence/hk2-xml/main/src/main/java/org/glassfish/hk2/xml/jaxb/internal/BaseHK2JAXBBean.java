@@ -41,6 +41,8 @@
 package org.glassfish.hk2.xml.jaxb.internal;
 
 import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
@@ -77,9 +79,10 @@ import org.glassfish.hk2.xml.internal.ChildType;
 import org.glassfish.hk2.xml.internal.DynamicChangeInfo;
 import org.glassfish.hk2.xml.internal.ModelImpl;
 import org.glassfish.hk2.xml.internal.ModelPropertyType;
-import org.glassfish.hk2.xml.internal.NamespaceBeanLikeMapImpl;
 import org.glassfish.hk2.xml.internal.ParentedModel;
+import org.glassfish.hk2.xml.internal.PropertyDispatch;
 import org.glassfish.hk2.xml.internal.QNameUtilities;
+import org.glassfish.hk2.xml.internal.SlotBeanLikeMap;
 import org.glassfish.hk2.xml.internal.Utilities;
 import org.glassfish.hk2.xml.internal.XmlDynamicChange;
 import org.glassfish.hk2.xml.internal.XmlRootHandleImpl;
@@ -105,10 +108,10 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     public final static char XML_PATH_SEPARATOR = '/';
     
     /**
-     * All fields, including child lists and direct children for beans
-     * with no namespace specified (##default)
+     * All fields, including child lists and direct children, kept in
+     * the slots assigned to them by the model
      */
-    private final NamespaceBeanLikeMap nBeanLikeMap = new NamespaceBeanLikeMapImpl();
+    private final SlotBeanLikeMap nBeanLikeMap = new SlotBeanLikeMap(_getModel());
     
     /**
      * All children whose type has an identifier.  First key is the xml parameter name, second
@@ -364,6 +367,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
                 
                 changeControl.startOrContinueChange(this);
                 try {
+                    changeControl.recordModification(this);
+                    
                     if (!rawSet) {
                         Object oValue = nBeanLikeMap.getValue(propNamespace, propName);
                        
@@ -439,6 +444,103 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         _setProperty(propNamespace, propName, (Double) propValue);
     }
     
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @param propValue The new value
+     */
+    public void _setProperty(int slot, Object propValue) {
+        if (changeControl == null && !DEBUG_GETS_AND_SETS && !(propValue instanceof List)) {
+            if (active) {
+                synchronized (this) {
+                    nBeanLikeMap.setValue(slot, propValue);
+                }
+            }
+            else {
+                nBeanLikeMap.setValue(slot, propValue);
+            }
+            
+            return;
+        }
+        
+        PropertyDispatch dispatch = _getModel().getDispatch(slot);
+        _setProperty(dispatch.getNamespace(), dispatch.getLocalPart(), propValue);
+    }
+    
+    /**
+     * Stores the raw bits of a primitive property directly in its slot
+     * when no change control or debugging needs the boxed value
+     * 
+     * @param slot The slot of the property in the model
+     * @param primitiveType The primitive type of the value being set
+     * @param bits The raw bits of the value, as from {@link SlotBeanLikeMap#toBits(Class, Object)}
+     * @return true if the value was stored, false if the caller must go through the boxed path
+     */
+    private boolean _setPropertyBits(int slot, Class<?> primitiveType, long bits) {
+        if (changeControl != null || DEBUG_GETS_AND_SETS) return false;
+        if (!primitiveType.equals(_getModel().getDispatch(slot).getPrimitiveType())) return false;
+        
+        if (active) {
+            synchronized (this) {
+                nBeanLikeMap.setPrimitiveBits(slot, bits);
+            }
+        }
+        else {
+            nBeanLikeMap.setPrimitiveBits(slot, bits);
+        }
+        
+        return true;
+    }
+    
+    public void _setProperty(int slot, byte propValue) {
+        if (_setPropertyBits(slot, byte.class, propValue)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, boolean propValue) {
+        if (_setPropertyBits(slot, boolean.class, propValue ? 1L : 0L)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, char propValue) {
+        if (_setPropertyBits(slot, char.class, propValue)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, short propValue) {
+        if (_setPropertyBits(slot, short.class, propValue)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, int propValue) {
+        if (_setPropertyBits(slot, int.class, propValue)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, float propValue) {
+        if (_setPropertyBits(slot, float.class, Float.floatToRawIntBits(propValue))) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, long propValue) {
+        if (_setPropertyBits(slot, long.class, propValue)) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
+    public void _setProperty(int slot, double propValue) {
+        if (_setPropertyBits(slot, double.class, Double.doubleToRawLongBits(propValue))) return;
+        
+        _setProperty(slot, (Object) propValue);
+    }
+    
     private Object _getProperty(String propNamespace, String propName, Class<?> expectedClass) {
         return _getProperty(propNamespace, propName, expectedClass, null);
     }
@@ -614,6 +716,198 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         return (Double) _getProperty(propNamespace, propName, double.class);
     }
     
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public Object _getProperty(int slot) {
+        return _getSlotValue(_getModel().getDispatch(slot));
+    }
+    
+    private Object _getSlotValue(PropertyDispatch dispatch) {
+        int slot = dispatch.getSlot();
+        
+        boolean isSet;
+        Object retVal;
+        boolean doDefaulting = active ? true : false;
+        
+        if (changeControl == null) {
+            if (active) {
+                synchronized (this) {
+                    isSet = nBeanLikeMap.isSet(slot);
+                    retVal = nBeanLikeMap.getValue(slot);
+                }
+            }
+            else {
+                isSet = nBeanLikeMap.isSet(slot);
+                retVal = nBeanLikeMap.getValue(slot);
+            }
+        }
+        else {
+            changeControl.getReadLock().lock();
+            try {
+                doDefaulting = true;
+                isSet = nBeanLikeMap.isSet(slot);
+                retVal = nBeanLikeMap.getValue(slot);
+            }
+            finally {
+                changeControl.getReadLock().unlock();
+            }
+        }
+        
+        if (doDefaulting && (retVal == null) && !isSet) {
+            ParentedModel parentNode = dispatch.getParentedModel();
+            if (parentNode == null) {
+                retVal = dispatch.getDefaultValue(prefixToNamespaceMap);
+            }
+            else {
+                switch (parentNode.getChildType()) {
+                case LIST:
+                    retVal = Collections.EMPTY_LIST;
+                    break;
+                case ARRAY:
+                    Class<?> cType = parentNode.getChildModel().getOriginalInterfaceAsClass();
+                    retVal = Array.newInstance(cType, 0);
+                    break;
+                case DIRECT:
+                default:
+                    break;
+                
+                }
+            }
+        }
+        
+        if (DEBUG_GETS_AND_SETS) {
+            // Hidden behind static because of potential expensive toString costs
+            Logger.getLogger().debug("XmlService getting property " + dispatch.getLocalPart() + "=" + retVal + " in " + this);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns the raw bits of a primitive property without boxing
+     * when the property has been set, otherwise goes through the
+     * defaulting of {@link #_getSlotValue(PropertyDispatch)}
+     */
+    private long _getPropertyBits(int slot, Class<?> expectedClass) {
+        PropertyDispatch dispatch = _getModel().getDispatch(slot);
+        
+        if (dispatch.getPrimitiveType() != null && !DEBUG_GETS_AND_SETS) {
+            boolean isSet;
+            long bits;
+            
+            if (changeControl == null) {
+                if (active) {
+                    synchronized (this) {
+                        isSet = nBeanLikeMap.isPrimitiveSet(slot);
+                        bits = nBeanLikeMap.getPrimitiveBits(slot);
+                    }
+                }
+                else {
+                    isSet = nBeanLikeMap.isPrimitiveSet(slot);
+                    bits = nBeanLikeMap.getPrimitiveBits(slot);
+                }
+            }
+            else {
+                changeControl.getReadLock().lock();
+                try {
+                    isSet = nBeanLikeMap.isPrimitiveSet(slot);
+                    bits = nBeanLikeMap.getPrimitiveBits(slot);
+                }
+                finally {
+                    changeControl.getReadLock().unlock();
+                }
+            }
+            
+            if (isSet) return bits;
+        }
+        
+        return SlotBeanLikeMap.toBits(expectedClass, _getSlotValue(dispatch));
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public boolean _getPropertyZ(int slot) {
+        return _getPropertyBits(slot, boolean.class) != 0L;
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public byte _getPropertyB(int slot) {
+        return (byte) _getPropertyBits(slot, byte.class);
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public char _getPropertyC(int slot) {
+        return (char) _getPropertyBits(slot, char.class);
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public short _getPropertyS(int slot) {
+        return (short) _getPropertyBits(slot, short.class);
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public int _getPropertyI(int slot) {
+        return (int) _getPropertyBits(slot, int.class);
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public float _getPropertyF(int slot) {
+        return Float.intBitsToFloat((int) _getPropertyBits(slot, float.class));
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public long _getPropertyJ(int slot) {
+        return _getPropertyBits(slot, long.class);
+    }
+    
+    /**
+     * Called by proxy
+     * 
+     * @param slot The slot of the property in the model
+     * @return Value
+     */
+    public double _getPropertyD(int slot) {
+        return Double.longBitsToDouble(_getPropertyBits(slot, double.class));
+    }
+    
     @SuppressWarnings("unchecked")
     private Object internalLookup(String propNamespace, String propName, String keyValue) {
         QName propertyQName = QNameUtilities.createQName(propNamespace, propName);
@@ -715,6 +1009,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             boolean success = false;
             XmlDynamicChange change = changeControl.startOrContinueChange(this);
             try {
+                changeControl.recordModification(this);
+                
                 retVal = Utilities.internalAdd(this, propNamespace, childProperty, rawChild, childKey, index, changeControl, change, addedServices, changeList);
                 
                 Object newValue = nBeanLikeMap.getValue(propNamespace, childProperty);
@@ -751,6 +1047,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             boolean success = false;
             XmlDynamicChange change = changeControl.startOrContinueChange(this);
             try {
+                changeControl.recordModification(this);
+                
                 Utilities.internalModifyChild(this, propNamespace, propName, currentValue, newValue, root, changeControl, change);
                 
                 success = true;
@@ -911,6 +1209,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             Object retVal;
             boolean success = false;
             try {
+                changeControl.recordModification(this);
+                
                 Object oldVal = nBeanLikeMap.getValue(propNamespace, childProperty);
                 
                 retVal = Utilities.internalRemove(this, propNamespace, childProperty, childKey, index, child, changeControl, xmlDynamicChange, changeList);
@@ -1330,6 +1630,34 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         
     }
     
+    /**
+     * Returns a snapshot of the values of all the properties of
+     * this bean indexed by slot, with no defaulting applied.  Used
+     * by encoders that walk the model by slot
+     * 
+     * @return A new array with one entry per slot of the model, where
+     * properties that have not been set are null
+     */
+    public Object[] _getSlotValues() {
+        if (changeControl == null) {
+            if (active) {
+                synchronized (this) {
+                    return nBeanLikeMap.copyValues();
+                }
+            }
+            
+            return nBeanLikeMap.copyValues();
+        }
+        
+        changeControl.getReadLock().lock();
+        try {
+            return nBeanLikeMap.copyValues();
+        }
+        finally {
+            changeControl.getReadLock().unlock();
+        }
+    }
+    
     public void __setAddCost(int addCost) {
         this.addCost = addCost;
     }
@@ -1364,6 +1692,13 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         baseNameProperty.addAll(propNameValue);
     }
     
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        
+        // The slots are not serialized, put the values back into them
+        nBeanLikeMap.attach(_getModel());
+    }
+    
     @Override
     public String toString() {
         return "BaseHK2JAXBBean(XmlPath=" + xmlPath +
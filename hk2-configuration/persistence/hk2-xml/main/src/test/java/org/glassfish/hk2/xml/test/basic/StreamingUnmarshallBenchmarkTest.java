@@ -0,0 +1,199 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.basic;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.test.basic.beans.Employee;
+import org.glassfish.hk2.xml.test.basic.beans.Employees;
+import org.glassfish.hk2.xml.test.utilities.Utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the JAXB parser with the streaming parser
+ * 
+ * @author jwells
+ *
+ */
+public class StreamingUnmarshallBenchmarkTest {
+    private final static String COMPANY_NAME = "Acme";
+    private final static String EMPLOYEE_PREFIX = "employee-";
+    
+    /** About 50Mb of employees */
+    private final static int BENCHMARK_EMPLOYEES = 700000;
+    private final static int SMALL_EMPLOYEES = 100;
+    
+    private final XMLInputFactory xif = XMLInputFactory.newInstance();
+    
+    private static File writeEmployees(int numEmployees) throws IOException {
+        File retVal = File.createTempFile("employees", ".xml");
+        retVal.deleteOnExit();
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(retVal), "UTF-8"));
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<employees>\n");
+            writer.write("  <company-name>" + COMPANY_NAME + "</company-name>\n");
+            
+            for (int lcv = 0; lcv < numEmployees; lcv++) {
+                writer.write("  <employee>\n");
+                writer.write("    <id>" + lcv + "</id>\n");
+                writer.write("    <name>" + EMPLOYEE_PREFIX + lcv + "</name>\n");
+                writer.write("  </employee>\n");
+            }
+            
+            writer.write("</employees>\n");
+        }
+        finally {
+            writer.close();
+        }
+        
+        return retVal;
+    }
+    
+    private XmlRootHandle<Employees> parseWithStream(XmlService xmlService, File file) throws Exception {
+        InputStream is = new FileInputStream(file);
+        try {
+            XMLStreamReader reader = xif.createXMLStreamReader(is);
+            try {
+                return xmlService.unmarshal(reader, Employees.class, false, false);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            is.close();
+        }
+    }
+    
+    private static void checkEmployees(Employees employees, int numEmployees) {
+        Assert.assertEquals(COMPANY_NAME, employees.getCompanyName());
+        
+        List<Employee> all = employees.getEmployees();
+        Assert.assertEquals(numEmployees, all.size());
+        
+        for (int lcv = 0; lcv < numEmployees; lcv++) {
+            Employee employee = all.get(lcv);
+            
+            Assert.assertEquals(lcv, employee.getId());
+            Assert.assertEquals(EMPLOYEE_PREFIX + lcv, employee.getName());
+        }
+    }
+    
+    /**
+     * Ensures the streaming parser produces the same tree as the JAXB parser
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testStreamingMatchesJaxb() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(SMALL_EMPLOYEES);
+        try {
+            XmlRootHandle<Employees> jaxbHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            checkEmployees(jaxbHandle.getRoot(), SMALL_EMPLOYEES);
+            
+            XmlRootHandle<Employees> streamHandle = parseWithStream(xmlService, file);
+            checkEmployees(streamHandle.getRoot(), SMALL_EMPLOYEES);
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Parses a large document with both the JAXB parser and the streaming
+     * parser and prints the elapsed times.  Takes a while and a lot of memory,
+     * so it is only run by hand
+     * 
+     * @throws Exception
+     */
+    @Test
+    @org.junit.Ignore
+    public void benchmarkStreamingVersusJaxb() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(BENCHMARK_EMPLOYEES);
+        try {
+            // Warm up both paths and the generated proxies
+            parseWithStream(xmlService, file);
+            xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            long jaxbElapsed = System.currentTimeMillis();
+            XmlRootHandle<Employees> jaxbHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            jaxbElapsed = System.currentTimeMillis() - jaxbElapsed;
+            
+            checkEmployees(jaxbHandle.getRoot(), BENCHMARK_EMPLOYEES);
+            jaxbHandle = null;
+            
+            long streamElapsed = System.currentTimeMillis();
+            XmlRootHandle<Employees> streamHandle = parseWithStream(xmlService, file);
+            streamElapsed = System.currentTimeMillis() - streamElapsed;
+            
+            checkEmployees(streamHandle.getRoot(), BENCHMARK_EMPLOYEES);
+            
+            System.out.println("Parsing " + file.length() + " bytes took " + jaxbElapsed +
+                    " milliseconds with JAXB and " + streamElapsed + " milliseconds streaming");
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.xml.test.copy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlRootCopy;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.internal.Differences;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.test.basic.beans.Employee;
+import org.glassfish.hk2.xml.test.basic.beans.Employees;
+import org.glassfish.hk2.xml.test.basic.beans.OtherData;
+import org.glassfish.hk2.xml.test.utilities.Utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests merging copies of large trees
+ * 
+ * @author jwells
+ *
+ */
+public class LargeMergeTest {
+    private final static String COMPANY_NAME = "Acme";
+    private final static String EMPLOYEE_PREFIX = "employee-";
+    private final static String DATA_PREFIX = "data-";
+    
+    private final static int BENCHMARK_EMPLOYEES = 100000;
+    private final static int SMALL_EMPLOYEES = 100;
+    
+    /** Large enough that the unkeyed list is compared by position */
+    private final static int LINEAR_OTHER_DATA = 1100;
+    
+    private static File writeEmployees(int numEmployees, int numOtherData) throws IOException {
+        File retVal = File.createTempFile("employees", ".xml");
+        retVal.deleteOnExit();
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(retVal), "UTF-8"));
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<employees>\n");
+            writer.write("  <company-name>" + COMPANY_NAME + "</company-name>\n");
+            
+            for (int lcv = 0; lcv < numEmployees; lcv++) {
+                writer.write("  <employee>\n");
+                writer.write("    <id>" + lcv + "</id>\n");
+                writer.write("    <name>" + EMPLOYEE_PREFIX + lcv + "</name>\n");
+                writer.write("  </employee>\n");
+            }
+            
+            for (int lcv = 0; lcv < numOtherData; lcv++) {
+                writer.write("  <other-data data=\"" + DATA_PREFIX + lcv + "\"/>\n");
+            }
+            
+            writer.write("</employees>\n");
+        }
+        finally {
+            writer.close();
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Modifies one bean deep in a copy and adds another, and
+     * makes sure only those changes are merged back
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testMergeOfModifiedCopy() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(SMALL_EMPLOYEES, 0);
+        try {
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+            Employees employeesCopy = copy.getChildRoot();
+            
+            employeesCopy.lookupEmployee(EMPLOYEE_PREFIX + 50).setId(-50L);
+            employeesCopy.addEmployee(EMPLOYEE_PREFIX + SMALL_EMPLOYEES);
+            
+            copy.merge();
+            
+            Employees employees = rootHandle.getRoot();
+            List<Employee> all = employees.getEmployees();
+            
+            Assert.assertEquals(SMALL_EMPLOYEES + 1, all.size());
+            
+            for (int lcv = 0; lcv < SMALL_EMPLOYEES; lcv++) {
+                Employee employee = all.get(lcv);
+                
+                Assert.assertEquals(EMPLOYEE_PREFIX + lcv, employee.getName());
+                if (lcv == 50) {
+                    Assert.assertEquals(-50L, employee.getId());
+                }
+                else {
+                    Assert.assertEquals(lcv, employee.getId());
+                }
+            }
+            
+            Assert.assertEquals(EMPLOYEE_PREFIX + SMALL_EMPLOYEES, all.get(SMALL_EMPLOYEES).getName());
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Removes a child from a copy and sets a property of the
+     * root, and makes sure both changes are merged back
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testMergeOfCopyWithRemovedChild() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(SMALL_EMPLOYEES, 0);
+        try {
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+            Employees employeesCopy = copy.getChildRoot();
+            
+            Assert.assertNotNull(employeesCopy.removeEmployee(EMPLOYEE_PREFIX + 25));
+            employeesCopy.setCompanyName(COMPANY_NAME + "-changed");
+            
+            copy.merge();
+            
+            Employees employees = rootHandle.getRoot();
+            
+            Assert.assertEquals(COMPANY_NAME + "-changed", employees.getCompanyName());
+            Assert.assertEquals(SMALL_EMPLOYEES - 1, employees.getEmployees().size());
+            Assert.assertNull(employees.lookupEmployee(EMPLOYEE_PREFIX + 25));
+            Assert.assertNotNull(employees.lookupEmployee(EMPLOYEE_PREFIX + 26));
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Ensures an unmodified copy merges with no changes
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testMergeOfUnmodifiedCopy() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(SMALL_EMPLOYEES, SMALL_EMPLOYEES);
+        try {
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            Employees originalRoot = rootHandle.getRoot();
+            Employee originalEmployee = originalRoot.getEmployees().get(0);
+            
+            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+            copy.merge();
+            
+            Assert.assertSame(originalEmployee, rootHandle.getRoot().getEmployees().get(0));
+            Assert.assertEquals(SMALL_EMPLOYEES, rootHandle.getRoot().getEmployees().size());
+            Assert.assertEquals(SMALL_EMPLOYEES, rootHandle.getRoot().getOtherData().size());
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * A large unkeyed list is compared by position rather than
+     * by trying every pair
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testLargeUnkeyedListMerge() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(0, LINEAR_OTHER_DATA);
+        try {
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+            Employees employeesCopy = copy.getChildRoot();
+            
+            employeesCopy.getOtherData().get(5).setData("changed");
+            employeesCopy.addOtherData(LINEAR_OTHER_DATA);
+            employeesCopy.getOtherData().get(LINEAR_OTHER_DATA).setData(DATA_PREFIX + LINEAR_OTHER_DATA);
+            
+            copy.merge();
+            
+            List<OtherData> all = rootHandle.getRoot().getOtherData();
+            Assert.assertEquals(LINEAR_OTHER_DATA + 1, all.size());
+            
+            for (int lcv = 0; lcv <= LINEAR_OTHER_DATA; lcv++) {
+                if (lcv == 5) {
+                    Assert.assertEquals("changed", all.get(lcv).getData());
+                }
+                else {
+                    Assert.assertEquals(DATA_PREFIX + lcv, all.get(lcv).getData());
+                }
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Compares the time of a full diff of a copy of a tree with
+     * 100k children to the time of merging a copy in which only one child
+     * was modified.  Takes a while so it is only run by hand
+     * 
+     * @throws Exception
+     */
+    @Test
+    @org.junit.Ignore
+    public void benchmarkTrackedMerge() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        File file = writeEmployees(BENCHMARK_EMPLOYEES, 0);
+        try {
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(file.toURI(), Employees.class, false, false);
+            
+            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+            Employees employeesCopy = copy.getChildRoot();
+            
+            employeesCopy.lookupEmployee(EMPLOYEE_PREFIX + (BENCHMARK_EMPLOYEES / 2)).setId(-1L);
+            
+            long fullElapsed = System.currentTimeMillis();
+            Differences fullDifferences = org.glassfish.hk2.xml.internal.Utilities.getDiff(
+                    (BaseHK2JAXBBean) rootHandle.getRoot(), (BaseHK2JAXBBean) employeesCopy);
+            fullElapsed = System.currentTimeMillis() - fullElapsed;
+            
+            Assert.assertEquals(1, fullDifferences.getDifferences().size());
+            
+            long mergeElapsed = System.currentTimeMillis();
+            copy.merge();
+            mergeElapsed = System.currentTimeMillis() - mergeElapsed;
+            
+            Assert.assertEquals(-1L, rootHandle.getRoot().getEmployees().get(BENCHMARK_EMPLOYEES / 2).getId());
+            
+            System.out.println("A full diff of " + BENCHMARK_EMPLOYEES + " employees took " + fullElapsed +
+                    " milliseconds while the tracked merge took " + mergeElapsed + " milliseconds");
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
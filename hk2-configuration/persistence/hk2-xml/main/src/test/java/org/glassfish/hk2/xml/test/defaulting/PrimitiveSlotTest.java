@@ -0,0 +1,257 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015-2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.defaulting;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.internal.ModelImpl;
+import org.glassfish.hk2.xml.internal.PropertyDispatch;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.test.utilities.Utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the slot accessors of primitive properties, which
+ * keep the values unboxed
+ * 
+ * @author jwells
+ *
+ */
+public class PrimitiveSlotTest {
+    private final static String BOOLEAN_PROP = "boolean-prop";
+    private final static String BYTE_PROP = "byte-prop";
+    private final static String CHAR_PROP = "char-prop";
+    private final static String SHORT_PROP = "short-prop";
+    private final static String INT_PROP = "int-prop";
+    private final static String FLOAT_PROP = "float-prop";
+    private final static String LONG_PROP = "long-prop";
+    private final static String DOUBLE_PROP = "double-prop";
+    
+    private final static String[] ALL_PROPS = { BOOLEAN_PROP, BYTE_PROP, CHAR_PROP, SHORT_PROP,
+        INT_PROP, FLOAT_PROP, LONG_PROP, DOUBLE_PROP };
+    
+    private static PropertyDispatch getDispatch(BaseHK2JAXBBean bean, String localPart) {
+        ModelImpl model = bean._getModel();
+        
+        for (int lcv = 0; lcv < model.getSlotCount(); lcv++) {
+            PropertyDispatch dispatch = model.getDispatch(lcv);
+            if (localPart.equals(dispatch.getLocalPart())) return dispatch;
+        }
+        
+        Assert.fail("No slot for " + localPart + " in " + model);
+        return null;
+    }
+    
+    private static int getSlot(BaseHK2JAXBBean bean, String localPart) {
+        return getDispatch(bean, localPart).getSlot();
+    }
+    
+    private static boolean isSet(BaseHK2JAXBBean bean, String localPart) {
+        PropertyDispatch dispatch = getDispatch(bean, localPart);
+        
+        return bean._isSet(dispatch.getNamespace(), dispatch.getLocalPart());
+    }
+    
+    private static Object getBoxed(BaseHK2JAXBBean bean, String localPart) {
+        PropertyDispatch dispatch = getDispatch(bean, localPart);
+        
+        return bean._getProperty(dispatch.getNamespace(), dispatch.getLocalPart());
+    }
+    
+    private static void checkDefaults(PrimitiveSlotBean psb) {
+        Assert.assertEquals(true, psb.isBooleanProp());
+        Assert.assertEquals((byte) 13, psb.getByteProp());
+        Assert.assertEquals('f', psb.getCharProp());
+        Assert.assertEquals((short) 13, psb.getShortProp());
+        Assert.assertEquals(13, psb.getIntProp());
+        Assert.assertEquals(0, Float.compare((float) 13.00, psb.getFloatProp()));
+        Assert.assertEquals(13L, psb.getLongProp());
+        Assert.assertEquals(0, Double.compare(13.00, psb.getDoubleProp()));
+    }
+    
+    private static void setAll(PrimitiveSlotBean psb) {
+        psb.setBooleanProp(false);
+        psb.setByteProp((byte) -7);
+        psb.setCharProp('z');
+        psb.setShortProp((short) -300);
+        psb.setIntProp(Integer.MIN_VALUE);
+        psb.setFloatProp(-1.5f);
+        psb.setLongProp(Long.MAX_VALUE);
+        psb.setDoubleProp(Double.NaN);
+    }
+    
+    private static void checkAll(PrimitiveSlotBean psb) {
+        Assert.assertEquals(false, psb.isBooleanProp());
+        Assert.assertEquals((byte) -7, psb.getByteProp());
+        Assert.assertEquals('z', psb.getCharProp());
+        Assert.assertEquals((short) -300, psb.getShortProp());
+        Assert.assertEquals(Integer.MIN_VALUE, psb.getIntProp());
+        Assert.assertEquals(0, Float.compare(-1.5f, psb.getFloatProp()));
+        Assert.assertEquals(Long.MAX_VALUE, psb.getLongProp());
+        Assert.assertTrue(Double.isNaN(psb.getDoubleProp()));
+    }
+    
+    /**
+     * Tests that every primitive kind can be set and read
+     * back through the slot accessors of the bean
+     */
+    @Test // @org.junit.Ignore
+    public void testSlotGetAndSetOfEachPrimitiveKind() {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) xmlService.createBean(PrimitiveSlotBean.class);
+        
+        bean._setProperty(getSlot(bean, BOOLEAN_PROP), false);
+        bean._setProperty(getSlot(bean, BYTE_PROP), (byte) -7);
+        bean._setProperty(getSlot(bean, CHAR_PROP), 'z');
+        bean._setProperty(getSlot(bean, SHORT_PROP), (short) -300);
+        bean._setProperty(getSlot(bean, INT_PROP), Integer.MIN_VALUE);
+        bean._setProperty(getSlot(bean, FLOAT_PROP), -1.5f);
+        bean._setProperty(getSlot(bean, LONG_PROP), Long.MAX_VALUE);
+        bean._setProperty(getSlot(bean, DOUBLE_PROP), Double.MAX_VALUE);
+        
+        Assert.assertEquals(false, bean._getPropertyZ(getSlot(bean, BOOLEAN_PROP)));
+        Assert.assertEquals((byte) -7, bean._getPropertyB(getSlot(bean, BYTE_PROP)));
+        Assert.assertEquals('z', bean._getPropertyC(getSlot(bean, CHAR_PROP)));
+        Assert.assertEquals((short) -300, bean._getPropertyS(getSlot(bean, SHORT_PROP)));
+        Assert.assertEquals(Integer.MIN_VALUE, bean._getPropertyI(getSlot(bean, INT_PROP)));
+        Assert.assertEquals(0, Float.compare(-1.5f, bean._getPropertyF(getSlot(bean, FLOAT_PROP))));
+        Assert.assertEquals(Long.MAX_VALUE, bean._getPropertyJ(getSlot(bean, LONG_PROP)));
+        Assert.assertEquals(0, Double.compare(Double.MAX_VALUE, bean._getPropertyD(getSlot(bean, DOUBLE_PROP))));
+        
+        // The unboxed values must also be visible to the boxed views
+        Assert.assertEquals(Boolean.FALSE, getBoxed(bean, BOOLEAN_PROP));
+        Assert.assertEquals(Byte.valueOf((byte) -7), getBoxed(bean, BYTE_PROP));
+        Assert.assertEquals(Character.valueOf('z'), getBoxed(bean, CHAR_PROP));
+        Assert.assertEquals(Short.valueOf((short) -300), getBoxed(bean, SHORT_PROP));
+        Assert.assertEquals(Integer.valueOf(Integer.MIN_VALUE), getBoxed(bean, INT_PROP));
+        Assert.assertEquals(Float.valueOf(-1.5f), getBoxed(bean, FLOAT_PROP));
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), getBoxed(bean, LONG_PROP));
+        Assert.assertEquals(Double.valueOf(Double.MAX_VALUE), getBoxed(bean, DOUBLE_PROP));
+    }
+    
+    /**
+     * Tests that a property that was never set reports the default
+     * while a property explicitly set to the default or to zero
+     * is set and keeps the explicit value
+     */
+    @Test // @org.junit.Ignore
+    public void testUnsetVersusExplicitDefault() {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        PrimitiveSlotBean psb = xmlService.createBean(PrimitiveSlotBean.class);
+        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) psb;
+        
+        for (String prop : ALL_PROPS) {
+            Assert.assertFalse(prop, isSet(bean, prop));
+        }
+        checkDefaults(psb);
+        
+        // Setting the default explicitly must mark the property as set
+        psb.setBooleanProp(true);
+        psb.setByteProp((byte) 13);
+        psb.setCharProp('f');
+        psb.setShortProp((short) 13);
+        psb.setIntProp(13);
+        psb.setFloatProp(13.00f);
+        psb.setLongProp(13L);
+        psb.setDoubleProp(13.00);
+        
+        for (String prop : ALL_PROPS) {
+            Assert.assertTrue(prop, isSet(bean, prop));
+        }
+        checkDefaults(psb);
+        
+        // Zero is a value, not the absence of one
+        psb.setBooleanProp(false);
+        psb.setByteProp((byte) 0);
+        psb.setCharProp((char) 0);
+        psb.setShortProp((short) 0);
+        psb.setIntProp(0);
+        psb.setFloatProp(0.0f);
+        psb.setLongProp(0L);
+        psb.setDoubleProp(0.0);
+        
+        Assert.assertEquals(false, psb.isBooleanProp());
+        Assert.assertEquals((byte) 0, psb.getByteProp());
+        Assert.assertEquals((char) 0, psb.getCharProp());
+        Assert.assertEquals((short) 0, psb.getShortProp());
+        Assert.assertEquals(0, psb.getIntProp());
+        Assert.assertEquals(0, Float.compare(0.0f, psb.getFloatProp()));
+        Assert.assertEquals(0L, psb.getLongProp());
+        Assert.assertEquals(0, Double.compare(0.0, psb.getDoubleProp()));
+    }
+    
+    /**
+     * Tests the generated accessors of every primitive kind on a
+     * dynamic bean, and on the copy of it that is added to a tree,
+     * where sets go through change control
+     */
+    @Test // @org.junit.Ignore
+    public void testGeneratedAccessorsOfEachPrimitiveKind() {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        PrimitiveSlotBean psb = xmlService.createBean(PrimitiveSlotBean.class);
+        checkDefaults(psb);
+        
+        setAll(psb);
+        checkAll(psb);
+        
+        XmlRootHandle<PrimitiveSlotBean> rootHandle = xmlService.createEmptyHandle(PrimitiveSlotBean.class);
+        rootHandle.addRoot(psb);
+        
+        PrimitiveSlotBean root = rootHandle.getRoot();
+        checkAll(root);
+        
+        root.setIntProp(42);
+        root.setDoubleProp(-0.0);
+        root.setCharProp('a');
+        
+        Assert.assertEquals(42, root.getIntProp());
+        Assert.assertEquals(0, Double.compare(-0.0, root.getDoubleProp()));
+        Assert.assertEquals('a', root.getCharProp());
+        Assert.assertEquals(Long.MAX_VALUE, root.getLongProp());
+    }
+}
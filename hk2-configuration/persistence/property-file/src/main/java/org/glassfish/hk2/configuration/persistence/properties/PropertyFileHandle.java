@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.configuration.persistence.properties;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -62,12 +63,38 @@ public interface PropertyFileHandle {
      * <UL>
      * In particular this method will NOT remove a type that was previously added but
      * which has no more instances (other files may be contributing to the same type).
-     * After reaching the end of the input stream this method will close it
+     * Only instances whose properties differ from the previous read are converted
+     * and written to the hub, so re-reading a large file with few changes is cheap
      * 
      * @param Properties The properties object to inspect.  May not be null
      */
     public void readProperties(Properties properties);
     
+    /**
+     * Reads the given file as with {@link #readProperties(Properties)} and then
+     * reads it again whenever it changes.  Changes are found with a
+     * java.nio.file.WatchService on the directory of the file.  On a VM without
+     * java.nio.file, or if the directory cannot be watched, the file is instead
+     * checked every pollInterval milliseconds and read again whenever its
+     * last modified time or length has changed.  If the file goes away the
+     * instances from the last read are left in place until it comes back.
+     * Only one file can be watched by a handle at a time.  Watching stops
+     * when {@link #stopWatching()} or {@link #dispose()} is called
+     * 
+     * @param file The non-null property file to read and then watch
+     * @param pollInterval The number of milliseconds between checks of
+     * the file when it is polled.  Must be greater than zero
+     * @throws IOException If the initial read of the file failed
+     */
+    public void watchFile(File file, long pollInterval) throws IOException;
+    
+    /**
+     * Stops watching the file given to {@link #watchFile(File, long)}.  The
+     * instances from the last read of the file remain in the hub.  Does
+     * nothing if this handle is not watching a file
+     */
+    public void stopWatching();
+    
     /**
      * Returns the specific type associated with this handle
      * 
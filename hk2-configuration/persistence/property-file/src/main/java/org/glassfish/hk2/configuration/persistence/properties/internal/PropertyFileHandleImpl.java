@@ -39,17 +39,27 @@
  */
 package org.glassfish.hk2.configuration.persistence.properties.internal;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.glassfish.hk2.configuration.hub.api.BeanDatabase;
 import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.Instance;
 import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
@@ -58,6 +68,7 @@ import org.glassfish.hk2.configuration.persistence.properties.PropertyFileBean;
 import org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle;
 import org.glassfish.hk2.configuration.persistence.properties.PropertyFileService;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
+import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.MethodWrapper;
 import org.glassfish.hk2.utilities.reflection.Pretty;
 import org.glassfish.hk2.utilities.reflection.internal.ClassReflectionHelperImpl;
@@ -72,8 +83,25 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
     private final static int MAX_TRIES = 10000;
     private final static char SEPARATOR = '.';
     
+    private final static ScheduledExecutorService WATCHER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread retVal = new Thread(runnable, "PropertyFileWatcher");
+            retVal.setDaemon(true);
+            
+            return retVal;
+        }
+        
+    });
+    
     private final Object lock = new Object();
+    
+    /** All fields below are protected by lock */
     private HashMap<TypeData, Map<String, String>> lastRead = new HashMap<TypeData, Map<String, String>>();
+    /** The beans this handle last put into the hub, used to find instances changed behind our back */
+    private final HashMap<TypeData, Object> lastWritten = new HashMap<TypeData, Object>();
+    private final HashMap<Class<?>, BeanPlan> plans = new HashMap<Class<?>, BeanPlan>();
+    private FileWatcher watcher;
     private boolean open = true;
     
     private final String specificType;
@@ -168,43 +196,7 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         addMultiValue(buildMe, td, propName, value);
     }
     
-    private void removeInstances(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
-        HashSet<String> newReadTypes = getTypes(allBeans);
-        HashSet<String> oldReadTypes = getTypes(lastRead);
-        
-        HashSet<String> removeTypes = new HashSet<String>(oldReadTypes);
-        removeTypes.removeAll(newReadTypes);
-        // removeTypes now contains all of the types that were previously added but which are now gone
-        
-        for (String removeType : removeTypes) {
-            WriteableType wt = wbd.getWriteableType(removeType);
-            if (wt == null) continue;
-            
-            HashSet<String> instances = getInstances(removeType, lastRead);
-            for (String instance : instances) {
-                wt.removeInstance(instance);
-            }
-        }
-        
-        // Now we handle types that have removed individual instances
-        for (String oldType : oldReadTypes) {
-            WriteableType wt = wbd.getWriteableType(oldType);
-            if (wt == null) continue;
-            
-            if (!newReadTypes.contains(oldType)) continue;
-            
-            HashSet<String> newReadInstances = getInstances(oldType, allBeans);
-            HashSet<String> removeOldInstances = getInstances(oldType, lastRead);
-            removeOldInstances.removeAll(newReadInstances);
-            // removeOldInstances now contains the set of instances that need to be removed completely
-            
-            for (String instance : removeOldInstances) {
-                wt.removeInstance(instance);
-            }
-        }
-    }
-    
-    private static String SET = "set";
+    private final static String SET = "set";
     
     private static Set<String> getPossibleSetterNames(String key) {
         LinkedHashSet<String> retVal = new LinkedHashSet<String>(2);
@@ -234,70 +226,78 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         return retVal;
     }
     
-    private Method findMethod(Class<?> clazz, Set<String> possibleSetterNames) {
-        Set<MethodWrapper> wrappers = reflectionHelper.getAllMethods(clazz);
-        
-        for (MethodWrapper wrapper : wrappers) {
-            Method method = wrapper.getMethod();
-            
-            if ((method.getModifiers() & Modifier.PUBLIC) == 0) continue;
-            
-            Class<?> parameters[] = method.getParameterTypes();
-            if (parameters.length != 1) continue;
-            
-            String methodName = method.getName();
-            for (String searchName : possibleSetterNames) {
-                if (methodName.equals(searchName)) {
-                    return method;
-                }
-            }
-        }
-        
-        return null;
+    private final static int KIND_CONSTRUCTOR = 0;
+    private final static int KIND_STRING = 1;
+    private final static int KIND_BOOLEAN = 2;
+    private final static int KIND_SHORT = 3;
+    private final static int KIND_INT = 4;
+    private final static int KIND_LONG = 5;
+    private final static int KIND_FLOAT = 6;
+    private final static int KIND_BYTE = 7;
+    private final static int KIND_DOUBLE = 8;
+    private final static int KIND_CHAR = 9;
+    
+    private final static Map<Class<?>, Integer> KINDS;
+    static {
+        HashMap<Class<?>, Integer> kinds = new HashMap<Class<?>, Integer>();
+        
+        kinds.put(String.class, KIND_STRING);
+        kinds.put(boolean.class, KIND_BOOLEAN);
+        kinds.put(Boolean.class, KIND_BOOLEAN);
+        kinds.put(short.class, KIND_SHORT);
+        kinds.put(Short.class, KIND_SHORT);
+        kinds.put(int.class, KIND_INT);
+        kinds.put(Integer.class, KIND_INT);
+        kinds.put(long.class, KIND_LONG);
+        kinds.put(Long.class, KIND_LONG);
+        kinds.put(float.class, KIND_FLOAT);
+        kinds.put(Float.class, KIND_FLOAT);
+        kinds.put(byte.class, KIND_BYTE);
+        kinds.put(Byte.class, KIND_BYTE);
+        kinds.put(double.class, KIND_DOUBLE);
+        kinds.put(Double.class, KIND_DOUBLE);
+        kinds.put(char.class, KIND_CHAR);
+        kinds.put(Character.class, KIND_CHAR);
+        
+        KINDS = Collections.unmodifiableMap(kinds);
     }
     
-    private Object convertValue(String value, Class<?> intoMe) {
+    private static Object convertValue(String value, SetterPlan plan) {
         if (value == null) return value;
         
-        if (String.class.equals(intoMe)) return value;
-        if (boolean.class.equals(intoMe) || Boolean.class.equals(intoMe)) {
+        switch (plan.kind) {
+        case KIND_STRING:
+            return value;
+        case KIND_BOOLEAN:
             return Boolean.parseBoolean(value);
-        }
-        if (short.class.equals(intoMe) || Short.class.equals(intoMe)) {
+        case KIND_SHORT:
             return Short.parseShort(value);
-        }
-        if (int.class.equals(intoMe) || Integer.class.equals(intoMe)) {
+        case KIND_INT:
             return Integer.parseInt(value);
-        }
-        if (long.class.equals(intoMe) || Long.class.equals(intoMe)) {
+        case KIND_LONG:
             return Long.parseLong(value);
-        }
-        if (float.class.equals(intoMe) || Float.class.equals(intoMe)) {
+        case KIND_FLOAT:
             return Float.parseFloat(value);
-        }
-        if (byte.class.equals(intoMe) || Byte.class.equals(intoMe)) {
+        case KIND_BYTE:
             return Byte.parseByte(value);
-        }
-        if (double.class.equals(intoMe) || Double.class.equals(intoMe)) {
+        case KIND_DOUBLE:
             return Double.parseDouble(value);
-        }
-        if (char.class.equals(intoMe) || Character.class.equals(intoMe)) {
-            if (value.length() < 0) return ((char) 0);
+        case KIND_CHAR:
+            if (value.length() <= 0) return ((char) 0);
             return value.charAt(0);
+        default:
+            break;
         }
         
-        // OK, none of the normal ones, lets see if it has a public constructor
+        // OK, none of the normal ones, it must have a public constructor
         // that takes a String
-        Constructor<?> constructor;
-        try {
-            constructor = intoMe.getConstructor(String.class);
-        }
-        catch (NoSuchMethodException e) {
+        Class<?> intoMe = plan.type;
+        if (plan.constructor == null) {
             throw new IllegalArgumentException("Could not convert value " + value + " into class " + intoMe.getName());
         }
         
         try {
-            return constructor.newInstance(value);
+            return plan.constructor.newInstance(value);
         }
         catch (InstantiationException ie) {
             throw new IllegalArgumentException("Could not create value " + value + " from class " + intoMe.getName(), ie);
@@ -313,36 +313,36 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         }
     }
     
-    private Object convertBean(String typeName, Map<String, String> rawBean) {
+    private Map<String, Class<?>> getTypeMapping() {
         Instance instance = hub.getCurrentDatabase().getInstance(
                 PropertyFileBean.TYPE_NAME,
                 PropertyFileBean.INSTANCE_NAME);
         PropertyFileBean propertyFileBean = (PropertyFileBean) ((instance == null) ? null : instance.getBean());
-        if (propertyFileBean == null) return rawBean;
+        if (propertyFileBean == null) return Collections.emptyMap();
         
-        Class<?> beanClass = propertyFileBean.getTypeMapping(typeName);
+        return propertyFileBean.getTypeMapping();
+    }
+    
+    private Object convertBean(Class<?> beanClass, Map<String, String> rawBean) {
         if (beanClass == null) return rawBean;
         
         // OK, at this point we need to convert the map to a real bean
         try {
+            BeanPlan plan = plans.get(beanClass);
+            if (plan == null) {
+                plan = new BeanPlan(beanClass, reflectionHelper);
+                plans.put(beanClass, plan);
+            }
+            
             Object target = beanClass.newInstance();
             
             for (Map.Entry<String, String> entry : rawBean.entrySet()) {
-                String key = entry.getKey();
-                
-                // Could be two of them
-                Set<String> possibleSetterNames = getPossibleSetterNames(key);
-                Method method = findMethod(beanClass, possibleSetterNames);
-                if (method == null) {
-                    throw new IllegalArgumentException("Could not find a setter for property names " + Pretty.collection(possibleSetterNames));
-                }
-                
-                Class<?> methodParamType = method.getParameterTypes()[0];
+                SetterPlan setter = plan.getSetter(entry.getKey());
                 
                 Object params[] = new Object[1];
-                params[0] = convertValue(entry.getValue(), methodParamType);
+                params[0] = convertValue(entry.getValue(), setter);
                 
-                method.invoke(target, params);
+                setter.method.invoke(target, params);
             }
             
             return target;
@@ -350,53 +350,111 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         catch (Throwable th) {
             throw new IllegalArgumentException("Error converting to bean type " + beanClass.getName(), th);
         }
-        
-        
     }
     
-    private void modifyValues(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
-        for (Map.Entry<TypeData, Map<String, String>> entry : lastRead.entrySet()) {
-            TypeData oldKey = entry.getKey();
-            if (!allBeans.containsKey(oldKey)) return;
+    /**
+     * Must be called with the lock held.  Only instances whose properties differ from
+     * lastRead (or whose bean in the hub is no longer the one this handle put there)
+     * are converted and written, and the hub is not touched at all if nothing changed
+     * 
+     * @param allBeans The complete set of instances this handle should now be providing
+     * @return true if the hub was updated, false if the commit kept losing races
+     */
+    private boolean updateHub(HashMap<TypeData, Map<String, String>> allBeans) {
+        Map<String, Class<?>> typeMapping = getTypeMapping();
+        BeanDatabase current = hub.getCurrentDatabase();
+        
+        HashMap<TypeData, Object> changed = new HashMap<TypeData, Object>();
+        for (Map.Entry<TypeData, Map<String, String>> entry : allBeans.entrySet()) {
+            TypeData key = entry.getKey();
+            Map<String, String> rawBean = entry.getValue();
+            Class<?> beanClass = typeMapping.get(key.typeName);
+            
+            Map<String, String> oldRawBean = lastRead.get(key);
+            if (rawBean.equals(oldRawBean)) {
+                Object written = lastWritten.get(key);
+                Instance instance = current.getInstance(key.typeName, key.instanceName);
+                
+                boolean sameClass = (beanClass == null) ? (written == oldRawBean) :
+                    ((written != null) && beanClass.equals(written.getClass()));
+                if (sameClass && instance != null && instance.getBean() == written) {
+                    // Nothing has happened to this instance since we last wrote it.  Keep
+                    // the old raw map so an untyped bean stays identical to lastRead
+                    entry.setValue(oldRawBean);
+                    continue;
+                }
+            }
             
-            Map<String, String> newBean = allBeans.get(oldKey);
+            changed.put(key, convertBean(beanClass, rawBean));
+        }
+        
+        HashSet<TypeData> removed = new HashSet<TypeData>();
+        for (TypeData oldKey : lastRead.keySet()) {
+            if (!allBeans.containsKey(oldKey)) {
+                removed.add(oldKey);
+            }
+        }
+        
+        if (changed.isEmpty() && removed.isEmpty()) {
+            lastRead = allBeans;
+            return true;
+        }
+        
+        boolean success = false;
+        for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
+            WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
             
-            String type = oldKey.typeName;
-            String instance = oldKey.instanceName;
+            for (TypeData removeMe : removed) {
+                WriteableType wt = wbd.getWriteableType(removeMe.typeName);
+                if (wt == null) continue;
+                
+                wt.removeInstance(removeMe.instanceName);
+            }
             
-            Object convertedNewBean = convertBean(type, newBean);
+            for (Map.Entry<TypeData, Object> entry : changed.entrySet()) {
+                TypeData key = entry.getKey();
+                
+                WriteableType wt = wbd.findOrAddWriteableType(key.typeName);
+                if (wt.getInstance(key.instanceName) == null) {
+                    wt.addInstance(key.instanceName, entry.getValue());
+                }
+                else {
+                    wt.modifyInstance(key.instanceName, entry.getValue());
+                }
+            }
             
-            WriteableType wt = wbd.findOrAddWriteableType(type);
-            if (wt.getInstance(instance) == null) {
-                wt.addInstance(instance, convertedNewBean);
+            try {
+                wbd.commit();
+                success = true;
+                break;
             }
-            else {
-                wt.modifyInstance(instance, convertedNewBean);
+            catch (IllegalStateException ise) {
+                // Lost race, try again
             }
         }
+        
+        if (!success) return false;
+        
+        for (TypeData removeMe : removed) {
+            lastWritten.remove(removeMe);
+        }
+        lastWritten.putAll(changed);
+        lastRead = allBeans;
+        
+        return true;
     }
     
-    private void addValues(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
-        for (Map.Entry<TypeData, Map<String, String>> entry : allBeans.entrySet()) {
-            TypeData newKey = entry.getKey();
-            if (lastRead.containsKey(newKey)) {
-                // This was a modification, not an add
-                continue;
-            }
-            
-            String typeName = newKey.typeName;
-            String instanceName = newKey.instanceName;
-            
-            Object convertedNewBean = convertBean(typeName, entry.getValue());
+    private HashMap<TypeData, Map<String, String>> extractAll(Properties properties) {
+        HashMap<TypeData, Map<String, String>> allBeans = new HashMap<TypeData, Map<String, String>>();
+        for (Object fullKey : properties.keySet()) {
+            if (!(fullKey instanceof String)) continue;
             
-            WriteableType wt = wbd.findOrAddWriteableType(typeName);
-            if (wt.getInstance(instanceName) != null) {
-                wt.modifyInstance(instanceName, convertedNewBean);
-            }
-            else {
-                wt.addInstance(instanceName, convertedNewBean);
-            }
+            String sFullKey = (String) fullKey;
+            String value = properties.getProperty(sFullKey);
+            extractData(sFullKey, value, allBeans);
         }
+        
+        return allBeans;
     }
 
     /* (non-Javadoc)
@@ -406,68 +464,94 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
     public void readProperties(Properties properties) {
         if (properties == null) throw new IllegalArgumentException();
         
-        HashMap<TypeData, Map<String, String>> allBeans = new HashMap<TypeData, Map<String, String>>();
-        for (Object fullKey : properties.keySet()) {
-            if (!(fullKey instanceof String)) continue;
+        HashMap<TypeData, Map<String, String>> allBeans = extractAll(properties);
+        
+        synchronized (lock) {
+            if (!open) {
+                throw new IllegalStateException("This handle has been closed");
+            }
             
-            String sFullKey = (String) fullKey;
-            String value = properties.getProperty(sFullKey);
-            extractData(sFullKey, value, allBeans);
+            if (!updateHub(allBeans)) {
+                throw new IllegalStateException("Could not update database after " + MAX_TRIES + " iterations");
+            }
         }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle#watchFile(java.io.File, long)
+     */
+    @Override
+    public void watchFile(File file, long pollInterval) throws IOException {
+        if (file == null || pollInterval <= 0) throw new IllegalArgumentException();
         
         synchronized (lock) {
             if (!open) {
                 throw new IllegalStateException("This handle has been closed");
             }
+            if (watcher != null) {
+                throw new IllegalStateException("This handle is already watching " + watcher.file);
+            }
             
-            boolean success = false;
-            for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
-                WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
-            
-                removeInstances(wbd, allBeans);
-            
-                modifyValues(wbd, allBeans);
-            
-                addValues(wbd, allBeans);
+            FileWatcher newWatcher = new FileWatcher(file);
             
+            // Registered before the first read so that no change is missed
+            if (isWatchServiceAvailable()) {
                 try {
-                    wbd.commit();
-                    success = true;
-                    break;
+                    newWatcher.eventWatcher = new PropertyFileWatcher(file, newWatcher);
                 }
-                catch (IllegalStateException ise) {
-                    // Lost race, try again
+                catch (IOException ioe) {
+                    Logger.getLogger().debug("Could not watch " + file + ", polling it instead", ioe);
                 }
             }
-        
-            if (!success) {
-                throw new IllegalStateException("Could not update database after " + MAX_TRIES + " iterations");
+            
+            try {
+                newWatcher.poll(true);
+            }
+            catch (IOException ioe) {
+                if (newWatcher.eventWatcher != null) newWatcher.eventWatcher.stop();
+                throw ioe;
+            }
+            catch (RuntimeException re) {
+                if (newWatcher.eventWatcher != null) newWatcher.eventWatcher.stop();
+                throw re;
             }
             
-            lastRead = allBeans;
+            if (newWatcher.eventWatcher != null) {
+                newWatcher.eventWatcher.start();
+            }
+            else {
+                newWatcher.future = WATCHER.scheduleWithFixedDelay(newWatcher, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+            }
+            watcher = newWatcher;
         }
     }
     
-    private static HashSet<String> getTypes(HashMap<TypeData, Map<String, String>> lastRead) {
-        HashSet<String> retVal = new HashSet<String>();
-        
-        for (TypeData td : lastRead.keySet()) {
-            retVal.add(td.typeName);
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle#stopWatching()
+     */
+    @Override
+    public void stopWatching() {
+        synchronized (lock) {
+            if (watcher == null) return;
+            
+            if (watcher.eventWatcher != null) {
+                watcher.eventWatcher.stop();
+            }
+            else {
+                watcher.future.cancel(false);
+            }
+            watcher = null;
         }
-        
-        return retVal;
     }
     
-    private static HashSet<String> getInstances(String typeName, HashMap<TypeData, Map<String, String>> lastRead) {
-        HashSet<String> retVal = new HashSet<String>();
-        
-        for (TypeData td : lastRead.keySet()) {
-            if (td.typeName.equals(typeName)) {
-                retVal.add(td.instanceName);
-            }
+    private static boolean isWatchServiceAvailable() {
+        try {
+            Class.forName("java.nio.file.WatchService");
+            return true;
+        }
+        catch (Throwable th) {
+            return false;
         }
-        
-        return retVal;
     }
 
     /* (non-Javadoc)
@@ -501,30 +585,172 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
     public void dispose() {
         synchronized (lock) {
             if (!open) return;
+            
+            stopWatching();
             open = false;
             
             reflectionHelper.dispose();
+            plans.clear();
+            
+            // success or not
+            updateHub(new HashMap<TypeData, Map<String, String>>());
+            lastRead = new HashMap<TypeData, Map<String, String>>();
+            lastWritten.clear();
+        }
+
+    }
+    
+    /**
+     * Watches a single file.  It is run by a {@link PropertyFileWatcher}
+     * when a WatchService event for the file arrives, and otherwise polls
+     * the file, re-reading it whenever its last modified time or length changes
+     * 
+     * @author jwells
+     *
+     */
+    private class FileWatcher implements Runnable {
+        private final File file;
+        private long lastModified = -1L;
+        private long lastLength = -1L;
+        private PropertyFileWatcher eventWatcher;
+        private ScheduledFuture<?> future;
+        
+        private FileWatcher(File file) {
+            this.file = file;
+        }
+        
+        /**
+         * Must be called with the lock held
+         * 
+         * @param force true if the file should be read even if its last
+         * modified time and length did not change, as when an event says
+         * it changed within the time stamp granularity of the file system
+         * @throws IOException if the file could not be read
+         */
+        private void poll(boolean force) throws IOException {
+            long modified = file.lastModified();
+            long length = file.length();
+            if (!force && modified == lastModified && length == lastLength) return;
+            
+            if (!file.isFile()) {
+                // Gone for now, leave the hub alone and pick it up again if it returns
+                lastModified = modified;
+                lastLength = length;
+                return;
+            }
             
-            HashMap<TypeData, Map<String, String>> allBeans = new HashMap<TypeData, Map<String, String>>();
+            Properties properties = new Properties();
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                properties.load(fis);
+            }
+            finally {
+                fis.close();
+            }
             
-            for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
-                WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
-                
-                removeInstances(wbd, allBeans);
+            if (!updateHub(extractAll(properties))) {
+                throw new IllegalStateException("Could not update database after " + MAX_TRIES + " iterations");
+            }
+            
+            lastModified = modified;
+            lastLength = length;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                if (!open || watcher != this) return;
                 
                 try {
-                    wbd.commit();
-                    break;
+                    poll(eventWatcher != null);
                 }
-                catch (IllegalStateException ise) {
-                    // keep on truckin
+                catch (Throwable th) {
+                    Logger.getLogger().debug("PropertyFileHandleImpl", "watch", th);
                 }
             }
+        }
+    }
+    
+    /**
+     * The setter found for a property and how to convert
+     * its string value
+     * 
+     * @author jwells
+     *
+     */
+    private static class SetterPlan {
+        private final Method method;
+        private final Class<?> type;
+        private final int kind;
+        private final Constructor<?> constructor;
+        
+        private SetterPlan(Method method) {
+            this.method = method;
+            type = method.getParameterTypes()[0];
             
-            // success or not
-            lastRead = allBeans;
+            Integer knownKind = KINDS.get(type);
+            kind = (knownKind == null) ? KIND_CONSTRUCTOR : knownKind.intValue();
+            
+            Constructor<?> stringConstructor = null;
+            if (kind == KIND_CONSTRUCTOR) {
+                try {
+                    stringConstructor = type.getConstructor(String.class);
+                }
+                catch (NoSuchMethodException e) {
+                    // Reported if a value ever needs to be converted
+                }
+            }
+            
+            constructor = stringConstructor;
+        }
+    }
+    
+    /**
+     * The setters of a bean class, looked up once per property name
+     * rather than once per property value
+     * 
+     * @author jwells
+     *
+     */
+    private static class BeanPlan {
+        /** All public single-argument methods of the bean class, by name */
+        private final HashMap<String, Method> candidates = new HashMap<String, Method>();
+        private final HashMap<String, SetterPlan> setters = new HashMap<String, SetterPlan>();
+        
+        private BeanPlan(Class<?> beanClass, ClassReflectionHelper reflectionHelper) {
+            for (MethodWrapper wrapper : reflectionHelper.getAllMethods(beanClass)) {
+                Method method = wrapper.getMethod();
+                
+                if ((method.getModifiers() & Modifier.PUBLIC) == 0) continue;
+                if (method.getParameterTypes().length != 1) continue;
+                
+                if (!candidates.containsKey(method.getName())) {
+                    candidates.put(method.getName(), method);
+                }
+            }
+        }
+        
+        private SetterPlan getSetter(String key) {
+            SetterPlan retVal = setters.get(key);
+            if (retVal != null) return retVal;
+            
+            // Could be two of them
+            Set<String> possibleSetterNames = getPossibleSetterNames(key);
+            Method method = null;
+            for (String possibleSetterName : possibleSetterNames) {
+                method = candidates.get(possibleSetterName);
+                if (method != null) break;
+            }
+            
+            if (method == null) {
+                throw new IllegalArgumentException("Could not find a setter for property names " + Pretty.collection(possibleSetterNames));
+            }
+            
+            retVal = new SetterPlan(method);
+            setters.put(key, retVal);
+            
+            return retVal;
         }
-
     }
     
     private static class TypeData {
@@ -0,0 +1,169 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.persistence.properties.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * Watches the directory of a property file with a {@link WatchService}
+ * and runs the given callback whenever an event for the file arrives.
+ * This class is only loaded when the VM has java.nio.file
+ * 
+ * @author jwells
+ */
+class PropertyFileWatcher implements Runnable {
+    /**
+     * Events arriving within this many milliseconds of each other are
+     * handled together, so a file still being written is read once
+     */
+    private final static long SETTLE_TIME = 100L;
+    
+    private final Path directory;
+    private final Path fileName;
+    private final Runnable callback;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean stopped;
+    
+    /**
+     * Registers the directory of the file with a new WatchService.  Events
+     * are only handled once {@link #start()} has been called
+     * 
+     * @param file The file to watch, whose directory must exist
+     * @param callback Run on the watcher thread when the file may have changed
+     * @throws IOException If the directory could not be watched
+     */
+    PropertyFileWatcher(File file, Runnable callback) throws IOException {
+        Path path = file.getAbsoluteFile().toPath();
+        
+        directory = path.getParent();
+        fileName = path.getFileName();
+        this.callback = callback;
+        
+        watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException ioe) {
+            watchService.close();
+            throw ioe;
+        }
+        
+        thread = new Thread(this, "PropertyFileWatcher-" + fileName);
+        thread.setDaemon(true);
+    }
+    
+    void start() {
+        thread.start();
+    }
+    
+    void stop() {
+        stopped = true;
+        try {
+            watchService.close();
+        }
+        catch (IOException ioe) {
+            // Ignored, going away anyway
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                WatchKey key = watchService.take();
+                
+                boolean changed = false;
+                boolean valid = true;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                                fileName.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    
+                    valid = key.reset() && valid;
+                    
+                    key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+                }
+                
+                if (stopped) return;
+                
+                if (changed) {
+                    try {
+                        callback.run();
+                    }
+                    catch (Throwable th) {
+                        Logger.getLogger().debug("PropertyFileWatcher", "run", th);
+                    }
+                }
+                
+                if (!valid) {
+                    // The directory itself has gone away
+                    Logger.getLogger().debug("Stopped watching " + directory + " since it is no longer accessible");
+                    stop();
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            // Done
+        }
+        catch (ClosedWatchServiceException cwse) {
+            // Done
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.properties.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.glassfish.hk2.configuration.hub.api.Hub;
+import org.glassfish.hk2.configuration.hub.api.Instance;
+import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
+import org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle;
+import org.glassfish.hk2.configuration.persistence.properties.PropertyFileService;
+import org.glassfish.hk2.configuration.persistence.properties.PropertyFileUtilities;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.testing.junit.HK2Runner;
+
+/**
+ * Tests for re-reading and watching property files
+ * 
+ * @author jwells
+ *
+ */
+public class PropertyFileWatchTest extends HK2Runner {
+    private final static String TYPE5 = "T5";
+    private final static String TYPE6 = "T6";
+    
+    private final static String ALICE = "alice";
+    private final static String BOB = "bob";
+    private final static String CAROL = "carol";
+    
+    private final static String NAME = "name";
+    private final static String OTHER = "other";
+    
+    private final static String OTHER_VALUE1 = "V1";
+    private final static String OTHER_VALUE2 = "V2";
+    
+    private final static long POLL_INTERVAL = 10L;
+    private final static long MAX_WAIT = 20L * 1000L;
+    
+    private Hub hub;
+    
+    @Before
+    public void before() {
+        super.before();
+        
+        PropertyFileUtilities.enablePropertyFileService(testLocator);
+        
+        hub = testLocator.getService(Hub.class);
+    }
+    
+    private void removeType(String typeName) {
+        WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+        
+        wbd.removeType(typeName);
+        
+        wbd.commit();
+    }
+    
+    private static String instanceAndParamKey(String instance, String param) {
+        return instance + "." + param;
+    }
+    
+    private Object getHubBean(String type, String instance) {
+        Instance i = hub.getCurrentDatabase().getInstance(type, instance);
+        if (i == null) return null;
+        
+        return i.getBean();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private String getHubValue(String type, String instance, String param) {
+        Map<String, Object> blm = (Map<String,Object>) getHubBean(type, instance);
+        if (blm == null) return null;
+        
+        return (String) blm.get(param);
+    }
+    
+    private static void writeProperties(File file, Properties properties) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            properties.store(fos, null);
+        }
+        finally {
+            fos.close();
+        }
+    }
+    
+    /**
+     * Tests that re-reading a properties object only replaces the
+     * instances that actually changed
+     */
+    @Test // @org.junit.Ignore
+    public void testOnlyChangedInstancesAreReplaced() {
+        removeType(TYPE5);
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfSpecificType(TYPE5);
+        
+        try {
+            Properties p = new Properties();
+            
+            p.put(instanceAndParamKey(ALICE, NAME), ALICE);
+            p.put(instanceAndParamKey(BOB, NAME), BOB);
+            p.put(instanceAndParamKey(BOB, OTHER), OTHER_VALUE1);
+            
+            pfh.readProperties(p);
+            
+            Object aliceBean = getHubBean(TYPE5, ALICE);
+            Object bobBean = getHubBean(TYPE5, BOB);
+            Assert.assertNotNull(aliceBean);
+            Assert.assertNotNull(bobBean);
+            
+            p.put(instanceAndParamKey(BOB, OTHER), OTHER_VALUE2);
+            p.put(instanceAndParamKey(CAROL, NAME), CAROL);
+            
+            pfh.readProperties(p);
+            
+            // alice did not change so must be the very same bean
+            Assert.assertSame(aliceBean, getHubBean(TYPE5, ALICE));
+            Assert.assertNotSame(bobBean, getHubBean(TYPE5, BOB));
+            
+            Assert.assertEquals(OTHER_VALUE2, getHubValue(TYPE5, BOB, OTHER));
+            Assert.assertEquals(CAROL, getHubValue(TYPE5, CAROL, NAME));
+            
+            p.remove(instanceAndParamKey(CAROL, NAME));
+            
+            pfh.readProperties(p);
+            
+            Assert.assertSame(aliceBean, getHubBean(TYPE5, ALICE));
+            Assert.assertNull(getHubBean(TYPE5, CAROL));
+        }
+        finally {
+            pfh.dispose();
+            
+            removeType(TYPE5);
+        }
+    }
+    
+    /**
+     * Tests that a watched file is read up front and
+     * then read again when it changes
+     * 
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    @Test // @org.junit.Ignore
+    public void testWatchedFileIsReread() throws IOException, InterruptedException {
+        removeType(TYPE6);
+        
+        File file = File.createTempFile("watched", ".properties");
+        file.deleteOnExit();
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfSpecificType(TYPE6);
+        
+        try {
+            Properties p = new Properties();
+            p.put(instanceAndParamKey(ALICE, NAME), ALICE);
+            p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE1);
+            
+            writeProperties(file, p);
+            
+            pfh.watchFile(file, POLL_INTERVAL);
+            
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE6, ALICE, OTHER));
+            
+            // Different length, so seen even if the time stamp does not move
+            p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE2 + OTHER_VALUE2);
+            p.put(instanceAndParamKey(BOB, NAME), BOB);
+            
+            writeProperties(file, p);
+            
+            long elapsed = 0L;
+            while (getHubBean(TYPE6, BOB) == null && elapsed < MAX_WAIT) {
+                Thread.sleep(POLL_INTERVAL);
+                elapsed += POLL_INTERVAL;
+            }
+            
+            Assert.assertEquals(BOB, getHubValue(TYPE6, BOB, NAME));
+            Assert.assertEquals(OTHER_VALUE2 + OTHER_VALUE2, getHubValue(TYPE6, ALICE, OTHER));
+            
+            pfh.stopWatching();
+        }
+        finally {
+            pfh.dispose();
+            file.delete();
+            
+            removeType(TYPE6);
+        }
+        
+        Assert.assertNull(getHubBean(TYPE6, ALICE));
+    }
+    
+    /**
+     * Tests that a change that keeps the length of a watched file
+     * is seen even if it happens within the time stamp granularity
+     * of the file system
+     * 
+     * @throws IOException
+     * @throws InterruptedException 
+     */
+    @Test // @org.junit.Ignore
+    public void testSameLengthChangeIsSeen() throws IOException, InterruptedException {
+        removeType(TYPE6);
+        
+        File file = File.createTempFile("watched", ".properties");
+        file.deleteOnExit();
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfSpecificType(TYPE6);
+        
+        try {
+            Properties p = new Properties();
+            p.put(instanceAndParamKey(ALICE, NAME), ALICE);
+            p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE1);
+            
+            writeProperties(file, p);
+            long lastModified = file.lastModified();
+            
+            pfh.watchFile(file, POLL_INTERVAL);
+            
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE6, ALICE, OTHER));
+            
+            p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE2);
+            
+            writeProperties(file, p);
+            file.setLastModified(lastModified);
+            
+            long elapsed = 0L;
+            while (!OTHER_VALUE2.equals(getHubValue(TYPE6, ALICE, OTHER)) && elapsed < MAX_WAIT) {
+                Thread.sleep(POLL_INTERVAL);
+                elapsed += POLL_INTERVAL;
+            }
+            
+            Assert.assertEquals(OTHER_VALUE2, getHubValue(TYPE6, ALICE, OTHER));
+        }
+        finally {
+            pfh.dispose();
+            file.delete();
+            
+            removeType(TYPE6);
+        }
+    }
+    
+    /**
+     * Re-reads a large property file with a single change in it
+     */
+    @Test @org.junit.Ignore
+    public void benchmarkRereadLargeFile() {
+        removeType(TYPE5);
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfSpecificType(TYPE5);
+        
+        try {
+            Properties p = new Properties();
+            for (int lcv = 0; lcv < 10000; lcv++) {
+                p.put(instanceAndParamKey("i" + lcv, NAME), "n" + lcv);
+                p.put(instanceAndParamKey("i" + lcv, OTHER), OTHER_VALUE1);
+            }
+            
+            pfh.readProperties(p);
+            
+            long elapsed = System.currentTimeMillis();
+            for (int lcv = 0; lcv < 100; lcv++) {
+                p.put(instanceAndParamKey("i" + lcv, OTHER), OTHER_VALUE2 + lcv);
+                
+                pfh.readProperties(p);
+            }
+            elapsed = System.currentTimeMillis() - elapsed;
+            
+            System.out.println("100 re-reads of a 20000 line property file took " + elapsed + " milliseconds");
+        }
+        finally {
+            pfh.dispose();
+            
+            removeType(TYPE5);
+        }
+    }
+
+}
@@ -50,6 +50,7 @@ import java.net.URI;
 import java.util.*;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
+import java.util.logging.Level;
 
 /**
  * Partial implementation of {@link Repository}
@@ -101,6 +102,26 @@ public abstract class AbstractRepositoryImpl implements Repository {
         moduleDefs = new HashMap<ModuleId, ModuleDefinition>();
         libraries = new ArrayList<URI>();
         loadModuleDefs(moduleDefs, libraries);
+
+        ModuleDefinitionCache cache = getModuleDefinitionCache();
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                LogHelper.getDefaultLogger().log(Level.FINE, "Could not save the module definition cache", e);
+            }
+        }
+    }
+
+    /**
+     * The cache consulted by {@link #loadJar(File)} before opening a jar.
+     * By default this is the cache named by the
+     * {@value ModuleDefinitionCache#CACHE_FILE_PROPERTY} system property
+     *
+     * @return the cache to use, or null to always open the jars
+     */
+    protected ModuleDefinitionCache getModuleDefinitionCache() {
+        return ModuleDefinitionCache.getDefault();
     }
 
     /**
@@ -123,8 +144,22 @@ public abstract class AbstractRepositoryImpl implements Repository {
      *      Either a jar file or a directory that has the same structure as a jar file. 
      */
     protected ModuleDefinition loadJar(File jar) throws IOException {
+        ModuleDefinitionCache cache = getModuleDefinitionCache();
+        Manifest manifest = (cache == null) ? null : cache.getManifest(jar);
+        if (manifest!=null) {
+            // the jar has not changed since we last read its manifest
+            Attributes attr = manifest.getMainAttributes();
+            if (attr.getValue(ManifestConstants.BUNDLE_NAME)!=null) {
+                return newModuleDefinition(jar, attr);
+            }
+            return null;
+        }
+
         Jar jarFile = Jar.create(jar);
-        Manifest manifest = jarFile.getManifest();
+        manifest = jarFile.getManifest();
+        if (manifest!=null && cache!=null) {
+            cache.putManifest(jar, manifest);
+        }
         if (manifest==null) {
             // we cannot find a manifest file in the bundle, so we look
             // if there is a manifest file residing outside of the jar
@@ -53,6 +53,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -71,7 +72,12 @@ public class DefaultModuleDefinition implements ModuleDefinition {
     protected final List<URI> classPath = new ArrayList<URI>();
     private final String importPolicy;
     private final String lifecyclePolicy;
-    private final Manifest manifest;
+    private final File location;
+    /**
+     * Only read when first asked for if the attributes were given to us,
+     * so that building a definition from a cached manifest does not open the jar
+     */
+    private volatile Manifest manifest;
     /**
      * Main attributes section of the manifest.
      * Always non-null.
@@ -91,14 +97,16 @@ public class DefaultModuleDefinition implements ModuleDefinition {
     public DefaultModuleDefinition(File location, Attributes attr) throws IOException {
 
         classPath.add(location.toURI());
+        this.location = location;
         
-        Jar jarFile = Jar.create(location);
-        Manifest m = jarFile.getManifest();
-        if(m==null) m = EMPTY_MANIFEST;
-        manifest = m;
+        if (attr==null) {
+            // we need the manifest of the jar right away
+            Manifest m = Jar.create(location).getManifest();
+            if(m==null) m = EMPTY_MANIFEST;
+            manifest = m;
 
-        if (attr==null)
             attr = manifest.getMainAttributes();
+        }
 
         // no attributes whatsoever, I just use an empty collection to avoid 
         // testing for null all the time.
@@ -132,7 +140,7 @@ public class DefaultModuleDefinition implements ModuleDefinition {
 
         parseAttributes(attr);
 
-        jarFile.loadMetadata(metadata);
+        // Jar.loadMetadata does not read anything, so the jar is not opened for it
     }
 
     /**
@@ -156,18 +164,10 @@ public class DefaultModuleDefinition implements ModuleDefinition {
 
             assert testClassPath(result);
 
-            // look for /META-INF/services for classloader punch-in
             File file = new File(result);
             if (file.exists()) {
-                Jar jar = Jar.create(file);
-                Manifest m = jar.getManifest();
-                if ((m != null) && (m.getMainAttributes().getValue("HK2-Bundle-Name")==null)) {
-                    // if Class-Path refers to other HK2 modules, ignore loading metadata
-                    // When someone makes HK2 module bootable from Java (that is, to have the main method),
-                    // it often needs to refer to other jars. The parent-first classloader delegation
-                    // helps us avoid loading dupliates, but metadata needs to be ignored here.
-                    jar.loadMetadata(metadata);
-                }
+                // Class-Path jars would only be opened for Jar.loadMetadata,
+                // which does not read anything
                 classPath.add(result);
             } else {
                 // even if the pointed resource doesn't exist, don't complain by default,
@@ -282,7 +282,21 @@ public class DefaultModuleDefinition implements ModuleDefinition {
      *      never null.
      */
     public Manifest getManifest() {
-        return manifest;
+        Manifest retVal = manifest;
+        if (retVal != null) return retVal;
+
+        synchronized (this) {
+            if (manifest == null) {
+                Manifest m = null;
+                try {
+                    m = Jar.create(location).getManifest();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not read the manifest of " + location, e);
+                }
+                manifest = (m == null) ? EMPTY_MANIFEST : m;
+            }
+            return manifest;
+        }
     }
 
     public ModuleMetadata getMetadata() {
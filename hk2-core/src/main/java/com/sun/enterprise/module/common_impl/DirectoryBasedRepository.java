@@ -48,12 +48,17 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.FileFilter;
 import java.net.URI;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.logging.Level;
 
 /**
  * This class is a directory based repository implementation. This mean that all jar
@@ -61,17 +66,36 @@ import java.util.TimerTask;
  * repository instance. Jar File will need to be compliant with the module definition
  * spec which mean have a manifest file with the correct elements OR a separate
  * manifest file with the same file name with a .mf extension.
+ * <p>
+ * Once a listener is added the directory is watched for changes.  On VMs that have
+ * a java.nio.file.WatchService it is used (unless the hk2.file.directory.useWatchService
+ * system property is false), otherwise the directory is polled every
+ * hk2.file.directory.changeIntervalTimer milliseconds.  Either way only the jars that were
+ * added, removed or changed since the last look are loaded and reported to the listeners
  *
  * @author Jerome Dochez
  */
 public class DirectoryBasedRepository extends AbstractRepositoryImpl {
     
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String DISABLED_SUFFIX = ".disabled";
+    private static final long TIMESTAMP_GRANULARITY = 2000L;
+
     protected final File repository;
     private final int intervalInMs = Integer.getInteger("hk2.file.directory.changeIntervalTimer", 1000);
+    private final boolean useWatchService = Boolean.parseBoolean(
+            System.getProperty("hk2.file.directory.useWatchService", "true"));
     private Timer timer;
+    private DirectoryWatcher watcher;
     private boolean isTimerThreadDaemon = false;
     private List<File> subDirectories;
 
+    /** What each jar looked like when we last looked, only kept while someone is listening */
+    private Map<File, JarState> jars;
+
+    /** Jars that could not be loaded the last time, probably since they were still being copied */
+    private final Set<File> failedJars = new HashSet<File>();
+
     /** Creates a new instance of DirectoryBasedRepository */
     public DirectoryBasedRepository(String name, File repository) {
         super(name,repository.toURI());
@@ -92,6 +116,31 @@ public class DirectoryBasedRepository extends AbstractRepositoryImpl {
         }
     }
 
+    /**
+     * Records the current state of every jar in the repository, so later
+     * changes can be found without loading the jars that did not change
+     */
+    private void initializeJars() {
+        if (jars != null) return;
+        jars = new HashMap<File, JarState>();
+
+        File[] files = repository.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (isJar(file)) {
+                JarState state = JarState.of(file, isDisabled(file));
+                if (state != null) {
+                    jars.put(file, state);
+                }
+            }
+        }
+    }
+
+    private static boolean isJar(File file) {
+        return file.getName().endsWith(JAR_SUFFIX);
+    }
+
 
     public DirectoryBasedRepository(String name, File repository, boolean isTimerThreadDaemon) {
         this(name, repository);
@@ -102,18 +151,39 @@ public class DirectoryBasedRepository extends AbstractRepositoryImpl {
     public synchronized boolean addListener(RepositoryChangeListener listener) {
 
         final boolean returnValue = super.addListener(listener);
-        if (returnValue && timer==null) {
+        if (returnValue && timer==null && watcher==null) {
             initializeSubDirectories();
+            initializeJars();
+
+            if (useWatchService && isWatchServiceAvailable()) {
+                try {
+                    watcher = new DirectoryWatcher(this, repository, isTimerThreadDaemon);
+                    watcher.start();
+                    return returnValue;
+                } catch (IOException e) {
+                    LogHelper.getDefaultLogger().log(Level.FINE,
+                            "Could not watch " + repository + ", polling it instead", e);
+                    watcher = null;
+                }
+            }
             
             timer = new Timer("hk2-repo-listener-"+ this.getName(), isTimerThreadDaemon);
             timer.schedule(new TimerTask() {
                 long lastModified = repository.lastModified();
                 public void run() {
                     synchronized(this) {
-                        if (lastModified<repository.lastModified()) {
-                            lastModified = repository.lastModified();
+                        long current = repository.lastModified();
+
+                        // A second change within the time stamp granularity of the
+                        // file system leaves the time stamp alone, so keep looking
+                        // for a little while after the directory last changed
+                        if (lastModified != current ||
+                                System.currentTimeMillis() - current < TIMESTAMP_GRANULARITY) {
+                            lastModified = current;
                             // something has changed, look into this...
                             directoryChanged();
+                        } else {
+                            retryFailedJars();
                         }
                     }
                 }
@@ -123,12 +193,25 @@ public class DirectoryBasedRepository extends AbstractRepositoryImpl {
         return returnValue;        
     }
 
+    private static boolean isWatchServiceAvailable() {
+        try {
+            Class.forName("java.nio.file.WatchService");
+            return true;
+        } catch (Throwable th) {
+            return false;
+        }
+    }
+
     @Override
     public void shutdown() throws IOException {
         if (timer!=null) {
             timer.cancel();
             timer = null;
         }
+        if (watcher!=null) {
+            watcher.stop();
+            watcher = null;
+        }
     }
     
 
@@ -141,7 +224,7 @@ public class DirectoryBasedRepository extends AbstractRepositoryImpl {
         try {
             File[] files = repository.listFiles();
             for (File aFile : files) {
-                if (aFile.getName().endsWith(".jar") && !isDisabled(aFile)) {
+                if (aFile.getName().endsWith(JAR_SUFFIX) && !isDisabled(aFile)) {
                     ModuleDefinition moduleDef = loadJar(aFile);
                     if (moduleDef!=null) {
                         moduleDefs.put(AbstractFactory.getInstance().createModuleId(moduleDef), moduleDef);
@@ -164,91 +247,205 @@ public class DirectoryBasedRepository extends AbstractRepositoryImpl {
      */
     protected boolean isDisabled(File jar) {
         String fileName = jar.getName();
-        fileName = fileName.substring(0,fileName.lastIndexOf('.'))+".disabled";
+        fileName = fileName.substring(0,fileName.lastIndexOf('.'))+DISABLED_SUFFIX;
         File disabledFile = new File(jar.getParent(),fileName);
         return disabledFile.exists();
     }
 
-    private synchronized void directoryChanged() {
+    /**
+     * Called when the repository directory as a whole may have changed,
+     * every file in it and every file we knew about is looked at again
+     */
+    /*package*/ synchronized void directoryChanged() {
+        initializeSubDirectories();
+        initializeJars();
 
-        // not the most efficient implementation, could be revisited later
-        HashMap<ModuleId, ModuleDefinition> newModuleDefs =
-                new HashMap<ModuleId, ModuleDefinition>();
-        List<URI> libraries = new LinkedList<URI>();
+        Set<File> candidates = new LinkedHashSet<File>(jars.keySet());
+        candidates.addAll(subDirectories);
 
-        try {
-            loadModuleDefs(newModuleDefs, libraries);
-        } catch(IOException ioe) {
-            // we probably need to wait until the jar has finished being copied
-            // XXX add some form of retry
+        File[] files = repository.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                candidates.add(file);
+            }
         }
-        for(ModuleDefinition def : newModuleDefs.values()) {
-            if (find(def.getName(), def.getVersion())==null) {
-                add(def);
-                for (RepositoryChangeListener listener : listeners) {
-                    listener.moduleAdded(def);
-                }
+
+        filesChanged(candidates);
+    }
+
+    /**
+     * Looks again at the jars that could not be loaded last time, since
+     * finishing to write a jar need not change the directory time stamp
+     */
+    private synchronized void retryFailedJars() {
+        if (failedJars.isEmpty()) return;
+
+        filesChanged(new LinkedHashSet<File>(failedJars));
+    }
+
+    /**
+     * Works out what happened to each of the given files of the repository
+     * directory since the last time they were looked at and tells the
+     * listeners about the modules, libraries and sub directories affected.
+     * Jars that did not change are not opened
+     *
+     * @param candidates files directly in the repository directory that may
+     * have been added, removed or changed
+     */
+    /*package*/ synchronized void filesChanged(Collection<File> candidates) {
+        initializeSubDirectories();
+        initializeJars();
+
+        // a xyz.disabled file coming or going is a change to xyz.jar
+        Set<File> changedJars = new LinkedHashSet<File>();
+        Set<File> changedDirectories = new LinkedHashSet<File>();
+        for (File candidate : candidates) {
+            String fileName = candidate.getName();
+            if (fileName.endsWith(JAR_SUFFIX)) {
+                changedJars.add(candidate);
+            } else if (fileName.endsWith(DISABLED_SUFFIX)) {
+                changedJars.add(new File(candidate.getParentFile(),
+                        fileName.substring(0, fileName.length() - DISABLED_SUFFIX.length()) + JAR_SUFFIX));
+            }
+            if (candidate.isDirectory() || subDirectories.contains(candidate)) {
+                changedDirectories.add(candidate);
             }
         }
-        for (ModuleDefinition def : findAll()) {
-            if (!newModuleDefs.containsKey(AbstractFactory.getInstance().createModuleId(def))) {
-                remove(def);
-                for (RepositoryChangeListener listener : listeners) {
-                    listener.moduleRemoved(def);
+
+        for (File jar : changedJars) {
+            JarState oldState = jars.get(jar);
+            JarState newState = JarState.of(jar, isDisabled(jar));
+            if (oldState == null ? newState == null : oldState.equals(newState)) {
+                if (newState == null) {
+                    failedJars.remove(jar);
+                }
+                continue;
+            }
+
+            if (oldState != null && !oldState.disabled) {
+                jarRemoved(jar);
+            }
+
+            if (newState != null && !newState.disabled) {
+                try {
+                    jarAdded(jar);
+                } catch (IOException ioe) {
+                    // we probably need to wait until the jar has finished being copied,
+                    // forget about it so that the next look tries again
+                    LogHelper.getDefaultLogger().log(Level.FINE, "Could not load " + jar, ioe);
+                    jars.remove(jar);
+                    failedJars.add(jar);
+                    continue;
                 }
             }
+
+            failedJars.remove(jar);
+
+            if (newState == null) {
+                jars.remove(jar);
+            } else {
+                jars.put(jar, newState);
+            }
         }
-        List<URI> originalLibraries = super.getJarLocations();
-        for (URI location : libraries) {
-            if (!originalLibraries.contains(location)) {
-                addLibrary(location);
+
+        for (File file : changedDirectories) {
+            boolean known = subDirectories.contains(file);
+            boolean exists = file.isDirectory();
+            if (exists && !known) {
                 for (RepositoryChangeListener listener : listeners) {
-                    listener.added(location);
+                    listener.added(file.toURI());
+                }
+                subDirectories.add(file);
+            } else if (!exists && known) {
+                for (RepositoryChangeListener listener : listeners) {
+                    listener.removed(file.toURI());
                 }
+                subDirectories.remove(file);
             }
         }
-        if (originalLibraries.size()>0) {
-            List<URI> copy = new LinkedList<URI>();
-            copy.addAll(originalLibraries);
-            for (URI originalLocation : copy) {
-                if (!libraries.contains(originalLocation)) {
-                    removeLibrary(originalLocation);
-                    for (RepositoryChangeListener listener : listeners) {
-                        listener.removed(originalLocation);
-                    }
+    }
+
+    private void jarRemoved(File jar) {
+        URI location = jar.toURI();
+
+        for (ModuleDefinition def : findAll()) {
+            URI[] locations = def.getLocations();
+            if (locations.length > 0 && location.equals(locations[0])) {
+                remove(def);
+                for (RepositoryChangeListener listener : listeners) {
+                    listener.moduleRemoved(def);
                 }
             }
         }
 
-        // added or removed subdirectories ?
-        List<File> previous = new LinkedList<File>();
-        previous.addAll(subDirectories);
-        for (File file : repository.listFiles(new FileFilter() {
-            public boolean accept(File pathname) {
-                return pathname.isDirectory();
+        if (getJarLocations().contains(location)) {
+            removeLibrary(location);
+            for (RepositoryChangeListener listener : listeners) {
+                listener.removed(location);
             }
-        })) {
-            // added ?
-            if (!subDirectories.contains(file)) {
+        }
+    }
+
+    private void jarAdded(File jar) throws IOException {
+        ModuleDefinition def = loadJar(jar);
+        if (def != null) {
+            if (find(def.getName(), def.getVersion())==null) {
+                add(def);
                 for (RepositoryChangeListener listener : listeners) {
-                    listener.added(file.toURI());
+                    listener.moduleAdded(def);
                 }
-                subDirectories.add(file);
-            }  else {
-                // known, removing it from the copied list to check
-                // for removal
-                previous.remove(file);
             }
+            return;
         }
-        // any left in our copy is a removed sub directory.
-        if (!previous.isEmpty()) {
-            for (File file : previous) {
-                 for (RepositoryChangeListener listener : listeners) {
-                    listener.removed(file.toURI());
-                }
-                subDirectories.remove(file);
+
+        URI location = jar.toURI();
+        if (!getJarLocations().contains(location)) {
+            addLibrary(location);
+            for (RepositoryChangeListener listener : listeners) {
+                listener.added(location);
             }
         }
     }
 
+    /**
+     * Size, time stamp and disabled flag of a jar, enough
+     * to tell whether it needs to be loaded again
+     */
+    private static final class JarState {
+        private final long length;
+        private final long lastModified;
+        private final boolean disabled;
+
+        private JarState(long length, long lastModified, boolean disabled) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.disabled = disabled;
+        }
+
+        /**
+         * @return the state of the jar, or null if there is no such file
+         */
+        private static JarState of(File jar, boolean disabled) {
+            long lastModified = jar.lastModified();
+            if (lastModified == 0L && !jar.exists()) return null;
+
+            return new JarState(jar.length(), lastModified, disabled);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (length ^ lastModified) ^ (disabled ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof JarState)) return false;
+            JarState other = (JarState) o;
+
+            return length == other.length &&
+                    lastModified == other.lastModified &&
+                    disabled == other.disabled;
+        }
+    }
+
 }
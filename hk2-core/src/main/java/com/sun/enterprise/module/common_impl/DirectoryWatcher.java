@@ -0,0 +1,158 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Watches the directory of a {@link DirectoryBasedRepository} with a
+ * {@link WatchService} and hands the repository the files that changed.
+ * This class is only loaded when the VM has java.nio.file
+ *
+ * @author jwells
+ */
+class DirectoryWatcher implements Runnable {
+    /**
+     * Events arriving within this many milliseconds of each other are
+     * handled together, so a jar still being copied is looked at once
+     */
+    private static final long SETTLE_TIME = 100L;
+
+    private final DirectoryBasedRepository repository;
+    private final Path directory;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    DirectoryWatcher(DirectoryBasedRepository repository, File directory, boolean daemon) throws IOException {
+        this.repository = repository;
+        this.directory = directory.toPath();
+
+        watchService = this.directory.getFileSystem().newWatchService();
+        try {
+            this.directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        thread = new Thread(this, "hk2-repo-watcher-" + repository.getName());
+        thread.setDaemon(daemon);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // ignored, we are going away anyway
+        }
+    }
+
+    public void run() {
+        try {
+            while (!stopped) {
+                WatchKey key = watchService.take();
+
+                Set<File> changed = new LinkedHashSet<File>();
+                boolean overflow = false;
+                boolean valid = true;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                            continue;
+                        }
+
+                        Path name = (Path) event.context();
+                        changed.add(directory.resolve(name).toFile());
+                    }
+
+                    valid = key.reset() && valid;
+
+                    key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+                }
+
+                if (stopped) return;
+
+                try {
+                    if (overflow) {
+                        repository.directoryChanged();
+                    } else {
+                        repository.filesChanged(changed);
+                    }
+                } catch (RuntimeException e) {
+                    // a failing listener must not stop us from watching
+                    LogHelper.getDefaultLogger().log(Level.WARNING, "Error handling changes to " + directory, e);
+                }
+
+                if (!valid) {
+                    // the directory itself has gone away
+                    LogHelper.getDefaultLogger().log(Level.FINE,
+                            "Stopped watching " + directory + " since it is no longer accessible");
+                    stop();
+                }
+            }
+        } catch (InterruptedException e) {
+            // done
+        } catch (ClosedWatchServiceException e) {
+            // done
+        }
+    }
+}
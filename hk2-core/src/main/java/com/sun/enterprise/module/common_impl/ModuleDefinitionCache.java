@@ -0,0 +1,288 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+
+/**
+ * An on-disk cache of the manifests of module jars, so that a repository
+ * can build the {@link com.sun.enterprise.module.ModuleDefinition} of a jar
+ * that has not changed without opening it.  Entries are keyed by the absolute
+ * path of the jar and are only used while its size and last modified time
+ * are the same as when it was cached.
+ * <p>
+ * The file is a simple binary format that is read into memory in one piece:
+ * <pre>
+ * int magic, int version, int count
+ * count times: int pathLength, UTF-8 path, long size, long lastModified,
+ *              int manifestLength, manifest bytes
+ * </pre>
+ * Any problem reading the file simply results in an empty cache
+ *
+ * @author jwells
+ */
+public class ModuleDefinitionCache {
+    /**
+     * The system property naming the cache file used by repositories.
+     * When not set repositories do not cache anything
+     */
+    public static final String CACHE_FILE_PROPERTY = "hk2.module.definition.cache";
+
+    private static final int MAGIC = 0x484B324D; // HK2M
+    private static final int VERSION = 1;
+    private static final String UTF8 = "UTF-8";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Map<File, ModuleDefinitionCache> caches = new HashMap<File, ModuleDefinitionCache>();
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean dirty;
+
+    private ModuleDefinitionCache(File file) {
+        this.file = file;
+        try {
+            read();
+        } catch (Exception e) {
+            LogHelper.getDefaultLogger().log(Level.FINE, "Ignoring unreadable module definition cache " + file, e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Gets the cache kept in the given file.  All callers asking
+     * for the same file share the same cache
+     *
+     * @param file The file holding the cache.  It need not exist yet
+     * @return The cache for that file.  Never null
+     */
+    public static synchronized ModuleDefinitionCache getInstance(File file) {
+        File key = file.getAbsoluteFile();
+
+        ModuleDefinitionCache retVal = caches.get(key);
+        if (retVal == null) {
+            retVal = new ModuleDefinitionCache(key);
+            caches.put(key, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the cache named by the {@link #CACHE_FILE_PROPERTY} system property
+     *
+     * @return The cache, or null if the property is not set
+     */
+    public static ModuleDefinitionCache getDefault() {
+        String fileName = System.getProperty(CACHE_FILE_PROPERTY);
+        if (fileName == null || fileName.length() == 0) return null;
+
+        return getInstance(new File(fileName));
+    }
+
+    /**
+     * Gets the manifest that was cached for the given jar
+     *
+     * @param jar The jar file
+     * @return A new copy of the manifest of the jar, or null if
+     * nothing is cached or the jar changed since it was cached
+     */
+    public synchronized Manifest getManifest(File jar) {
+        Entry entry = entries.get(jar.getAbsolutePath());
+        if (entry == null || !entry.matches(jar)) return null;
+
+        try {
+            return new Manifest(new ByteArrayInputStream(entry.manifest));
+        } catch (IOException e) {
+            // cannot happen with a byte array, but do not trust it either
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the manifest read from the given jar
+     *
+     * @param jar The jar file the manifest was read from
+     * @param manifest The manifest found inside the jar.  Jars
+     * without a manifest are not cached
+     */
+    public synchronized void putManifest(File jar, Manifest manifest) {
+        if (manifest == null || !jar.isFile()) return;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            manifest.write(baos);
+        } catch (IOException e) {
+            return;
+        }
+
+        entries.put(jar.getAbsolutePath(), new Entry(jar.length(), jar.lastModified(), baos.toByteArray()));
+        dirty = true;
+    }
+
+    /**
+     * Writes the cache back to its file if anything was added.  Entries
+     * for jars that are gone or have changed are dropped
+     *
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (!entry.getValue().matches(new File(entry.getKey()))) {
+                it.remove();
+            }
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] path = entry.getKey().getBytes(UTF8);
+                Entry value = entry.getValue();
+
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeLong(value.length);
+                out.writeLong(value.lastModified);
+                out.writeInt(value.manifest.length);
+                out.write(value.manifest);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not replace module definition cache " + file);
+            }
+        }
+
+        dirty = false;
+    }
+
+    private void read() throws IOException {
+        if (!file.isFile()) return;
+
+        long fileLength = file.length();
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Module definition cache " + file + " is too large");
+        }
+
+        // Read into the heap rather than mapping the file, since a mapped
+        // file cannot be replaced or deleted by save() on some platforms
+        byte[] contents = new byte[(int) fileLength];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(contents);
+        } finally {
+            in.close();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            // some other file or an older format, start over
+            return;
+        }
+
+        int count = buffer.getInt();
+        for (int lcv = 0; lcv < count; lcv++) {
+            String path = new String(readBytes(buffer), UTF8);
+            long length = buffer.getLong();
+            long lastModified = buffer.getLong();
+            byte[] manifest = readBytes(buffer);
+
+            entries.put(path, new Entry(length, lastModified, manifest));
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupt module definition cache");
+        }
+
+        byte[] retVal = new byte[length];
+        buffer.get(retVal);
+        return retVal;
+    }
+
+    private static final class Entry {
+        private final long length;
+        private final long lastModified;
+        private final byte[] manifest;
+
+        private Entry(long length, long lastModified, byte[] manifest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.manifest = manifest;
+        }
+
+        private boolean matches(File jar) {
+            return jar.length() == length && jar.lastModified() == lastModified;
+        }
+    }
+}
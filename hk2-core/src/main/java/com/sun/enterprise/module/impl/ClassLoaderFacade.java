@@ -56,6 +56,16 @@ import java.util.ArrayList;
  * @author dochez
  */
 final class ClassLoaderFacade extends URLClassLoader {
+
+    static {
+        if (ClassLoaderProxy.REGISTER_AS_PARALLEL_CAPABLE != null) {
+            try {
+                ClassLoaderProxy.REGISTER_AS_PARALLEL_CAPABLE.invoke(null);
+            } catch (Throwable th) {
+                // ignored, loads through the facade just stay serialized
+            }
+        }
+    }
  
     private final static URL[] EMPTY_URLS = new URL[0];
     private HashSet<String> publicPkgs = null;
@@ -120,6 +130,28 @@ final class ClassLoaderFacade extends URLClassLoader {
         String packageName = name.substring(0, index);
         return publicPkgs.contains(packageName);
     }
+
+    /**
+     * Same as {@link #matchExportedPackage(String)} but for a package
+     * name rather than a class name.  The default package is ""
+     */
+    boolean exportsPackage(String packageName) {
+        if (publicPkgs==null && publicSet==null) {
+            return true;
+        }
+        if (publicSet!=null) {
+            String prefix = packageName + ".";
+            for (String aPublicSet : publicSet) {
+                if (prefix.startsWith(aPublicSet)) {
+                    return true;
+                }
+            }
+        }
+        if (publicPkgs==null || packageName.length()==0) {
+            return false;
+        }
+        return publicPkgs.contains(packageName);
+    }
               
     protected Class findClass(String name) throws ClassNotFoundException {
         if (matchExportedPackage(name)) {
@@ -42,10 +42,13 @@ package com.sun.enterprise.module.impl;
 
 import com.sun.enterprise.module.common_impl.FlattenEnumeration;
 
+import java.lang.reflect.Method;
 import java.net.URLClassLoader;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 
 /**
@@ -55,9 +58,60 @@ import java.io.IOException;
  */
 public class ClassLoaderProxy extends URLClassLoader {
 
+    /**
+     * {@link ClassLoader}'s registerAsParallelCapable, which only exists from Java 7 on.
+     * It registers its caller, so each loader class has to invoke it itself.
+     */
+    /*package*/ static final Method REGISTER_AS_PARALLEL_CAPABLE = getRegisterAsParallelCapable();
+
+    private static final boolean PARALLEL_CAPABLE;
+    static {
+        boolean registered = false;
+        if (REGISTER_AS_PARALLEL_CAPABLE != null) {
+            try {
+                registered = (Boolean) REGISTER_AS_PARALLEL_CAPABLE.invoke(null);
+            } catch (Throwable th) {
+                // ignored, we are just not parallel capable
+            }
+        }
+        PARALLEL_CAPABLE = registered;
+    }
+
+    /**
+     * Not done in a privileged action since on newer VMs only a subclass
+     * of {@link ClassLoader} may make the protected method accessible
+     */
+    private static Method getRegisterAsParallelCapable() {
+        try {
+            Method m = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            m.setAccessible(true);
+            return m;
+        } catch (Throwable th) {
+            // older VM, class loading stays serialized on the loader
+            return null;
+        }
+    }
+
+    /** Cached misses are dropped once there are more than this many of them */
+    private static final int MAX_MISSING_CLASSES = 8192;
+
+    /**
+     * Bumped whenever the URLs or delegates of any proxy change, since a class
+     * that could not be found through one proxy may now be found through a delegate
+     */
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
     private final List<ClassLoader> surrogates = new CopyOnWriteArrayList<ClassLoader>();
     private final List<ClassLoaderFacade> facadeSurrogates = new CopyOnWriteArrayList<ClassLoaderFacade>();
 
+    /** Which facade surrogates export which package, replaced whenever the surrogates change */
+    private volatile PackageIndex packageIndex = new PackageIndex(new ClassLoaderFacade[0]);
+    private volatile MissingClasses missingClasses = new MissingClasses(GENERATION.get());
+
+    /** Per class name locks used instead of this loader when we are parallel capable */
+    private final ConcurrentHashMap<String, Object> loadingLocks =
+            PARALLEL_CAPABLE ? new ConcurrentHashMap<String, Object>() : null;
+
     /** Creates a new instance of ClassLoader */
     public ClassLoaderProxy(URL[] shared, ClassLoader parent) {
         super(shared, parent);
@@ -100,6 +154,11 @@ public class ClassLoaderProxy extends URLClassLoader {
     }
 
     protected Class<?> findClass(String name, boolean followImports) throws ClassNotFoundException {
+        int generation = GENERATION.get();
+        if (followImports && isKnownMissing(name, generation)) {
+            throw new ClassNotFoundException(name);
+        }
+
         try {
             // try to find it within this module first.
             // this potentially causes a problem when two modules have the same jar in the classpath,
@@ -112,7 +171,8 @@ public class ClassLoaderProxy extends URLClassLoader {
         } catch(ClassNotFoundException cfne) {
             if (followImports) {
                 Class c=null;
-                for (ClassLoaderFacade classLoader : facadeSurrogates) {
+                // only the modules exporting the package of the class are asked for it
+                for (ClassLoaderFacade classLoader : packageIndex.getExporters(name)) {
                     try {
                         c = classLoader.getClass(name);
                     } catch(ClassNotFoundException e) {
@@ -132,6 +192,7 @@ public class ClassLoaderProxy extends URLClassLoader {
                         return c;
                     }
                 }
+                addMissing(name, generation);
             }
             throw cfne;
         }
@@ -140,16 +201,56 @@ public class ClassLoaderProxy extends URLClassLoader {
     /**
      * {@link #findClass(String)} except the classloader punch-in hack.
      */
-    /*package*/ synchronized Class findClassDirect(String name) throws ClassNotFoundException {
-        Class c = findLoadedClass(name);
-        if(c!=null) return c;
-        try {
-            return super.findClass(name);
-        } catch (NoClassDefFoundError e) {
-            throw new ClassNotFoundException(e.getMessage());
+    /*package*/ Class findClassDirect(String name) throws ClassNotFoundException {
+        synchronized (getLoadingLock(name)) {
+            Class c = findLoadedClass(name);
+            if(c!=null) return c;
+            try {
+                return super.findClass(name);
+            } catch (NoClassDefFoundError e) {
+                throw new ClassNotFoundException(e.getMessage());
+            }
         }
     }
 
+    /**
+     * The lock guarding the definition of the given class.  This is the loader
+     * itself unless the loader classes could be registered as parallel capable
+     */
+    private Object getLoadingLock(String name) {
+        if (loadingLocks == null) return this;
+
+        Object newLock = new Object();
+        Object existing = loadingLocks.putIfAbsent(name, newLock);
+        return (existing == null) ? newLock : existing;
+    }
+
+    private boolean isKnownMissing(String name, int generation) {
+        MissingClasses current = missingClasses;
+        if (current.generation != generation) {
+            missingClasses = new MissingClasses(generation);
+            return false;
+        }
+        return current.names.containsKey(name);
+    }
+
+    private void addMissing(String name, int generation) {
+        MissingClasses current = missingClasses;
+        // anything that changed while we were looking makes this miss suspect
+        if (current.generation != generation || GENERATION.get() != generation) return;
+
+        if (current.names.size() >= MAX_MISSING_CLASSES) {
+            current = new MissingClasses(generation);
+            missingClasses = current;
+        }
+        current.names.put(name, Boolean.TRUE);
+    }
+
+    private void delegatesChanged() {
+        packageIndex = new PackageIndex(facadeSurrogates.toArray(new ClassLoaderFacade[0]));
+        GENERATION.incrementAndGet();
+    }
+
     public URL findResource(String name) {
         URL url = super.findResource(name);
         if (url!=null)  return url;
@@ -206,6 +307,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.add(cl);
         }
+        delegatesChanged();
     }
 
     public void removeDelegate(ClassLoader cl) {
@@ -214,6 +316,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.remove(cl);
         }
+        delegatesChanged();
     }
 
     public Collection<ClassLoader> getDelegates() {
@@ -228,6 +331,7 @@ public class ClassLoaderProxy extends URLClassLoader {
     public void stop() {
        surrogates.clear();
        facadeSurrogates.clear();
+       delegatesChanged();
     }
 
     public String toString() {
@@ -252,5 +356,52 @@ public class ClassLoaderProxy extends URLClassLoader {
        */
     public void addURL(URL url) {
         super.addURL(url);
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Maps a package to the facades exporting it, computed from the
+     * public packages of each module the first time the package is seen
+     */
+    private static final class PackageIndex {
+        private final ClassLoaderFacade[] facades;
+        private final ConcurrentHashMap<String, ClassLoaderFacade[]> exporters =
+                new ConcurrentHashMap<String, ClassLoaderFacade[]>();
+
+        private PackageIndex(ClassLoaderFacade[] facades) {
+            this.facades = facades;
+        }
+
+        private ClassLoaderFacade[] getExporters(String className) {
+            int index = className.lastIndexOf('.');
+            String packageName = (index < 0) ? "" : className.substring(0, index);
+
+            ClassLoaderFacade[] retVal = exporters.get(packageName);
+            if (retVal != null) return retVal;
+
+            List<ClassLoaderFacade> found = new ArrayList<ClassLoaderFacade>();
+            for (ClassLoaderFacade facade : facades) {
+                if (facade.exportsPackage(packageName)) {
+                    found.add(facade);
+                }
+            }
+
+            retVal = found.toArray(new ClassLoaderFacade[found.size()]);
+            exporters.put(packageName, retVal);
+            return retVal;
+        }
+    }
+
+    /**
+     * Names of classes that could not be found through this proxy while
+     * the global generation had the given value
+     */
+    private static final class MissingClasses {
+        private final int generation;
+        private final ConcurrentHashMap<String, Boolean> names = new ConcurrentHashMap<String, Boolean>();
+
+        private MissingClasses(int generation) {
+            this.generation = generation;
+        }
     }
 }
@@ -58,6 +58,16 @@ import java.util.Vector;
  * @author dochez
  */
 final class ModuleClassLoader extends ClassLoaderProxy {
+
+    static {
+        if (REGISTER_AS_PARALLEL_CAPABLE != null) {
+            try {
+                REGISTER_AS_PARALLEL_CAPABLE.invoke(null);
+            } catch (Throwable th) {
+                // ignored, we are just not parallel capable
+            }
+        }
+    }
     
     private final ModuleImpl module;
 
@@ -80,7 +90,7 @@ final class ModuleClassLoader extends ClassLoaderProxy {
     }
 
 
-    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
         initialize(name);
         return super.loadClass(name, resolve);
     }
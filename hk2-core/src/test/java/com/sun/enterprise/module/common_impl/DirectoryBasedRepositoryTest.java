@@ -0,0 +1,206 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.enterprise.module.ManifestConstants;
+import com.sun.enterprise.module.ModuleDefinition;
+import com.sun.enterprise.module.RepositoryChangeListener;
+import com.sun.enterprise.module.impl.HK2Factory;
+
+/**
+ * Tests for watching a {@link DirectoryBasedRepository}
+ *
+ * @author jwells
+ */
+public class DirectoryBasedRepositoryTest {
+    private static final String USE_WATCH_SERVICE = "hk2.file.directory.useWatchService";
+    private static final String INTERVAL = "hk2.file.directory.changeIntervalTimer";
+    private static final long WAIT_SECONDS = 20L;
+
+    private static final String ADDED = "added:";
+    private static final String REMOVED = "removed:";
+    private static final String MODULE_ADDED = "moduleAdded:";
+    private static final String MODULE_REMOVED = "moduleRemoved:";
+
+    private static final String MODULE_NAME = "watched.module";
+
+    @BeforeClass
+    public static void beforeClass() {
+        HK2Factory.initialize();
+    }
+
+    private static File createDirectory() throws IOException {
+        File retVal = File.createTempFile("repo", "dir");
+        Assert.assertTrue(retVal.delete());
+        Assert.assertTrue(retVal.mkdir());
+        return retVal;
+    }
+
+    private static void writeJar(File jar, String bundleName) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (bundleName != null) {
+            manifest.getMainAttributes().putValue(ManifestConstants.BUNDLE_NAME, bundleName);
+        }
+
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+        jos.close();
+    }
+
+    private static void deleteAll(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String next(BlockingQueue<String> events) throws InterruptedException {
+        String retVal = events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertNotNull("No repository event arrived", retVal);
+        return retVal;
+    }
+
+    /**
+     * Adds, disables, enables and removes jars and checks that exactly
+     * the expected events arrive for them
+     */
+    private void checkChanges() throws Exception {
+        File directory = createDirectory();
+        File untouched = new File(directory, "untouched.jar");
+        writeJar(untouched, null);
+
+        DirectoryBasedRepository repository = new DirectoryBasedRepository("watched", directory, true);
+        try {
+            repository.initialize();
+            Assert.assertEquals(1, repository.getJarLocations().size());
+
+            final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+            repository.addListener(new RepositoryChangeListener() {
+                public void added(URI location) {
+                    events.add(ADDED + location);
+                }
+
+                public void removed(URI location) {
+                    events.add(REMOVED + location);
+                }
+
+                public void moduleAdded(ModuleDefinition definition) {
+                    events.add(MODULE_ADDED + definition.getName());
+                }
+
+                public void moduleRemoved(ModuleDefinition definition) {
+                    events.add(MODULE_REMOVED + definition.getName());
+                }
+            });
+
+            File library = new File(directory, "library.jar");
+            writeJar(library, null);
+            Assert.assertEquals(ADDED + library.toURI(), next(events));
+
+            File disabled = new File(directory, "library.disabled");
+            Assert.assertTrue(disabled.createNewFile());
+            Assert.assertEquals(REMOVED + library.toURI(), next(events));
+
+            Assert.assertTrue(disabled.delete());
+            Assert.assertEquals(ADDED + library.toURI(), next(events));
+
+            File module = new File(directory, "module.jar");
+            writeJar(module, MODULE_NAME);
+            Assert.assertEquals(MODULE_ADDED + MODULE_NAME, next(events));
+            Assert.assertNotNull(repository.find(MODULE_NAME, "1.0"));
+
+            Assert.assertTrue(module.delete());
+            Assert.assertEquals(MODULE_REMOVED + MODULE_NAME, next(events));
+            Assert.assertNull(repository.find(MODULE_NAME, "1.0"));
+
+            Assert.assertTrue(library.delete());
+            Assert.assertEquals(REMOVED + library.toURI(), next(events));
+
+            // nothing was ever said about the jar that did not change
+            Assert.assertTrue(events.isEmpty());
+            Assert.assertEquals(1, repository.getJarLocations().size());
+        } finally {
+            repository.shutdown();
+            deleteAll(directory);
+        }
+    }
+
+    /**
+     * Tests changes noticed with the watch service
+     */
+    @Test
+    public void testWatchedChanges() throws Exception {
+        checkChanges();
+    }
+
+    /**
+     * Tests changes noticed by polling the directory
+     */
+    @Test
+    public void testPolledChanges() throws Exception {
+        System.setProperty(USE_WATCH_SERVICE, "false");
+        System.setProperty(INTERVAL, "50");
+        try {
+            checkChanges();
+        } finally {
+            System.clearProperty(USE_WATCH_SERVICE);
+            System.clearProperty(INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.enterprise.module.ManifestConstants;
+import com.sun.enterprise.module.ModuleDefinition;
+import com.sun.enterprise.module.impl.HK2Factory;
+
+/**
+ * Tests for {@link ModuleDefinitionCache}
+ *
+ * @author jwells
+ */
+public class ModuleDefinitionCacheTest {
+    private static final String MODULE_NAME = "cached.module";
+    private static final String VERSION = "1.0";
+
+    @BeforeClass
+    public static void beforeClass() {
+        HK2Factory.initialize();
+    }
+
+    private static File createDirectory() throws IOException {
+        File retVal = File.createTempFile("cache", "dir");
+        Assert.assertTrue(retVal.delete());
+        Assert.assertTrue(retVal.mkdir());
+        return retVal;
+    }
+
+    private static void writeJar(File jar, String bundleName) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue(ManifestConstants.BUNDLE_NAME, bundleName);
+
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+        jos.close();
+    }
+
+    /**
+     * Overwrites the jar with garbage while keeping its size and time stamp,
+     * so it can only be loaded if it is not opened
+     */
+    private static void scramble(File jar) throws IOException {
+        long lastModified = jar.lastModified();
+
+        RandomAccessFile raf = new RandomAccessFile(jar, "rw");
+        try {
+            byte[] garbage = new byte[(int) raf.length()];
+            raf.write(garbage);
+        } finally {
+            raf.close();
+        }
+
+        Assert.assertTrue(jar.setLastModified(lastModified));
+    }
+
+    private static void deleteAll(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static DirectoryBasedRepository createRepository(File modules, final File cacheFile) {
+        return new DirectoryBasedRepository("cached", modules) {
+            @Override
+            protected ModuleDefinitionCache getModuleDefinitionCache() {
+                return ModuleDefinitionCache.getInstance(cacheFile);
+            }
+        };
+    }
+
+    /**
+     * A module whose jar has not changed is found from the cache without
+     * opening the jar, and a changed jar is read again
+     */
+    @Test
+    public void testUnchangedJarIsNotOpened() throws Exception {
+        File modules = createDirectory();
+        File cacheDirectory = createDirectory();
+        File cacheFile = new File(cacheDirectory, "modules.cache");
+
+        try {
+            File jar = new File(modules, "module.jar");
+            writeJar(jar, MODULE_NAME);
+
+            DirectoryBasedRepository first = createRepository(modules, cacheFile);
+            first.initialize();
+            Assert.assertNotNull(first.find(MODULE_NAME, VERSION));
+            Assert.assertTrue(cacheFile.isFile());
+
+            scramble(jar);
+
+            DirectoryBasedRepository second = createRepository(modules, cacheFile);
+            second.initialize();
+            ModuleDefinition definition = second.find(MODULE_NAME, VERSION);
+            Assert.assertNotNull(definition);
+            Assert.assertEquals(jar.toURI(), definition.getLocations()[0]);
+
+            // Once it really changes the jar is looked at again
+            Assert.assertTrue(jar.delete());
+            writeJar(jar, MODULE_NAME + ".v2");
+            Assert.assertNull(ModuleDefinitionCache.getInstance(cacheFile).getManifest(jar));
+
+            DirectoryBasedRepository third = createRepository(modules, cacheFile);
+            third.initialize();
+            Assert.assertNull(third.find(MODULE_NAME, VERSION));
+            Assert.assertNotNull(third.find(MODULE_NAME + ".v2", VERSION));
+        } finally {
+            deleteAll(modules);
+            deleteAll(cacheDirectory);
+        }
+    }
+
+    /**
+     * A cache file that is not a cache is ignored and then replaced
+     */
+    @Test
+    public void testCorruptCacheIsIgnored() throws Exception {
+        File modules = createDirectory();
+        File cacheDirectory = createDirectory();
+        File cacheFile = new File(cacheDirectory, "corrupt.cache");
+
+        try {
+            FileOutputStream fos = new FileOutputStream(cacheFile);
+            fos.write(new byte[] { 1, 2, 3 });
+            fos.close();
+
+            File jar = new File(modules, "module.jar");
+            writeJar(jar, MODULE_NAME);
+
+            DirectoryBasedRepository repository = createRepository(modules, cacheFile);
+            repository.initialize();
+            Assert.assertNotNull(repository.find(MODULE_NAME, VERSION));
+
+            Assert.assertNotNull(ModuleDefinitionCache.getInstance(cacheFile).getManifest(jar));
+            Assert.assertTrue(cacheFile.length() > 3);
+        } finally {
+            deleteAll(modules);
+            deleteAll(cacheDirectory);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.impl;
+
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClassLoaderProxy}
+ * 
+ * @author jwells
+ */
+public class ClassLoaderProxyTest {
+    private final static String TEST_CLASS = ClassLoaderProxyTest.class.getName();
+    private final static int NUM_THREADS = 8;
+
+    private static ClassLoaderProxy createProxy() {
+        // no parent, so only the boot loader and our delegates can find anything
+        return new ClassLoaderProxy(new URL[0], null);
+    }
+
+    /**
+     * A miss must be forgotten once a delegate that can find the class is added
+     */
+    @Test
+    public void testMissIsForgottenWhenDelegateAdded() throws Exception {
+        ClassLoaderProxy proxy = createProxy();
+
+        for (int lcv = 0; lcv < 2; lcv++) {
+            try {
+                proxy.loadClass(TEST_CLASS);
+                Assert.fail("Should not have found " + TEST_CLASS);
+            } catch (ClassNotFoundException expected) {
+                // expected, the second time from the cache of misses
+            }
+        }
+
+        proxy.addDelegate(ClassLoaderProxyTest.class.getClassLoader());
+
+        Assert.assertSame(ClassLoaderProxyTest.class, proxy.loadClass(TEST_CLASS));
+    }
+
+    /**
+     * Many threads looking for the same class through a proxy all get the same answer
+     */
+    @Test
+    public void testConcurrentLoadsThroughDelegate() throws Exception {
+        final ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(ClassLoaderProxyTest.class.getClassLoader());
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<Class<?>>> results = new ArrayList<Future<Class<?>>>();
+            for (int lcv = 0; lcv < NUM_THREADS * 4; lcv++) {
+                results.add(executor.submit(new Callable<Class<?>>() {
+                    public Class<?> call() throws Exception {
+                        return proxy.loadClass(TEST_CLASS);
+                    }
+                }));
+            }
+
+            for (Future<Class<?>> result : results) {
+                Assert.assertSame(ClassLoaderProxyTest.class, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -42,7 +42,10 @@ package org.glassfish.hk2.extras.hk2bridge.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.PreDestroy;
@@ -53,25 +56,55 @@ import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationChangeListener;
 import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ValidationService;
 import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.extras.ExtrasUtilities;
+import org.glassfish.hk2.utilities.BuilderHelper;
 
 /**
+ * Mirrors the non-local services of one locator into another.  Only
+ * the descriptors added or removed by a local commit are applied
+ * to the remote locator, and the changes of concurrent local commits
+ * are applied together in a single remote commit
+ * <p>
+ * If the local locator has a parent or a {@link ValidationService} then
+ * every local commit compares all of the descriptors of the local locator
+ * with the mirrored ones instead, since the commits of the parent are not
+ * seen by this listener and a ValidationService can hide added descriptors
+ * 
  * @author jwells
  *
  */
 @Singleton
 @Visibility(DescriptorVisibility.LOCAL)
-public class Hk2BridgeImpl implements DynamicConfigurationListener {
+public class Hk2BridgeImpl implements DynamicConfigurationListener, DynamicConfigurationChangeListener {
+    private final static IndexedFilter VALIDATION_FILTER =
+            BuilderHelper.createContractFilter(ValidationService.class.getName());
+    
     private final ServiceLocator local;
+    
+    private final Object lock = new Object();
+    
+    /* These fields are protected by lock */
     private ServiceLocator remote;
     private Filter filter;
     
-    private List<ActiveDescriptor<?>> mirroredDescriptors = new ArrayList<ActiveDescriptor<?>>();
+    /** TRUE for a descriptor to add, FALSE for a descriptor to remove */
+    private final LinkedHashMap<ActiveDescriptor<?>, Boolean> pending = new LinkedHashMap<ActiveDescriptor<?>, Boolean>();
+    private boolean resync;
+    private boolean destroyed;
+    private long requested;
+    private long flushed;
+    private Thread flusher;
+    
+    /* Only touched by the thread that is currently the flusher */
+    private final Set<ActiveDescriptor<?>> mirroredDescriptors = new HashSet<ActiveDescriptor<?>>();
     
     @Inject
     private Hk2BridgeImpl(ServiceLocator local) {
@@ -79,56 +112,241 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
         
     }
     
-    public synchronized void setRemote(ServiceLocator remote) {
-        this.remote = remote;
-        this.filter = new NoLocalNoRemoteFilter(remote.getLocatorId());
+    public void setRemote(ServiceLocator remote) {
+        long waitFor;
+        synchronized (lock) {
+            this.remote = remote;
+            this.filter = new NoLocalNoRemoteFilter(remote.getLocatorId());
+            
+            resync = true;
+            waitFor = ++requested;
+        }
+        
+        flush(waitFor);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.DynamicConfigurationChangeListener#configurationChanged(java.util.List, java.util.List)
+     */
+    @Override
+    public void configurationChanged(List<ActiveDescriptor<?>> added,
+            List<ActiveDescriptor<?>> removed) {
+        if (local.getParent() != null || !local.getDescriptors(VALIDATION_FILTER).isEmpty()) {
+            configurationChanged();
+            return;
+        }
+        
+        long waitFor;
+        synchronized (lock) {
+            if (remote == null || destroyed) return;
+            
+            boolean dirty = false;
+            for (ActiveDescriptor<?> removeMe : removed) {
+                if (Boolean.TRUE.equals(pending.remove(removeMe))) {
+                    // Was never sent to the remote locator
+                    continue;
+                }
+                
+                pending.put(removeMe, Boolean.FALSE);
+                dirty = true;
+            }
+            
+            for (ActiveDescriptor<?> addMe : added) {
+                if (!filter.matches(addMe)) continue;
+                
+                pending.put(addMe, Boolean.TRUE);
+                dirty = true;
+            }
+            
+            if (!dirty) return;
+            
+            waitFor = ++requested;
+        }
+        
+        flush(waitFor);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.DynamicConfigurationListener#configurationChanged()
+     */
+    @Override
+    public void configurationChanged() {
+        long waitFor;
+        synchronized (lock) {
+            if (remote == null || destroyed) return;
+            
+            resync = true;
+            waitFor = ++requested;
+        }
+        
+        flush(waitFor);
+    }
+    
+    /**
+     * Returns once every change requested up to waitFor has been
+     * committed to the remote locator.  If no other thread is
+     * committing to the remote locator then this thread does so,
+     * taking along every change that is pending at the time
+     * 
+     * @param waitFor The request number that must be flushed
+     */
+    private void flush(long waitFor) {
+        Thread current = Thread.currentThread();
+        boolean interrupted = false;
         
-        List<ActiveDescriptor<?>> newDescriptors = local.getDescriptors(filter);
+        synchronized (lock) {
+            try {
+                while (flushed < waitFor) {
+                    if (flusher == null) break;
+                    
+                    if (flusher == current) {
+                        // A change caused by our own remote commit, the flush
+                        // loop below will pick it up once that commit returns
+                        return;
+                    }
+                    
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+                
+                if (flushed >= waitFor) return;
+                
+                flusher = current;
+            }
+            finally {
+                if (interrupted) current.interrupt();
+            }
+        }
         
-        handleChange(newDescriptors);
+        try {
+            for (;;) {
+                ServiceLocator remoteLocator;
+                Filter currentFilter;
+                boolean doResync;
+                boolean doDestroy;
+                Map<ActiveDescriptor<?>, Boolean> changes;
+                long batch;
+                
+                synchronized (lock) {
+                    if (flushed >= requested) return;
+                    
+                    remoteLocator = remote;
+                    currentFilter = filter;
+                    doResync = resync;
+                    doDestroy = destroyed;
+                    changes = new LinkedHashMap<ActiveDescriptor<?>, Boolean>(pending);
+                    batch = requested;
+                    
+                    pending.clear();
+                    resync = false;
+                }
+                
+                boolean success = false;
+                try {
+                    if (remoteLocator != null) {
+                        applyChanges(remoteLocator, currentFilter, doResync, doDestroy, changes);
+                    }
+                    
+                    success = true;
+                }
+                finally {
+                    synchronized (lock) {
+                        if (!success) {
+                            // The changes taken from pending are lost, so the
+                            // next flush compares everything instead
+                            resync = true;
+                        }
+                        
+                        flushed = batch;
+                        if (doDestroy) {
+                            remote = null;
+                        }
+                        
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+        finally {
+            synchronized (lock) {
+                flusher = null;
+                lock.notifyAll();
+            }
+        }
     }
     
     @SuppressWarnings("unchecked")
-    private synchronized void handleChange(List<ActiveDescriptor<?>> newDescriptors) {
-        if (remote == null) return;
+    private void applyChanges(ServiceLocator remoteLocator,
+            Filter currentFilter,
+            boolean doResync,
+            boolean doDestroy,
+            Map<ActiveDescriptor<?>, Boolean> changes) {
+        List<ActiveDescriptor<?>> toAdd = new LinkedList<ActiveDescriptor<?>>();
+        Set<ActiveDescriptor<?>> toRemove = new HashSet<ActiveDescriptor<?>>();
         
-        HashSet<ActiveDescriptor<?>> toRemove = new HashSet<ActiveDescriptor<?>>(mirroredDescriptors);
-        toRemove.removeAll(newDescriptors);
+        if (doDestroy) {
+            toRemove.addAll(mirroredDescriptors);
+        }
+        else if (doResync) {
+            List<ActiveDescriptor<?>> newDescriptors = local.getDescriptors(currentFilter);
+            
+            toRemove.addAll(mirroredDescriptors);
+            toRemove.removeAll(newDescriptors);
+            
+            for (ActiveDescriptor<?> newDescriptor : newDescriptors) {
+                if (!mirroredDescriptors.contains(newDescriptor)) {
+                    toAdd.add(newDescriptor);
+                }
+            }
+        }
+        else {
+            for (Map.Entry<ActiveDescriptor<?>, Boolean> change : changes.entrySet()) {
+                ActiveDescriptor<?> descriptor = change.getKey();
+                
+                if (change.getValue()) {
+                    // Listeners can be called out of order, so the commit
+                    // removing this descriptor may already have been seen
+                    if (!mirroredDescriptors.contains(descriptor) && isRegistered(descriptor)) {
+                        toAdd.add(descriptor);
+                    }
+                }
+                else if (mirroredDescriptors.contains(descriptor)) {
+                    toRemove.add(descriptor);
+                }
+            }
+        }
         
-        HashSet<ActiveDescriptor<?>> toAdd = new HashSet<ActiveDescriptor<?>>(newDescriptors);
-        toAdd.removeAll(mirroredDescriptors);
+        if (toAdd.isEmpty() && toRemove.isEmpty()) return;
         
-        DynamicConfigurationService remoteDCS = remote.getService(DynamicConfigurationService.class);
+        DynamicConfigurationService remoteDCS = remoteLocator.getService(DynamicConfigurationService.class);
         DynamicConfiguration config = remoteDCS.createDynamicConfiguration();
         
-        boolean dirty = false;
-        for (ActiveDescriptor<?> removeMe : toRemove) {
-            Filter removeFilter = new RemoveFilter(removeMe.getLocatorId(), removeMe.getServiceId());
-            config.addUnbindFilter(removeFilter);
-            dirty = true;
+        if (!toRemove.isEmpty()) {
+            Set<Long> serviceIds = new HashSet<Long>();
+            for (ActiveDescriptor<?> removeMe : toRemove) {
+                serviceIds.add(removeMe.getServiceId());
+            }
+            
+            config.addUnbindFilter(new RemoveFilter(local.getLocatorId(), serviceIds));
         }
         
         for (ActiveDescriptor<?> addMe : toAdd) {
             CrossOverDescriptor<Object> cod = new CrossOverDescriptor<Object>(local, (ActiveDescriptor<Object>) addMe);
             config.addActiveDescriptor(cod);
-            dirty = true;
         }
         
-        if (dirty) {
-            config.commit();
-        }
+        config.commit();
         
-        mirroredDescriptors = newDescriptors;
+        mirroredDescriptors.removeAll(toRemove);
+        mirroredDescriptors.addAll(toAdd);
     }
     
-    /* (non-Javadoc)
-     * @see org.glassfish.hk2.api.DynamicConfigurationListener#configurationChanged()
-     */
-    @Override
-    public void configurationChanged() {
-        List<ActiveDescriptor<?>> newDescriptors = local.getDescriptors(filter);
-        
-        handleChange(newDescriptors);
+    private boolean isRegistered(ActiveDescriptor<?> descriptor) {
+        return !local.getDescriptors(BuilderHelper.createSpecificDescriptorFilter(descriptor)).isEmpty();
     }
     
     private static class NoLocalNoRemoteFilter implements Filter {
@@ -160,16 +378,24 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
     
     @PreDestroy
     private void preDestroy() {
-        handleChange(Collections.<ActiveDescriptor<?>>emptyList());
+        long waitFor;
+        synchronized (lock) {
+            if (remote == null || destroyed) return;
+            
+            destroyed = true;
+            waitFor = ++requested;
+        }
+        
+        flush(waitFor);
     }
     
     private static class RemoveFilter implements Filter {
         private final long localLocatorId;
-        private final long localServiceId;
+        private final Set<Long> localServiceIds;
         
-        private RemoveFilter(long localLocatorId, long localServiceId) {
+        private RemoveFilter(long localLocatorId, Set<Long> localServiceIds) {
             this.localLocatorId = localLocatorId;
-            this.localServiceId = localServiceId;
+            this.localServiceIds = localServiceIds;
         }
 
         /* (non-Javadoc)
@@ -192,7 +418,7 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
             List<Long> serviceIds = getMetadataLongsList(d, ExtrasUtilities.HK2BRIDGE_SERVICE_ID);
             Long serviceId = serviceIds.get(index);
             
-            return (serviceId == localServiceId);
+            return localServiceIds.contains(serviceId);
         }
     }
     
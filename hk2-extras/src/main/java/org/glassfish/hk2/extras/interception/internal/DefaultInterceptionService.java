@@ -44,8 +44,11 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -55,6 +58,7 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DescriptorVisibility;
+import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.Filter;
 import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.InterceptionService;
@@ -65,17 +69,28 @@ import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.extras.interception.Intercepted;
 import org.glassfish.hk2.extras.interception.Interceptor;
 import org.glassfish.hk2.extras.interception.InterceptorOrderingService;
+import org.glassfish.hk2.utilities.BuilderHelper;
 
 /**
  * A default implementation of the interception service using annotation to
  * denote services that are to be intercepted and other annotations to match
  * methods or constructors to interceptors
+ * <p>
+ * The ordered interceptors of each method and constructor are worked out
+ * once and remembered until the next configuration change of the locator,
+ * or of a parent locator.  Changing the rank of an interceptor is only seen
+ * after the next configuration change.  The interceptor services
+ * themselves are still looked up every time, so interceptors
+ * in the {@link org.glassfish.hk2.api.PerLookup} scope are still created
+ * for every intercepted service.  The interceptors of a method are not
+ * remembered if an {@link InterceptorOrderingService} returns handles of
+ * its own for it
  * 
  * @author jwells
  */
 @Singleton
 @Visibility(DescriptorVisibility.LOCAL)
-public class DefaultInterceptionService implements InterceptionService {
+public class DefaultInterceptionService implements InterceptionService, DynamicConfigurationListener {
     private final static IndexedFilter METHOD_FILTER = new IndexedFilter() {
 
         @Override
@@ -114,11 +129,17 @@ public class DefaultInterceptionService implements InterceptionService {
         
     };
     
+    private final static IndexedFilter ORDERER_FILTER =
+            BuilderHelper.createContractFilter(InterceptorOrderingService.class.getName());
+    
     @Inject
     private ServiceLocator locator;
     
     @Inject
     private IterableProvider<InterceptorOrderingService> orderers;
+    
+    private final AtomicLong configurationChanges = new AtomicLong();
+    private volatile Generation generation;
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getDescriptorFilter()
@@ -135,6 +156,123 @@ public class DefaultInterceptionService implements InterceptionService {
         };
     }
     
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.DynamicConfigurationListener#configurationChanged()
+     */
+    @Override
+    public void configurationChanged() {
+        configurationChanges.incrementAndGet();
+    }
+    
+    /**
+     * Returns the generation for the current interceptors and ordering
+     * services, starting a new one if the configuration has changed since
+     * the last generation was started
+     * 
+     * @return The current generation
+     */
+    private Generation getGeneration() {
+        long changes = configurationChanges.get();
+        Generation current = generation;
+        
+        // Only the changes to this locator are counted, so with a parent
+        // the interceptors themselves have to be compared
+        boolean counted = (locator.getParent() == null);
+        if (counted && current != null && current.changes == changes) {
+            return current;
+        }
+        
+        List<ActiveDescriptor<?>> methodDescriptors = locator.getDescriptors(METHOD_FILTER);
+        List<ActiveDescriptor<?>> constructorDescriptors = locator.getDescriptors(CONSTRUCTOR_FILTER);
+        List<ActiveDescriptor<?>> ordererDescriptors = locator.getDescriptors(ORDERER_FILTER);
+        
+        if (!counted && current != null && current.isCurrent(methodDescriptors, constructorDescriptors, ordererDescriptors)) {
+            return current;
+        }
+        
+        HashMap<ActiveDescriptor<?>, ServiceHandle<?>> handles = new HashMap<ActiveDescriptor<?>, ServiceHandle<?>>();
+        current = new Generation(changes,
+                getBindings(methodDescriptors, handles),
+                getBindings(constructorDescriptors, handles),
+                handles,
+                methodDescriptors,
+                constructorDescriptors,
+                ordererDescriptors);
+        generation = current;
+        
+        return current;
+    }
+    
+    private List<InterceptorBindings> getBindings(List<ActiveDescriptor<?>> interceptors,
+            HashMap<ActiveDescriptor<?>, ServiceHandle<?>> handles) {
+        List<InterceptorBindings> retVal = new ArrayList<InterceptorBindings>(interceptors.size());
+        
+        for (ActiveDescriptor<?> ad : interceptors) {
+            if (!ad.isReified()) {
+                ad = locator.reifyDescriptor(ad);
+            }
+            
+            ServiceHandle<?> handle = handles.get(ad);
+            if (handle == null) {
+                handle = locator.getServiceHandle(ad);
+                handles.put(ad, handle);
+            }
+            
+            Class<?> interceptorClass = ad.getImplementationClass();
+            
+            retVal.add(new InterceptorBindings(handle,
+                    ReflectionUtilities.getAllBindingsFromClass(interceptorClass)));
+        }
+        
+        return retVal;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> List<ServiceHandle<T>> getMatchingHandles(List<InterceptorBindings> interceptors,
+            HashSet<String> allBindings) {
+        List<ServiceHandle<T>> retVal = new ArrayList<ServiceHandle<T>>(interceptors.size());
+        
+        for (InterceptorBindings interceptor : interceptors) {
+            boolean found = false;
+            for (String interceptorBinding : interceptor.bindings) {
+                if (allBindings.contains(interceptorBinding)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) continue;
+            
+            retVal.add((ServiceHandle<T>) interceptor.handle);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Gets the interceptor services of the given handles.  The handles of the
+     * generation are only used to find the descriptors of the interceptors,
+     * new handles are used to get the services
+     */
+    private <T> List<T> getInterceptors(Generation current, List<ServiceHandle<T>> handles) {
+        if (handles.isEmpty()) return Collections.emptyList();
+        
+        List<T> retVal = new ArrayList<T>(handles.size());
+        for (ServiceHandle<T> handle : handles) {
+            T interceptor;
+            if (current.isGenerationHandle(handle)) {
+                interceptor = locator.getServiceHandle(handle.getActiveDescriptor()).getService();
+            }
+            else {
+                // Given to us by an ordering service
+                interceptor = handle.getService();
+            }
+            
+            if (interceptor == null) continue;
+            retVal.add(interceptor);
+        }
+        return retVal;
+    }
+    
     private List<ServiceHandle<MethodInterceptor>> orderMethods(Method method, List<ServiceHandle<MethodInterceptor>> current) {
         List<ServiceHandle<MethodInterceptor>> retVal = current;
         
@@ -180,101 +318,117 @@ public class DefaultInterceptionService implements InterceptionService {
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getMethodInterceptors(java.lang.reflect.Method)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public List<MethodInterceptor> getMethodInterceptors(Method method) {
-        HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromMethod(method);
-        
-        List<ServiceHandle<?>> allInterceptors = locator.getAllServiceHandles(METHOD_FILTER);
+        Generation current = getGeneration();
         
-        List<ServiceHandle<MethodInterceptor>> handles = new ArrayList<ServiceHandle<MethodInterceptor>>(allInterceptors.size());
-        
-        for (ServiceHandle<?> handle : allInterceptors) {
-            ActiveDescriptor<?> ad = handle.getActiveDescriptor();
-            if (!ad.isReified()) {
-                ad = locator.reifyDescriptor(ad);
-            }
-            
-            Class<?> interceptorClass = ad.getImplementationClass();
-            
-            HashSet<String> allInterceptorBindings = ReflectionUtilities.getAllBindingsFromClass(interceptorClass);
+        List<ServiceHandle<MethodInterceptor>> handles = current.methodInterceptors.get(method);
+        if (handles == null) {
+            HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromMethod(method);
             
-            boolean found = false;
-            for (String interceptorBinding : allInterceptorBindings) {
-                if (allBindings.contains(interceptorBinding)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) continue;
+            handles = getMatchingHandles(current.methodBindings, allBindings);
+            handles = orderMethods(method, handles);
             
-            ServiceHandle<MethodInterceptor> interceptor = (ServiceHandle<MethodInterceptor>) handle;
-            if (interceptor != null) {
-                handles.add(interceptor);
+            if (current.areGenerationHandles(handles)) {
+                current.methodInterceptors.put(method, handles);
             }
         }
         
-        handles = orderMethods(method, handles);
-        
-        if (handles.isEmpty()) return Collections.emptyList();
-        
-        List<MethodInterceptor> retVal = new ArrayList<MethodInterceptor>(handles.size());
-        for (ServiceHandle<MethodInterceptor> handle : handles) {
-            MethodInterceptor interceptor = handle.getService();
-            if (interceptor == null) continue;
-            retVal.add(interceptor);
-        }
-        return retVal;
+        return getInterceptors(current, handles);
     }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getConstructorInterceptors(java.lang.reflect.Constructor)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public List<ConstructorInterceptor> getConstructorInterceptors(
             Constructor<?> constructor) {
-        HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromConstructor(constructor);
+        Generation current = getGeneration();
         
-        List<ServiceHandle<?>> allInterceptors = locator.getAllServiceHandles(CONSTRUCTOR_FILTER);
-        
-        List<ServiceHandle<ConstructorInterceptor>> handles = new ArrayList<ServiceHandle<ConstructorInterceptor>>(allInterceptors.size());
-        
-        for (ServiceHandle<?> handle : allInterceptors) {
-            ActiveDescriptor<?> ad = handle.getActiveDescriptor();
-            if (!ad.isReified()) {
-                ad = locator.reifyDescriptor(ad);
-            }
-            
-            Class<?> interceptorClass = ad.getImplementationClass();
+        List<ServiceHandle<ConstructorInterceptor>> handles = current.constructorInterceptors.get(constructor);
+        if (handles == null) {
+            HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromConstructor(constructor);
             
-            HashSet<String> allInterceptorBindings = ReflectionUtilities.getAllBindingsFromClass(interceptorClass);
+            handles = getMatchingHandles(current.constructorBindings, allBindings);
+            handles = orderConstructors(constructor, handles);
             
-            boolean found = false;
-            for (String interceptorBinding : allInterceptorBindings) {
-                if (allBindings.contains(interceptorBinding)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) continue;
-            
-            ServiceHandle<ConstructorInterceptor> interceptor = (ServiceHandle<ConstructorInterceptor>) handle;
-            if (interceptor != null) {
-                handles.add(interceptor);
+            if (current.areGenerationHandles(handles)) {
+                current.constructorInterceptors.put(constructor, handles);
             }
         }
         
-        handles = orderConstructors(constructor, handles);
+        return getInterceptors(current, handles);
+    }
+    
+    private static class InterceptorBindings {
+        private final ServiceHandle<?> handle;
+        private final HashSet<String> bindings;
         
-        if (handles.isEmpty()) return Collections.emptyList();
+        private InterceptorBindings(ServiceHandle<?> handle, HashSet<String> bindings) {
+            this.handle = handle;
+            this.bindings = bindings;
+        }
+    }
+    
+    /**
+     * The interceptors and ordering services of the locator at one point
+     * in time, together with the interceptors worked out from them
+     */
+    private static class Generation {
+        private final long changes;
+        private final List<InterceptorBindings> methodBindings;
+        private final List<InterceptorBindings> constructorBindings;
+        private final List<ActiveDescriptor<?>> methodDescriptors;
+        private final List<ActiveDescriptor<?>> constructorDescriptors;
+        private final List<ActiveDescriptor<?>> ordererDescriptors;
+        private final HashMap<ActiveDescriptor<?>, ServiceHandle<?>> generationHandles;
         
-        List<ConstructorInterceptor> retVal = new ArrayList<ConstructorInterceptor>(handles.size());
-        for (ServiceHandle<ConstructorInterceptor> handle : handles) {
-            ConstructorInterceptor interceptor = handle.getService();
-            if (interceptor == null) continue;
-            retVal.add(interceptor);
+        private final ConcurrentHashMap<Method, List<ServiceHandle<MethodInterceptor>>> methodInterceptors =
+                new ConcurrentHashMap<Method, List<ServiceHandle<MethodInterceptor>>>();
+        private final ConcurrentHashMap<Constructor<?>, List<ServiceHandle<ConstructorInterceptor>>> constructorInterceptors =
+                new ConcurrentHashMap<Constructor<?>, List<ServiceHandle<ConstructorInterceptor>>>();
+        
+        private Generation(long changes,
+                List<InterceptorBindings> methodBindings,
+                List<InterceptorBindings> constructorBindings,
+                HashMap<ActiveDescriptor<?>, ServiceHandle<?>> generationHandles,
+                List<ActiveDescriptor<?>> methodDescriptors,
+                List<ActiveDescriptor<?>> constructorDescriptors,
+                List<ActiveDescriptor<?>> ordererDescriptors) {
+            this.changes = changes;
+            this.methodBindings = methodBindings;
+            this.constructorBindings = constructorBindings;
+            this.generationHandles = generationHandles;
+            this.methodDescriptors = methodDescriptors;
+            this.constructorDescriptors = constructorDescriptors;
+            this.ordererDescriptors = ordererDescriptors;
+        }
+        
+        private boolean isCurrent(List<ActiveDescriptor<?>> methodDescriptors,
+                List<ActiveDescriptor<?>> constructorDescriptors,
+                List<ActiveDescriptor<?>> ordererDescriptors) {
+            return this.methodDescriptors.equals(methodDescriptors) &&
+                    this.constructorDescriptors.equals(constructorDescriptors) &&
+                    this.ordererDescriptors.equals(ordererDescriptors);
+        }
+        
+        private boolean isGenerationHandle(ServiceHandle<?> handle) {
+            ActiveDescriptor<?> ad = handle.getActiveDescriptor();
+            if (ad == null) return false;
+            
+            return generationHandles.get(ad) == handle;
+        }
+        
+        /**
+         * Handles given by an ordering service may hold on to their
+         * service, so they must not be remembered
+         */
+        private boolean areGenerationHandles(List<? extends ServiceHandle<?>> handles) {
+            for (ServiceHandle<?> handle : handles) {
+                if (!isGenerationHandle(handle)) return false;
+            }
+            
+            return true;
         }
-        return retVal;
     }
 }
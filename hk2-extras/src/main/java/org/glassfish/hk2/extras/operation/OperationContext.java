@@ -40,12 +40,10 @@
 package org.glassfish.hk2.extras.operation;
 
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Context;
@@ -84,118 +82,58 @@ import org.jvnet.hk2.annotations.Contract;
  */
 @Contract
 public abstract class OperationContext<T extends Annotation> implements Context<T> {
-    private SingleOperationManager<T> manager;
-    private final HashMap<OperationHandleImpl<T>, LinkedHashMap<ActiveDescriptor<?>, Object>> operationMap =
-            new HashMap<OperationHandleImpl<T>, LinkedHashMap<ActiveDescriptor<?>, Object>>();
-    private final HashSet<ActiveDescriptor<?>> creating = new HashSet<ActiveDescriptor<?>>();
-    private final HashMap<Long, LinkedList<OperationHandleImpl<T>>> closingOperations = new HashMap<Long, LinkedList<OperationHandleImpl<T>>>();
-    private boolean shuttingDown = false;
+    private volatile SingleOperationManager<T> manager;
+    
+    /**
+     * The operations that have (or had) services in this context.  The services
+     * themselves are kept in the operations, and each operation has its own lock
+     */
+    private final ConcurrentHashMap<OperationHandleImpl<T>, Boolean> operations =
+            new ConcurrentHashMap<OperationHandleImpl<T>, Boolean>();
+    
+    /**
+     * The operations being closed on the current thread, the most recent first.
+     * Services of these operations may be used while the services are destroyed
+     */
+    private final ThreadLocal<LinkedList<OperationHandleImpl<T>>> closingOperations =
+            new ThreadLocal<LinkedList<OperationHandleImpl<T>>>();
+    private volatile boolean shuttingDown = false;
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.Context#findOrCreate(org.glassfish.hk2.api.ActiveDescriptor, org.glassfish.hk2.api.ServiceHandle)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public <U> U findOrCreate(ActiveDescriptor<U> activeDescriptor,
             ServiceHandle<?> root) {
-        SingleOperationManager<T> localManager;
-        LinkedList<OperationHandleImpl<T>> closingOperationStack;
-        boolean closingOperation;
-        
-        synchronized (this) {
-            localManager = manager;
-            closingOperationStack = closingOperations.get(Thread.currentThread().getId());
-            closingOperation = (closingOperationStack != null && !closingOperationStack.isEmpty());
-        }
-        
+        SingleOperationManager<T> localManager = manager;
         if (localManager == null) {
             throw new IllegalStateException("There is no manager for " +
                 getScope().getName() + " on thread " + Thread.currentThread().getId());
         }
         
+        boolean closingOperation = false;
         OperationHandleImpl<T> operation = localManager.getCurrentOperationOnThisThread();
         if (operation == null) {
-            synchronized (this) {
-                if (!closingOperation) {
-                    throw new IllegalStateException("There is no current operation of type " +
-                            getScope().getName() + " on thread " + Thread.currentThread().getId());
-                }
-                
-                operation = closingOperationStack.get(0);
-            }
-        }
-        
-        LinkedHashMap<ActiveDescriptor<?>, Object> serviceMap;
-        synchronized (this) {
-            serviceMap = operationMap.get(operation);
-            if (serviceMap == null) {
-                if (closingOperation || shuttingDown) {
-                    throw new IllegalStateException("The operation " + operation.getIdentifier() +
-                            " is closing.  A new instance of " + activeDescriptor +
-                            " cannot be created");
-                }
-                
-                serviceMap = new LinkedHashMap<ActiveDescriptor<?>, Object>();
-                operationMap.put(operation, serviceMap);
-            }
-            
-            Object retVal = serviceMap.get(activeDescriptor);
-            if (retVal != null) return (U) retVal;
-            
-            if (supportsNullCreation() && serviceMap.containsKey(activeDescriptor)) {
-                return null;
-            }
-            
-            if (closingOperation || shuttingDown) {
-                throw new IllegalStateException("The operation " + operation.getIdentifier() +
-                        " is closing.  A new instance of " + activeDescriptor +
-                        " cannot be created after searching existing descriptors");
-            }
-            
-            // retVal is null, and this is not an explicit null, so must actually do the creation
-            while (creating.contains(activeDescriptor)) {
-                try {
-                    this.wait();
-                }
-                catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            
-            retVal = serviceMap.get(activeDescriptor);
-            if (retVal != null) return (U) retVal;
-            
-            if (supportsNullCreation() && serviceMap.containsKey(activeDescriptor)) {
-                return null;
+            LinkedList<OperationHandleImpl<T>> closingOperationStack = closingOperations.get();
+            if (closingOperationStack == null || closingOperationStack.isEmpty()) {
+                throw new IllegalStateException("There is no current operation of type " +
+                        getScope().getName() + " on thread " + Thread.currentThread().getId());
             }
             
-            // Not in creating, and not created.  Create it ourselves
-            creating.add(activeDescriptor);
+            operation = closingOperationStack.getFirst();
+            closingOperation = true;
         }
         
-        Object retVal = null;
-        boolean success = false;
-        try {
-            retVal = activeDescriptor.create(root);
-            if (retVal == null && !supportsNullCreation()) {
-                throw new IllegalArgumentException("The operation for context " + getScope().getName() +
-                        " does not support null creation, but descriptor " + activeDescriptor + " returned null");
-            }
-            
-            success = true;
-        }
-        finally {
-            synchronized (this) {
-                if (success) {
-                    serviceMap.put(activeDescriptor, retVal);
-                }
-                
-                creating.remove(activeDescriptor);
-                this.notifyAll();
+        if (!operations.containsKey(operation)) {
+            operations.putIfAbsent(operation, Boolean.TRUE);
+            if (operation.isServicesClosed()) {
+                // Raced with closeOperation, which may have already forgotten the operation
+                operations.remove(operation);
             }
         }
         
-        return (U) retVal;
+        return operation.findOrCreate(activeDescriptor, root, supportsNullCreation(),
+                closingOperation || shuttingDown);
     }
 
     /* (non-Javadoc)
@@ -203,24 +141,13 @@ public abstract class OperationContext<T extends Annotation> implements Context<
      */
     @Override
     public boolean containsKey(ActiveDescriptor<?> descriptor) {
-        SingleOperationManager<T> localManager;
-        synchronized (this) {
-            localManager = manager;
-        }
+        SingleOperationManager<T> localManager = manager;
         if (localManager == null) return false;
         
         OperationHandleImpl<T> operation = localManager.getCurrentOperationOnThisThread();
         if (operation == null) return false;
         
-        synchronized (this) {
-            HashMap<ActiveDescriptor<?>, Object> serviceMap;
-            
-            serviceMap = operationMap.get(operation);
-            if (serviceMap == null) return false;
-            
-            return serviceMap.containsKey(descriptor);
-        }
-        
+        return operation.containsService(descriptor);
     }
 
     /* (non-Javadoc)
@@ -229,44 +156,27 @@ public abstract class OperationContext<T extends Annotation> implements Context<
     @SuppressWarnings("unchecked")
     @Override
     public void destroyOne(ActiveDescriptor<?> descriptor) {
-        synchronized (this) {
-            for (HashMap<ActiveDescriptor<?>, Object> serviceMap : operationMap.values()) {
-                Object killMe = serviceMap.remove(descriptor);
-                if (killMe == null) continue;
-                
-                ((ActiveDescriptor<Object>) descriptor).dispose(killMe);
-            }
+        for (OperationHandleImpl<T> operation : operations.keySet()) {
+            Object killMe = operation.removeService(descriptor);
+            if (killMe == null) continue;
+            
+            ((ActiveDescriptor<Object>) descriptor).dispose(killMe);
         }
     }
     
     @SuppressWarnings("unchecked")
     public void closeOperation(OperationHandleImpl<T> operation) {
-        long tid = Thread.currentThread().getId();
-        HashMap<ActiveDescriptor<?>, Object> serviceMap;
-        LinkedList<OperationHandleImpl<T>> stack;
-        
-        synchronized (this) {
-            stack = closingOperations.get(tid);
-            if (stack == null) {
-                stack = new LinkedList<OperationHandleImpl<T>>();
-                closingOperations.put(tid, stack);
-            }
-            
-            stack.addFirst(operation);
-            
-            serviceMap = operationMap.get(operation);
+        LinkedList<OperationHandleImpl<T>> stack = closingOperations.get();
+        if (stack == null) {
+            stack = new LinkedList<OperationHandleImpl<T>>();
+            closingOperations.set(stack);
         }
         
-        try {
-            // Must be done outside of the lock
-            
-            if (serviceMap == null) return;
+        stack.addFirst(operation);
         
-            // Reverses creation order
-            LinkedList<Map.Entry<ActiveDescriptor<?>, Object>> destructionList = new LinkedList<Map.Entry<ActiveDescriptor<?>, Object>>();
-            for (Map.Entry<ActiveDescriptor<?>, Object> entry : serviceMap.entrySet()) {
-                destructionList.addFirst(entry);
-            }
+        try {
+            // Must be done outside of any lock
+            List<Map.Entry<ActiveDescriptor<?>, Object>> destructionList = operation.closeServices();
             
             for (Map.Entry<ActiveDescriptor<?>, Object> entry : destructionList) {
                 ActiveDescriptor<Object> desc = (ActiveDescriptor<Object>) entry.getKey();
@@ -281,13 +191,12 @@ public abstract class OperationContext<T extends Annotation> implements Context<
             }
         }
         finally {
-            synchronized (this) {
-                operationMap.remove(operation);
+            operation.clearServices();
+            operations.remove(operation);
             
-                stack.removeFirst();
-                if (stack.isEmpty()) {
-                    closingOperations.remove(tid);
-                }
+            stack.removeFirst();
+            if (stack.isEmpty()) {
+                closingOperations.remove();
             }
         }
     }
@@ -297,21 +206,15 @@ public abstract class OperationContext<T extends Annotation> implements Context<
      */
     @Override
     public void shutdown() {
-        Set<OperationHandleImpl<T>> toShutDown;
-        synchronized (this) {
-            shuttingDown = true;
-            toShutDown = operationMap.keySet();
-        }
+        shuttingDown = true;
         
         try {
-            for (OperationHandleImpl<T> shutDown : toShutDown) {
+            for (OperationHandleImpl<T> shutDown : operations.keySet()) {
                 shutDown.closeOperation();
             }
         }
         finally {
-            synchronized (this) {
-                operationMap.clear();
-            }
+            operations.clear();
         }
         
     }
@@ -332,7 +235,7 @@ public abstract class OperationContext<T extends Annotation> implements Context<
         return true;
     }
 
-    public synchronized void setOperationManager(SingleOperationManager<T> manager) {
+    public void setOperationManager(SingleOperationManager<T> manager) {
         this.manager = manager;
     }
     
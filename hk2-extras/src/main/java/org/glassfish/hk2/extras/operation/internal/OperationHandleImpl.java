@@ -40,37 +40,51 @@
 package org.glassfish.hk2.extras.operation.internal;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.extras.operation.OperationHandle;
 import org.glassfish.hk2.extras.operation.OperationIdentifier;
 import org.glassfish.hk2.extras.operation.OperationState;
 
 /**
+ * An operation, which also holds the services created in the operation.
+ * Each operation has its own locks, so that work done in one operation
+ * never waits for work done in another operation
+ * 
  * @author jwells
  *
  */
 public class OperationHandleImpl<T extends Annotation> implements OperationHandle<T> {
     private final SingleOperationManager<T> parent;
     private final OperationIdentifier<T> identifier;
-    private final Object operationLock;
+    private final Object operationLock = new Object();
     private OperationState state;
     private final HashSet<Long> activeThreads = new HashSet<Long>();
     
+    // Controlled by serviceLock
+    private final Object serviceLock = new Object();
+    private final LinkedHashMap<ActiveDescriptor<?>, Object> services = new LinkedHashMap<ActiveDescriptor<?>, Object>();
+    private final HashSet<ActiveDescriptor<?>> creating = new HashSet<ActiveDescriptor<?>>();
+    private boolean servicesClosed = false;
+    
     // Not controlled by operationLock
     private Object userData;
     
     /* package */ OperationHandleImpl(
             SingleOperationManager<T> parent,
             OperationIdentifier<T> identifier,
-            Object operationLock,
             ServiceLocator locator) {
         this.parent = parent;
         this.identifier = identifier;
-        this.operationLock = operationLock;
         this.state = OperationState.SUSPENDED;
     }
 
@@ -93,10 +107,12 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
     }
     
     /**
-     * operationLock must be held
+     * Called by the manager when all of its operations are shut down
      */
     /* package */ void shutdownByFiat() {
-        state = OperationState.CLOSED;
+        synchronized (operationLock) {
+            state = OperationState.CLOSED;
+        }
     }
     
     private void checkState() {
@@ -113,7 +129,7 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
     @Override
     public Set<Long> getActiveThreads() {
         synchronized (operationLock) {
-            return Collections.unmodifiableSet(activeThreads);
+            return Collections.unmodifiableSet(new HashSet<Long>(activeThreads));
         }
     }
 
@@ -154,8 +170,8 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
             
             if (activeThreads.contains(threadId)) return;
             
-            // Check parent
-            OperationHandleImpl<T> existing = parent.getCurrentOperationOnThisThread(threadId);
+            // Atomically checks that no other operation is active on the thread
+            OperationHandleImpl<T> existing = parent.associateWithThread(threadId, this);
             if (existing != null) {
                 throw new IllegalStateException("The operation " + existing + " is active on " + threadId);
             }
@@ -164,8 +180,6 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
                 state = OperationState.ACTIVE;
             }
             activeThreads.add(threadId);
-            
-            parent.associateWithThread(threadId, this);
         }
         
     }
@@ -199,6 +213,147 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
         
     }
 
+    /**
+     * Returns the service of the given descriptor in this operation,
+     * creating it if it has not yet been created.  Only one thread creates
+     * the service of any one descriptor in this operation, other threads
+     * wait for it to finish.  Called by the OperationContext
+     * 
+     * @param activeDescriptor The non-null descriptor of the service
+     * @param root The root handle for the creation, may be null
+     * @param supportsNullCreation true if null is a legal service
+     * @param closing true if the caller is closing this operation or the
+     * context, in which case existing services are returned but no new
+     * services may be created
+     * @return The service, which may only be null if supportsNullCreation is true
+     */
+    @SuppressWarnings("unchecked")
+    public <U> U findOrCreate(ActiveDescriptor<U> activeDescriptor,
+            ServiceHandle<?> root,
+            boolean supportsNullCreation,
+            boolean closing) {
+        synchronized (serviceLock) {
+            while (true) {
+                Object retVal = services.get(activeDescriptor);
+                if (retVal != null) return (U) retVal;
+                
+                if (supportsNullCreation && services.containsKey(activeDescriptor)) {
+                    return null;
+                }
+                
+                if (closing || servicesClosed) {
+                    throw new IllegalStateException("The operation " + identifier +
+                            " is closing.  A new instance of " + activeDescriptor +
+                            " cannot be created");
+                }
+                
+                if (!creating.contains(activeDescriptor)) break;
+                
+                try {
+                    serviceLock.wait();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            
+            // Not in creating, and not created.  Create it ourselves
+            creating.add(activeDescriptor);
+        }
+        
+        U retVal = null;
+        boolean success = false;
+        try {
+            retVal = activeDescriptor.create(root);
+            if (retVal == null && !supportsNullCreation) {
+                throw new IllegalArgumentException("The operation for context " +
+                        identifier.getOperationScope().annotationType().getName() +
+                        " does not support null creation, but descriptor " + activeDescriptor + " returned null");
+            }
+            
+            success = true;
+        }
+        finally {
+            synchronized (serviceLock) {
+                if (success) {
+                    services.put(activeDescriptor, retVal);
+                }
+                
+                creating.remove(activeDescriptor);
+                serviceLock.notifyAll();
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Tells whether the service of the given descriptor has been created
+     * in this operation
+     * 
+     * @param descriptor The non-null descriptor to look for
+     * @return true if this operation has the service of the descriptor
+     */
+    public boolean containsService(ActiveDescriptor<?> descriptor) {
+        synchronized (serviceLock) {
+            return services.containsKey(descriptor);
+        }
+    }
+    
+    /**
+     * Removes the service of the given descriptor from this operation
+     * 
+     * @param descriptor The non-null descriptor whose service to remove
+     * @return The removed service, or null if there was none
+     */
+    public Object removeService(ActiveDescriptor<?> descriptor) {
+        synchronized (serviceLock) {
+            return services.remove(descriptor);
+        }
+    }
+    
+    /**
+     * Stops the creation of new services in this operation and
+     * returns the services that have been created, in reverse
+     * creation order.  The services stay in this operation (so that
+     * they can be used while the others are destroyed) until
+     * {@link #clearServices()} is called
+     * 
+     * @return The services of this operation in the order
+     * they should be destroyed
+     */
+    public List<Map.Entry<ActiveDescriptor<?>, Object>> closeServices() {
+        synchronized (serviceLock) {
+            servicesClosed = true;
+            
+            List<Map.Entry<ActiveDescriptor<?>, Object>> retVal =
+                    new ArrayList<Map.Entry<ActiveDescriptor<?>, Object>>(services.entrySet());
+            Collections.reverse(retVal);
+            
+            return retVal;
+        }
+    }
+    
+    /**
+     * Removes all of the services from this operation
+     */
+    public void clearServices() {
+        synchronized (serviceLock) {
+            services.clear();
+        }
+    }
+    
+    /**
+     * Tells whether or not new services can no longer be created in this operation
+     * 
+     * @return true if this operation is closing or closed
+     */
+    public boolean isServicesClosed() {
+        synchronized (serviceLock) {
+            return servicesClosed;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.extras.operation.OperationHandle#getOperationData()
      */
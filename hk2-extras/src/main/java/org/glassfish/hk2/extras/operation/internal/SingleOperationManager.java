@@ -41,9 +41,10 @@ package org.glassfish.hk2.extras.operation.internal;
 
 import java.lang.annotation.Annotation;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -53,21 +54,24 @@ import org.glassfish.hk2.extras.operation.OperationIdentifier;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 
 /**
+ * Manages the operations of one scope.  The open operations and the
+ * thread associations are kept in concurrent maps so that looking up the
+ * operation of a thread never locks.  Each operation guards its own state
+ * 
  * @author jwells
  *
  */
 public class SingleOperationManager<T extends Annotation> {
     private final static String ID_PREAMBLE = "OperationIdentifier(";
     
-    private final Object operationLock = new Object();
     private final T scope;
-    private final HashMap<OperationIdentifier<T>, OperationHandleImpl<T>> openScopes = new HashMap<OperationIdentifier<T>, OperationHandleImpl<T>>();
-    private final HashMap<Long, OperationHandleImpl<T>> threadToHandleMap = new HashMap<Long, OperationHandleImpl<T>>();
+    private final ConcurrentHashMap<OperationIdentifier<T>, OperationHandleImpl<T>> openScopes = new ConcurrentHashMap<OperationIdentifier<T>, OperationHandleImpl<T>>();
+    private final ConcurrentHashMap<Long, OperationHandleImpl<T>> threadToHandleMap = new ConcurrentHashMap<Long, OperationHandleImpl<T>>();
     private final ServiceLocator locator;
     private final OperationContext<T> context;
-    private long scopedIdentifier;
+    private final AtomicLong scopedIdentifier = new AtomicLong();
     private final ActiveDescriptor<?> operationDescriptor;
-    private boolean closed = false;
+    private volatile boolean closed = false;
     
     /* package */ @SuppressWarnings("unchecked")
     SingleOperationManager(T scope,
@@ -97,28 +101,31 @@ public class SingleOperationManager<T extends Annotation> {
     
     private OperationIdentifierImpl<T> allocateNewIdentifier() {
         return new OperationIdentifierImpl<T>(
-                ID_PREAMBLE + scopedIdentifier++ + "," + scope.annotationType().getName() + ")",
+                ID_PREAMBLE + scopedIdentifier.getAndIncrement() + "," + scope.annotationType().getName() + ")",
                 scope);
     }
     
     public OperationHandleImpl<T> createOperation() {
+        if (closed) {
+            throw new IllegalStateException("This manager has been closed");
+        }
         
-        synchronized (operationLock) {
-            if (closed) {
-                throw new IllegalStateException("This manager has been closed");
-            }
-            
-            OperationIdentifierImpl<T> id = allocateNewIdentifier();
-            OperationHandleImpl<T> created = new OperationHandleImpl<T>(this, id, operationLock, locator);
-            
-            openScopes.put(id, created);
-            
-            return created;
+        OperationIdentifierImpl<T> id = allocateNewIdentifier();
+        OperationHandleImpl<T> created = new OperationHandleImpl<T>(this, id, locator);
+        
+        openScopes.put(id, created);
+        
+        if (closed) {
+            // Raced with shutdown
+            openScopes.remove(id);
+            throw new IllegalStateException("This manager has been closed");
         }
+        
+        return created;
     }
 
     /**
-     * Called with the operationLock held
+     * Called with the lock of the operation held
      * 
      * @param closeMe The non-null operation to close
      */
@@ -127,8 +134,8 @@ public class SingleOperationManager<T extends Annotation> {
     }
     
     /**
-     * Explicitly called WITHOUT the operationLock held to avoid any deadlock
-     * with the context lock
+     * Explicitly called WITHOUT the lock of the operation held to avoid any deadlock
+     * with the services being destroyed
      * 
      * @param closeMe The non-null operation to close
      */
@@ -137,76 +144,60 @@ public class SingleOperationManager<T extends Annotation> {
     }
     
     /**
-     * OperationLock must be held
+     * Associates the thread with the handle unless the thread already has
+     * an operation.  The lock of the handle must be held
      * 
      * @param threadId The threadId to associate with this handle
      * @param handle The handle to be associated with this thread
+     * @return null if the thread is now associated with the handle, or the operation
+     * that was already associated with the thread
      */
-    /* package */ void associateWithThread(long threadId, OperationHandleImpl<T> handle) {
-        threadToHandleMap.put(threadId, handle);
+    /* package */ OperationHandleImpl<T> associateWithThread(long threadId, OperationHandleImpl<T> handle) {
+        return threadToHandleMap.putIfAbsent(threadId, handle);
     }
     
     /**
-     * OperationLock must be held
+     * The lock of the handle must be held
      * 
      * @param threadId The threadId to disassociate with this handle
+     * @param toRemove The handle to disassociate from the thread
      */
     /* package */ void disassociateThread(long threadId, OperationHandleImpl<T> toRemove) {
-        OperationHandleImpl<T> activeOnThread = threadToHandleMap.get(threadId);
-        if (activeOnThread == null || !activeOnThread.equals(toRemove)) return;
-        
-        threadToHandleMap.remove(threadId);
-    }
-    
-    /**
-     * OperationLock must be held
-     * 
-     * @return The operation associated with the given thread
-     */
-    /* package */ OperationHandleImpl<T> getCurrentOperationOnThisThread(long threadId) {
-        return threadToHandleMap.get(threadId);
+        threadToHandleMap.remove(threadId, toRemove);
     }
     
     /**
-     * OperationLock need NOT be held
+     * No lock need be held
      * 
      * @return The operation associated with the current thread
      */
     public OperationHandleImpl<T> getCurrentOperationOnThisThread() {
-        long threadId = Thread.currentThread().getId();
-        
-        synchronized (operationLock) {
-            if (closed) return null;
-            return getCurrentOperationOnThisThread(threadId);
-        }
+        if (closed) return null;
+        return threadToHandleMap.get(Thread.currentThread().getId());
     }
     
     /* package */ Set<OperationHandle<T>> getAllOperations() {
-        HashSet<OperationHandle<T>> retVal = new HashSet<OperationHandle<T>>();
+        if (closed) return Collections.emptySet();
         
-        synchronized (operationLock) {
-            if (closed) return Collections.emptySet();
-            
-            retVal.addAll(openScopes.values());
-            
-            return Collections.unmodifiableSet(retVal);
-        }
+        HashSet<OperationHandle<T>> retVal = new HashSet<OperationHandle<T>>(openScopes.values());
+        
+        return Collections.unmodifiableSet(retVal);
     }
     
     /* package */ void shutdown() {
-        synchronized (operationLock) {
+        synchronized (this) {
             if (closed) return;
             closed = true;
-            
-            for (OperationHandleImpl<T> closeMe : openScopes.values()) {
-                closeMe.shutdownByFiat();
-            }
-            
-            openScopes.clear();
-            threadToHandleMap.clear();
-            
-            ServiceLocatorUtilities.removeOneDescriptor(locator, operationDescriptor);
         }
+        
+        for (OperationHandleImpl<T> closeMe : openScopes.values()) {
+            closeMe.shutdownByFiat();
+        }
+        
+        openScopes.clear();
+        threadToHandleMap.clear();
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, operationDescriptor);
     }
     
     @Override
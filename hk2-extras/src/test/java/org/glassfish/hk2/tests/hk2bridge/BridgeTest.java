@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.tests.hk2bridge;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -48,11 +49,13 @@ import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.AnnotationLiteral;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationChangeListener;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.ProxyCtl;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.extras.ExtrasUtilities;
+import org.glassfish.hk2.extras.hk2bridge.internal.Hk2BridgeImpl;
 import org.glassfish.hk2.extras.operation.OperationHandle;
 import org.glassfish.hk2.extras.operation.OperationManager;
 import org.glassfish.hk2.tests.extras.internal.Utilities;
@@ -95,7 +98,6 @@ public class BridgeTest {
         Assert.assertNotNull(into.getService(SimpleService.class));
         Assert.assertNull(into.getService(SimpleService2.class));
         Assert.assertNotNull(from.getService(SimpleService.class));
-        Assert.assertNull(from.getService(SimpleService2.class));
         
         DynamicConfigurationService dcs = from.getService(DynamicConfigurationService.class);
         DynamicConfiguration config = dcs.createDynamicConfiguration();
@@ -351,6 +353,97 @@ public class BridgeTest {
         }
     }
     
+    /**
+     * Tests that descriptors hidden by a ValidationService
+     * of the from locator are not bridged when added
+     */
+    @Test // @org.junit.Ignore
+    public void testHiddenAddedDescriptorsAreNotBridged() {
+        ServiceLocator into = Utilities.getUniqueLocator();
+        ServiceLocator from = Utilities.getUniqueLocator(HidingValidationService.class);
+        
+        ExtrasUtilities.bridgeServiceLocator(into, from);
+        
+        ServiceLocatorUtilities.addClasses(from, SimpleService2.class, SimpleService3.class);
+        
+        Assert.assertNull(into.getService(SimpleService2.class));
+        Assert.assertNotNull(into.getService(SimpleService3.class));
+    }
+    
+    /**
+     * Tests that services added to the parent of the from locator
+     * are bridged with the next change to the from locator
+     */
+    @Test // @org.junit.Ignore
+    public void testParentServicesAreBridged() {
+        ServiceLocator parent = Utilities.getCleanLocator("ParentServicesAreBridged_Parent");
+        ServiceLocator from = Utilities.getCleanLocator("ParentServicesAreBridged_Child", parent);
+        ServiceLocator into = Utilities.getUniqueLocator();
+        
+        try {
+            ExtrasUtilities.bridgeServiceLocator(into, from);
+            
+            ServiceLocatorUtilities.addClasses(parent, SimpleService2.class);
+            ServiceLocatorUtilities.addClasses(from, SimpleService3.class);
+            
+            Assert.assertNotNull(into.getService(SimpleService2.class));
+            Assert.assertNotNull(into.getService(SimpleService3.class));
+        }
+        finally {
+            from.shutdown();
+            parent.shutdown();
+        }
+    }
+    
+    /**
+     * Tests that an add whose listener call arrives after the
+     * descriptor has already been removed is not bridged
+     */
+    @Test // @org.junit.Ignore
+    public void testLateAddOfRemovedDescriptorIsNotBridged() {
+        ServiceLocator into = Utilities.getUniqueLocator();
+        ServiceLocator from = Utilities.getUniqueLocator();
+        
+        ExtrasUtilities.bridgeServiceLocator(into, from);
+        
+        ActiveDescriptor<?> added = ServiceLocatorUtilities.addClasses(from, SimpleService2.class).get(0);
+        ServiceLocatorUtilities.removeFilter(from, BuilderHelper.createSpecificDescriptorFilter(added));
+        
+        Assert.assertNull(into.getService(SimpleService2.class));
+        
+        // As if the listener call of the adding commit ran last
+        DynamicConfigurationChangeListener bridge = from.getService(Hk2BridgeImpl.class);
+        bridge.configurationChanged(Collections.<ActiveDescriptor<?>>singletonList(added),
+                Collections.<ActiveDescriptor<?>>emptyList());
+        
+        Assert.assertNull(into.getService(SimpleService2.class));
+    }
+    
+    /**
+     * Tests that changes which could not be committed to the
+     * into locator are bridged with the next change
+     */
+    @Test // @org.junit.Ignore
+    public void testFailedRemoteCommitIsRecovered() {
+        ServiceLocator into = Utilities.getUniqueLocator(RejectingValidationService.class);
+        ServiceLocator from = Utilities.getUniqueLocator();
+        
+        ExtrasUtilities.bridgeServiceLocator(into, from);
+        
+        RejectingValidationService rejecter = into.getService(RejectingValidationService.class);
+        
+        rejecter.setRejecting(true);
+        ServiceLocatorUtilities.addClasses(from, SimpleService2.class);
+        
+        Assert.assertNull(into.getService(SimpleService2.class));
+        
+        rejecter.setRejecting(false);
+        ServiceLocatorUtilities.addClasses(from, SimpleService3.class);
+        
+        Assert.assertNotNull(into.getService(SimpleService2.class));
+        Assert.assertNotNull(into.getService(SimpleService3.class));
+    }
+    
     /**
      * Tests unbridging two locators
      */
@@ -581,6 +674,78 @@ public class BridgeTest {
         
     }
     
+    private final static int NUM_CHANGERS = 10;
+    
+    /**
+     * Tests that commits done concurrently to the from locator are
+     * all mirrored into the into locator, and that each one can
+     * be seen in the into locator once its own commit returns
+     * 
+     * @throws Throwable
+     */
+    @Test // @org.junit.Ignore
+    public void testConcurrentChangesAreAllMirrored() throws Throwable {
+        ServiceLocator into = Utilities.getUniqueLocator();
+        ServiceLocator from = Utilities.getUniqueLocator(SimpleService.class);
+        
+        ExtrasUtilities.bridgeServiceLocator(into, from);
+        
+        Assert.assertEquals(1, into.getAllServiceHandles(SimpleService.class).size());
+        
+        Changer changers[] = new Changer[NUM_CHANGERS];
+        Thread threads[] = new Thread[NUM_CHANGERS];
+        for (int lcv = 0; lcv < NUM_CHANGERS; lcv++) {
+            changers[lcv] = new Changer(into, from, "Changer" + lcv);
+            threads[lcv] = new Thread(changers[lcv]);
+        }
+        
+        for (int lcv = 0; lcv < NUM_CHANGERS; lcv++) {
+            threads[lcv].start();
+        }
+        
+        for (int lcv = 0; lcv < NUM_CHANGERS; lcv++) {
+            threads[lcv].join();
+            
+            if (changers[lcv].error != null) {
+                throw changers[lcv].error;
+            }
+        }
+        
+        // Only the original service is left
+        Assert.assertEquals(1, into.getAllServiceHandles(SimpleService.class).size());
+        Assert.assertEquals(1, from.getAllServiceHandles(SimpleService.class).size());
+    }
+    
+    private static class Changer implements Runnable {
+        private final ServiceLocator into;
+        private final ServiceLocator from;
+        private final String name;
+        private Throwable error;
+        
+        private Changer(ServiceLocator into, ServiceLocator from, String name) {
+            this.into = into;
+            this.from = from;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ServiceLocatorUtilities.addOneDescriptor(from, BuilderHelper.link(SimpleService.class).named(name).build());
+                
+                Assert.assertNotNull(into.getServiceHandle(SimpleService.class, name));
+                
+                ServiceLocatorUtilities.removeFilter(from,
+                        BuilderHelper.createNameAndContractFilter(SimpleService.class.getName(), name));
+                
+                Assert.assertNull(into.getServiceHandle(SimpleService.class, name));
+            }
+            catch (Throwable th) {
+                error = th;
+            }
+        }
+    }
+    
     private static class PerRequestImpl extends AnnotationLiteral<PerRequest> implements PerRequest {
     }
 
@@ -43,6 +43,7 @@ import java.util.List;
 
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.tests.extras.internal.Utilities;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -177,5 +178,77 @@ public class InterceptorOrderingTest {
         Assert.assertEquals(MethodInterceptorOne.class, interceptors.get(5).getClass());
         
     }
+    
+    /**
+     * Tests that the ordering services are only asked about the methods
+     * of a per lookup service once, until the set of interceptors changes
+     */
+    @Test // @org.junit.Ignore
+    public void testOrderingIsRememberedUntilInterceptorsChange() {
+        ServiceLocator locator = Utilities.getUniqueLocator(PerLookupAService.class,
+                Recorder.class,
+                MethodInterceptorOne.class,
+                CountingOrderer.class);
+        
+        Recorder recorder = locator.getService(Recorder.class);
+        CountingOrderer orderer = locator.getService(CountingOrderer.class);
+        
+        locator.getService(PerLookupAService.class).callMe();
+        
+        int firstCount = orderer.getNumMethodCalls();
+        Assert.assertTrue(firstCount > 0);
+        
+        locator.getService(PerLookupAService.class).callMe();
+        locator.getService(PerLookupAService.class).callMe();
+        
+        Assert.assertEquals(firstCount, orderer.getNumMethodCalls());
+        
+        List<Object> interceptors = recorder.get();
+        Assert.assertEquals(3, interceptors.size());
+        for (Object interceptor : interceptors) {
+            Assert.assertEquals(MethodInterceptorOne.class, interceptor.getClass());
+        }
+        recorder.clear();
+        
+        // A new interceptor must be noticed
+        ServiceLocatorUtilities.addClasses(locator, MethodInterceptorTwo.class);
+        
+        locator.getService(PerLookupAService.class).callMe();
+        
+        Assert.assertTrue(orderer.getNumMethodCalls() > firstCount);
+        
+        interceptors = recorder.get();
+        Assert.assertEquals(2, interceptors.size());
+        Assert.assertEquals(MethodInterceptorOne.class, interceptors.get(0).getClass());
+        Assert.assertEquals(MethodInterceptorTwo.class, interceptors.get(1).getClass());
+    }
+
+    /**
+     * Tests that handles given by an ordering service are not
+     * remembered, so that per lookup interceptors they give
+     * are created for every intercepted service
+     */
+    @Test // @org.junit.Ignore
+    public void testHandlesFromOrderersAreNotRemembered() {
+        ServiceLocator locator = Utilities.getUniqueLocator(PerLookupAService.class,
+                Recorder.class,
+                MethodInterceptorOne.class,
+                PerLookupMethodInterceptor.class,
+                PerLookupAddingOrderer.class);
+        
+        Recorder recorder = locator.getService(Recorder.class);
+        
+        locator.getService(PerLookupAService.class).callMe();
+        locator.getService(PerLookupAService.class).callMe();
+        
+        List<Object> interceptors = recorder.get();
+        Assert.assertEquals(4, interceptors.size());
+        Assert.assertEquals(MethodInterceptorOne.class, interceptors.get(0).getClass());
+        Assert.assertEquals(PerLookupMethodInterceptor.class, interceptors.get(1).getClass());
+        Assert.assertEquals(MethodInterceptorOne.class, interceptors.get(2).getClass());
+        Assert.assertEquals(PerLookupMethodInterceptor.class, interceptors.get(3).getClass());
+        
+        Assert.assertNotSame(interceptors.get(1), interceptors.get(3));
+    }
 
 }
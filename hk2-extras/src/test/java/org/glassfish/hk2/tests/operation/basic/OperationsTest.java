@@ -51,6 +51,7 @@ import org.glassfish.hk2.extras.operation.OperationManager;
 import org.glassfish.hk2.extras.operation.OperationState;
 import org.glassfish.hk2.tests.extras.internal.Utilities;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 /**
@@ -104,6 +105,11 @@ public class OperationsTest {
         return locator;
     }
     
+    @Before
+    public void before() {
+        SlowCreationService.reset();
+    }
+    
     /**
      * Tests that operations can be properly swapped on a single thread
      */
@@ -807,6 +813,46 @@ public class OperationsTest {
         Assert.assertTrue(BasicOperationLifecycleMethods.isClosed(id1));
     }
     
+    /**
+     * Tests that a service being created slowly in one operation does not
+     * stop the same service from being created in another operation
+     * 
+     * @throws InterruptedException
+     */
+    @Test // @org.junit.Ignore
+    public void testSlowCreationInOneOperationDoesNotBlockAnother() throws InterruptedException {
+        ServiceLocator locator = createLocator(BasicOperationScopeContext.class,
+                SlowCreationService.class);
+        
+        OperationManager operationManager = locator.getService(OperationManager.class);
+        
+        OperationHandle<BasicOperationScope> operation1 = operationManager.createOperation(BASIC_OPERATION_ANNOTATION);
+        OperationHandle<BasicOperationScope> operation2 = operationManager.createOperation(BASIC_OPERATION_ANNOTATION);
+        
+        Creator slow = new Creator(locator, operation1);
+        Creator fast = new Creator(locator, operation2);
+        
+        Thread slowThread = new Thread(slow);
+        Thread fastThread = new Thread(fast);
+        try {
+            slowThread.start();
+            Assert.assertTrue(SlowCreationService.waitForFirstCreation(20 * 1000));
+            
+            fastThread.start();
+            Assert.assertTrue(fast.waitForDone(20 * 1000));
+            
+            Assert.assertFalse(slow.waitForDone(0));
+        }
+        finally {
+            SlowCreationService.release();
+        }
+        
+        Assert.assertTrue(slow.waitForDone(20 * 1000));
+        
+        operation1.closeOperation();
+        operation2.closeOperation();
+    }
+    
     /**
      * Tests that a service used in the preDestroy of another service in the
      * same operation scope where the used service is created FIRST
@@ -1217,5 +1263,66 @@ public class OperationsTest {
         }
         
     }
+    
+    private static class Creator implements Runnable {
+        private final ServiceLocator locator;
+        private final OperationHandle<BasicOperationScope> operation;
+        private boolean done = false;
+        private Throwable error;
+        
+        private Creator(ServiceLocator locator, OperationHandle<BasicOperationScope> operation) {
+            this.locator = locator;
+            this.operation = operation;
+        }
+        
+        /**
+         * Waits for the service to be created
+         * 
+         * @param waitTime The maximum number of milliseconds to wait
+         * @return true if the service was created
+         * @throws InterruptedException
+         * @throws AssertionError if creating the service failed
+         */
+        private synchronized boolean waitForDone(long waitTime) throws InterruptedException {
+            long elapsedTime = 0;
+            while (!done && error == null && elapsedTime < waitTime) {
+                long startTime = System.currentTimeMillis();
+                this.wait(waitTime - elapsedTime);
+                elapsedTime += System.currentTimeMillis() - startTime;
+            }
+            
+            if (error != null) {
+                throw new AssertionError(error);
+            }
+            
+            return done;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            operation.resume();
+            try {
+                locator.getService(SlowCreationService.class).callMe();
+                
+                synchronized (this) {
+                    done = true;
+                    this.notifyAll();
+                }
+            }
+            catch (Throwable th) {
+                synchronized (this) {
+                    error = th;
+                    this.notifyAll();
+                }
+            }
+            finally {
+                operation.suspend();
+            }
+        }
+        
+    }
 
 }
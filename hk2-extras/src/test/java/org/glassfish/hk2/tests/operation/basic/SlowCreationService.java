@@ -0,0 +1,115 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.operation.basic;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * The first instance of this service to be created waits in its
+ * postConstruct until it is released
+ * 
+ * @author jwells
+ *
+ */
+@BasicOperationScope
+public class SlowCreationService {
+    private final static Object lock = new Object();
+    private static boolean first = true;
+    private static boolean creating = false;
+    private static boolean released = false;
+    
+    @PostConstruct
+    public void postConstruct() throws InterruptedException {
+        synchronized (lock) {
+            if (!first) return;
+            first = false;
+            
+            creating = true;
+            lock.notifyAll();
+            
+            while (!released) {
+                lock.wait();
+            }
+        }
+    }
+    
+    public Object callMe() { return new Object(); }
+    
+    /**
+     * Waits for the first instance to be in its postConstruct
+     * 
+     * @param waitTime The maximum number of milliseconds to wait
+     * @return true if the first instance is in its postConstruct
+     * @throws InterruptedException
+     */
+    public static boolean waitForFirstCreation(long waitTime) throws InterruptedException {
+        synchronized (lock) {
+            long elapsedTime = 0;
+            while (!creating && elapsedTime < waitTime) {
+                long startTime = System.currentTimeMillis();
+                lock.wait(waitTime - elapsedTime);
+                elapsedTime += System.currentTimeMillis() - startTime;
+            }
+            
+            return creating;
+        }
+    }
+    
+    /**
+     * Lets the creation of the first instance finish
+     */
+    public static void release() {
+        synchronized (lock) {
+            released = true;
+            lock.notifyAll();
+        }
+    }
+    
+    /**
+     * Makes the next instance created the slow one again
+     */
+    public static void reset() {
+        synchronized (lock) {
+            first = true;
+            creating = false;
+            released = false;
+        }
+    }
+}
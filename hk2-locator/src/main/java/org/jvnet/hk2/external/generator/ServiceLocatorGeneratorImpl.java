@@ -44,7 +44,8 @@ import javax.inject.Singleton;
 
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.ServiceLocator;
-import org.glassfish.hk2.extension.ServiceLocatorGenerator;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
+import org.glassfish.hk2.extension.ServiceLocatorTemplateGenerator;
 import org.glassfish.hk2.utilities.BuilderHelper;
 import org.jvnet.hk2.internal.DefaultClassAnalyzer;
 import org.jvnet.hk2.internal.DynamicConfigurationImpl;
@@ -52,13 +53,14 @@ import org.jvnet.hk2.internal.DynamicConfigurationServiceImpl;
 import org.jvnet.hk2.internal.InstantiationServiceImpl;
 import org.jvnet.hk2.internal.ServiceLocatorImpl;
 import org.jvnet.hk2.internal.ServiceLocatorRuntimeImpl;
+import org.jvnet.hk2.internal.ServiceLocatorTemplateImpl;
 import org.jvnet.hk2.internal.Utilities;
 
 /**
  * @author jwells
  *
  */
-public class ServiceLocatorGeneratorImpl implements ServiceLocatorGenerator {
+public class ServiceLocatorGeneratorImpl implements ServiceLocatorTemplateGenerator {
     private ServiceLocatorImpl initialize(String name, ServiceLocator parent) {
         if (parent != null && !(parent instanceof ServiceLocatorImpl)) {
             throw new AssertionError("parent must be a " + ServiceLocatorImpl.class.getName() +
@@ -92,6 +94,8 @@ public class ServiceLocatorGeneratorImpl implements ServiceLocatorGenerator {
         
         dci.commit();
         
+        sli.markBuiltInServices();
+        
         return sli;
     }
 
@@ -105,6 +109,37 @@ public class ServiceLocatorGeneratorImpl implements ServiceLocatorGenerator {
         return retVal;
     }
     
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.extension.ServiceLocatorTemplateGenerator#freeze(org.glassfish.hk2.api.ServiceLocator)
+     */
+    @Override
+    public ServiceLocatorTemplate freeze(ServiceLocator locator) {
+        if (!(locator instanceof ServiceLocatorImpl)) {
+            throw new IllegalArgumentException("locator must be a " + ServiceLocatorImpl.class.getName() +
+                    " instead it is a " + locator.getClass().getName());
+        }
+        
+        return new ServiceLocatorTemplateImpl((ServiceLocatorImpl) locator);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.extension.ServiceLocatorTemplateGenerator#fork(java.lang.String, org.glassfish.hk2.api.ServiceLocatorTemplate)
+     */
+    @Override
+    public ServiceLocator fork(String name, ServiceLocatorTemplate template) {
+        if (!(template instanceof ServiceLocatorTemplateImpl)) {
+            throw new IllegalArgumentException("template must be a " + ServiceLocatorTemplateImpl.class.getName() +
+                    " instead it is a " + template.getClass().getName());
+        }
+        
+        ServiceLocatorTemplateImpl frozen = (ServiceLocatorTemplateImpl) template;
+        
+        ServiceLocatorImpl retVal = initialize(name, frozen.getParent());
+        frozen.populate(retVal);
+        
+        return retVal;
+    }
+    
     @Override
     public String toString() {
         return "ServiceLocatorGeneratorImpl(hk2-locator, " + System.identityHashCode(this) + ")";
@@ -142,6 +142,10 @@ public class AutoActiveDescriptor<T> extends AbstractActiveDescriptor<T> {
     /* package */ void setHK2Parent(SystemDescriptor<?> hk2Parent) {
         this.hk2Parent = hk2Parent;
     }
+    
+    /* package */ Creator<T> getCreator() {
+        return creator;
+    }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.ActiveDescriptor#getImplementationClass()
@@ -413,6 +413,40 @@ public class ClazzCreator<T> implements Creator<T> {
 
     }
 
+    /**
+     * Creates a creator for the same class that belongs to another locator
+     * and descriptor.  The class analysis (constructor, initializer methods,
+     * fields, postConstruct and preDestroy) is shared with this creator, only
+     * the injectees are copied since they point back to their descriptor
+     * 
+     * @param forkLocator The locator the new creator will create services in
+     * @param forkDescriptor The descriptor of the new creator
+     * @return A creator sharing the analysis of this one, or null if
+     * this creator was never successfully initialized
+     */
+    /* package */ ClazzCreator<T> fork(ServiceLocatorImpl forkLocator, ActiveDescriptor<?> forkDescriptor) {
+        if (myConstructor == null || allInjectees == null) return null;
+        
+        ClazzCreator<T> retVal = new ClazzCreator<T>(forkLocator, implClass);
+        retVal.selfDescriptor = forkDescriptor;
+        
+        List<SystemInjecteeImpl> forkedAllInjectees = new LinkedList<SystemInjecteeImpl>();
+        
+        retVal.myConstructor = myConstructor.fork(forkDescriptor, forkedAllInjectees);
+        for (ResolutionInfo initializer : myInitializers) {
+            retVal.myInitializers.add(initializer.fork(forkDescriptor, forkedAllInjectees));
+        }
+        for (ResolutionInfo field : myFields) {
+            retVal.myFields.add(field.fork(forkDescriptor, forkedAllInjectees));
+        }
+        
+        retVal.postConstructMethod = postConstructMethod;
+        retVal.preDestroyMethod = preDestroyMethod;
+        retVal.allInjectees = Collections.unmodifiableList(forkedAllInjectees);
+        
+        return retVal;
+    }
+
     /* (non-Javadoc)
      * @see org.jvnet.hk2.internal.Creator#getInjectees()
      */
@@ -446,6 +480,17 @@ public class ClazzCreator<T> implements Creator<T> {
             this.injectees.addAll(injectees);
         }
         
+        private ResolutionInfo fork(ActiveDescriptor<?> forkDescriptor, List<SystemInjecteeImpl> addTo) {
+            List<SystemInjecteeImpl> forkedInjectees = new LinkedList<SystemInjecteeImpl>();
+            for (SystemInjecteeImpl injectee : injectees) {
+                forkedInjectees.add(injectee.forkFor(forkDescriptor));
+            }
+            
+            addTo.addAll(forkedInjectees);
+            
+            return new ResolutionInfo(baseElement, forkedInjectees);
+        }
+        
         @Override
         public String toString() {
             return "ResolutionInfo(" + baseElement + "," + injectees + "," + System.identityHashCode(this) + ")";
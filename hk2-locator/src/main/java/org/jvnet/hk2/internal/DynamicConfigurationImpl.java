@@ -101,6 +101,26 @@ public class DynamicConfigurationImpl implements DynamicConfiguration {
         return sd;
     }
 
+    /**
+     * Adds a descriptor copied from a frozen locator template
+     * 
+     * @param frozen The descriptor from the template
+     * @param sharedBase The copy of the base descriptor owned by the template
+     * @return The descriptor as it will be in the locator of this configuration
+     */
+    /* package */ <T> SystemDescriptor<T> addForkedDescriptor(SystemDescriptor<T> frozen, Descriptor sharedBase) {
+        checkState();
+        
+        SystemDescriptor<T> sd = new SystemDescriptor<T>(frozen,
+                sharedBase,
+                locator,
+                locator.getNextServiceId());
+        
+        allDescriptors.add(sd);
+        
+        return sd;
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.Configuration#bind(org.glassfish.hk2.api.FactoryDescriptors)
      */
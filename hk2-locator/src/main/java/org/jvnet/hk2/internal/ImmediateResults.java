@@ -40,7 +40,7 @@
 
 package org.jvnet.hk2.internal;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
@@ -53,7 +53,7 @@ import org.glassfish.hk2.api.ActiveDescriptor;
  */
 public class ImmediateResults {
     private final NarrowResults timelessResults;
-    private final List<ActiveDescriptor<?>> validatedImmediateResults = new LinkedList<ActiveDescriptor<?>>();
+    private final List<ActiveDescriptor<?>> validatedImmediateResults = new ArrayList<ActiveDescriptor<?>>();
     
     /* package */ ImmediateResults(NarrowResults cachedResults) {
         if (cachedResults == null) {
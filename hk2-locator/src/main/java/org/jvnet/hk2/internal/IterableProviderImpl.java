@@ -45,11 +45,11 @@ import java.lang.reflect.Type;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Injectee;
 import org.glassfish.hk2.utilities.InjecteeImpl;
 import org.glassfish.hk2.api.IterableProvider;
@@ -57,9 +57,12 @@ import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.Unqualified;
 import org.glassfish.hk2.utilities.NamedImpl;
 import org.glassfish.hk2.utilities.reflection.Pretty;
-import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 
 /**
+ * The iterators of this provider walk the list of matching descriptors
+ * from the lookup and only create the handle and service of each one
+ * when it is reached, so stopping early creates nothing further
+ * 
  * @author jwells
  * 
  * @param <T> The type for this provider
@@ -132,11 +135,10 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
     public Iterator<T> iterator() {
         justInTime();
         
-        List<ServiceHandle<T>> handles;
-        handles = ReflectionHelper.<List<ServiceHandle<T>>>cast(locator.getAllUnqualifiedServiceHandles(requiredType,
-                    unqualified, isIterable, requiredQualifiers.toArray(new Annotation[requiredQualifiers.size()])));
+        List<ActiveDescriptor<?>> descriptors = locator.getAllUnqualifiedDescriptors(requiredType,
+                    unqualified, isIterable, requiredQualifiers.toArray(new Annotation[requiredQualifiers.size()]));
         
-        return new MyIterator<T>(handles);
+        return new MyIterator<T>(locator, requiredType, descriptors);
     }
 
     /* (non-Javadoc)
@@ -146,7 +148,7 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
     public int getSize() {
         justInTime();
         
-        return locator.getAllUnqualifiedServiceHandles(requiredType, unqualified, isIterable,
+        return locator.getAllUnqualifiedDescriptors(requiredType, unqualified, isIterable,
                 requiredQualifiers.toArray(new Annotation[requiredQualifiers.size()])).size();
     }
 
@@ -186,17 +188,22 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
     public Iterable<ServiceHandle<T>> handleIterator() {
         justInTime();
         
-        List<ServiceHandle<T>> handles = ReflectionHelper.<List<ServiceHandle<T>>>cast(locator.getAllServiceHandles(requiredType,
-                requiredQualifiers.toArray(new Annotation[requiredQualifiers.size()])));
+        List<ActiveDescriptor<?>> descriptors = locator.getAllUnqualifiedDescriptors(requiredType,
+                null, false, requiredQualifiers.toArray(new Annotation[requiredQualifiers.size()]));
         
-        return new HandleIterable<T>(handles);
+        return new HandleIterable<T>(locator, requiredType, descriptors);
     }
     
     private static class MyIterator<U> implements Iterator<U> {
-        private final LinkedList<ServiceHandle<U>> handles;
+        private final ServiceLocatorImpl locator;
+        private final Type requiredType;
+        private final List<ActiveDescriptor<?>> descriptors;
+        private int index = 0;
         
-        private MyIterator(List<ServiceHandle<U>> handles) {
-            this.handles = new LinkedList<ServiceHandle<U>>(handles);
+        private MyIterator(ServiceLocatorImpl locator, Type requiredType, List<ActiveDescriptor<?>> descriptors) {
+            this.locator = locator;
+            this.requiredType = requiredType;
+            this.descriptors = descriptors;
         }
 
         /* (non-Javadoc)
@@ -204,19 +211,20 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
          */
         @Override
         public boolean hasNext() {
-            return !handles.isEmpty();
+            return index < descriptors.size();
         }
 
         /* (non-Javadoc)
          * @see java.util.Iterator#next()
          */
+        @SuppressWarnings("unchecked")
         @Override
         public U next() {
-            if (handles.isEmpty()) throw new NoSuchElementException();
+            if (index >= descriptors.size()) throw new NoSuchElementException();
             
-            ServiceHandle<U> nextHandle = handles.removeFirst();
+            ActiveDescriptor<U> nextDescriptor = (ActiveDescriptor<U>) descriptors.get(index++);
             
-            return nextHandle.getService();
+            return locator.internalGetServiceHandle(nextDescriptor, requiredType, null).getService();
         }
 
         /* (non-Javadoc)
@@ -230,11 +238,36 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
         
     }
     
+    /**
+     * The handles of a lookup, each created the first time it is asked for
+     * and then kept so that every iteration returns the same handles
+     */
     private static class HandleIterable<U> implements Iterable<ServiceHandle<U>> {
-        private final List<ServiceHandle<U>> handles;
+        private final ServiceLocatorImpl locator;
+        private final Type requiredType;
+        private final List<ActiveDescriptor<?>> descriptors;
+        private final ServiceHandle<?>[] handles;
+        
+        private HandleIterable(ServiceLocatorImpl locator, Type requiredType, List<ActiveDescriptor<?>> descriptors) {
+            this.locator = locator;
+            this.requiredType = requiredType;
+            this.descriptors = descriptors;
+            this.handles = new ServiceHandle<?>[descriptors.size()];
+        }
         
-        private HandleIterable(List<ServiceHandle<U>> handles) {
-            this.handles = new LinkedList<ServiceHandle<U>>(handles);
+        private int size() {
+            return handles.length;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private synchronized ServiceHandle<U> getHandle(int index) {
+            ServiceHandle<?> retVal = handles[index];
+            if (retVal == null) {
+                retVal = locator.internalGetServiceHandle(descriptors.get(index), requiredType, null);
+                handles[index] = retVal;
+            }
+            
+            return (ServiceHandle<U>) retVal;
         }
 
         /* (non-Javadoc)
@@ -242,16 +275,17 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
          */
         @Override
         public Iterator<ServiceHandle<U>> iterator() {
-            return new MyHandleIterator<U>(handles);
+            return new MyHandleIterator<U>(this);
         }
         
     }
     
     private static class MyHandleIterator<U> implements Iterator<ServiceHandle<U>> {
-        private final LinkedList<ServiceHandle<U>> handles;
+        private final HandleIterable<U> handles;
+        private int index = 0;
         
-        private MyHandleIterator(List<ServiceHandle<U>> handles) {
-            this.handles = new LinkedList<ServiceHandle<U>>(handles);
+        private MyHandleIterator(HandleIterable<U> handles) {
+            this.handles = handles;
         }
 
         /* (non-Javadoc)
@@ -259,7 +293,7 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
          */
         @Override
         public boolean hasNext() {
-            return !handles.isEmpty();
+            return index < handles.size();
         }
 
         /* (non-Javadoc)
@@ -267,7 +301,9 @@ public class IterableProviderImpl<T> implements IterableProvider<T> {
          */
         @Override
         public ServiceHandle<U> next() {
-            return handles.removeFirst();
+            if (index >= handles.size()) throw new NoSuchElementException();
+            
+            return handles.getHandle(index++);
         }
 
         /* (non-Javadoc)
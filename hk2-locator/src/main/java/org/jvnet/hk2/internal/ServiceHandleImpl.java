@@ -41,7 +41,6 @@
 package org.jvnet.hk2.internal;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
@@ -56,6 +55,11 @@ import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
  * at the time that the getService call is made is the service gotten
  * from the context.  Once a service has been gotten, it is not looked
  * up again.
+ * <p>
+ * Handles are created for every lookup and injection, so they are kept
+ * small.  The injectees pushed while creating the service are kept in
+ * an array, and the list of sub handles is only created once a
+ * {@link PerLookup} service is created on behalf of this handle
  * 
  * @author jwells
  * @param <T> The type of service to create
@@ -64,22 +68,24 @@ import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 public class ServiceHandleImpl<T> implements ServiceHandle<T> {
     private ActiveDescriptor<T> root;
     private final ServiceLocatorImpl locator;
-    private final LinkedList<Injectee> injectees = new LinkedList<Injectee>();
-    private final Object lock = new Object();
+    private final Injectee originalInjectee;
+    
+    /** Guarded by this.  The injectees pushed on top of the original one */
+    private Injectee[] pushedInjectees;
+    private int numPushedInjectees;
     
     private boolean serviceDestroyed = false;
     private boolean serviceSet = false;
     private T service;
     private Object serviceData;
     
-    private final LinkedList<ServiceHandleImpl<?>> subHandles = new LinkedList<ServiceHandleImpl<?>>();
+    /** Guarded by this.  Null until the first sub handle is added */
+    private List<ServiceHandleImpl<?>> subHandles;
     
     /* package */ ServiceHandleImpl(ServiceLocatorImpl locator, ActiveDescriptor<T> root, Injectee injectee) {
         this.root = root;
         this.locator = locator;
-        if (injectee != null) {
-            injectees.add(injectee);
-        }
+        this.originalInjectee = injectee;
     }
 
     /* (non-Javadoc)
@@ -90,10 +96,8 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
         return getService(this);
     }
     
-    private Injectee getLastInjectee() {
-        synchronized (lock) {
-            return (injectees.isEmpty()) ? null : injectees.getLast() ;
-        }
+    private synchronized Injectee getLastInjectee() {
+        return (numPushedInjectees == 0) ? originalInjectee : pushedInjectees[numPushedInjectees - 1] ;
     }
     
     /* package */ T getService(ServiceHandle<T> handle) {
@@ -104,7 +108,7 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
             }
         }
         
-        synchronized (lock) {
+        synchronized (this) {
             if (serviceDestroyed) throw new IllegalStateException("Service has been disposed");
             
             if (serviceSet) return service;
@@ -159,7 +163,7 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
         if (!root.isReified()) return;
         
         List<ServiceHandleImpl<?>> localSubHandles;
-        synchronized (lock) {
+        synchronized (this) {
             serviceActive = isActive();
             
             if (serviceDestroyed) return;
@@ -167,8 +171,8 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
             
             localServiceSet = serviceSet;
             
-            localSubHandles = new ArrayList<ServiceHandleImpl<?>>(subHandles);
-            subHandles.clear();
+            localSubHandles = subHandles;
+            subHandles = null;
         }
         
         if (root.getScopeAnnotation().equals(PerLookup.class)) {
@@ -189,6 +193,8 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
             context.destroyOne(root);
         }
         
+        if (localSubHandles == null) return;
+        
         for (ServiceHandleImpl<?> subHandle : localSubHandles) {
             subHandle.destroy();
         }
@@ -198,7 +204,7 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
     
     @Override
     public void setServiceData(Object serviceData) {
-        synchronized (lock) {
+        synchronized (this) {
             this.serviceData = serviceData;
         }
         
@@ -206,27 +212,39 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
 
     @Override
     public Object getServiceData() {
-        synchronized (lock) {
+        synchronized (this) {
             return serviceData;
         }
     }
     
     @Override
     public List<ServiceHandle<?>> getSubHandles() {
-        synchronized (lock) {
+        synchronized (this) {
+            if (subHandles == null) return new ArrayList<ServiceHandle<?>>(0);
+            
             return new ArrayList<ServiceHandle<?>>(subHandles);
         }
     }
     
     public void pushInjectee(Injectee push) {
-        synchronized (lock) {
-            injectees.add(push);
+        synchronized (this) {
+            if (pushedInjectees == null) {
+                pushedInjectees = new Injectee[4];
+            }
+            else if (numPushedInjectees == pushedInjectees.length) {
+                Injectee[] larger = new Injectee[2 * numPushedInjectees];
+                System.arraycopy(pushedInjectees, 0, larger, 0, numPushedInjectees);
+                pushedInjectees = larger;
+            }
+            
+            pushedInjectees[numPushedInjectees++] = push;
         }
     }
     
     public void popInjectee() {
-        synchronized (lock) {
-            injectees.removeLast();
+        synchronized (this) {
+            // Always balanced with a pushInjectee
+            pushedInjectees[--numPushedInjectees] = null;
         }
     }
     
@@ -236,7 +254,11 @@ public class ServiceHandleImpl<T> implements ServiceHandle<T> {
      * @param subHandle A handle to add for proper destruction
      */
     public void addSubHandle(ServiceHandleImpl<?> subHandle) {
-        synchronized (lock) {
+        synchronized (this) {
+            if (subHandles == null) {
+                subHandles = new ArrayList<ServiceHandleImpl<?>>();
+            }
+            
             subHandles.add(subHandle);
         }
     }
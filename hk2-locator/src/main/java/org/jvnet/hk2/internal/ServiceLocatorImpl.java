@@ -49,6 +49,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -80,6 +81,7 @@ import org.glassfish.hk2.api.Context;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.DuplicateServiceException;
+import org.glassfish.hk2.api.DynamicConfigurationChangeListener;
 import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.ErrorService;
 import org.glassfish.hk2.api.ErrorType;
@@ -156,6 +158,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
     private final WriteLock wLock = readWriteLock.writeLock();
     private final ReadLock rLock = readWriteLock.readLock();
     private final AtomicLong nextServiceId = new AtomicLong();
+    private volatile Set<Long> builtInServiceIds = Collections.emptySet();
     private final String locatorName;
     private final long id;
     private final ServiceLocatorImpl parent;
@@ -646,7 +649,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
         return getServiceHandle(activeDescriptor, null);
     }
 
-    private <T> ServiceHandleImpl<T> internalGetServiceHandle(
+    /* package */ <T> ServiceHandleImpl<T> internalGetServiceHandle(
             ActiveDescriptor<T> activeDescriptor,
             Type requestedType,
             Injectee originalRequest) {
@@ -1378,14 +1381,6 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 internalGetAllServiceHandles(contractOrImpl, null, true, false, qualifiers);
     }
 
-    /* package */ @SuppressWarnings("unchecked")
-    List<ServiceHandle<?>> getAllUnqualifiedServiceHandles(
-            Type contractOrImpl, Unqualified unqualified, boolean isIterable, Annotation... qualifiers)
-            throws MultiException {
-        return (List<ServiceHandle<?>>)
-                internalGetAllServiceHandles(contractOrImpl, unqualified, true, isIterable, qualifiers);
-    }
-
     final private WeakCARCache<IgdCacheKey, IgdValue> igashCache =
             CacheUtilities.createWeakCARCache(new Computable<IgdCacheKey, IgdValue>() {
         @Override
@@ -1419,6 +1414,44 @@ public class ServiceLocatorImpl implements ServiceLocator {
             boolean isIterable,
             Annotation... qualifiers)
             throws MultiException {
+        List<ActiveDescriptor<?>> candidates = getAllUnqualifiedDescriptors(contractOrImpl,
+                unqualified, isIterable, qualifiers);
+        Class<?> rawClass = ReflectionHelper.getRawClass(contractOrImpl);
+
+        ArrayList<Object> retVal = new ArrayList<Object>(candidates.size());
+        for (ActiveDescriptor<?> candidate : candidates) {
+            if (getHandles) {
+                retVal.add(internalGetServiceHandle(candidate, contractOrImpl, null));
+            }
+            else {
+                Object service = Utilities.createService(candidate, null, this, null, rawClass);
+
+                retVal.add(service);
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Returns the descriptors of all the services that would be returned by
+     * a lookup of all services of the given type.  Nothing is created, so
+     * callers can create the services one at a time as they are needed
+     *
+     * @param contractOrImpl The type to look for, may not be null
+     * @param unqualified The Unqualified annotation, may be null
+     * @param isIterable true if this is for an IterableProvider
+     * @param qualifiers The qualifiers the services must have
+     * @return The matching descriptors in ranked order.  This list may be
+     * shared with the lookup cache and must not be modified
+     * @throws MultiException if there was an error during the lookup
+     */
+    /* package */ List<ActiveDescriptor<?>> getAllUnqualifiedDescriptors(
+            Type contractOrImpl,
+            Unqualified unqualified,
+            boolean isIterable,
+            Annotation... qualifiers)
+            throws MultiException {
 
         if (contractOrImpl == null) throw new IllegalArgumentException();
         checkState();
@@ -1482,19 +1515,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
             Utilities.handleErrors(results, currentErrorHandlers);
         }
 
-        LinkedList<Object> retVal = new LinkedList<Object>();
-        for (ActiveDescriptor<?> candidate : immediate.getImmediateResults()) {
-            if (getHandles) {
-                retVal.add(internalGetServiceHandle(candidate, contractOrImpl, null));
-            }
-            else {
-                Object service = Utilities.createService(candidate, null, this, null, rawClass);
-
-                retVal.add(service);
-            }
-        }
-
-        return retVal;
+        return immediate.getImmediateResults();
     }
 
     @Override
@@ -2091,15 +2112,31 @@ public class ServiceLocatorImpl implements ServiceLocator {
         }
     }
     
-    private void callAllConfigurationListeners(List<ServiceHandle<?>> allListeners) {
+    private void callAllConfigurationListeners(List<ServiceHandle<?>> allListeners,
+            List<SystemDescriptor<?>> thingsAdded,
+            List<SystemDescriptor<?>> thingsRemoved) {
         if (allListeners == null) return;
         
+        List<ActiveDescriptor<?>> added = null;
+        List<ActiveDescriptor<?>> removed = null;
+        
         for (ServiceHandle<?> listener : allListeners) {
             ActiveDescriptor<?> listenerDescriptor = listener.getActiveDescriptor();
             if (listenerDescriptor.getLocatorId() != id) continue;
             
             try {
-                ((DynamicConfigurationListener) listener.getService()).configurationChanged();
+                DynamicConfigurationListener dcl = (DynamicConfigurationListener) listener.getService();
+                if (dcl instanceof DynamicConfigurationChangeListener) {
+                    if (added == null) {
+                        added = Collections.unmodifiableList(new ArrayList<ActiveDescriptor<?>>(thingsAdded));
+                        removed = Collections.unmodifiableList(new ArrayList<ActiveDescriptor<?>>(thingsRemoved));
+                    }
+                    
+                    ((DynamicConfigurationChangeListener) dcl).configurationChanged(added, removed);
+                }
+                else {
+                    dcl.configurationChanged();
+                }
             }
             catch (Throwable th) {
                 // Intentionally ignore
@@ -2111,6 +2148,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
         CheckConfigurationData checkData;
         
         List<ServiceHandle<?>> allConfigurationListeners = null;
+        List<SystemDescriptor<?>> thingsAdded = null;
         MultiException configurationError = null;
 
         wLock.lock();
@@ -2119,7 +2157,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
             removeConfigurationInternal(checkData.getUnbinds());
 
-            List<SystemDescriptor<?>> thingsAdded = addConfigurationInternal(dci);
+            thingsAdded = addConfigurationInternal(dci);
 
             reup(thingsAdded,
                     checkData.getInstanceLifecycleModificationsMade(),
@@ -2166,7 +2204,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
             sli.reupCache(checkData.getAffectedContracts());
         }
         
-        callAllConfigurationListeners(allConfigurationListeners);
+        callAllConfigurationListeners(allConfigurationListeners, thingsAdded, checkData.getUnbinds());
         
         LinkedList<TwoPhaseResource> resources = dci.getResources();
         for (TwoPhaseResource resource : resources) {
@@ -2377,6 +2415,33 @@ public class ServiceLocatorImpl implements ServiceLocator {
 //        }
     }
 
+    /**
+     * Records the services now in this locator as the services that the
+     * generator added to it when it was created.  Called by the generator
+     * once it has added its services, and hence must be public
+     */
+    public void markBuiltInServices() {
+        HashSet<Long> ids = new HashSet<Long>();
+        for (ActiveDescriptor<?> descriptor : getDescriptors(BuilderHelper.allFilter())) {
+            if (descriptor.getLocatorId().longValue() != id) continue;
+            
+            ids.add(descriptor.getServiceId());
+        }
+        
+        builtInServiceIds = Collections.unmodifiableSet(ids);
+    }
+    
+    /**
+     * Tells whether the service was added by the generator when this
+     * locator was created
+     * 
+     * @param serviceId The service id of a descriptor in this locator
+     * @return true if the generator added the service
+     */
+    /* package */ boolean isBuiltInService(Long serviceId) {
+        return builtInServiceIds.contains(serviceId);
+    }
+
     private void addChild(ServiceLocatorImpl child) {
         synchronized (children) {
             children.put(child, null);
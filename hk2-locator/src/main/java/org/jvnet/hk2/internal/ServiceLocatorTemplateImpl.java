@@ -0,0 +1,221 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.reflection.Logger;
+
+/**
+ * The frozen services of a {@link ServiceLocatorImpl}.  The template
+ * holds the reified descriptors of the frozen locator together with
+ * private copies of their base descriptors.  Locators forked from the
+ * template get new descriptors that share the base descriptors (until they
+ * are modified), the reified information and the class analysis of the
+ * frozen descriptors, so forking does not need to load, reify or analyze
+ * anything.  Each forked locator has its own service instances
+ * <p>
+ * Descriptors backed by an {@link ActiveDescriptor} that was created outside
+ * of hk2 (such as constants) are added to each forked locator as is, and hence
+ * the same constant is shared by all forks
+ * 
+ * @author jwells
+ *
+ */
+public class ServiceLocatorTemplateImpl implements ServiceLocatorTemplate {
+    private final String name;
+    private final ServiceLocatorImpl parent;
+    private final long frozenLocatorId;
+    private final List<FrozenDescriptor> frozen = new ArrayList<FrozenDescriptor>();
+    
+    /**
+     * Freezes the current services of the given locator.  Created by the
+     * generator, and hence must be public
+     * 
+     * @param locator The locator to freeze
+     */
+    public ServiceLocatorTemplateImpl(ServiceLocatorImpl locator) {
+        name = locator.getName();
+        parent = (ServiceLocatorImpl) locator.getParent();
+        frozenLocatorId = locator.getLocatorId();
+        
+        List<ActiveDescriptor<?>> all = locator.getDescriptors(new LocalFilter(frozenLocatorId));
+        
+        List<SystemDescriptor<?>> sorted = new ArrayList<SystemDescriptor<?>>(all.size());
+        for (ActiveDescriptor<?> descriptor : all) {
+            // Each fork gets its own built in services from the generator
+            if (locator.isBuiltInService(descriptor.getServiceId())) continue;
+            
+            sorted.add((SystemDescriptor<?>) descriptor);
+        }
+        
+        // Forks keep the relative order of the service ids
+        Collections.sort(sorted, new Comparator<SystemDescriptor<?>>() {
+
+            @Override
+            public int compare(SystemDescriptor<?> o1, SystemDescriptor<?> o2) {
+                return o1.getServiceId().compareTo(o2.getServiceId());
+            }
+            
+        });
+        
+        for (SystemDescriptor<?> sd : sorted) {
+            try {
+                locator.reifyDescriptor(sd);
+            }
+            catch (MultiException me) {
+                // Each fork will try again when the service is looked up
+                Logger.getLogger().debug("ServiceLocatorTemplateImpl", "<init>", me);
+            }
+            
+            ActiveDescriptor<?> active = sd.getActiveDescriptor();
+            if (active != null && !(active instanceof AutoActiveDescriptor)) {
+                frozen.add(new FrozenDescriptor(sd, null));
+            }
+            else {
+                frozen.add(new FrozenDescriptor(sd, BuilderHelper.deepCopyDescriptor(sd.getBaseDescriptor())));
+            }
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ServiceLocatorTemplate#getName()
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.ServiceLocatorTemplate#getParent()
+     */
+    @Override
+    public ServiceLocator getParent() {
+        return parent;
+    }
+    
+    /**
+     * Adds the services of this template to a newly generated locator.  The
+     * services the generator added to the frozen locator are not part of
+     * the template, since the generator has already added them to the fork
+     * 
+     * @param fork A newly generated locator with the same parent as this template
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void populate(ServiceLocatorImpl fork) {
+        DynamicConfigurationImpl dci = new DynamicConfigurationImpl(fork);
+        
+        HashMap<Long, SystemDescriptor<?>> forked = new HashMap<Long, SystemDescriptor<?>>();
+        for (FrozenDescriptor fd : frozen) {
+            SystemDescriptor<?> descriptor = fd.descriptor;
+            
+            SystemDescriptor<?> added;
+            if (fd.sharedBase == null) {
+                added = (SystemDescriptor<?>) dci.addActiveDescriptor(descriptor.getActiveDescriptor(), false);
+            }
+            else {
+                added = dci.addForkedDescriptor((SystemDescriptor) descriptor, fd.sharedBase);
+            }
+            
+            forked.put(descriptor.getServiceId(), added);
+        }
+        
+        // Factories in the frozen locator become the factories in the fork
+        for (SystemDescriptor<?> added : forked.values()) {
+            if (added.getActiveDescriptor() != null) continue;
+            
+            Long factoryLocatorId = added.getFactoryLocatorId();
+            if (factoryLocatorId == null || factoryLocatorId.longValue() != frozenLocatorId) continue;
+            
+            SystemDescriptor<?> factory = forked.get(added.getFactoryServiceId());
+            if (factory == null) {
+                added.setFactoryIds(null, null);
+            }
+            else {
+                added.setFactoryIds(fork.getLocatorId(), factory.getServiceId());
+            }
+        }
+        
+        dci.commit();
+    }
+    
+    @Override
+    public String toString() {
+        return "ServiceLocatorTemplateImpl(" + name + "," + frozenLocatorId + "," +
+            frozen.size() + "," + System.identityHashCode(this) + ")";
+    }
+    
+    private static class FrozenDescriptor {
+        private final SystemDescriptor<?> descriptor;
+        private final Descriptor sharedBase;
+        
+        private FrozenDescriptor(SystemDescriptor<?> descriptor, Descriptor sharedBase) {
+            this.descriptor = descriptor;
+            this.sharedBase = sharedBase;
+        }
+    }
+    
+    private static class LocalFilter implements Filter {
+        private final long locatorId;
+        
+        private LocalFilter(long locatorId) {
+            this.locatorId = locatorId;
+        }
+
+        @Override
+        public boolean matches(Descriptor d) {
+            return d.getLocatorId().longValue() == locatorId;
+        }
+        
+    }
+
+}
@@ -110,13 +110,22 @@ public class SingletonContext implements Context<Singleton> {
         return Singleton.class;
     }
 
-    /* (non-Javadoc)
+    /**
+     * Once a singleton has been created it is kept in the cache of its
+     * {@link SystemDescriptor}, which is read without locking.  Only
+     * the creation goes through the valueCache, which makes sure the
+     * service is created once and detects circular dependencies
+     * 
      * @see org.glassfish.hk2.api.Context#findOrCreate(org.glassfish.hk2.api.ActiveDescriptor, org.glassfish.hk2.api.ServiceHandle)
      */
     @SuppressWarnings("unchecked")
     @Override
     public <T> T findOrCreate(ActiveDescriptor<T> activeDescriptor,
             ServiceHandle<?> root) {
+        if (activeDescriptor instanceof SystemDescriptor) {
+            T cachedVal = activeDescriptor.getCache();
+            if (cachedVal != null) return cachedVal;
+        }
 
         try {
             return (T)valueCache.compute(new ContextualInput<Object>((ActiveDescriptor<Object>) activeDescriptor, root));
@@ -134,6 +143,8 @@ public class SingletonContext implements Context<Singleton> {
     @SuppressWarnings("unchecked")
     @Override
     public boolean containsKey(ActiveDescriptor<?> descriptor) {
+        if ((descriptor instanceof SystemDescriptor) && (descriptor.getCache() != null)) return true;
+
         return valueCache.containsKey(new ContextualInput<Object>((ActiveDescriptor<Object>) descriptor, null));
     }
 
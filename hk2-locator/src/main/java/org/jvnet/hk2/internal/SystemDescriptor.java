@@ -85,7 +85,8 @@ import org.glassfish.hk2.utilities.reflection.ScopeInfo;
  * @param <T> The type from the cache
  */
 public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
-    private final Descriptor baseDescriptor;
+    private volatile Descriptor baseDescriptor;
+    private boolean sharedBaseDescriptor = false;  // Copied before the first write
     private final Long id;
     private final ActiveDescriptor<T> activeDescriptor;
 
@@ -96,8 +97,8 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
     private volatile boolean closed = false;
 
     private final Object cacheLock = new Object();
-    private boolean cacheSet = false;
-    private T cachedValue;
+    private volatile boolean cacheSet = false;
+    private volatile T cachedValue;
 
     // These are used when we are doing the reifying ourselves
     private Class<?> implClass;
@@ -158,6 +159,71 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
         }
     }
 
+    /**
+     * Creates a descriptor in the given locator from a descriptor of a
+     * frozen locator template.  The base descriptor is shared with the
+     * template until this descriptor is first modified.  If the frozen
+     * descriptor was reified then its reified information and class
+     * analysis are shared as well, so that this descriptor starts out reified
+     * 
+     * @param frozen The descriptor from the template, which must not
+     * be backed by an ActiveDescriptor created outside of hk2
+     * @param sharedBase A private copy of the base descriptor of frozen
+     * owned by the template
+     * @param locator The locator this descriptor will belong to
+     * @param serviceId The service id of this descriptor in the locator
+     */
+    /* package */ @SuppressWarnings("unchecked")
+    SystemDescriptor(SystemDescriptor<T> frozen, Descriptor sharedBase, ServiceLocatorImpl locator, Long serviceId) {
+        this.baseDescriptor = sharedBase;
+        this.sharedBaseDescriptor = true;
+        this.sdLocator = locator;
+        this.id = serviceId;
+        this.activeDescriptor = null;
+        
+        if (!frozen.isReified()) {
+            if (frozen.preAnalyzed) {
+                preAnalyzed = true;
+                
+                implClass = frozen.implClass;
+                implType = frozen.implType;
+                scopeAnnotation = frozen.scopeAnnotation;
+                scope = frozen.scope;
+                contracts = frozen.contracts;
+                qualifiers = frozen.qualifiers;
+            }
+            
+            return;
+        }
+        
+        preAnalyzed = true;
+        
+        implClass = frozen.getImplementationClass();
+        implType = frozen.getImplementationType();
+        scope = frozen.getScopeAnnotation();
+        contracts = frozen.getContractTypes();
+        qualifiers = frozen.getQualifierAnnotations();
+        factoryLocatorId = frozen.getFactoryLocatorId();
+        factoryServiceId = frozen.getFactoryServiceId();
+        
+        Creator<T> frozenCreator;
+        if (frozen.activeDescriptor != null) {
+            scopeAnnotation = frozen.activeDescriptor.getScopeAsAnnotation();
+            frozenCreator = ((AutoActiveDescriptor<T>) frozen.activeDescriptor).getCreator();
+        }
+        else {
+            scopeAnnotation = frozen.scopeAnnotation;
+            frozenCreator = frozen.creator;
+        }
+        
+        if (frozenCreator instanceof ClazzCreator) {
+            creator = ((ClazzCreator<T>) frozenCreator).fork(locator, this);
+        }
+        
+        // Factories find their factory in the new locator when reified
+        reified = (creator != null);
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.Descriptor#getImplementation()
      */
@@ -270,6 +336,12 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
     }
     
     /* package */ int setRankWithLock(int ranking) {
+        if (sharedBaseDescriptor) {
+            // The base descriptor is shared with a locator template, so copy on write
+            baseDescriptor = BuilderHelper.deepCopyDescriptor(baseDescriptor);
+            sharedBaseDescriptor = false;
+        }
+        
         return baseDescriptor.setRanking(ranking);
     }
 
@@ -901,6 +973,14 @@ public class SystemDescriptor<T> implements ActiveDescriptor<T>, Closeable {
         }
     }
 
+    /* package */ ActiveDescriptor<T> getActiveDescriptor() {
+        return activeDescriptor;
+    }
+    
+    /* package */ Descriptor getBaseDescriptor() {
+        return baseDescriptor;
+    }
+
     /* package */ Class<?> getPreAnalyzedClass() {
         return implClass;
     }
@@ -108,6 +108,30 @@ public class SystemInjecteeImpl implements Injectee {
         }
     }
 
+    private SystemInjecteeImpl(SystemInjecteeImpl copyMe, ActiveDescriptor<?> injecteeDescriptor) {
+        this.requiredType = copyMe.requiredType;
+        this.qualifiers = copyMe.qualifiers;
+        this.position = copyMe.position;
+        this.pClass = copyMe.pClass;
+        this.parent = copyMe.parent;
+        this.isOptional = copyMe.isOptional;
+        this.isSelf = copyMe.isSelf;
+        this.unqualified = copyMe.unqualified;
+        this.parentIdentifier = copyMe.parentIdentifier;
+        this.injecteeDescriptor = injecteeDescriptor;
+    }
+    
+    /**
+     * Creates a copy of this injectee that belongs to another descriptor.
+     * All of the reflective information is shared with this injectee
+     * 
+     * @param injecteeDescriptor The descriptor the copy should belong to
+     * @return A copy of this injectee belonging to the given descriptor
+     */
+    /* package */ SystemInjecteeImpl forkFor(ActiveDescriptor<?> injecteeDescriptor) {
+        return new SystemInjecteeImpl(this, injecteeDescriptor);
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.Injectee#getRequiredType()
      */
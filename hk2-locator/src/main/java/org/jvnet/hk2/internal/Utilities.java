@@ -119,6 +119,7 @@ import org.glassfish.hk2.utilities.reflection.ParameterizedTypeImpl;
 import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.ScopeInfo;
 import org.glassfish.hk2.utilities.reflection.TypeChecker;
+import org.glassfish.hk2.utilities.reflection.internal.WeakTypeCache;
 import org.jvnet.hk2.annotations.Contract;
 import org.jvnet.hk2.annotations.ContractsProvided;
 import org.jvnet.hk2.annotations.Optional;
@@ -150,6 +151,9 @@ public class Utilities {
             false,
             false,
             null);
+    
+    /** Results of isTypeSafe, keyed by (requiredType, beanType) */
+    private final static WeakTypeCache<Boolean> TYPE_SAFE = new WeakTypeCache<Boolean>();
 
     /**
      * Returns the class analyzer with the given name
@@ -2240,10 +2244,21 @@ public class Utilities {
      * 
      * @param requiredType The type this must conform to
      * @param beanType The type of the bean we are checking
-     * @return true if beanType is safely assignable to requiredType
+     * @return true if beanType is safely assignable to requiredType,
+     * which is remembered for the next check of the same types
      */
-    @SuppressWarnings("unchecked")
     public static boolean isTypeSafe(Type requiredType, Type beanType) {
+        Boolean cached = TYPE_SAFE.get(requiredType, beanType);
+        if (cached != null) return cached;
+        
+        boolean retVal = computeTypeSafe(requiredType, beanType);
+        TYPE_SAFE.put(requiredType, beanType, retVal);
+        
+        return retVal;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static boolean computeTypeSafe(Type requiredType, Type beanType) {
         if (TypeChecker.isRawTypeSafe(requiredType, beanType)) return true;
         
         Class<?> requiredClass = ReflectionHelper.getRawClass(requiredType);
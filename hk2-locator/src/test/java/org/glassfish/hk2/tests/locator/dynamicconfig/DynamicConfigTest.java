@@ -400,6 +400,44 @@ public class DynamicConfigTest {
         
     }
     
+    /**
+     * Tests that a dynamic configuration change listener is told which
+     * descriptors were added and removed, and that the plain callback
+     * is not used for it
+     */
+    @Test
+    public void testConfigurationChangeListenerGetsAddedAndRemoved() {
+        ServiceLocator locator = LocatorHelper.create();
+        
+        List<ActiveDescriptor<?>> listenerDescriptors = ServiceLocatorUtilities.addClasses(locator,
+                DynamicConfigurationChangeListenerImpl.class);
+        
+        DynamicConfigurationChangeListenerImpl listener = locator.getService(DynamicConfigurationChangeListenerImpl.class);
+        
+        Assert.assertEquals(listenerDescriptors, listener.getLastAdded());
+        Assert.assertTrue(listener.getLastRemoved().isEmpty());
+        
+        List<ActiveDescriptor<?>> serviceDescriptors = ServiceLocatorUtilities.addClasses(locator,
+                SimpleService.class);
+        
+        Assert.assertEquals(serviceDescriptors, listener.getLastAdded());
+        Assert.assertTrue(listener.getLastRemoved().isEmpty());
+        
+        DynamicConfigurationService dcs = locator.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        
+        ActiveDescriptor<?> added = config.addActiveDescriptor(SimpleService2.class);
+        config.addUnbindFilter(BuilderHelper.createContractFilter(SimpleService.class.getName()));
+        
+        config.commit();
+        
+        Assert.assertEquals(1, listener.getLastAdded().size());
+        Assert.assertEquals(added.getServiceId(), listener.getLastAdded().get(0).getServiceId());
+        Assert.assertEquals(serviceDescriptors, listener.getLastRemoved());
+        
+        Assert.assertEquals(0, listener.getPlainChanges());
+    }
+    
     /**
      * Tests that a dynamic configuration listener is invoked when a change
      * is made (including the one that added it)!
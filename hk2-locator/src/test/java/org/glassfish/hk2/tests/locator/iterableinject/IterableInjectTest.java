@@ -39,6 +39,10 @@
  */
 package org.glassfish.hk2.tests.locator.iterableinject;
 
+import java.util.Iterator;
+
+import org.glassfish.hk2.api.IterableProvider;
+import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
 import org.junit.Assert;
@@ -147,5 +151,45 @@ public class IterableInjectTest {
         Assert.assertEquals(0, tis.getNumFalses());
         Assert.assertEquals(5, tis.getNumAlls());
     }
+    
+    /**
+     * Tests that services are only created as the iterator reaches them
+     */
+    @SuppressWarnings("unchecked")
+    @Test // @org.junit.Ignore
+    public void testIterationIsLazy() {
+        ServiceLocator locator = LocatorHelper.getServiceLocator(
+                AliceService.class,
+                BobService.class,
+                BasicIterableInjectingService.class);
+        
+        BasicIterableInjectingService blis = locator.getService(BasicIterableInjectingService.class);
+        IterableProvider<NamedService> allNamed = (IterableProvider<NamedService>) blis.getAllNamed();
+        
+        Assert.assertEquals(2, allNamed.getSize());
+        Assert.assertFalse(locator.getServiceHandle(AliceService.class).isActive());
+        Assert.assertFalse(locator.getServiceHandle(BobService.class).isActive());
+        
+        Iterator<NamedService> iterator = allNamed.iterator();
+        Assert.assertTrue(iterator.hasNext());
+        
+        NamedService first = iterator.next();
+        Assert.assertEquals(ALICE, first.getName());
+        
+        Assert.assertTrue(locator.getServiceHandle(AliceService.class).isActive());
+        Assert.assertFalse(locator.getServiceHandle(BobService.class).isActive());
+        
+        Iterator<ServiceHandle<NamedService>> handles = allNamed.handleIterator().iterator();
+        Assert.assertTrue(handles.hasNext());
+        handles.next();
+        Assert.assertTrue(handles.hasNext());
+        
+        ServiceHandle<NamedService> bobHandle = handles.next();
+        Assert.assertFalse(handles.hasNext());
+        Assert.assertFalse(bobHandle.isActive());
+        
+        Assert.assertEquals(BOB, bobHandle.getService().getName());
+        Assert.assertTrue(locator.getServiceHandle(BobService.class).isActive());
+    }
 
 }
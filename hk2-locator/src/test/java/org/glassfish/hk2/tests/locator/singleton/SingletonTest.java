@@ -51,6 +51,7 @@ import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.ServiceLocatorFactory;
 import org.glassfish.hk2.tests.locator.utilities.LocatorHelper;
 import org.glassfish.hk2.utilities.BuilderHelper;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -120,6 +121,74 @@ public class SingletonTest {
         Assert.assertTrue(triple.getWasPreDestroyed());
     }
     
+    /**
+     * Once a singleton has been created, every lookup and injection
+     * gets that same instance, and its handle reports it as active
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testCreatedSingletonIsReused() throws InterruptedException {
+        final ServiceLocator singleLocator = LocatorHelper.getServiceLocator(Single.class, SingleUser.class);
+        
+        ServiceHandle<Single> handle = singleLocator.getServiceHandle(Single.class);
+        Assert.assertFalse(handle.isActive());
+        
+        final Single single = singleLocator.getService(Single.class);
+        Assert.assertNotNull(single);
+        Assert.assertTrue(handle.isActive());
+        Assert.assertSame(single, handle.getService());
+        
+        final List<Throwable> errors = new LinkedList<Throwable>();
+        List<Thread> threads = new LinkedList<Thread>();
+        for (int lcv = 0; lcv < NUM_THREADS; lcv++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int get = 0; get < 100; get++) {
+                        SingleUser user = singleLocator.getService(SingleUser.class);
+                        if (user.getSingle() != single) {
+                            synchronized (errors) {
+                                errors.add(new AssertionError("Got a different singleton " + user.getSingle()));
+                            }
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+        
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+    }
+    
+    /**
+     * Measures the creation of per lookup services that inject a singleton.
+     * Not run as part of the build since it only prints timings
+     */
+    @Test @Ignore
+    public void benchmarkSingletonInjectionIntoPerLookup() {
+        ServiceLocator singleLocator = LocatorHelper.getServiceLocator(Single.class, SingleUser.class);
+        ServiceHandle<SingleUser> handle = singleLocator.getServiceHandle(SingleUser.class);
+        
+        for (int round = 0; round < 5; round++) {
+            long elapsed = System.nanoTime();
+            for (int lcv = 0; lcv < 1000000; lcv++) {
+                handle.getActiveDescriptor().create(handle);
+            }
+            elapsed = System.nanoTime() - elapsed;
+            
+            System.out.println("Created 1000000 per lookup services injecting a singleton in " +
+                (elapsed / 1000000L) + " milliseconds");
+        }
+    }
+    
     private class MyWorker implements Runnable {
         private final ServiceHandle<?> handle;
         
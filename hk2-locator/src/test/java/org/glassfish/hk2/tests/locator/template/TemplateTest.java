@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.tests.locator.template;
+
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for freezing locators into templates and forking from them
+ * 
+ * @author jwells
+ *
+ */
+public class TemplateTest {
+    private final static String CONSTANT = "TemplateConstant";
+    private final static String NAME_PREFIX = "TemplateTest";
+    private final static int NUM_BOUND = 100;
+    private final static int NUM_LOCATORS = 1000;
+    
+    private static ServiceLocator createSource() {
+        ServiceLocator source = ServiceLocatorFactory.getInstance().create(null);
+        
+        ServiceLocatorUtilities.addClasses(source, SimpleService.class, Dependency.class, WidgetFactory.class);
+        ServiceLocatorUtilities.addOneDescriptor(source,
+                BuilderHelper.link(BoundService.class).in(Singleton.class.getName()).build());
+        ServiceLocatorUtilities.addOneConstant(source, CONSTANT);
+        
+        return source;
+    }
+    
+    /**
+     * Tests that a forked locator has the same services as the
+     * frozen one, but its own instances of them
+     */
+    @Test // @org.junit.Ignore
+    public void testForkHasSameServicesButOwnInstances() {
+        ServiceLocator source = createSource();
+        SimpleService sourceSimple = source.getService(SimpleService.class);
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        Assert.assertEquals(source.getName(), template.getName());
+        Assert.assertNull(template.getParent());
+        
+        ServiceLocator fork1 = ServiceLocatorFactory.getInstance().fork(null, template);
+        ServiceLocator fork2 = ServiceLocatorFactory.getInstance().fork(null, template);
+        
+        Assert.assertEquals(source.getAllServiceHandles(BuilderHelper.allFilter()).size(),
+                fork1.getAllServiceHandles(BuilderHelper.allFilter()).size());
+        
+        SimpleService simple1 = fork1.getService(SimpleService.class);
+        SimpleService simple2 = fork2.getService(SimpleService.class);
+        
+        Assert.assertNotNull(simple1);
+        Assert.assertNotNull(simple2);
+        Assert.assertNotSame(sourceSimple, simple1);
+        Assert.assertNotSame(simple1, simple2);
+        Assert.assertSame(simple1, fork1.getService(SimpleService.class));
+        
+        Assert.assertSame(fork1, simple1.getLocator());
+        Assert.assertSame(fork2, simple2.getLocator());
+        Assert.assertNotNull(simple1.getDependency());
+        
+        BoundService bound = fork1.getService(BoundService.class);
+        Assert.assertSame(simple1, bound.getSimpleService());
+        
+        Widget widget = fork1.getService(Widget.class);
+        Assert.assertSame(fork1.getService(WidgetFactory.class), widget.getFactory());
+        Assert.assertNotSame(fork2.getService(WidgetFactory.class), widget.getFactory());
+        
+        Assert.assertEquals(CONSTANT, fork2.getService(String.class));
+    }
+    
+    /**
+     * Tests that the descriptors of a forked locator start out reified
+     */
+    @Test // @org.junit.Ignore
+    public void testForkedDescriptorsAreReified() {
+        ServiceLocator source = createSource();
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        
+        ServiceLocator fork = ServiceLocatorFactory.getInstance().fork(null, template);
+        
+        ActiveDescriptor<?> simple = fork.getBestDescriptor(BuilderHelper.createContractFilter(SimpleService.class.getName()));
+        Assert.assertTrue(simple.isReified());
+        Assert.assertEquals(fork.getLocatorId(), simple.getLocatorId().longValue());
+        Assert.assertEquals(2, simple.getInjectees().size());
+        
+        ActiveDescriptor<?> bound = fork.getBestDescriptor(BuilderHelper.createContractFilter(BoundService.class.getName()));
+        Assert.assertTrue(bound.isReified());
+        Assert.assertEquals(Singleton.class, bound.getScopeAnnotation());
+    }
+    
+    /**
+     * Tests that changing the rank of a forked descriptor does
+     * not change the template or other forks
+     */
+    @Test // @org.junit.Ignore
+    public void testRankingIsCopiedOnWrite() {
+        ServiceLocator source = createSource();
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        
+        ServiceLocator fork1 = ServiceLocatorFactory.getInstance().fork(null, template);
+        ServiceLocator fork2 = ServiceLocatorFactory.getInstance().fork(null, template);
+        
+        ActiveDescriptor<?> bound1 = fork1.getBestDescriptor(BuilderHelper.createContractFilter(BoundService.class.getName()));
+        Assert.assertEquals(0, bound1.setRanking(10));
+        Assert.assertEquals(10, bound1.getRanking());
+        
+        ActiveDescriptor<?> bound2 = fork2.getBestDescriptor(BuilderHelper.createContractFilter(BoundService.class.getName()));
+        Assert.assertEquals(0, bound2.getRanking());
+        
+        ServiceLocator fork3 = ServiceLocatorFactory.getInstance().fork(null, template);
+        ActiveDescriptor<?> bound3 = fork3.getBestDescriptor(BuilderHelper.createContractFilter(BoundService.class.getName()));
+        Assert.assertEquals(0, bound3.getRanking());
+    }
+    
+    /**
+     * Tests that forks keep the parent of the frozen locator and
+     * are tracked by name like any other locator
+     */
+    @Test // @org.junit.Ignore
+    public void testNamedForkWithParent() {
+        ServiceLocator parent = ServiceLocatorFactory.getInstance().create(null);
+        ServiceLocatorUtilities.addOneConstant(parent, CONSTANT);
+        
+        ServiceLocator source = ServiceLocatorFactory.getInstance().create(null, parent);
+        ServiceLocatorUtilities.addClasses(source, SimpleService.class, Dependency.class);
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        Assert.assertSame(parent, template.getParent());
+        
+        String name = NAME_PREFIX + "NamedFork";
+        ServiceLocator fork = ServiceLocatorFactory.getInstance().fork(name, template);
+        try {
+            Assert.assertEquals(name, fork.getName());
+            Assert.assertSame(fork, ServiceLocatorFactory.getInstance().find(name));
+            Assert.assertSame(parent, fork.getParent());
+            
+            Assert.assertEquals(CONSTANT, fork.getService(String.class));
+            Assert.assertNotNull(fork.getService(SimpleService.class));
+            
+            // Only the local services are copied, the constant is still only in the parent
+            List<ActiveDescriptor<?>> constants = fork.getDescriptors(BuilderHelper.createContractFilter(String.class.getName()));
+            Assert.assertEquals(1, constants.size());
+            Assert.assertEquals(parent.getLocatorId(), constants.get(0).getLocatorId().longValue());
+        }
+        finally {
+            ServiceLocatorFactory.getInstance().destroy(fork);
+        }
+        
+        Assert.assertNull(ServiceLocatorFactory.getInstance().find(name));
+    }
+    
+    /**
+     * Tests that a fork has only its own built in services, and not
+     * those of the frozen locator
+     */
+    @Test // @org.junit.Ignore
+    public void testForkHasOnlyItsOwnBuiltInServices() {
+        ServiceLocator source = createSource();
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        
+        ServiceLocator fork = ServiceLocatorFactory.getInstance().fork(null, template);
+        
+        List<ActiveDescriptor<?>> locators = fork.getDescriptors(BuilderHelper.createContractFilter(ServiceLocator.class.getName()));
+        Assert.assertEquals(1, locators.size());
+        Assert.assertEquals(fork.getLocatorId(), locators.get(0).getLocatorId().longValue());
+        
+        Assert.assertSame(fork, fork.getService(ServiceLocator.class));
+        Assert.assertEquals(source.getDescriptors(BuilderHelper.allFilter()).size(),
+                fork.getDescriptors(BuilderHelper.allFilter()).size());
+    }
+    
+    /**
+     * Tests that a template can still be forked after the
+     * locator it was frozen from has been shut down
+     */
+    @Test // @org.junit.Ignore
+    public void testForkAfterSourceShutdown() {
+        ServiceLocator source = createSource();
+        source.getService(SimpleService.class);
+        
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        source.shutdown();
+        
+        ServiceLocator fork = ServiceLocatorFactory.getInstance().fork(null, template);
+        
+        SimpleService simple = fork.getService(SimpleService.class);
+        Assert.assertNotNull(simple);
+        Assert.assertSame(fork, simple.getLocator());
+        Assert.assertNotNull(fork.getService(Widget.class));
+        Assert.assertEquals(CONSTANT, fork.getService(String.class));
+    }
+    
+    private static void addBound(ServiceLocator locator) {
+        for (int lcv = 0; lcv < NUM_BOUND; lcv++) {
+            ServiceLocatorUtilities.addOneDescriptor(locator,
+                BuilderHelper.link(BoundService.class).named(NAME_PREFIX + lcv).in(Singleton.class.getName()).build());
+        }
+        
+        ServiceLocatorUtilities.addClasses(locator, SimpleService.class, Dependency.class);
+    }
+    
+    /**
+     * Compares populating locators with forking them from a template
+     */
+    @Test @org.junit.Ignore
+    public void testForkSpeed() {
+        long elapsed = System.currentTimeMillis();
+        for (int lcv = 0; lcv < NUM_LOCATORS; lcv++) {
+            ServiceLocator locator = ServiceLocatorFactory.getInstance().create(null);
+            addBound(locator);
+            
+            Assert.assertEquals(NUM_BOUND, locator.getAllServices(BoundService.class).size());
+            
+            ServiceLocatorFactory.getInstance().destroy(locator);
+        }
+        elapsed = System.currentTimeMillis() - elapsed;
+        
+        System.out.println("Creating " + NUM_LOCATORS + " populated locators took " + elapsed + " milliseconds");
+        
+        ServiceLocator source = ServiceLocatorFactory.getInstance().create(null);
+        addBound(source);
+        ServiceLocatorTemplate template = ServiceLocatorFactory.getInstance().freeze(source);
+        
+        elapsed = System.currentTimeMillis();
+        for (int lcv = 0; lcv < NUM_LOCATORS; lcv++) {
+            ServiceLocator locator = ServiceLocatorFactory.getInstance().fork(null, template);
+            
+            Assert.assertEquals(NUM_BOUND, locator.getAllServices(BoundService.class).size());
+            
+            ServiceLocatorFactory.getInstance().destroy(locator);
+        }
+        elapsed = System.currentTimeMillis() - elapsed;
+        
+        System.out.println("Forking " + NUM_LOCATORS + " locators from a template took " + elapsed + " milliseconds");
+    }
+
+}
@@ -40,13 +40,8 @@
 
 package org.jvnet.hk2.testing.junit;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -57,9 +52,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
+import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.DynamicConfiguration;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -71,10 +65,9 @@ import org.jvnet.hk2.testing.junit.annotations.Classes;
 import org.jvnet.hk2.testing.junit.annotations.Excludes;
 import org.jvnet.hk2.testing.junit.annotations.InhabitantFiles;
 import org.jvnet.hk2.testing.junit.annotations.Packages;
-import org.jvnet.hk2.testing.junit.internal.ClassVisitorImpl;
+import org.jvnet.hk2.testing.junit.internal.ClasspathScanCache;
 import org.jvnet.hk2.testing.junit.internal.ErrorServiceImpl;
 import org.jvnet.hk2.testing.junit.internal.JustInTimeInjectionResolverImpl;
-import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
 
 /**
  * This class should be extended by test classes in order to get an automatically
@@ -107,7 +100,6 @@ import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
  */
 public class HK2Runner {
     private final static String CLASS_PATH_PROP = "java.class.path";
-    private final static String DOT_CLASS = ".class";
     
     /**
      * Test classes can use this service locator as their private test locator
@@ -319,21 +311,11 @@ public class HK2Runner {
             URL url = resources.nextElement();
            
             try {
-                InputStream urlStream = url.openStream();
-                
-                BufferedReader reader = new BufferedReader(new InputStreamReader(urlStream));
-                
-                boolean goOn = true;
-                while (goOn) {
-                    DescriptorImpl bindMe = new DescriptorImpl();
-                
-                    goOn = bindMe.readObject(reader);
-                    if (goOn == true && !excludes.contains(bindMe.getImplementation())) {
+                for (DescriptorImpl bindMe : ClasspathScanCache.getDescriptors(url)) {
+                    if (!excludes.contains(bindMe.getImplementation())) {
                         config.bind(bindMe);
                     }
                 }
-                
-                reader.close();
             }
             catch (IOException ioe) {
                 ioe.printStackTrace();
@@ -413,99 +395,55 @@ public class HK2Runner {
     
     private void addServicesFromPathDirectory(DynamicConfiguration config, List<String> packages, File directory, Set<String> excludes) {
         for (String pack : packages) {
-            File searchDir = new File(directory, convertToFileFormat(pack));
-            if (!searchDir.exists()) continue;
-            if (!searchDir.isDirectory()) continue;
-            
-            File candidates[] = searchDir.listFiles(new FilenameFilter() {
-
-                @Override
-                public boolean accept(File dir, String name) {
-                    if (name == null) return false;
-                    if (name.endsWith(DOT_CLASS)) return true;
-                    return false;
-                }
-                
-            });
-            
-            if (candidates == null) continue;
+            List<String> serviceNames;
+            try {
+                serviceNames = ClasspathScanCache.getServiceClassNamesFromDirectory(directory, pack);
+            }
+            catch (IOException ioe) {
+                // Just don't add them
+                continue;
+            }
             
-            for (File candidate : candidates) {
-                try {
-                    FileInputStream fis = new FileInputStream(candidate);
-                    
-                    addClassIfService(fis, excludes);
-                }
-                catch (IOException ioe) {
-                    // Just don't add it
-                }
+            for (String serviceName : serviceNames) {
+                addService(serviceName, excludes);
             }
         }
         
     }
     
     private void addServicesFromPathJar(DynamicConfiguration config, List<String> packages, File jar, Set<String> excludes) {
-        JarFile jarFile;
-        try {
-            jarFile = new JarFile(jar);
-        }
-        catch (IOException ioe) {
-            // Not a jar file, forget it
-            return;
-        }
-        
-        try {
-            for (String pack : packages) {
-                String packAsFile = convertToFileFormat(pack);
-                int packAsFileLen = packAsFile.length() + 1;
-            
-                Enumeration<JarEntry> entries = jarFile.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                
-                    String entryName = entry.getName();
-                    if (!entryName.startsWith(packAsFile)) {
-                        // Not in the correct directory
-                        continue;
-                    }
-                    if (entryName.substring(packAsFileLen).contains("/")) {
-                        // Next directory down
-                        continue;
-                    }
-                    if (!entryName.endsWith(DOT_CLASS)) {
-                        // Not a class
-                        continue;
-                    }
-                
-                    try {
-                        addClassIfService(jarFile.getInputStream(entry), excludes);
-                    }
-                    catch (IOException ioe) {
-                        // Simply don't add it if we can't read it
-                    }
-                }
-            }
-        }
-        finally {
+        for (String pack : packages) {
+            List<String> serviceNames;
             try {
-                jarFile.close();
+                serviceNames = ClasspathScanCache.getServiceClassNamesFromZip(jar, pack, false);
             }
-            catch (IOException e) {
-                // Ignore
+            catch (IOException ioe) {
+                // Not a jar file or can not be read, forget it
+                return;
+            }
+            
+            for (String serviceName : serviceNames) {
+                addService(serviceName, excludes);
             }
         }
     }
     
-    private void addClassIfService(InputStream is, Set<String> excludes) throws IOException {
-        ClassReader reader = new ClassReader(is);
+    private void addService(String implName, Set<String> excludes) {
+        if (excludes.contains(implName)) return;
         
-        ClassVisitorImpl cvi = new ClassVisitorImpl(testLocator, verbose, excludes);
+        Class<?> implClass = null;
+        try {
+            implClass = Class.forName(implName);
+        }
+        catch (Throwable th) {
+            System.out.println("HK2Runner could not classload service " + implName + ", skipping...");
+            return;
+        }
         
-        reader.accept(cvi, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        List<ActiveDescriptor<?>> added = ServiceLocatorUtilities.addClasses(testLocator, implClass);
         
-    }
-    
-    private static String convertToFileFormat(String clazzFormat) {
-        return clazzFormat.replaceAll("\\.", "/");
+        if (verbose && !added.isEmpty()) {
+            System.out.println("HK2Runner bound service " + added.get(0));
+        }
     }
 }
@@ -39,13 +39,8 @@
  */
 package org.jvnet.hk2.testing.junit;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintStream; // for javadoc only
 
 import java.lang.annotation.Annotation;
@@ -54,23 +49,27 @@ import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+
 import java.lang.reflect.AnnotatedElement;
 
 import java.net.URL;
 
 import java.util.Arrays;
 import java.util.ArrayDeque;
-import java.util.Collection; // for javadoc only
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipFile; // for javadoc only
 
 import javax.inject.Singleton;
 
@@ -83,16 +82,11 @@ import org.glassfish.hk2.api.Filter;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.ServiceLocatorFactory;
 import org.glassfish.hk2.api.ServiceLocatorState;
-
-import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
-import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
-import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
-import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.glassfish.hk2.api.ServiceLocatorTemplate;
 
 import org.glassfish.hk2.utilities.AbstractActiveDescriptor;
 import org.glassfish.hk2.utilities.Binder;
 import org.glassfish.hk2.utilities.BuilderHelper;
-import org.glassfish.hk2.utilities.DescriptorImpl;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 
 import org.junit.ClassRule; // for javadoc only
@@ -110,7 +104,7 @@ import org.jvnet.hk2.testing.junit.annotations.Classes;
 import org.jvnet.hk2.testing.junit.annotations.InhabitantFiles;
 import org.jvnet.hk2.testing.junit.annotations.Packages;
 
-import org.jvnet.hk2.testing.junit.internal.ClassVisitorImpl;
+import org.jvnet.hk2.testing.junit.internal.ClasspathScanCache;
 import org.jvnet.hk2.testing.junit.internal.ErrorServiceImpl;
 
 import static org.junit.Assert.assertEquals;
@@ -187,6 +181,23 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    */
   private ServiceLocator serviceLocator;
 
+  /**
+   * The {@link ServiceLocatorTemplate}s used by the {@link
+   * ServiceLocatorIsolation#PER_TEST_FORKED PER_TEST_FORKED}
+   * isolation level, indexed by test class and then by {@link
+   * ServiceLocatorTestRule} class.
+   *
+   * <p>The classes are weakly held and the templates softly held, so
+   * that neither the templates nor the classes they refer to outlive
+   * the test classes that use them once memory is needed.  Access
+   * must be synchronized on this field.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getServiceLocatorTemplate(Description)
+   */
+  private static final Map<Class<?>, Map<Class<?>, Reference<ServiceLocatorTemplate>>> templates = new WeakHashMap<Class<?>, Map<Class<?>, Reference<ServiceLocatorTemplate>>>();
+
 
   /*
    * Constructors.
@@ -399,6 +410,15 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    *
    * </ol>
    *
+   * <p>If the {@linkplain #getServiceLocatorIsolation()
+   * <code>ServiceLocator</code> isolation level} is {@link
+   * ServiceLocatorIsolation#PER_TEST_FORKED PER_TEST_FORKED} then the
+   * {@link ErrorServiceImpl} class and the services named by the
+   * {@link Classes}, {@link Packages} and {@link InhabitantFiles}
+   * annotations are already present in the supplied {@link
+   * ServiceLocator}, since it was forked from a template that
+   * contains them, and so are not added again.</p>
+   *
    * @param serviceLocator the {@link ServiceLocator} to configure;
    * must not be {@code null}
    *
@@ -422,7 +442,10 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
       final DynamicConfiguration dynamicConfiguration = dynamicConfigurationService.createDynamicConfiguration();
       assertNotNull(dynamicConfiguration);
 
-      dynamicConfiguration.addActiveDescriptor(ErrorServiceImpl.class);
+      final boolean forked = this.getServiceLocatorIsolation() == ServiceLocatorIsolation.PER_TEST_FORKED;
+      if (!forked) {
+        dynamicConfiguration.addActiveDescriptor(ErrorServiceImpl.class);
+      }
       
       final Filter unbindFilter = BuilderHelper.createContractFilter(Description.class.getName());
       assertNotNull(unbindFilter);
@@ -434,9 +457,11 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
       descriptionDescriptor.setScope(Singleton.class.getName());
       dynamicConfiguration.addActiveDescriptor(descriptionDescriptor);
 
-      this.bind(dynamicConfiguration, this.getClass());
+      if (!forked) {
+        this.bind(dynamicConfiguration, this.getClass());
       
-      this.bind(dynamicConfiguration, testClass);
+        this.bind(dynamicConfiguration, testClass);
+      }
 
       this.bind(dynamicConfiguration);
       
@@ -487,7 +512,7 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    *
    * @see #getClassesFromDirectory(Set, File, boolean)
    *
-   * @see #getClassesFromZipFile(Set, ZipFile)
+   * @see #getClassesFromZipFile(Set, File)
    */
   private final Set<Class<?>> getClassesFromPackages(final Set<String> packageNames) throws IOException {
     final Set<Class<?>> returnValue = new LinkedHashSet<Class<?>>();
@@ -503,18 +528,7 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
               returnValue.addAll(getClassesFromDirectory(packageNames, classpathEntryFile, this.isVerbose()));
             } else if (classpathEntryFile.exists()) {
               // Zip format
-              final ZipFile zipFile = new ZipFile(classpathEntryFile);
-              try {
-                returnValue.addAll(this.getClassesFromZipFile(packageNames, zipFile));
-              } finally {
-                try {
-                  if (zipFile != null) {
-                    zipFile.close();
-                  }
-                } catch (final IOException ignore) {
-
-                }
-              }
+              returnValue.addAll(getClassesFromZipFile(packageNames, classpathEntryFile));
             }
           }
         }
@@ -530,6 +544,10 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    * inside it that belong to one of the supplied package names and
    * returns a {@link Set} of such {@link Class}es.
    *
+   * <p>The names of the {@link Service}-annotated classes are kept in
+   * a JVM-wide {@link ClasspathScanCache} so each {@link ZipFile} is
+   * only scanned again if it changes.</p>
+   *
    * @param packageNames a {@link Set} of package names; may be {@code
    * null} in which case an {@linkplain Collection#isEmpty() empty}
    * {@link Set} will be returned
@@ -544,37 +562,12 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    * @exception IOException if an error occurred reading the {@link
    * ZipFile}
    */
-  private final Set<Class<?>> getClassesFromZipFile(final Set<String> packageNames, final ZipFile zipFile) throws IOException {
+  private static final Set<Class<?>> getClassesFromZipFile(final Set<String> packageNames, final File zipFile) throws IOException {
     final Set<Class<?>> returnValue = new LinkedHashSet<Class<?>>();
     if (packageNames != null && !packageNames.isEmpty() && zipFile != null) {
       for (final String packageName : packageNames) {
         if (packageName != null) {
-          final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-          if (entries != null && entries.hasMoreElements()) {
-            final String packagePath = packageName.replace('.', '/');
-            assert packagePath != null;
-            while (entries.hasMoreElements()) {
-              final ZipEntry entry = entries.nextElement();
-              if (entry != null && !entry.isDirectory()) {
-                final String entryName = entry.getName();
-                if (entryName != null && entryName.startsWith(packagePath) && entryName.endsWith(".class")) {
-                  final InputStream entryStream = zipFile.getInputStream(entry);
-                  try {
-                    final Visitor classVisitor = new Visitor(returnValue, this.isVerbose());
-                    new ClassReader(entryStream).accept(classVisitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-                  } finally {
-                    if (entryStream != null) {
-                      try {
-                        entryStream.close();
-                      } catch (final IOException ignore) {
-
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }
+          loadClasses(returnValue, ClasspathScanCache.getServiceClassNamesFromZip(zipFile, packageName, true));
         }
       }
     }
@@ -922,11 +915,100 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    */
   protected ServiceLocator createServiceLocator(final Description testDescription) {
     assertNotNull(testDescription);
-    final ServiceLocator returnValue = ServiceLocatorFactory.getInstance().create(this.getServiceLocatorName(testDescription));
+    final ServiceLocator returnValue;
+    if (this.getServiceLocatorIsolation() == ServiceLocatorIsolation.PER_TEST_FORKED) {
+      returnValue = ServiceLocatorFactory.getInstance().fork(this.getServiceLocatorName(testDescription), this.getServiceLocatorTemplate(testDescription));
+    } else {
+      returnValue = ServiceLocatorFactory.getInstance().create(this.getServiceLocatorName(testDescription));
+    }
     assertNotNull(returnValue);
     return returnValue;
   }
 
+  /**
+   * Returns the {@link ServiceLocatorTemplate} from which {@link
+   * ServiceLocatorIsolation#PER_TEST_FORKED PER_TEST_FORKED} {@link
+   * ServiceLocator}s for the test class described by the supplied
+   * {@link Description} are forked, creating it if necessary.
+   *
+   * <p>Templates are created once per {@link ServiceLocatorTestRule}
+   * class and test class and are shared by all the tests in the
+   * JVM, unless they have been collected in the meantime.  A
+   * template is created by freezing a {@link ServiceLocator} to
+   * which the {@link ErrorServiceImpl} class and the services
+   * named by the {@link Classes}, {@link Packages} and {@link
+   * InhabitantFiles} annotations decorating this {@link
+   * ServiceLocatorTestRule}'s class and the test class have been
+   * added.  That {@link ServiceLocator} is {@linkplain
+   * ServiceLocator#shutdown() shut down} as soon as it has been
+   * frozen, since the template does not depend on it.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param testDescription the {@link Description} describing the
+   * currently executing JUnit test; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link ServiceLocatorTemplate}
+   *
+   * @exception AssertionError if {@code testDescription} is {@code
+   * null} or if the locator the template is frozen from could not be
+   * configured
+   *
+   * @see ServiceLocatorFactory#freeze(ServiceLocator)
+   */
+  private final ServiceLocatorTemplate getServiceLocatorTemplate(final Description testDescription) {
+    assertNotNull(testDescription);
+    final Class<?> testClass = testDescription.getTestClass();
+    assertNotNull(testClass);
+    final Class<?> ruleClass = this.getClass();
+    ServiceLocatorTemplate returnValue = getTemplate(testClass, ruleClass);
+    if (returnValue == null) {
+      final ServiceLocatorFactory factory = ServiceLocatorFactory.getInstance();
+      
+      // Not tracked by the factory; the template does not use it once
+      // frozen, so it is shut down right away
+      final ServiceLocator frozen = factory.create(null);
+      assertNotNull(frozen);
+      try {
+        final DynamicConfigurationService dynamicConfigurationService = frozen.getService(DynamicConfigurationService.class);
+        assertNotNull(dynamicConfigurationService);
+        final DynamicConfiguration dynamicConfiguration = dynamicConfigurationService.createDynamicConfiguration();
+        assertNotNull(dynamicConfiguration);
+        
+        dynamicConfiguration.addActiveDescriptor(ErrorServiceImpl.class);
+        try {
+          this.bind(dynamicConfiguration, this.getClass());
+          this.bind(dynamicConfiguration, testClass);
+        } catch (final IOException ioException) {
+          throw new AssertionError(ioException);
+        }
+        dynamicConfiguration.commit();
+        
+        returnValue = factory.freeze(frozen);
+        assertNotNull(returnValue);
+      } finally {
+        frozen.shutdown();
+      }
+      
+      // The losing template holds nothing that needs releasing,
+      // its locator has already been shut down
+      synchronized (templates) {
+        final ServiceLocatorTemplate existing = getTemplate(testClass, ruleClass);
+        if (existing == null) {
+          Map<Class<?>, Reference<ServiceLocatorTemplate>> byRuleClass = templates.get(testClass);
+          if (byRuleClass == null) {
+            byRuleClass = new WeakHashMap<Class<?>, Reference<ServiceLocatorTemplate>>();
+            templates.put(testClass, byRuleClass);
+          }
+          byRuleClass.put(ruleClass, new SoftReference<ServiceLocatorTemplate>(returnValue));
+        } else {
+          returnValue = existing;
+        }
+      }
+    }
+    return returnValue;
+  }
+
   /**
    * Returns a name for a {@link ServiceLocator} that is appropriate
    * for the supplied {@link Description}.
@@ -953,7 +1035,7 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
     assertNotNull(testClassName);
     final StringBuilder name = new StringBuilder(testClassName);
     final ServiceLocatorIsolation isolation = this.getServiceLocatorIsolation();
-    if (isolation == null || isolation == ServiceLocatorIsolation.PER_TEST) {
+    if (isolation == null || isolation != ServiceLocatorIsolation.PER_TEST_CLASS) {
       final String testMethodName = testDescription.getMethodName();
       assertNotNull(testMethodName);
       name.append(".").append(testMethodName);
@@ -1007,8 +1089,9 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    *
    * <li>If the {@linkplain #getServiceLocatorIsolation()
    * <code>ServiceLocator</code> isolation level} is {@link
-   * ServiceLocatorIsolation#PER_TEST PER_TEST}, calls the {@link
-   * #shutdownAndDestroyServiceLocator(Description)} method with a
+   * ServiceLocatorIsolation#PER_TEST PER_TEST} or {@link
+   * ServiceLocatorIsolation#PER_TEST_FORKED PER_TEST_FORKED}, calls
+   * the {@link #shutdownAndDestroyServiceLocator(Description)} method with a
    * {@link Description} instance that describes the JUnit test method
    * that just executed</li>
    *
@@ -1024,7 +1107,7 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
       }
       this.serviceLocator.preDestroy(this);
       final ServiceLocatorIsolation isolation = this.getServiceLocatorIsolation();
-      if (isolation == null || this.isolation == ServiceLocatorIsolation.PER_TEST) {
+      if (isolation == null || isolation != ServiceLocatorIsolation.PER_TEST_CLASS) {
         this.shutdownAndDestroyServiceLocator(this.getDescription());
       }
     }  
@@ -1055,6 +1138,33 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    */
   
 
+  /**
+   * Returns the {@link ServiceLocatorTemplate} cached for the
+   * supplied test class and {@link ServiceLocatorTestRule} class, or
+   * {@code null} if there is none.
+   *
+   * @param testClass the test class; must not be {@code null}
+   *
+   * @param ruleClass the {@link ServiceLocatorTestRule} class; must
+   * not be {@code null}
+   *
+   * @return the cached {@link ServiceLocatorTemplate}, or {@code
+   * null}
+   */
+  private static final ServiceLocatorTemplate getTemplate(final Class<?> testClass, final Class<?> ruleClass) {
+    synchronized (templates) {
+      final Map<Class<?>, Reference<ServiceLocatorTemplate>> byRuleClass = templates.get(testClass);
+      if (byRuleClass == null) {
+        return null;
+      }
+      final Reference<ServiceLocatorTemplate> reference = byRuleClass.get(ruleClass);
+      if (reference == null) {
+        return null;
+      }
+      return reference.get();
+    }
+  }
+
   /**
    * Given a {@link Set} of package names and a {@link File}
    * designating an {@linkplain File#isDirectory() existing directory}
@@ -1063,6 +1173,10 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    * Class}es that can be found there that belong to one of the
    * supplied package names.
    *
+   * <p>The names of the {@link Service}-annotated classes are kept in
+   * a JVM-wide {@link ClasspathScanCache} so each package directory
+   * is only scanned again if it changes.</p>
+   *
    * <p>This method never returns {@code null}.</p>
    *
    * @param packageNames a {@link Set} of package names; may be {@code
@@ -1086,40 +1200,38 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
     if (packageNames != null && directory != null && !packageNames.isEmpty() && directory.isDirectory() && directory.canRead()) {
       for (final String packageName : packageNames) {
         if (packageName != null) {
-          final File packagePath = new File(directory, packageName.replace('.', '/'));
-          if (packagePath.isDirectory() && packagePath.canRead()) {
-            final File[] candidates = packagePath.listFiles(new FilenameFilter() {
-                @Override
-                public final boolean accept(final File directory, final String name) {
-                  return name != null && name.endsWith(".class");
-                }
-              });
-            if (candidates != null && candidates.length > 0) {
-              for (final File candidate : candidates) {
-                if (candidate != null && candidate.isFile() && candidate.canRead()) {
-                  final InputStream fileInputStream = new FileInputStream(candidate);
-                  try {
-                    final Visitor classVisitor = new Visitor(returnValue, verbose);
-                    new ClassReader(fileInputStream).accept(classVisitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-                  } finally {
-                    if (fileInputStream != null) {
-                      try {
-                        fileInputStream.close();
-                      } catch (final IOException ignore) {
-
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }
+          loadClasses(returnValue, ClasspathScanCache.getServiceClassNamesFromDirectory(directory, packageName));
         }
       }
     }
     return returnValue;
   }
 
+  /**
+   * {@linkplain Class#forName(String, boolean, ClassLoader) Loads},
+   * using the {@linkplain Thread#getContextClassLoader() context
+   * <code>ClassLoader</code>}, each of the named classes and adds
+   * them to the supplied {@link Set}.  Classes that cannot be found
+   * are skipped.
+   *
+   * @param classes the {@link Set} to add the loaded {@link Class}es
+   * to; must not be {@code null}
+   *
+   * @param classNames the names of the classes to load; must not be
+   * {@code null}
+   */
+  private static final void loadClasses(final Set<Class<?>> classes, final Collection<String> classNames) {
+    assertNotNull(classes);
+    assertNotNull(classNames);
+    for (final String className : classNames) {
+      try {
+        classes.add(Class.forName(className, true, Thread.currentThread().getContextClassLoader()));
+      } catch (final ClassNotFoundException classNotFoundException) {
+        classNotFoundException.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Returns {@code true} if the supplied {@link Annotation} is {@code
    * null} or designates an annotation type that should be excluded
@@ -1244,10 +1356,10 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
   }
 
   /**
-   * {@linkplain URL#openStream() Opens an <code>InputStream</code>}
-   * to the supplied {@link URL}, wraps a {@link BufferedReader}
-   * around it, and calls the {@link #bind(DynamicConfiguration,
-   * BufferedReader)} method.
+   * {@linkplain ClasspathScanCache#getDescriptors(URL) Reads, or finds
+   * in the JVM-wide cache,} the HK2 locator file at the supplied {@link
+   * URL} and {@linkplain DynamicConfiguration#bind(Descriptor) binds
+   * the <code>Descriptor</code>}s it represents.
    *
    * @param configuration a {@link DynamicConfiguration} that will
    * perform the binding; must not be {@code null}
@@ -1261,58 +1373,15 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
    * @exception IOException if there was a problem reading locator
    * files
    *
-   * @see #bind(DynamicConfiguration, BufferedReader)
-   */
-  private static final void bind(final DynamicConfiguration configuration, final URL locatorResource) throws IOException {
-    assertNotNull(configuration);
-    if (locatorResource != null) {
-      final BufferedReader reader = new BufferedReader(new InputStreamReader(locatorResource.openStream()));
-      try {
-        bind(configuration, reader);
-      } finally {
-        if (reader != null) {
-          try {
-            reader.close();
-          } catch (final IOException ignore) {
-            
-          }
-        }
-      }
-    }
-  }
-
-  /**
-   * {@linkplain DescriptorImpl#readObject(BufferedReader) Reads} the
-   * HK2 locator file represented by the supplied {@link
-   * BufferedReader} and {@linkplain
-   * DynamicConfiguration#bind(Descriptor) binds the
-   * <code>Descriptor</code>}s it represents.
-   *
-   * @param configuration a {@link DynamicConfiguration} that will
-   * perform the binding; must not be {@code null}
-   *
-   * @param reader a {@link BufferedReader} reading a stream of
-   * descriptor information as parseable by the {@link
-   * DescriptorImpl#readObject(BufferedReader)} method; may be {@code
-   * null} in which case no action will be performed
-   *
-   * @exception AssertionError if {@code configuration} is {@code
-   * null}
-   *
-   * @exception IOException if there was a problem reading locator
-   * files
-   *
-   * @see DescriptorImpl#readObject(BufferedReader)
+   * @see ClasspathScanCache#getDescriptors(URL)
    *
    * @see DynamicConfiguration#bind(Descriptor)
    */
-  private static final void bind(final DynamicConfiguration configuration, final BufferedReader reader) throws IOException {
+  private static final void bind(final DynamicConfiguration configuration, final URL locatorResource) throws IOException {
     assertNotNull(configuration);
-    if (reader != null) {
-      DescriptorImpl descriptor = new DescriptorImpl();
-      while (descriptor.readObject(reader)) {
+    if (locatorResource != null) {
+      for (final Descriptor descriptor : ClasspathScanCache.getDescriptors(locatorResource)) {
         configuration.bind(descriptor);
-        descriptor = new DescriptorImpl();
       }
     }
   }
@@ -1340,6 +1409,8 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
      * isolation level is per JUnit test method.
      *
      * @see #PER_TEST_CLASS
+     *
+     * @see #PER_TEST_FORKED
      */
     PER_TEST,
 
@@ -1351,165 +1422,24 @@ public class ServiceLocatorTestRule<T> extends ExternalResource implements Binde
      *
      * @see ClassRule
      */
-    PER_TEST_CLASS
-  }
-
-
-  /**
-   * A very, very special-purpose {@link ClassVisitorImpl} suitable
-   * only for use by the {@link ServiceLocatorTestRule} class to
-   * determine efficiently whether a given {@link Class} is annotated
-   * with {@link Service} or not.
-   *
-   * @author <a href="mailto:ljnelson@gmail.com">Laird Nelson</a>
-   *
-   * @since 2.4.0-b33
-   *
-   * @see ServiceLocatorTestRule
-   *
-   * @see ClassVisitorImpl
-   */
-  private static final class Visitor extends ClassVisitorImpl {
-
-    /**
-     * The fully qualified class name of the {@link Class} being
-     * visited.
-     *
-     * <p>This field may be {@code null}.</p>
-     *
-     * <p>This field is set by the {@link #visit(int, int, String, String, String, String[])} method.</p>
-     *
-     * @see #visit(int, int, String, String, String, String[])
-     */
-    private String className;
-
-    /**
-     * A {@link Set} of {@link Class}es that will be added to by the
-     * {@link #visitAnnotation(String, boolean)} method.
-     *
-     * <p>This field is never {@code null}.</p>
-     *
-     * @see
-     * ServiceLocatorTestRule.Visitor#ServiceLocatorTestRule.Visitor(Set, boolean)
-     *
-     * @see #visitAnnotation(String, boolean)
-     */
-    private final Set<Class<?>> classes;
-
-
-    /*
-     * Constructors.
-     */
-
-
-    /**
-     * Creates a new {@link Visitor}.
-     *
-     * @param classes A {@link Set} of {@link Class}es that will be
-     * added to by the {@link #visitAnnotation(String, boolean)}
-     * method; must not be {@code null}; must be mutable
-     *
-     * @param verbose whether or not additional information should be
-     * output
-     *
-     * @see #visitAnnotation(String, boolean)
-     */
-    private Visitor(final Set<Class<?>> classes, final boolean verbose) {
-      super(null, verbose, Collections.<String>emptySet());
-      assertNotNull(classes);
-      this.classes = classes;
-    }
-
-
-    /*
-     * Instance methods.
-     */
-
+    PER_TEST_CLASS,
 
     /**
-     * Called when a class file is encountered and internally records
-     * its fully qualified class name.
-     *
-     * <p>It is guaranteed that this method will be called before the
-     * {@link #visitAnnotation(String, boolean)} method on the current
-     * thread.</p>
-     *
-     * @param version ignored
-     *
-     * @param access ignored
-     *
-     * @param name the name of the class, whose package segments are
-     * separated with slashes ("{@code /}"); may be {@code null}
-     *
-     * @param signature ignored
-     *
-     * @param superName ignored
-     *
-     * @param interfaces ignored
-     *
-     * @see #visitAnnotation(String, boolean)
-     */
-    @Override
-    public final void visit(final int version,
-                            final int access,
-                            final String name,
-                            final String signature,
-                            final String superName,
-                            final String[] interfaces) {
-      
-      // Guaranteed to be called before visitAnnotation().
-      
-      if (name == null) {
-        this.className = null;
-      } else {
-        this.className = name.replace('/', '.');
-      }
-    }
-
-    /**
-     * If the supplied {@code annotationClassDescriptor} is equal to
-     * "{@code Lorg/jvnet/hk2/annotations/Service;}", and if the
-     * supplied {@code visible} parameter is {@code true}, attempts to
-     * {@linkplain Class#forName(String, boolean, ClassLoader) load}
-     * the {@link Class} encountered in the prior (guaranteed) call to
-     * the {@link #visit(int, int, String, String, String, String[])}
-     * method, and, if that is successful, adds the resulting {@link
-     * Class} to the {@linkplain
-     * ServiceLocatorTestRule.Visitor#ServiceLocatorTestRule.Visitor(Set,
-     * boolean) <code>Set</code> of <code>Class</code>es that was
-     * supplied at construction time}.
-     *
-     * @param annotationClassDescriptor the descriptor for the
-     * annotation being visited; may be {@code null}
-     *
-     * @param visible whether the annotation is visible or not
+     * A {@link ServiceLocatorIsolation} indicating that the desired
+     * isolation level is per JUnit test method, and that each test
+     * method's {@link ServiceLocator} should be {@linkplain
+     * ServiceLocatorFactory#fork(String, ServiceLocatorTemplate)
+     * forked} from a {@link ServiceLocatorTemplate} that is built
+     * once per test class and shared by the whole JVM.
      *
-     * @return {@code null} when invoked
+     * <p>Each test still gets its own service instances, but the
+     * classpath is scanned and the services of the test class are
+     * analyzed only once.</p>
      *
-     * @see
-     * ServiceLocatorTestRule.Visitor#ServiceLocatorTestRule.Visitor(Set,
-     * boolean)
-     */
-    @Override
-    public final AnnotationVisitor visitAnnotation(final String annotationClassDescriptor, final boolean visible) {
-      if (visible && "Lorg/jvnet/hk2/annotations/Service;".equals(annotationClassDescriptor)) {
-        try {
-          this.classes.add(Class.forName(this.className, true, Thread.currentThread().getContextClassLoader()));
-        } catch (final ClassNotFoundException classNotFoundException) {
-          classNotFoundException.printStackTrace();
-        }
-      }
-      return null;
-    }
-
-    /**
-     * Does nothing when invoked.
+     * @see #PER_TEST
      */
-    @Override
-    public final void visitEnd() {
-
-    }
-    
+    PER_TEST_FORKED
   }
   
+
 }
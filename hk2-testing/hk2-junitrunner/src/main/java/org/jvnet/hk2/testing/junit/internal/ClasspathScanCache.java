@@ -0,0 +1,447 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.jvnet.hk2.testing.junit.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+
+/**
+ * A JVM-wide cache of the results of scanning the classpath for
+ * classes annotated with &#64;Service and of parsing hk2 inhabitant
+ * files.  Results are kept per classpath entry (directory or zip file)
+ * and are thrown away when the modification time or size of the entry
+ * changes.  This class is safe to use from multiple threads.
+ * 
+ * @author jwells
+ *
+ */
+public class ClasspathScanCache {
+    private final static String DOT_CLASS = ".class";
+    private final static String JAR_PROTOCOL = "jar";
+    private final static String FILE_PROTOCOL = "file";
+    private final static String JAR_SEPARATOR = "!/";
+    
+    /** Directory classpath entry and package to the services in that package */
+    private final static ConcurrentHashMap<String, Stamped<List<String>>> directories =
+            new ConcurrentHashMap<String, Stamped<List<String>>>();
+    
+    /** Zip file to the services it contains */
+    private final static ConcurrentHashMap<String, Stamped<ZipIndex>> zips =
+            new ConcurrentHashMap<String, Stamped<ZipIndex>>();
+    
+    /** Inhabitant file URL to the descriptors it contains */
+    private final static ConcurrentHashMap<String, Stamped<List<DescriptorImpl>>> inhabitants =
+            new ConcurrentHashMap<String, Stamped<List<DescriptorImpl>>>();
+    
+    private ClasspathScanCache() {
+    }
+    
+    /**
+     * Returns the names of the classes annotated with &#64;Service that are
+     * directly in the given package of the given directory classpath entry
+     * 
+     * @param directory A directory on the classpath
+     * @param packageName The package to search (in "." format)
+     * @return The names of the service classes found.  Will not return null
+     * @throws IOException If a class file could not be read
+     */
+    public static List<String> getServiceClassNamesFromDirectory(File directory, String packageName) throws IOException {
+        File packageDirectory = new File(directory, packageName.replace('.', '/'));
+        if (!packageDirectory.isDirectory()) return Collections.emptyList();
+        
+        File candidates[] = packageDirectory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name != null && name.endsWith(DOT_CLASS);
+            }
+            
+        });
+        if (candidates == null || candidates.length == 0) return Collections.emptyList();
+        
+        // Class files can change without the directory changing
+        long lastModified = packageDirectory.lastModified();
+        for (File candidate : candidates) {
+            lastModified = Math.max(lastModified, candidate.lastModified());
+        }
+        
+        String key = packageDirectory.getAbsolutePath();
+        Stamped<List<String>> cached = directories.get(key);
+        if (cached != null && cached.isCurrent(lastModified, candidates.length)) {
+            return cached.value;
+        }
+        
+        List<String> retVal = new ArrayList<String>();
+        for (File candidate : candidates) {
+            if (!candidate.isFile()) continue;
+            
+            InputStream fis = new FileInputStream(candidate);
+            try {
+                String serviceName = getServiceClassName(fis);
+                if (serviceName != null) retVal.add(serviceName);
+            }
+            finally {
+                fis.close();
+            }
+        }
+        
+        retVal = Collections.unmodifiableList(retVal);
+        directories.put(key, new Stamped<List<String>>(lastModified, candidates.length, retVal));
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns the names of the classes annotated with &#64;Service that are
+     * in the given package of the given zip file
+     * 
+     * @param zip A zip (or jar) file on the classpath
+     * @param packageName The package to search (in "." format)
+     * @param prefixMatch If false only classes directly in the package are
+     * returned.  If true every class whose entry name starts with the
+     * package path is returned, which includes the classes of sub-packages
+     * @return The names of the service classes found.  Will not return null
+     * @throws IOException If the zip file or a class in it could not be read
+     */
+    public static List<String> getServiceClassNamesFromZip(File zip, String packageName, boolean prefixMatch) throws IOException {
+        String packagePath = packageName.replace('.', '/');
+        
+        ZipIndex index = getZipIndex(zip);
+        
+        List<String> retVal = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> entry : index.classesByDirectory.entrySet()) {
+            String directory = entry.getKey();
+            
+            if (!prefixMatch) {
+                if (!directory.equals(packagePath)) continue;
+                
+                retVal.addAll(index.getServiceClassNames(zip, directory));
+                continue;
+            }
+            
+            String directoryPrefix = directory.length() == 0 ? "" : directory + "/";
+            if (directoryPrefix.startsWith(packagePath)) {
+                retVal.addAll(index.getServiceClassNames(zip, directory));
+            }
+            else if (packagePath.startsWith(directoryPrefix)) {
+                // Class names in this directory may still start with the package path
+                for (String serviceName : index.getServiceClassNames(zip, directory)) {
+                    if (serviceName.replace('.', '/').startsWith(packagePath)) {
+                        retVal.add(serviceName);
+                    }
+                }
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private static ZipIndex getZipIndex(File zip) throws IOException {
+        String key = zip.getAbsolutePath();
+        long lastModified = zip.lastModified();
+        long length = zip.length();
+        
+        Stamped<ZipIndex> cached = zips.get(key);
+        if (cached != null && cached.isCurrent(lastModified, length)) {
+            return cached.value;
+        }
+        
+        HashMap<String, List<String>> classesByDirectory = new HashMap<String, List<String>>();
+        
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) continue;
+                
+                String entryName = entry.getName();
+                if (!entryName.endsWith(DOT_CLASS)) continue;
+                
+                int lastSlash = entryName.lastIndexOf('/');
+                String directory = (lastSlash < 0) ? "" : entryName.substring(0, lastSlash);
+                
+                List<String> classes = classesByDirectory.get(directory);
+                if (classes == null) {
+                    classes = new ArrayList<String>();
+                    classesByDirectory.put(directory, classes);
+                }
+                
+                classes.add(entryName);
+            }
+        }
+        finally {
+            try {
+                zipFile.close();
+            }
+            catch (IOException ignore) {
+                // Ignored
+            }
+        }
+        
+        ZipIndex retVal = new ZipIndex(classesByDirectory);
+        zips.put(key, new Stamped<ZipIndex>(lastModified, length, retVal));
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns the descriptors in the given hk2 inhabitant file.  The returned
+     * descriptors are shared and must not be modified, they should be bound
+     * with a deep copy (which is the default for
+     * {@link org.glassfish.hk2.api.DynamicConfiguration#bind(org.glassfish.hk2.api.Descriptor)})
+     * 
+     * @param locatorResource The URL of the inhabitant file
+     * @return The descriptors in the inhabitant file.  Will not return null
+     * @throws IOException If the inhabitant file could not be read
+     */
+    public static List<DescriptorImpl> getDescriptors(URL locatorResource) throws IOException {
+        File backingFile = getBackingFile(locatorResource);
+        if (backingFile == null) {
+            // Can not tell if it has changed
+            return readDescriptors(locatorResource);
+        }
+        
+        String key = locatorResource.toExternalForm();
+        long lastModified = backingFile.lastModified();
+        long length = backingFile.length();
+        
+        Stamped<List<DescriptorImpl>> cached = inhabitants.get(key);
+        if (cached != null && cached.isCurrent(lastModified, length)) {
+            return cached.value;
+        }
+        
+        List<DescriptorImpl> retVal = readDescriptors(locatorResource);
+        inhabitants.put(key, new Stamped<List<DescriptorImpl>>(lastModified, length, retVal));
+        
+        return retVal;
+    }
+    
+    /**
+     * Removes everything from the cache
+     */
+    public static void clear() {
+        directories.clear();
+        zips.clear();
+        inhabitants.clear();
+    }
+    
+    private static List<DescriptorImpl> readDescriptors(URL locatorResource) throws IOException {
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(locatorResource.openStream()));
+        try {
+            DescriptorImpl descriptor = new DescriptorImpl();
+            while (descriptor.readObject(reader)) {
+                retVal.add(descriptor);
+                descriptor = new DescriptorImpl();
+            }
+        }
+        finally {
+            try {
+                reader.close();
+            }
+            catch (IOException ignore) {
+                // Ignored
+            }
+        }
+        
+        return Collections.unmodifiableList(retVal);
+    }
+    
+    private static File getBackingFile(URL url) {
+        String protocol = url.getProtocol();
+        
+        try {
+            if (FILE_PROTOCOL.equals(protocol)) {
+                return new File(url.toURI());
+            }
+            
+            if (JAR_PROTOCOL.equals(protocol)) {
+                String path = url.getPath();
+                int separator = path.indexOf(JAR_SEPARATOR);
+                if (separator < 0) return null;
+                
+                URL jarURL = new URL(path.substring(0, separator));
+                if (!FILE_PROTOCOL.equals(jarURL.getProtocol())) return null;
+                
+                return new File(jarURL.toURI());
+            }
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+        catch (URISyntaxException e) {
+            return null;
+        }
+        catch (IllegalArgumentException iae) {
+            return null;
+        }
+        
+        return null;
+    }
+    
+    private static String getServiceClassName(InputStream is) throws IOException {
+        ServiceDetector detector = new ServiceDetector();
+        
+        new ClassReader(is).accept(detector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        
+        return detector.isAService ? detector.className : null;
+    }
+    
+    private static class ZipIndex {
+        /** Directory in the zip to the class entries directly in it */
+        private final Map<String, List<String>> classesByDirectory;
+        
+        /** Directory in the zip to the services directly in it, filled in lazily */
+        private final ConcurrentHashMap<String, List<String>> servicesByDirectory =
+                new ConcurrentHashMap<String, List<String>>();
+        
+        private ZipIndex(Map<String, List<String>> classesByDirectory) {
+            this.classesByDirectory = classesByDirectory;
+        }
+        
+        private List<String> getServiceClassNames(File zip, String directory) throws IOException {
+            List<String> retVal = servicesByDirectory.get(directory);
+            if (retVal != null) return retVal;
+            
+            retVal = new ArrayList<String>();
+            
+            ZipFile zipFile = new ZipFile(zip);
+            try {
+                for (String entryName : classesByDirectory.get(directory)) {
+                    ZipEntry entry = zipFile.getEntry(entryName);
+                    if (entry == null) continue;
+                    
+                    InputStream entryStream = zipFile.getInputStream(entry);
+                    try {
+                        String serviceName = getServiceClassName(entryStream);
+                        if (serviceName != null) retVal.add(serviceName);
+                    }
+                    finally {
+                        entryStream.close();
+                    }
+                }
+            }
+            finally {
+                try {
+                    zipFile.close();
+                }
+                catch (IOException ignore) {
+                    // Ignored
+                }
+            }
+            
+            retVal = Collections.unmodifiableList(retVal);
+            servicesByDirectory.put(directory, retVal);
+            
+            return retVal;
+        }
+    }
+    
+    private static class Stamped<V> {
+        private final long lastModified;
+        private final long size;
+        private final V value;
+        
+        private Stamped(long lastModified, long size, V value) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.value = value;
+        }
+        
+        private boolean isCurrent(long lastModified, long size) {
+            return this.lastModified == lastModified && this.size == size;
+        }
+    }
+    
+    private static class ServiceDetector extends ClassVisitor {
+        private final static String SERVICE_CLASS_FORM = "Lorg/jvnet/hk2/annotations/Service;";
+        
+        private String className;
+        private boolean isAService = false;
+        
+        private ServiceDetector() {
+            super(Opcodes.ASM6);
+        }
+        
+        @Override
+        public void visit(int version,
+                int access,
+                String name,
+                String signature,
+                String superName,
+                String[] interfaces) {
+            className = (name == null) ? null : name.replace('/', '.');
+        }
+        
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if (visible && SERVICE_CLASS_FORM.equals(desc)) {
+                isAService = true;
+            }
+            
+            return null;
+        }
+    }
+}
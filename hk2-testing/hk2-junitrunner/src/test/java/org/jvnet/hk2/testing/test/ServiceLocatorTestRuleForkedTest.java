@@ -0,0 +1,125 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.testing.test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.glassfish.hk2.api.ServiceLocator;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.runner.Description;
+
+import org.jvnet.hk2.testing.junit.ServiceLocatorTestRule;
+import org.jvnet.hk2.testing.junit.ServiceLocatorTestRule.ServiceLocatorIsolation;
+
+import org.jvnet.hk2.testing.junit.annotations.Classes;
+import org.jvnet.hk2.testing.junit.annotations.Packages;
+
+import org.jvnet.hk2.testing.test.alt.AnotherAltService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@Classes({
+  UnmarkedAndNotInhabitantService.class
+})
+@Packages({
+  "org.jvnet.hk2.testing.test.alt"
+})
+public class ServiceLocatorTestRuleForkedTest {
+
+  private static final Set<AnotherAltService> singletons = Collections.newSetFromMap(new IdentityHashMap<AnotherAltService, Boolean>());
+
+  @Rule
+  public final ServiceLocatorTestRule<ServiceLocatorTestRuleForkedTest> serviceLocatorTestRule;
+
+  @Inject
+  private ServiceLocator serviceLocator;
+
+  @Inject
+  private Description description;
+
+  @Inject
+  private AnotherAltService anotherAltService;
+
+  public ServiceLocatorTestRuleForkedTest() {
+    super();
+    this.serviceLocatorTestRule = new ServiceLocatorTestRule<ServiceLocatorTestRuleForkedTest>(this, ServiceLocatorIsolation.PER_TEST_FORKED);
+  }
+
+  @Test
+  public void testServiceLocatorNameIsCorrect() {
+    assertNotNull(this.serviceLocator);
+    assertEquals(this.getClass().getName() + "." + "testServiceLocatorNameIsCorrect", this.serviceLocator.getName());
+  }
+
+  @Test
+  public void testDescriptionIsForThisMethod() {
+    assertNotNull(this.description);
+    assertEquals("testDescriptionIsForThisMethod", this.description.getMethodName());
+  }
+
+  @Test
+  public void testAnnotatedServicesArePresent() {
+    assertNotNull(this.serviceLocator.getService(UnmarkedAndNotInhabitantContract.class));
+    assertNotNull(this.anotherAltService);
+  }
+
+  @Test
+  public void testEachTestHasItsOwnSingletons() {
+    assertNotNull(this.anotherAltService);
+    synchronized (singletons) {
+      assertTrue(singletons.add(this.anotherAltService));
+    }
+  }
+
+  @Test
+  public void testEachTestHasItsOwnSingletonsAgain() {
+    testEachTestHasItsOwnSingletons();
+  }
+  
+}
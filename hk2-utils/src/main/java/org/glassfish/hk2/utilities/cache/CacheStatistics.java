@@ -0,0 +1,126 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.cache;
+
+/**
+ * A snapshot of the counters of a cache.  The counters are kept without
+ * locking, so the values may be slightly off while the cache is in use
+ *
+ * @author jwells
+ */
+public final class CacheStatistics {
+    private final int size;
+    private final int maxSize;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    /**
+     * Creates a snapshot with the given values
+     *
+     * @param size The number of entries in the cache
+     * @param maxSize The maximum number of entries in the cache
+     * @param hits The number of lookups that found an entry
+     * @param misses The number of lookups that did not find an entry
+     * @param evictions The number of entries removed to keep the cache size
+     */
+    public CacheStatistics(int size, int maxSize, long hits, long misses, long evictions) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return The number of entries in the cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of entries in the cache
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of lookups that found an entry
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that did not find an entry
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries removed because the cache was full.
+     * Entries removed explicitly are not counted
+     */
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return The fraction of lookups that found an entry, or 0 if
+     * there have been no lookups
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        if (total == 0L) return 0.0;
+
+        return ((double) hits) / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics(size=" + size + ",maxSize=" + maxSize +
+                ",hits=" + hits + ",misses=" + misses +
+                ",evictions=" + evictions + "," + System.identityHashCode(this) + ")";
+    }
+}
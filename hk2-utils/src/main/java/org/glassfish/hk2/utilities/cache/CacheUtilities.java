@@ -64,5 +64,37 @@ public class CacheUtilities {
     public static <K,V> WeakCARCache<K,V> createWeakCARCache(Computable<K,V> computable, int maxSize, boolean isWeak) {
         return new WeakCARCacheImpl<K,V>(computable, maxSize, isWeak);
     }
+    
+    /**
+     * Returns an empty LRUCache with the given maximum size that removes entries
+     * according to the given policy
+     * 
+     * @param maxSize The maximum number of entries in the cache
+     * @param policy How to choose the entry to remove when the cache is full
+     * @return An LRUCache that is empty
+     */
+    public static <K,V> LRUCache<K,V> createLRUCache(int maxSize, EvictionPolicy policy) {
+        return LRUCache.createCache(maxSize, policy);
+    }
+    
+    /**
+     * Returns an empty LRUHybridCache with the given maximum size that removes
+     * entries according to the given policy
+     * 
+     * @param maxSize The maximum number of entries in the cache
+     * @param computable The computable that is used to get the value from the given key
+     * @param cycleHandler What to do if a cycle is detected, may be null
+     * @param policy How to choose the entry to remove when the cache is full
+     * @return An LRUHybridCache that is empty
+     */
+    public static <K,V> LRUHybridCache<K,V> createLRUHybridCache(int maxSize,
+            Computable<K, HybridCacheEntry<V>> computable,
+            LRUHybridCache.CycleHandler<K> cycleHandler,
+            EvictionPolicy policy) {
+        if (cycleHandler == null) {
+            return new LRUHybridCache<K,V>(maxSize, computable, policy);
+        }
+        return new LRUHybridCache<K,V>(maxSize, computable, cycleHandler, policy);
+    }
 
 }
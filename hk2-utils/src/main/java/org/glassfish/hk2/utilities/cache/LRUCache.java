@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.utilities.cache;
 
+import org.glassfish.hk2.utilities.cache.internal.LRUCacheAccessOrdered;
 import org.glassfish.hk2.utilities.cache.internal.LRUCacheCheapRead;
 
 /**
@@ -59,7 +60,26 @@ public abstract class LRUCache<K,V> {
      * @return An LRUCache that can be used to quickly retrieve objects
      */
     public static <K,V> LRUCache<K,V> createCache(int maxCacheSize) {
-        return new LRUCacheCheapRead<K,V>(maxCacheSize);
+        return createCache(maxCacheSize, EvictionPolicy.ACCESS_ORDER);
+    }
+
+    /**
+     * Creates a cache with the given maximum cache size that removes
+     * entries according to the given policy
+     *
+     * @param maxCacheSize The maximum number of entries in the cache, must be greater than 2
+     * @param policy How to choose the entry to remove when the cache is full, may not be null
+     * @return An LRUCache that can be used to quickly retrieve objects
+     */
+    public static <K,V> LRUCache<K,V> createCache(int maxCacheSize, EvictionPolicy policy) {
+        if (policy == null) throw new IllegalArgumentException();
+
+        switch (policy) {
+        case SCAN_TIMESTAMPS:
+            return new LRUCacheCheapRead<K,V>(maxCacheSize);
+        default:
+            return new LRUCacheAccessOrdered<K,V>(maxCacheSize);
+        }
     }
 
     /**
@@ -101,4 +121,14 @@ public abstract class LRUCache<K,V> {
      * will be removed from the cache
      */
     public abstract void releaseMatching(CacheKeyFilter<K> filter);
+    
+    /**
+     * Returns the current values of the counters of this cache.  Caches
+     * that do not keep counters return statistics with every count zero
+     * 
+     * @return A snapshot of the statistics of this cache, will not return null
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(0, getMaxCacheSize(), 0L, 0L, 0L);
+    }
 }
@@ -49,6 +49,10 @@ import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.glassfish.hk2.utilities.cache.internal.LRUAccessOrder;
+import org.glassfish.hk2.utilities.cache.internal.StripedCounter;
 
 /**
  * Hybrid cache that allows explicit removals of included entries as well
@@ -63,6 +67,11 @@ import java.util.concurrent.TimeoutException;
  * Desired value will only be computed once and computed value stored in the cache.
  * The implementation is based on an example from the "Java Concurrency in Practice" book
  * authored by Brian Goetz and company.
+ * <p>
+ * By default the entries are kept in access order so that the least recently
+ * used one is found in constant time, see {@link EvictionPolicy#ACCESS_ORDER}.
+ * The original behavior of scanning the last hit time of all entries can
+ * still be chosen with {@link EvictionPolicy#SCAN_TIMESTAMPS}
  *
  * @author Jakub Podlesak (jakub.podlesak at oracle.com)
  * @param <K> The type for the keys in the cache
@@ -99,7 +108,7 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
     /**
      * Helper class, that remembers the future task origin thread, so that cycles could be detected.
      */
-    private class OriginThreadAwareFuture implements Future<HybridCacheEntry<V>> {
+    private class OriginThreadAwareFuture extends LRUAccessOrder.Node implements Future<HybridCacheEntry<V>> {
         private final K key;
         private final FutureTask<HybridCacheEntry<V>> future;
         private volatile long threadId;
@@ -186,6 +195,22 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
     private final Object prunningLock = new Object();
     private final int maxCacheSize;
 
+    /** Null if the {@link EvictionPolicy#SCAN_TIMESTAMPS} policy is used */
+    private final LRUAccessOrder<LRUHybridCache<K,V>.OriginThreadAwareFuture> order;
+    private final LRUAccessOrder.Evictor<LRUHybridCache<K,V>.OriginThreadAwareFuture> evictor =
+            new LRUAccessOrder.Evictor<LRUHybridCache<K,V>.OriginThreadAwareFuture>() {
+
+        @Override
+        public void evict(LRUHybridCache<K, V>.OriginThreadAwareFuture node) {
+            cache.remove(node.key, node);
+        }
+
+    };
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
     /**
      * Create new cache with given computable to compute values.
      * @param maxCacheSize The maximum number of entries in the cache
@@ -204,9 +229,40 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
      * @param cycleHandler What to do if a cycle is detected
      */
     public LRUHybridCache(int maxCacheSize, Computable<K,HybridCacheEntry<V>> computable, LRUHybridCache.CycleHandler<K> cycleHandler) {
+        this(maxCacheSize, computable, cycleHandler, EvictionPolicy.ACCESS_ORDER);
+    }
+
+    /**
+     * Create new cache with given computable that removes entries according
+     * to the given policy.
+     *
+     * @param maxCacheSize The maximum number of entries in the cache
+     * @param computable The thing that can create the entry
+     * @param policy How to choose the entry to remove when the cache is full
+     */
+    @SuppressWarnings("unchecked")
+    public LRUHybridCache(int maxCacheSize, Computable<K, HybridCacheEntry<V>> computable, EvictionPolicy policy) {
+        this(maxCacheSize, computable, (LRUHybridCache.CycleHandler<K>) EMPTY_CYCLE_HANDLER, policy);
+    }
+
+    /**
+     * Create new cache with given computable and cycleHandler that removes
+     * entries according to the given policy.
+     *
+     * @param maxCacheSize The maximum number of entries in the cache
+     * @param computable The thing that can create the entry
+     * @param cycleHandler What to do if a cycle is detected
+     * @param policy How to choose the entry to remove when the cache is full
+     */
+    public LRUHybridCache(int maxCacheSize, Computable<K,HybridCacheEntry<V>> computable,
+            LRUHybridCache.CycleHandler<K> cycleHandler, EvictionPolicy policy) {
+        if (policy == null) throw new IllegalArgumentException();
+
         this.maxCacheSize = maxCacheSize;
         this.computable = computable;
         this.cycleHandler = cycleHandler;
+        this.order = EvictionPolicy.SCAN_TIMESTAMPS.equals(policy) ? null :
+            new LRUAccessOrder<LRUHybridCache<K,V>.OriginThreadAwareFuture>();
     }
 
     private final class HybridCacheEntryImpl<V1> implements HybridCacheEntry<V1> {
@@ -281,34 +337,59 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
                 LRUHybridCache<K,V>.OriginThreadAwareFuture ft =
                         new LRUHybridCache.OriginThreadAwareFuture(this, key);
 
-                synchronized (prunningLock) {
-                    if (cache.size() + 1 > maxCacheSize) {
-                        removeLRUItem();
+                if (order == null) {
+                    synchronized (prunningLock) {
+                        if (cache.size() + 1 > maxCacheSize) {
+                            removeLRUItem();
+                        }
+                        f = cache.putIfAbsent(key, ft);
+                    }
+                }
+                else {
+                    ReentrantLock lock = order.getLock();
+                    lock.lock();
+                    try {
+                        f = cache.putIfAbsent(key, ft);
+                        if (f == null) {
+                            order.add(ft, maxCacheSize, evictor);
+                        }
+                    }
+                    finally {
+                        lock.unlock();
                     }
-                    f = cache.putIfAbsent(key, ft);
                 }
                 if (f == null) {
+                    misses.increment();
                     f = ft;
                     ft.run();
                 }
+                else {
+                    hits.increment();
+                }
             } else {
                 long tid = f.threadId;
                 
                 if ((tid != -1) && (Thread.currentThread().getId() == f.threadId)) {
                     cycleHandler.handleCycle(key);
                 }
-                f.lastHit = System.nanoTime();
+                hits.increment();
+                if (order == null) {
+                    f.lastHit = System.nanoTime();
+                }
+                else {
+                    order.recordHit(f);
+                }
             }
             try {
                 final HybridCacheEntry result = f.get();
                 if (result.dropMe()) {
-                    cache.remove(key);
+                    remove(key);
                 }
                 return result;
             } catch (InterruptedException ex) {
                 throw new RuntimeException(ex);
             } catch (ExecutionException ex) {
-                cache.remove(key);  // otherwise the exception would be remembered
+                remove(key);  // otherwise the exception would be remembered
                 if (ex.getCause() instanceof RuntimeException) {
                     throw (RuntimeException)ex.getCause();
                 } else {
@@ -322,7 +403,20 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
      * Empty the cache.
      */
     public void clear() {
-        cache.clear();
+        if (order == null) {
+            cache.clear();
+            return;
+        }
+
+        ReentrantLock lock = order.getLock();
+        lock.lock();
+        try {
+            cache.clear();
+            order.clear();
+        }
+        finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -353,7 +447,34 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
      * @param key item key.
      */
     public void remove(final K key) {
-        cache.remove(key);
+        if (order == null) {
+            cache.remove(key);
+            return;
+        }
+
+        ReentrantLock lock = order.getLock();
+        lock.lock();
+        try {
+            LRUHybridCache<K,V>.OriginThreadAwareFuture removed = cache.remove(key);
+            if (removed != null) {
+                order.remove(removed);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current values of the counters of this cache.  A call
+     * to {@link #compute(Object)} that finds an entry, even one that is
+     * still being computed, counts as a hit
+     *
+     * @return A snapshot of the statistics of this cache
+     */
+    public CacheStatistics getStatistics() {
+        long evicted = (order == null) ? evictions.get() : order.getEvictionCount();
+        return new CacheStatistics(cache.size(), maxCacheSize, hits.get(), misses.get(), evicted);
     }
 
     /**
@@ -364,6 +485,7 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
     private void removeLRUItem() {
         final Collection<LRUHybridCache<K,V>.OriginThreadAwareFuture> values = cache.values();
         cache.remove((K)Collections.min(values, COMPARATOR).key);
+        evictions.increment();
     }
 
     private static final Comparator<LRUHybridCache.OriginThreadAwareFuture> COMPARATOR = new CacheEntryImplComparator();
@@ -389,7 +511,7 @@ public class LRUHybridCache<K,V> implements Computable<K, HybridCacheEntry<V>> {
         if (filter == null) return;
         for (K key : cache.keySet()) {
             if (filter.matches(key)) {
-                cache.remove(key);
+                remove(key);
             }
         }
     }
@@ -0,0 +1,300 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.cache.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps cache entries in least recently used order with O(1) work per
+ * operation.  The entries form a doubly linked list from the least to
+ * the most recently used, which is only changed while holding a lock.
+ * <p>
+ * Recording a hit does not take the lock.  The hit is put into a small
+ * buffer belonging to a stripe of threads and applied to the list later,
+ * either once enough hits pile up or before the next entry is added.  When
+ * a buffer is full further hits are dropped, so under heavy contention the
+ * order is approximate, while a single thread always sees an exact LRU order
+ *
+ * @author jwells
+ * @param <N> The type of the entries
+ */
+public class LRUAccessOrder<N extends LRUAccessOrder.Node> {
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    /**
+     * The part of a cache entry needed to keep it in the list
+     */
+    public static class Node {
+        private Node previous;
+        private Node next;
+        private boolean linked;
+    }
+
+    /**
+     * Told about the entries the list gives up to keep the cache size
+     *
+     * @param <N> The type of the entries
+     */
+    public interface Evictor<N> {
+        /**
+         * Removes the entry from the cache, called with the lock held
+         *
+         * @param node The least recently used entry, no longer in the list
+         */
+        public void evict(N node);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node head = new Node();
+    private int size;
+
+    private final int mask;
+    private final AtomicReferenceArray<Node> buffers;
+    private final AtomicLongArray writes;
+    private final AtomicLongArray reads;
+
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * Creates an empty list
+     */
+    public LRUAccessOrder() {
+        head.previous = head;
+        head.next = head;
+
+        int stripes = StripedCounter.getStripes();
+        mask = stripes - 1;
+        buffers = new AtomicReferenceArray<Node>(stripes * BUFFER_SIZE);
+        writes = new AtomicLongArray(stripes);
+        reads = new AtomicLongArray(stripes);
+    }
+
+    /**
+     * Records that the entry was used, without waiting for the lock
+     *
+     * @param node An entry that was added to this list
+     */
+    public void recordHit(N node) {
+        int stripe = StripedCounter.getStripe(mask);
+        long read = reads.get(stripe);
+        long write = writes.get(stripe);
+
+        long pending = write - read;
+        if (pending < BUFFER_SIZE && writes.compareAndSet(stripe, write, write + 1)) {
+            buffers.lazySet((stripe * BUFFER_SIZE) + (int) (write & BUFFER_MASK), node);
+            pending++;
+        }
+
+        if (pending >= DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drain();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds an entry as the most recently used one, and then gives up
+     * least recently used entries until no more than maxSize are left
+     *
+     * @param node The entry to add
+     * @param maxSize The maximum number of entries to keep
+     * @param evictor Told about the entries given up
+     */
+    public void add(N node, int maxSize, Evictor<N> evictor) {
+        lock.lock();
+        try {
+            drain();
+            linkLast(node);
+            evict(maxSize, evictor);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives up least recently used entries until no more than maxSize are left
+     *
+     * @param maxSize The maximum number of entries to keep
+     * @param evictor Told about the entries given up
+     */
+    public void makeRoom(int maxSize, Evictor<N> evictor) {
+        lock.lock();
+        try {
+            drain();
+            evict(maxSize, evictor);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes an entry out of the list, does nothing if it is not in it
+     *
+     * @param node The entry to remove
+     */
+    public void remove(N node) {
+        lock.lock();
+        try {
+            unlink(node);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes all the entries out of the list
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            drain();
+
+            Node current = head.next;
+            while (current != head) {
+                Node next = current.next;
+                current.previous = null;
+                current.next = null;
+                current.linked = false;
+                current = next;
+            }
+
+            head.previous = head;
+            head.next = head;
+            size = 0;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the object that guards the list.  Holding it keeps the
+     * list from changing, which lets a cache update its map and the list
+     * as one step
+     *
+     * @return The lock of this list
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Returns how many entries were given up to keep the cache size
+     *
+     * @return The number of evictions so far
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evict(int maxSize, Evictor<N> evictor) {
+        while (size > maxSize) {
+            Node eldest = head.next;
+            unlink(eldest);
+            evictions.increment();
+            evictor.evict((N) eldest);
+        }
+    }
+
+    /**
+     * Applies the buffered hits, called with the lock held
+     */
+    private void drain() {
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            long read = reads.get(stripe);
+            long write = writes.get(stripe);
+
+            while (read < write) {
+                int index = (stripe * BUFFER_SIZE) + (int) (read & BUFFER_MASK);
+                Node node = buffers.get(index);
+                if (node == null) {
+                    // reserved but not stored yet, leave it for next time
+                    break;
+                }
+
+                buffers.lazySet(index, null);
+                if (node.linked) {
+                    unlink(node);
+                    linkLast(node);
+                }
+                read++;
+            }
+
+            reads.set(stripe, read);
+        }
+    }
+
+    private void linkLast(Node node) {
+        if (node.linked) {
+            unlink(node);
+        }
+
+        Node last = head.previous;
+        node.previous = last;
+        node.next = head;
+        last.next = node;
+        head.previous = node;
+        node.linked = true;
+        size++;
+    }
+
+    private void unlink(Node node) {
+        if (!node.linked) return;
+
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
+        node.linked = false;
+        size--;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.cache.internal;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.glassfish.hk2.utilities.cache.CacheEntry;
+import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
+import org.glassfish.hk2.utilities.cache.CacheStatistics;
+import org.glassfish.hk2.utilities.cache.LRUCache;
+
+/**
+ * LRU Cache implementation that keeps its entries in access order,
+ * so that the least recently used entry can be removed in constant time.
+ * Reads do not lock, they only note the hit in a buffer that is applied
+ * to the order the next time the cache is written to
+ *
+ * @author jwells
+ * @param <K> The key of the cache
+ * @param <V> The values in the cache
+ */
+public class LRUCacheAccessOrdered<K,V> extends LRUCache<K,V> {
+    private final int maxCacheSize;
+    private final ConcurrentHashMap<K, CacheEntryImpl<K,V>> cache = new ConcurrentHashMap<K, CacheEntryImpl<K,V>>();
+    private final LRUAccessOrder<CacheEntryImpl<K,V>> order = new LRUAccessOrder<CacheEntryImpl<K,V>>();
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+
+    private final LRUAccessOrder.Evictor<CacheEntryImpl<K,V>> evictor = new LRUAccessOrder.Evictor<CacheEntryImpl<K,V>>() {
+
+        @Override
+        public void evict(CacheEntryImpl<K, V> node) {
+            cache.remove(node.key, node);
+        }
+
+    };
+
+    /**
+     * Create new cache with given maximum capacity.
+     *
+     * @param maxCacheSize Maximum number of items to keep.
+     */
+    public LRUCacheAccessOrdered(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    @Override
+    public V get(K key) {
+        CacheEntryImpl<K,V> entry = cache.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        order.recordHit(entry);
+        return entry.value;
+    }
+
+    @Override
+    public CacheEntry put(K key, V value) {
+        CacheEntryImpl<K,V> entry = new CacheEntryImpl<K,V>(key, value, this);
+
+        ReentrantLock lock = order.getLock();
+        lock.lock();
+        try {
+            CacheEntryImpl<K,V> previous = cache.put(key, entry);
+            if (previous != null) {
+                order.remove(previous);
+            }
+
+            order.add(entry, maxCacheSize, evictor);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return entry;
+    }
+
+    @Override
+    public void releaseCache() {
+        ReentrantLock lock = order.getLock();
+        lock.lock();
+        try {
+            cache.clear();
+            order.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    @Override
+    public void releaseMatching(CacheKeyFilter<K> filter) {
+        if (filter == null) return;
+
+        for (Map.Entry<K, CacheEntryImpl<K,V>> entry : new ArrayList<Map.Entry<K, CacheEntryImpl<K,V>>>(cache.entrySet())) {
+            if (filter.matches(entry.getKey())) {
+                entry.getValue().removeFromCache();
+            }
+        }
+    }
+
+    @Override
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(cache.size(), maxCacheSize,
+                hits.get(), misses.get(), order.getEvictionCount());
+    }
+
+    private static class CacheEntryImpl<K,V> extends LRUAccessOrder.Node implements CacheEntry {
+        private final K key;
+        private final V value;
+        private final LRUCacheAccessOrdered<K,V> parent;
+
+        private CacheEntryImpl(K key, V value, LRUCacheAccessOrdered<K,V> parent) {
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+        }
+
+        @Override
+        public void removeFromCache() {
+            ReentrantLock lock = parent.order.getLock();
+            lock.lock();
+            try {
+                parent.cache.remove(key, this);
+                parent.order.remove(this);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -48,6 +48,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.utilities.cache.CacheEntry;
 import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
+import org.glassfish.hk2.utilities.cache.CacheStatistics;
 import org.glassfish.hk2.utilities.cache.LRUCache;
 
 /**
@@ -69,6 +70,10 @@ public class LRUCacheCheapRead<K,V> extends LRUCache<K,V> {
     final int maxCacheSize;
     Map<K,CacheEntryImpl<K, V>> cache = new ConcurrentHashMap<K, CacheEntryImpl<K,V>>();
 
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
     /**
      * Create new cache with given maximum capacity.
      *
@@ -81,7 +86,13 @@ public class LRUCacheCheapRead<K,V> extends LRUCache<K,V> {
     @Override
     public V get(K key) {
         final CacheEntryImpl<K, V> entry = cache.get(key);
-        return entry != null ? entry.hit().value : null;
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.hit().value;
     }
 
     @Override
@@ -118,6 +129,12 @@ public class LRUCacheCheapRead<K,V> extends LRUCache<K,V> {
 
     }
 
+    @Override
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(cache.size(), maxCacheSize,
+                hits.get(), misses.get(), evictions.get());
+    }
+
     /**
      * Remove least recently used item form the cache.
      * No checks are done here. The method just tries to remove the least recently used
@@ -126,6 +143,7 @@ public class LRUCacheCheapRead<K,V> extends LRUCache<K,V> {
     private void removeLRUItem() {
         final Collection<CacheEntryImpl<K, V>> values = cache.values();
         Collections.min(values, COMPARATOR).removeFromCache();
+        evictions.increment();
     }
 
     private static final CacheEntryImplComparator COMPARATOR = new CacheEntryImplComparator();
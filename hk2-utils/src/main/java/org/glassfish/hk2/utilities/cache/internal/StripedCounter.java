@@ -0,0 +1,123 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.cache.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without all of them writing
+ * the same memory.  Each thread increments one of several cells chosen by
+ * its thread id, and the value is the sum of all the cells
+ *
+ * @author jwells
+ */
+public class StripedCounter {
+    /** Cells are this many longs apart so that they do not share a cache line */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Creates a counter starting at zero
+     */
+    public StripedCounter() {
+        mask = getStripes() - 1;
+        cells = new AtomicLongArray((mask + 1) * PADDING);
+    }
+
+    /**
+     * Returns the number of stripes to use, a power of two of at least twice the
+     * number of processors so that threads rarely share a stripe
+     *
+     * @return The number of stripes
+     */
+    static int getStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < 2 * processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * The stripe of the calling thread
+     *
+     * @param mask The number of stripes minus one
+     * @return The index of the stripe of this thread
+     */
+    static int getStripe(int mask) {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Adds one to the counter
+     */
+    public void increment() {
+        cells.getAndIncrement(getStripe(mask) * PADDING);
+    }
+
+    /**
+     * Returns the value of the counter.  Increments that happen while the
+     * cells are added up may or may not be included
+     *
+     * @return The current value of the counter
+     */
+    public long get() {
+        long retVal = 0;
+        for (int lcv = 0; lcv <= mask; lcv++) {
+            retVal += cells.get(lcv * PADDING);
+        }
+        return retVal;
+    }
+
+    /**
+     * Sets the counter back to zero
+     */
+    public void reset() {
+        for (int lcv = 0; lcv <= mask; lcv++) {
+            cells.set(lcv * PADDING, 0L);
+        }
+    }
+}
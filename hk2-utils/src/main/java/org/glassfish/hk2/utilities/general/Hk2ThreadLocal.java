@@ -39,26 +39,35 @@
  */
 package org.glassfish.hk2.utilities.general;
 
-import java.util.WeakHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a poor mans version of a {@link java.lang.ThreadLocal} with
  * the one major upside of a {@link #removeAll()} method that
  * can be used to remove ALL instances of all thread locals on
  * ALL threads from any other thread.
+ * <p>
+ * Each thread keeps its value in a holder found with a real
+ * {@link java.lang.ThreadLocal}, so {@link #get()} and {@link #set(Object)}
+ * do not lock and do not touch any data shared with other threads.  Every
+ * holder is also registered with this object so that {@link #removeAll()}
+ * can clear the values of all threads.  A holder only references its thread
+ * weakly and is forgotten once the thread has been garbage collected
  *
  * @author jwells
  *
  */
 public class Hk2ThreadLocal<T> {
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final WriteLock wLock = readWriteLock.writeLock();
-    private final ReadLock rLock = readWriteLock.readLock();
+    /** The value of a holder whose value has been removed */
+    private static final Object REMOVED = new Object();
     
-    private final WeakHashMap<Thread, T> locals = new WeakHashMap<Thread, T>();
+    private final ThreadLocal<Holder> local = new ThreadLocal<Holder>();
+    
+    private final ConcurrentHashMap<Holder, Boolean> holders = new ConcurrentHashMap<Holder, Boolean>();
+    private final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<Thread>();
     
     /**
      * Returns the current thread's "initial value" for this
@@ -90,36 +99,21 @@ public class Hk2ThreadLocal<T> {
      *
      * @return the current thread's value of this thread-local
      */
+    @SuppressWarnings("unchecked")
     public T get() {
-        Thread id = Thread.currentThread();
-        
-        rLock.lock();
-        try {
-            if (locals.containsKey(id)) {
-                return locals.get(id);
+        Holder holder = local.get();
+        if (holder != null) {
+            Object value = holder.value;
+            if (value != REMOVED) {
+                return (T) value;
             }
         }
-        finally {
-            rLock.unlock();
-        }
         
         // Did not previously get a value, so get it now
-        // under write lock
-        wLock.lock();
-        try {
-            if (locals.containsKey(id)) {
-                return locals.get(id);
-            }
-            
-            T initialValue = initialValue();
-            locals.put(id, initialValue);
-            
-            return initialValue;
-        }
-        finally {
-            wLock.unlock();
-        }
+        T initialValue = initialValue();
+        getHolder().value = initialValue;
         
+        return initialValue;
     }
     
     /**
@@ -132,16 +126,7 @@ public class Hk2ThreadLocal<T> {
      *        this thread-local.
      */
     public void set(T value) {
-        Thread id = Thread.currentThread();
-        
-        wLock.lock();
-        try {
-            locals.put(id, value);
-        }
-        finally {
-            wLock.unlock();
-        }
-        
+        getHolder().value = value;
     }
     
     /**
@@ -154,16 +139,10 @@ public class Hk2ThreadLocal<T> {
      * <tt>initialValue</tt> method in the current thread.
      */
      public void remove() {
-         Thread id = Thread.currentThread();
-         
-         wLock.lock();
-         try {
-             locals.remove(id);
+         Holder holder = local.get();
+         if (holder != null) {
+             holder.value = REMOVED;
          }
-         finally {
-             wLock.unlock();
-         }
-         
      }
      
      /**
@@ -176,14 +155,11 @@ public class Hk2ThreadLocal<T> {
       * <tt>initialValue</tt> method in the current thread.
       */
       public void removeAll() {
-          wLock.lock();
-          try {
-              locals.clear();
-          }
-          finally {
-              wLock.unlock();
-          }
+          expungeDeadThreads();
           
+          for (Holder holder : holders.keySet()) {
+              holder.value = REMOVED;
+          }
       }
       
       /**
@@ -196,12 +172,51 @@ public class Hk2ThreadLocal<T> {
        * have data with the Hk2ThreadLocal
        */
       public int getSize() {
-          rLock.lock();
-          try {
-              return locals.size();
+          expungeDeadThreads();
+          
+          int retVal = 0;
+          for (Holder holder : holders.keySet()) {
+              if (holder.value != REMOVED) retVal++;
+          }
+          
+          return retVal;
+      }
+      
+      /**
+       * Returns the holder of the current thread, creating and
+       * registering it if this is the first use by this thread
+       * 
+       * @return The holder of the current thread
+       */
+      private Holder getHolder() {
+          Holder holder = local.get();
+          if (holder != null) return holder;
+          
+          expungeDeadThreads();
+          
+          holder = new Holder(Thread.currentThread(), deadThreads);
+          holders.put(holder, Boolean.TRUE);
+          local.set(holder);
+          
+          return holder;
+      }
+      
+      private void expungeDeadThreads() {
+          Reference<? extends Thread> dead;
+          while ((dead = deadThreads.poll()) != null) {
+              holders.remove(dead);
           }
-          finally {
-              rLock.unlock();
+      }
+      
+      /**
+       * The value of one thread.  Only its own thread sets the value to anything
+       * other than {@link Hk2ThreadLocal#REMOVED}
+       */
+      private static class Holder extends WeakReference<Thread> {
+          private volatile Object value = REMOVED;
+          
+          private Holder(Thread thread, ReferenceQueue<Thread> queue) {
+              super(thread, queue);
           }
       }
 }
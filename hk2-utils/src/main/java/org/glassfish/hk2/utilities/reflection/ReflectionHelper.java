@@ -40,6 +40,9 @@
 package org.glassfish.hk2.utilities.reflection;
 
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.AnnotatedElement;
@@ -61,6 +64,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -74,6 +78,7 @@ import javax.inject.Scope;
 
 import org.glassfish.hk2.utilities.general.GeneralUtilities;
 import org.glassfish.hk2.utilities.reflection.internal.MethodWrapperImpl;
+import org.glassfish.hk2.utilities.reflection.internal.WeakTypeCache;
 
 /**
  * @author jwells
@@ -95,6 +100,32 @@ public final class ReflectionHelper {
         REPLACE_CHARACTERS.put('\r', 'r');
     }
 
+    /** The raw classes of generic array types, which are found with Class.forName */
+    private final static WeakTypeCache<WeakReference<Class<?>>> ARRAY_CLASSES = new WeakTypeCache<WeakReference<Class<?>>>();
+    private final static WeakReference<Class<?>> NO_ARRAY_CLASS = new WeakReference<Class<?>>(null);
+    
+    /**
+     * The generic super types of types, not including the type itself.  The
+     * sets are held weakly when they refer to a class loader of the key, since
+     * a softly held set would keep that class loader alive until memory runs low
+     */
+    private final static WeakTypeCache<Reference<Set<Type>>> ALL_TYPES = new WeakTypeCache<Reference<Set<Type>>>();
+    
+    /** The system class loader and its parents, which are never collected */
+    private final static Set<ClassLoader> PERMANENT_LOADERS = AccessController.doPrivileged(new PrivilegedAction<Set<ClassLoader>>() {
+        @Override
+        public Set<ClassLoader> run() {
+            Set<ClassLoader> retVal = new HashSet<ClassLoader>();
+            
+            for (ClassLoader loader = ClassLoader.getSystemClassLoader(); loader != null; loader = loader.getParent()) {
+                retVal.add(loader);
+            }
+            
+            return retVal;
+        }
+        
+    });
+    
     private final static String EQUALS_STRING = "=";
     private final static String COMMA_STRING = ",";
     private final static String QUOTE_STRING = "\"";
@@ -116,14 +147,23 @@ public final class ReflectionHelper {
                 return null;
             }
 
+            WeakReference<Class<?>> cached = ARRAY_CLASSES.get(type);
+            if (cached != null) {
+                Class<?> arrayClass = cached.get();
+                if (arrayClass != null || cached == NO_ARRAY_CLASS) return arrayClass;
+            }
+
             Class<?> rawComponentClass = getRawClass(componentType);
 
             String forNameName = "[L" + rawComponentClass.getName() + ";";
             try {
-                return Class.forName(forNameName);
+                Class<?> arrayClass = Class.forName(forNameName);
+                ARRAY_CLASSES.put(type, new WeakReference<Class<?>>(arrayClass));
+                return arrayClass;
             }
             catch (Throwable th) {
                 // ignore, but return null
+                ARRAY_CLASSES.put(type, NO_ARRAY_CLASS);
                 return null;
             }
         }
@@ -1543,7 +1583,149 @@ public final class ReflectionHelper {
         return ((modifiers & Modifier.PRIVATE) != 0);
     }
     
+    /**
+     * Returns the given type followed by all of its generic super classes and
+     * interfaces, with their type parameters filled in where they are known.
+     * <p>
+     * The super types are remembered for each type.  They are remembered softly
+     * unless they refer to a class loader that the type itself was loaded by, in
+     * which case they are only remembered weakly so that the cache does not keep
+     * the type and its class loader alive
+     *
+     * @param t The type to get the super types of
+     * @return A new set containing t and all of its super types.  Will not return null
+     */
     public static Set<Type> getAllTypes(Type t) {
+        Reference<Set<Type>> cached = ALL_TYPES.get(t);
+        Set<Type> superTypes = (cached == null) ? null : cached.get();
+        if (superTypes == null) {
+            superTypes = computeAllTypes(t);
+            
+            // The first type is t itself, which is added back below
+            Iterator<Type> iterator = superTypes.iterator();
+            iterator.next();
+            iterator.remove();
+            
+            ALL_TYPES.put(t, referenceTo(t, superTypes));
+        }
+        
+        LinkedHashSet<Type> retVal = new LinkedHashSet<Type>();
+        retVal.add(fillInSelf(t));
+        retVal.addAll(superTypes);
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns t the way computeAllTypes returns it as the first
+     * type in the set
+     */
+    private static Type fillInSelf(Type t) {
+        if (!(t instanceof ParameterizedType)) return t;
+        
+        ParameterizedType pt = (ParameterizedType) t;
+        if (isFilledIn(pt)) return t;
+        
+        HashMap<Class<?>, ParameterizedType> class2TypeMap = new HashMap<Class<?>, ParameterizedType>();
+        class2TypeMap.put(getRawClass(t), pt);
+        
+        return fillInPT(pt, class2TypeMap);
+    }
+    
+    /**
+     * Holds the super types weakly if they would keep a class loader of the key
+     * reachable, and softly otherwise
+     */
+    private static Reference<Set<Type>> referenceTo(Type key, Set<Type> superTypes) {
+        Set<ClassLoader> keyLoaders = new HashSet<ClassLoader>();
+        addClassLoaders(key, keyLoaders, new HashSet<Type>());
+        
+        if (!keyLoaders.isEmpty()) {
+            Set<ClassLoader> superLoaders = new HashSet<ClassLoader>();
+            HashSet<Type> visited = new HashSet<Type>();
+            for (Type superType : superTypes) {
+                addClassLoaders(superType, superLoaders, visited);
+            }
+            
+            for (ClassLoader superLoader : superLoaders) {
+                if (keyLoaders.contains(superLoader)) {
+                    return new WeakReference<Set<Type>>(superTypes);
+                }
+            }
+        }
+        
+        return new SoftReference<Set<Type>>(superTypes);
+    }
+    
+    /**
+     * Adds the class loaders that could be collected and that the type refers to
+     */
+    private static void addClassLoaders(Type type, Set<ClassLoader> loaders, HashSet<Type> visited) {
+        if (type == null || !visited.add(type)) return;
+        
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            while (clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            
+            ClassLoader loader = getClassLoader(clazz);
+            if (loader != null && !PERMANENT_LOADERS.contains(loader)) {
+                loaders.add(loader);
+            }
+        }
+        else if (type instanceof ParameterizedType) {
+            ParameterizedType pt = (ParameterizedType) type;
+            
+            addClassLoaders(pt.getRawType(), loaders, visited);
+            addClassLoaders(pt.getOwnerType(), loaders, visited);
+            for (Type argument : pt.getActualTypeArguments()) {
+                addClassLoaders(argument, loaders, visited);
+            }
+        }
+        else if (type instanceof GenericArrayType) {
+            addClassLoaders(((GenericArrayType) type).getGenericComponentType(), loaders, visited);
+        }
+        else if (type instanceof WildcardType) {
+            WildcardType wt = (WildcardType) type;
+            
+            for (Type bound : wt.getUpperBounds()) {
+                addClassLoaders(bound, loaders, visited);
+            }
+            for (Type bound : wt.getLowerBounds()) {
+                addClassLoaders(bound, loaders, visited);
+            }
+        }
+        else if (type instanceof TypeVariable) {
+            TypeVariable<?> tv = (TypeVariable<?>) type;
+            
+            Object declaration = tv.getGenericDeclaration();
+            if (declaration instanceof Class) {
+                addClassLoaders((Class<?>) declaration, loaders, visited);
+            }
+            else if (declaration instanceof Member) {
+                addClassLoaders(((Member) declaration).getDeclaringClass(), loaders, visited);
+            }
+            
+            for (Type bound : tv.getBounds()) {
+                addClassLoaders(bound, loaders, visited);
+            }
+        }
+    }
+    
+    /**
+     * Gets the class loader of the class with privs
+     */
+    private static ClassLoader getClassLoader(final Class<?> clazz) {
+        return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+            @Override
+            public ClassLoader run() {
+                return clazz.getClassLoader();
+            }
+        });
+    }
+    
+    private static Set<Type> computeAllTypes(Type t) {
         LinkedHashSet<Type> retVal = new LinkedHashSet<Type>();
         retVal.add(t);
 
@@ -45,6 +45,8 @@ import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
 
+import org.glassfish.hk2.utilities.reflection.internal.WeakTypeCache;
+
 /**
  * This class contains various utilities for ensuring
  * java type safety
@@ -53,6 +55,9 @@ import java.lang.reflect.WildcardType;
  *
  */
 public class TypeChecker {
+    /** Results of isRawTypeSafe, keyed by (requiredType, beanType) */
+    private final static WeakTypeCache<Boolean> RAW_TYPE_SAFE = new WeakTypeCache<Boolean>();
+    
     /**
      * Returns true if the given requiredType is safely assignable
      * from the given beanType.  In otherwords, if<code>
@@ -61,12 +66,25 @@ public class TypeChecker {
      * without any cast.  It should be noted that this
      * checker is using the CDI rules (as stated in CDI version 1.1
      * in section 
+     * <p>
+     * The answer for a given pair of types never changes, so it is
+     * remembered and later calls with equal types are a hash lookup
      * 
      * @param requiredType The type being assigned into
      * @param beanType the type being assigned
      * @return true if things are type safe
      */
     public static boolean isRawTypeSafe(Type requiredType, Type beanType) {
+        Boolean cached = RAW_TYPE_SAFE.get(requiredType, beanType);
+        if (cached != null) return cached;
+        
+        boolean retVal = computeRawTypeSafe(requiredType, beanType);
+        RAW_TYPE_SAFE.put(requiredType, beanType, retVal);
+        
+        return retVal;
+    }
+    
+    private static boolean computeRawTypeSafe(Type requiredType, Type beanType) {
         Class<?> requiredClass = ReflectionHelper.getRawClass(requiredType);
         if (requiredClass == null) {
             return false;
@@ -0,0 +1,244 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.reflection.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent cache keyed by one type or by a pair of types.  Keys
+ * are compared with equals, but are only weakly held, so that the
+ * cache never keeps a class or its class loader alive.  An entry is
+ * dropped once any of its key types has been garbage collected.
+ * <p>
+ * The values must not strongly reference any class that could be
+ * in the key, or that class will never be collected.  Values such as
+ * Boolean or a {@link java.lang.ref.WeakReference} are safe.  A
+ * {@link java.lang.ref.SoftReference} to such a class keeps it alive
+ * until memory runs low
+ *
+ * @author jwells
+ * @param <V> The type of the values in the cache
+ */
+public class WeakTypeCache<V> {
+    private final ConcurrentHashMap<Key, V> entries = new ConcurrentHashMap<Key, V>();
+    private final ReferenceQueue<Type> queue = new ReferenceQueue<Type>();
+
+    /**
+     * Gets the value cached for the given type
+     *
+     * @param type The key, may be null
+     * @return The cached value, or null if there is none
+     */
+    public V get(Type type) {
+        if (type == null) return null;
+
+        return entries.get(new LookupKey(type, null));
+    }
+
+    /**
+     * Gets the value cached for the given pair of types
+     *
+     * @param first The first type of the key, may be null
+     * @param second The second type of the key, may be null
+     * @return The cached value, or null if there is none
+     */
+    public V get(Type first, Type second) {
+        if (first == null || second == null) return null;
+
+        return entries.get(new LookupKey(first, second));
+    }
+
+    /**
+     * Caches a value for the given type.  Nothing is cached if the
+     * type or the value is null
+     *
+     * @param type The key
+     * @param value The value to cache
+     */
+    public void put(Type type, V value) {
+        if (type == null || value == null) return;
+
+        expungeStaleEntries();
+        entries.put(new WeakKey(type, null, queue), value);
+    }
+
+    /**
+     * Caches a value for the given pair of types.  Nothing is cached
+     * if either type or the value is null
+     *
+     * @param first The first type of the key
+     * @param second The second type of the key
+     * @param value The value to cache
+     */
+    public void put(Type first, Type second, V value) {
+        if (first == null || second == null || value == null) return;
+
+        expungeStaleEntries();
+        entries.put(new WeakKey(first, second, queue), value);
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public void clear() {
+        entries.clear();
+        expungeStaleEntries();
+    }
+
+    /**
+     * Returns the number of entries in the cache, which may include
+     * entries whose keys were just collected
+     *
+     * @return The number of entries in the cache
+     */
+    public int size() {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends Type> stale;
+        while ((stale = queue.poll()) != null) {
+            entries.remove(((KeyReference) stale).owner);
+        }
+    }
+
+    private static abstract class Key {
+        private final int hash;
+        private final boolean pair;
+
+        private Key(Type first, Type second) {
+            pair = (second != null);
+            hash = (31 * first.hashCode()) + (pair ? second.hashCode() : 0);
+        }
+
+        abstract Type getFirst();
+
+        abstract Type getSecond();
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            if (hash != other.hash || pair != other.pair) return false;
+
+            Type myFirst = getFirst();
+            Type otherFirst = other.getFirst();
+            if (myFirst == null || otherFirst == null || !myFirst.equals(otherFirst)) return false;
+
+            if (!pair) return true;
+
+            Type mySecond = getSecond();
+            Type otherSecond = other.getSecond();
+            if (mySecond == null || otherSecond == null) return false;
+
+            return mySecond.equals(otherSecond);
+        }
+    }
+
+    /**
+     * Only used to look things up, so it can hold the types strongly
+     */
+    private static class LookupKey extends Key {
+        private final Type first;
+        private final Type second;
+
+        private LookupKey(Type first, Type second) {
+            super(first, second);
+
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        Type getFirst() {
+            return first;
+        }
+
+        @Override
+        Type getSecond() {
+            return second;
+        }
+    }
+
+    private static class WeakKey extends Key {
+        private final KeyReference first;
+        private final KeyReference second;
+
+        private WeakKey(Type first, Type second, ReferenceQueue<Type> queue) {
+            super(first, second);
+
+            this.first = new KeyReference(first, this, queue);
+            this.second = (second == null) ? null : new KeyReference(second, this, queue);
+        }
+
+        @Override
+        Type getFirst() {
+            return first.get();
+        }
+
+        @Override
+        Type getSecond() {
+            return (second == null) ? null : second.get();
+        }
+    }
+
+    private static class KeyReference extends WeakReference<Type> {
+        private final WeakKey owner;
+
+        private KeyReference(Type referent, WeakKey owner, ReferenceQueue<Type> queue) {
+            super(referent, queue);
+
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.glassfish.hk2.utilities.cache.CacheEntry;
+import org.glassfish.hk2.utilities.cache.CacheKeyFilter;
+import org.glassfish.hk2.utilities.cache.CacheStatistics;
+import org.glassfish.hk2.utilities.cache.CacheUtilities;
+import org.glassfish.hk2.utilities.cache.Computable;
+import org.glassfish.hk2.utilities.cache.EvictionPolicy;
+import org.glassfish.hk2.utilities.cache.HybridCacheEntry;
+import org.glassfish.hk2.utilities.cache.LRUCache;
+import org.glassfish.hk2.utilities.cache.LRUHybridCache;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the eviction policies and statistics of {@link LRUCache} and
+ * {@link LRUHybridCache}
+ *
+ * @author jwells
+ */
+public class EvictionPolicyTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    private static Computable<Integer, HybridCacheEntry<Integer>> identity(final AtomicReference<LRUHybridCache<Integer, Integer>> cache) {
+        return new Computable<Integer, HybridCacheEntry<Integer>>() {
+
+            @Override
+            public HybridCacheEntry<Integer> compute(Integer key) {
+                return cache.get().createCacheEntry(key, key, false);
+            }
+
+        };
+    }
+
+    private static LRUHybridCache<Integer, Integer> createHybrid(int maxSize, EvictionPolicy policy) {
+        AtomicReference<LRUHybridCache<Integer, Integer>> ref = new AtomicReference<LRUHybridCache<Integer, Integer>>();
+        LRUHybridCache<Integer, Integer> retVal = CacheUtilities.createLRUHybridCache(maxSize, identity(ref), null, policy);
+        ref.set(retVal);
+        return retVal;
+    }
+
+    /**
+     * Both policies remove the least recently used entry when
+     * used from a single thread
+     */
+    @Test
+    public void testBothPoliciesAreLRU() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<Integer, Integer> cache = LRUCache.createCache(3, policy);
+
+            cache.put(1, 1);
+            cache.put(2, 2);
+            cache.put(3, 3);
+
+            // 1 is now the most recently used
+            Assert.assertEquals(new Integer(1), cache.get(1));
+
+            cache.put(4, 4);
+
+            Assert.assertNull(policy.toString(), cache.get(2));
+            Assert.assertEquals(new Integer(1), cache.get(1));
+            Assert.assertEquals(new Integer(3), cache.get(3));
+            Assert.assertEquals(new Integer(4), cache.get(4));
+        }
+    }
+
+    /**
+     * Statistics count hits, misses and evictions but not explicit removals
+     */
+    @Test
+    public void testCacheStatistics() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<Integer, Integer> cache = LRUCache.createCache(3, policy);
+
+            cache.put(1, 1);
+            cache.put(2, 2);
+            CacheEntry three = cache.put(3, 3);
+            cache.put(4, 4);
+
+            cache.get(1);
+            cache.get(2);
+            cache.get(4);
+
+            three.removeFromCache();
+
+            CacheStatistics stats = cache.getStatistics();
+            Assert.assertEquals(policy.toString(), 2, stats.getSize());
+            Assert.assertEquals(3, stats.getMaxSize());
+            Assert.assertEquals(2L, stats.getHitCount());
+            Assert.assertEquals(1L, stats.getMissCount());
+            Assert.assertEquals(1L, stats.getEvictionCount());
+        }
+    }
+
+    /**
+     * Putting a key that is already in the cache replaces the entry
+     * rather than evicting another one
+     */
+    @Test
+    public void testReplaceDoesNotEvict() {
+        LRUCache<Integer, Integer> cache = LRUCache.createCache(3, EvictionPolicy.ACCESS_ORDER);
+
+        cache.put(1, 1);
+        CacheEntry oldTwo = cache.put(2, 2);
+        cache.put(3, 3);
+        cache.put(2, 22);
+
+        Assert.assertEquals(new Integer(1), cache.get(1));
+        Assert.assertEquals(new Integer(22), cache.get(2));
+        Assert.assertEquals(new Integer(3), cache.get(3));
+        Assert.assertEquals(0L, cache.getStatistics().getEvictionCount());
+
+        // The replaced entry no longer refers to anything in the cache
+        oldTwo.removeFromCache();
+        Assert.assertEquals(new Integer(22), cache.get(2));
+    }
+
+    /**
+     * A subclass of {@link LRUCache} that keeps no counters
+     * gets empty statistics rather than an exception
+     */
+    @Test
+    public void testStatisticsOfCacheWithoutCounters() {
+        LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>() {
+            @Override
+            public Integer get(Integer key) {
+                return null;
+            }
+
+            @Override
+            public CacheEntry put(Integer key, Integer value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void releaseCache() {
+            }
+
+            @Override
+            public int getMaxCacheSize() {
+                return 7;
+            }
+
+            @Override
+            public void releaseMatching(CacheKeyFilter<Integer> filter) {
+            }
+        };
+
+        CacheStatistics stats = cache.getStatistics();
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(0, stats.getSize());
+        Assert.assertEquals(7, stats.getMaxSize());
+        Assert.assertEquals(0L, stats.getHitCount());
+        Assert.assertEquals(0L, stats.getMissCount());
+        Assert.assertEquals(0L, stats.getEvictionCount());
+    }
+
+    /**
+     * The hybrid cache evicts in LRU order and keeps statistics
+     * with both policies
+     */
+    @Test
+    public void testHybridCachePolicies() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUHybridCache<Integer, Integer> cache = createHybrid(3, policy);
+
+            cache.compute(1);
+            cache.compute(2);
+            cache.compute(3);
+            cache.compute(1);
+            cache.compute(4);
+
+            Assert.assertTrue(policy.toString(), cache.containsKey(1));
+            Assert.assertFalse(policy.toString(), cache.containsKey(2));
+            Assert.assertTrue(cache.containsKey(3));
+            Assert.assertTrue(cache.containsKey(4));
+
+            cache.remove(3);
+
+            CacheStatistics stats = cache.getStatistics();
+            Assert.assertEquals(2, stats.getSize());
+            Assert.assertEquals(1L, stats.getHitCount());
+            Assert.assertEquals(4L, stats.getMissCount());
+            Assert.assertEquals(1L, stats.getEvictionCount());
+
+            cache.clear();
+            Assert.assertEquals(0, cache.size());
+
+            // The cache is still usable after being cleared
+            for (int lcv = 0; lcv < 10; lcv++) {
+                cache.compute(lcv);
+            }
+            Assert.assertEquals(3, cache.size());
+        }
+    }
+
+    /**
+     * Many threads using a small cache never see a wrong value
+     * and never let the cache grow past its maximum size
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testConcurrentAccessStaysBounded() throws Throwable {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            final LRUCache<Integer, Integer> cache = LRUCache.createCache(64, policy);
+            final LRUHybridCache<Integer, Integer> hybrid = createHybrid(64, policy);
+            final List<Throwable> errors = new ArrayList<Throwable>();
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int lcv = 0; lcv < THREADS; lcv++) {
+                final int seed = lcv;
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Random random = new Random(seed);
+                            for (int op = 0; op < OPERATIONS; op++) {
+                                Integer key = random.nextInt(256);
+
+                                Integer value = cache.get(key);
+                                if (value == null) {
+                                    cache.put(key, key);
+                                }
+                                else if (!value.equals(key)) {
+                                    throw new AssertionError("Got " + value + " for " + key);
+                                }
+
+                                Integer computed = hybrid.compute(key).getValue();
+                                if (!computed.equals(key)) {
+                                    throw new AssertionError("Computed " + computed + " for " + key);
+                                }
+                            }
+                        }
+                        catch (Throwable th) {
+                            synchronized (errors) {
+                                errors.add(th);
+                            }
+                        }
+                    }
+                });
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            if (!errors.isEmpty()) throw errors.get(0);
+
+            CacheStatistics stats = cache.getStatistics();
+            Assert.assertTrue(stats.toString(), stats.getSize() <= 64);
+            Assert.assertEquals(stats.toString(), (long) THREADS * OPERATIONS, stats.getHitCount() + stats.getMissCount());
+
+            stats = hybrid.getStatistics();
+            Assert.assertTrue(stats.toString(), stats.getSize() <= 64);
+            Assert.assertEquals(stats.toString(), (long) THREADS * OPERATIONS, stats.getHitCount() + stats.getMissCount());
+        }
+    }
+
+    /**
+     * Compares the two policies on a full cache of the size used by the
+     * reflection helper.  Not run as part of the build since it only
+     * prints timings
+     *
+     * @throws Throwable
+     */
+    @Test @Ignore
+    public void benchmarkEvictionPolicies() throws Throwable {
+        int maxSize = 20000;
+        int keys = 4 * maxSize;
+
+        for (int round = 0; round < 3; round++) {
+            for (EvictionPolicy policy : EvictionPolicy.values()) {
+                final LRUHybridCache<Integer, Integer> hybrid = createHybrid(maxSize, policy);
+                Random random = new Random(round);
+
+                long start = System.nanoTime();
+                for (int lcv = 0; lcv < 200000; lcv++) {
+                    // Mostly a small hot set with misses scattered around
+                    int key = (random.nextInt(4) == 0) ? random.nextInt(keys) : random.nextInt(maxSize / 2);
+                    hybrid.compute(key);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                System.out.println("Policy " + policy + " took " + (elapsed / 1000000L) +
+                        " milliseconds, " + hybrid.getStatistics());
+            }
+        }
+    }
+}
@@ -39,9 +39,15 @@
  */
 package org.glassfish.hk2.utilities.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.glassfish.hk2.utilities.general.GeneralUtilities;
 import org.glassfish.hk2.utilities.general.Hk2ThreadLocal;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -312,6 +318,128 @@ public class GeneralUtilitiesTest {
         Assert.assertNull(threadLocal.get());
     }
     
+    /**
+     * Tests that many threads each keep their own value, and that removeAll
+     * from another thread resets all of them and lets their values go
+     */
+    @Test
+    public void testRemoveAllWithManyThreads() throws Throwable {
+        final int threadCount = 64;
+        final Hk2ThreadLocal<Long> local = new Hk2ThreadLocal<Long>() {
+            @Override
+            protected Long initialValue() {
+                return Thread.currentThread().getId();
+            }
+        };
+        
+        final CountDownLatch allSet = new CountDownLatch(threadCount);
+        final CountDownLatch removed = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int lcv = 0; lcv < threadCount; lcv++) {
+            final long myValue = -1L - lcv;
+            
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        local.set(myValue);
+                        for (int get = 0; get < 1000; get++) {
+                            if (local.get() != myValue) {
+                                throw new AssertionError("Got the value of another thread");
+                            }
+                        }
+                        
+                        allSet.countDown();
+                        removed.await();
+                        
+                        if (local.get() != Thread.currentThread().getId()) {
+                            throw new AssertionError("removeAll did not reset the value");
+                        }
+                    }
+                    catch (Throwable th) {
+                        error.compareAndSet(null, th);
+                        allSet.countDown();
+                    }
+                }
+            });
+        }
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        
+        allSet.await();
+        Assert.assertEquals(threadCount, local.getSize());
+        
+        local.removeAll();
+        Assert.assertEquals(0, local.getSize());
+        
+        removed.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (error.get() != null) throw error.get();
+        
+        // Each thread re-initialized its value after the removeAll
+        Assert.assertEquals(threadCount, local.getSize());
+    }
+    
+    /**
+     * Measures gets of an Hk2ThreadLocal from 256 threads at once.  Not run
+     * as part of the build since it only prints timings
+     */
+    @Test @Ignore
+    public void benchmarkHk2ThreadLocalContention() throws InterruptedException {
+        final int threadCount = 256;
+        final int gets = 200000;
+        
+        for (int round = 0; round < 3; round++) {
+            final Hk2ThreadLocal<long[]> local = new Hk2ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[1];
+                }
+            };
+            
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int lcv = 0; lcv < threadCount; lcv++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                        
+                        for (int get = 0; get < gets; get++) {
+                            local.get()[0]++;
+                        }
+                    }
+                });
+            }
+            
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            
+            System.out.println("Hk2ThreadLocal " + threadCount + " threads doing " + gets +
+                    " gets each took " + (elapsed / 1000000L) + " milliseconds");
+        }
+    }
+    
     private static class ThreadGetter implements Runnable {
         private final ThreadService threadService;
         private Long tid;
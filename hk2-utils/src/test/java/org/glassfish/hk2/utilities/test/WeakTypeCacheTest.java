@@ -0,0 +1,206 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.utilities.test;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Set;
+
+import org.glassfish.hk2.utilities.reflection.ParameterizedTypeImpl;
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+import org.glassfish.hk2.utilities.reflection.TypeChecker;
+import org.glassfish.hk2.utilities.reflection.internal.WeakTypeCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the caches used by the TypeChecker and ReflectionHelper
+ * 
+ * @author jwells
+ *
+ */
+public class WeakTypeCacheTest {
+    /**
+     * Keys are compared with equals, not identity
+     */
+    @Test
+    public void testEqualKeysFindTheSameEntry() {
+        WeakTypeCache<Boolean> cache = new WeakTypeCache<Boolean>();
+        
+        cache.put(new ParameterizedTypeImpl(List.class, String.class), Integer.class, Boolean.TRUE);
+        cache.put(List.class, Boolean.FALSE);
+        
+        Assert.assertEquals(Boolean.TRUE, cache.get(new ParameterizedTypeImpl(List.class, String.class), Integer.class));
+        Assert.assertNull(cache.get(new ParameterizedTypeImpl(List.class, Integer.class), Integer.class));
+        Assert.assertNull(cache.get(Integer.class, new ParameterizedTypeImpl(List.class, String.class)));
+        
+        // A single key is not the same as a pair starting with that key
+        Assert.assertEquals(Boolean.FALSE, cache.get(List.class));
+        Assert.assertNull(cache.get(List.class, List.class));
+        
+        Assert.assertEquals(2, cache.size());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+    
+    /**
+     * Cached answers are the same as the first answers
+     */
+    @Test
+    public void testRepeatedTypeChecksAgree() {
+        Type listOfString = new ParameterizedTypeImpl(List.class, String.class);
+        Type listOfInteger = new ParameterizedTypeImpl(List.class, Integer.class);
+        
+        for (int lcv = 0; lcv < 3; lcv++) {
+            Assert.assertTrue(TypeChecker.isRawTypeSafe(listOfString, listOfString));
+            Assert.assertFalse(TypeChecker.isRawTypeSafe(listOfString, listOfInteger));
+            Assert.assertTrue(TypeChecker.isRawTypeSafe(Number.class, Integer.class));
+            Assert.assertFalse(TypeChecker.isRawTypeSafe(Integer.class, Number.class));
+        }
+    }
+    
+    /**
+     * Callers may change the returned set without changing the cached one
+     */
+    @Test
+    public void testGetAllTypesReturnsACopy() {
+        Set<Type> first = ReflectionHelper.getAllTypes(Integer.class);
+        Assert.assertTrue(first.contains(Number.class));
+        Assert.assertTrue(first.contains(Serializable.class));
+        
+        first.clear();
+        
+        Set<Type> second = ReflectionHelper.getAllTypes(Integer.class);
+        Assert.assertTrue(second.contains(Number.class));
+        Assert.assertTrue(second.contains(Serializable.class));
+    }
+    
+    /**
+     * Type checks must not keep the class loader of the checked types alive
+     */
+    @Test
+    public void testTypeChecksDoNotKeepClassLoaderAlive() throws Exception {
+        WeakTypeCache<Boolean> cache = new WeakTypeCache<Boolean>();
+        WeakReference<ClassLoader> loaderReference = checkInThrowawayLoader(cache);
+        
+        for (int lcv = 0; lcv < 20; lcv++) {
+            System.gc();
+            
+            // The cache forgets the entry once the reference is enqueued
+            if (loaderReference.get() == null && cache.size() == 0) break;
+            
+            Thread.sleep(100);
+        }
+        
+        Assert.assertNull("The class loader was kept alive", loaderReference.get());
+        Assert.assertEquals(0, cache.size());
+    }
+    
+    private static WeakReference<ClassLoader> checkInThrowawayLoader(WeakTypeCache<Boolean> cache) throws Exception {
+        URL location = Unloadable.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader loader = new URLClassLoader(new URL[] { location }, null);
+        
+        Class<?> unloadable = loader.loadClass(Unloadable.class.getName());
+        Assert.assertNotSame(Unloadable.class, unloadable);
+        
+        Assert.assertTrue(TypeChecker.isRawTypeSafe(Serializable.class, unloadable));
+        Assert.assertTrue(TypeChecker.isRawTypeSafe(unloadable, unloadable));
+        Assert.assertFalse(TypeChecker.isRawTypeSafe(unloadable, Serializable.class));
+        
+        cache.put(unloadable, Serializable.class, Boolean.TRUE);
+        Assert.assertEquals(1, cache.size());
+        
+        return new WeakReference<ClassLoader>(loader);
+    }
+    
+    /**
+     * The super types of a class must not keep its class loader alive
+     */
+    @Test
+    public void testGetAllTypesDoesNotKeepClassLoaderAlive() throws Exception {
+        WeakReference<ClassLoader> loaderReference = getAllTypesInThrowawayLoader();
+        
+        for (int lcv = 0; lcv < 20; lcv++) {
+            System.gc();
+            
+            if (loaderReference.get() == null) break;
+            
+            Thread.sleep(100);
+        }
+        
+        Assert.assertNull("The class loader was kept alive", loaderReference.get());
+    }
+    
+    private static WeakReference<ClassLoader> getAllTypesInThrowawayLoader() throws Exception {
+        URL location = UnloadableChild.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader loader = new URLClassLoader(new URL[] { location }, null);
+        
+        Class<?> unloadableChild = loader.loadClass(UnloadableChild.class.getName());
+        Assert.assertNotSame(UnloadableChild.class, unloadableChild);
+        
+        for (int lcv = 0; lcv < 2; lcv++) {
+            Set<Type> allTypes = ReflectionHelper.getAllTypes(unloadableChild);
+            Assert.assertEquals(unloadableChild, allTypes.iterator().next());
+            Assert.assertTrue(allTypes.contains(unloadableChild.getSuperclass()));
+            Assert.assertTrue(allTypes.contains(Serializable.class));
+        }
+        
+        return new WeakReference<ClassLoader>(loader);
+    }
+    
+    /**
+     * Loaded again in a separate class loader
+     */
+    public static class Unloadable implements Serializable {
+        private static final long serialVersionUID = 4384577427151622004L;
+    }
+    
+    /**
+     * Loaded again in a separate class loader along with its super class
+     */
+    public static class UnloadableChild extends Unloadable {
+        private static final long serialVersionUID = -2196718432409532931L;
+    }
+}